@@ -0,0 +1,6 @@
+package com.matthewtamlin.avatar.benchmark;
+
+/**
+ * Marks elements in the generated benchmark fixtures, so that annotation based lookups have something to find.
+ */
+public @interface BenchmarkMarker {}
@@ -0,0 +1,57 @@
+package com.matthewtamlin.avatar.benchmark;
+
+import com.matthewtamlin.avatar.compilation.CompilationResult;
+import com.matthewtamlin.avatar.compilation.CompilePolicy;
+import com.matthewtamlin.avatar.compilation.CompilerUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.tools.JavaFileObject;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of {@link CompilerUtil#compileUsingProcessor(javax.annotation.processing.Processor, Iterable,
+ * CompilePolicy)} for fixtures of different sizes. Run with the GC profiler to get the allocation per compilation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompileBenchmark {
+	/**
+	 * The number of classes in the fixture. One class is a typical small fixture, and several hundred classes is
+	 * a typical large fixture.
+	 */
+	@Param({"1", "10", "100", "500"})
+	public int classCount;
+	
+	/**
+	 * The number of methods in each fixture class.
+	 */
+	@Param({"10"})
+	public int methodsPerClass;
+	
+	/**
+	 * The policy to compile with.
+	 */
+	@Param({"FULL", "PROCESSING_ONLY"})
+	public CompilePolicy policy;
+	
+	private List<JavaFileObject> sources;
+	
+	@Setup
+	public void setup() {
+		sources = Fixtures.create(classCount, methodsPerClass);
+	}
+	
+	@Benchmark
+	public CompilationResult compile() {
+		return CompilerUtil.compileUsingProcessor(new Fixtures.NoOpProcessor(), sources, policy);
+	}
+}
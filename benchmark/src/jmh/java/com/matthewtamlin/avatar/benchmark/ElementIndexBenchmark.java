@@ -0,0 +1,88 @@
+package com.matthewtamlin.avatar.benchmark;
+
+import com.matthewtamlin.avatar.rules.AvatarRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.lang.model.element.Element;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of evaluating an {@link AvatarRule}, which includes compiling the fixture and indexing its
+ * elements, and the cost of querying the indexed elements afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ElementIndexBenchmark {
+	/**
+	 * The statement evaluated by the rule. Does nothing, so that only compilation and indexing are measured.
+	 */
+	private static final Statement NO_OP_STATEMENT = new Statement() {
+		@Override
+		public void evaluate() {}
+	};
+	
+	/**
+	 * The number of classes in the fixture.
+	 */
+	@Param({"10", "100", "500"})
+	public int classCount;
+	
+	/**
+	 * The number of methods in each fixture class.
+	 */
+	@Param({"10"})
+	public int methodsPerClass;
+	
+	private AvatarRule rule;
+	
+	private String methodId;
+	
+	@Setup
+	public void setup() throws Throwable {
+		rule = evaluateNewRule();
+		methodId = "class" + (classCount / 2) + ".method" + (methodsPerClass / 2);
+	}
+	
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public AvatarRule evaluate() throws Throwable {
+		return evaluateNewRule();
+	}
+	
+	@Benchmark
+	public Element getElementWithUniqueId() {
+		return rule.getElementWithUniqueId(methodId);
+	}
+	
+	@Benchmark
+	public Set<Element> getElementsWithAnnotation() {
+		return rule.getElementsWithAnnotation(BenchmarkMarker.class);
+	}
+	
+	@Benchmark
+	public Set<Element> getRootElements() {
+		return rule.getRootElements();
+	}
+	
+	private AvatarRule evaluateNewRule() throws Throwable {
+		final AvatarRule rule = AvatarRule
+				.builder()
+				.withSourceFileObjects(Fixtures.create(classCount, methodsPerClass))
+				.build();
+		
+		rule.apply(NO_OP_STATEMENT, Description.EMPTY).evaluate();
+		
+		return rule;
+	}
+}
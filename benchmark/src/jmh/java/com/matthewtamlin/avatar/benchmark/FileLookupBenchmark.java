@@ -0,0 +1,97 @@
+package com.matthewtamlin.avatar.benchmark;
+
+import com.matthewtamlin.avatar.compilation.CompilerContext;
+import com.matthewtamlin.avatar.compilation.CompilerUtil;
+import com.matthewtamlin.avatar.compilation.InMemoryJavaFileManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static javax.tools.StandardLocation.CLASS_OUTPUT;
+import static javax.tools.StandardLocation.SOURCE_OUTPUT;
+
+/**
+ * Measures the cost of looking up files in an {@link InMemoryJavaFileManager}, which javac does for every generated
+ * file in every round, both in isolation and as part of compiling with a processor which generates thousands of files.
+ * Run with {@code -prof gc} to see the allocation rate of the lookups.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FileLookupBenchmark {
+	/**
+	 * The number of files stored in the file manager, or generated by the processor.
+	 */
+	@Param({"1000", "5000"})
+	public int fileCount;
+	
+	private StandardJavaFileManager baseFileManager;
+	
+	private InMemoryJavaFileManager fileManager;
+	
+	private String[] classNames;
+	
+	private String[] simpleNames;
+	
+	private List<JavaFileObject> sources;
+	
+	@Setup(Level.Trial)
+	public void setupTrial() throws IOException {
+		baseFileManager = CompilerContext.getShared().acquireFileManager();
+		fileManager = new InMemoryJavaFileManager(baseFileManager);
+		
+		classNames = new String[fileCount];
+		simpleNames = new String[fileCount];
+		
+		for (int i = 0; i < fileCount; i++) {
+			simpleNames[i] = "Generated" + i + ".java";
+			classNames[i] = Fixtures.PACKAGE + ".Generated" + i;
+			
+			fileManager.getJavaFileForOutput(SOURCE_OUTPUT, classNames[i], JavaFileObject.Kind.SOURCE, null);
+			fileManager.getJavaFileForOutput(CLASS_OUTPUT, classNames[i], JavaFileObject.Kind.CLASS, null);
+		}
+		
+		sources = Fixtures.create(1, 1);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDownTrial() {
+		CompilerContext.getShared().releaseFileManager(baseFileManager);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	public void lookupByClassName(final Blackhole blackhole) throws IOException {
+		for (final String className : classNames) {
+			blackhole.consume(fileManager.getJavaFileForInput(CLASS_OUTPUT, className, JavaFileObject.Kind.CLASS));
+		}
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	public void lookupByRelativeName(final Blackhole blackhole) throws IOException {
+		for (final String simpleName : simpleNames) {
+			blackhole.consume(fileManager.getFileForInput(SOURCE_OUTPUT, Fixtures.PACKAGE, simpleName));
+		}
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object compileWithGeneratingProcessor() {
+		return CompilerUtil.compileUsingProcessor(new Fixtures.GeneratingProcessor(fileCount), sources);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,152 @@
+package com.matthewtamlin.avatar.benchmark;
+
+import com.matthewtamlin.avatar.compilation.CompilerContext;
+import com.matthewtamlin.avatar.compilation.InMemoryJavaFileManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static javax.tools.StandardLocation.CLASS_OUTPUT;
+import static javax.tools.StandardLocation.SOURCE_OUTPUT;
+
+/**
+ * Measures the throughput of writing generated files into an {@link InMemoryJavaFileManager} and reading them back,
+ * which is the work done by the Filer when a processor generates sources and by javac when it writes class files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FilerWriteBenchmark {
+	/**
+	 * The number of files written per operation.
+	 */
+	@Param({"1", "100", "1000"})
+	public int fileCount;
+	
+	/**
+	 * The size of each file in bytes.
+	 */
+	@Param({"1024", "65536"})
+	public int fileSize;
+	
+	private StandardJavaFileManager baseFileManager;
+	
+	private InMemoryJavaFileManager fileManager;
+	
+	private String sourceContent;
+	
+	private byte[] classContent;
+	
+	private String[] classNames;
+	
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		baseFileManager = CompilerContext.getShared().acquireFileManager();
+		
+		final char[] chars = new char[fileSize];
+		Arrays.fill(chars, 'x');
+		sourceContent = new String(chars);
+		
+		classContent = new byte[fileSize];
+		Arrays.fill(classContent, (byte) 0xCA);
+		
+		classNames = new String[fileCount];
+		
+		for (int i = 0; i < fileCount; i++) {
+			classNames[i] = Fixtures.PACKAGE + ".Generated" + i;
+		}
+	}
+	
+	@Setup(Level.Invocation)
+	public void setupInvocation() {
+		fileManager = new InMemoryJavaFileManager(baseFileManager);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDownTrial() {
+		CompilerContext.getShared().releaseFileManager(baseFileManager);
+	}
+	
+	@Benchmark
+	public void writeSources() throws IOException {
+		for (final String className : classNames) {
+			final JavaFileObject file = fileManager.getJavaFileForOutput(
+					SOURCE_OUTPUT,
+					className,
+					JavaFileObject.Kind.SOURCE,
+					null);
+			
+			try (final Writer writer = file.openWriter()) {
+				writer.write(sourceContent);
+			}
+		}
+	}
+	
+	@Benchmark
+	public void writeClasses() throws IOException {
+		for (final String className : classNames) {
+			final JavaFileObject file = fileManager.getJavaFileForOutput(
+					CLASS_OUTPUT,
+					className,
+					JavaFileObject.Kind.CLASS,
+					null);
+			
+			try (final OutputStream stream = file.openOutputStream()) {
+				stream.write(classContent);
+			}
+		}
+	}
+	
+	@Benchmark
+	public void writeAndReadSources(final Blackhole blackhole) throws IOException {
+		writeSources();
+		
+		for (final String className : classNames) {
+			final JavaFileObject file = fileManager.getJavaFileForInput(
+					SOURCE_OUTPUT,
+					className,
+					JavaFileObject.Kind.SOURCE);
+			
+			blackhole.consume(file.getCharContent(true));
+		}
+	}
+	
+	@Benchmark
+	public void writeAndReadClasses(final Blackhole blackhole) throws IOException {
+		writeClasses();
+		
+		final byte[] buffer = new byte[8192];
+		
+		for (final String className : classNames) {
+			final JavaFileObject file = fileManager.getJavaFileForInput(
+					CLASS_OUTPUT,
+					className,
+					JavaFileObject.Kind.CLASS);
+			
+			try (final InputStream stream = file.openInputStream()) {
+				int read;
+				
+				while ((read = stream.read(buffer)) != -1) {
+					blackhole.consume(read);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.matthewtamlin.avatar.benchmark;
+
+import com.google.testing.compile.JavaFileObjects;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates synthetic source fixtures for the benchmarks.
+ */
+public class Fixtures {
+	/**
+	 * The package which all fixture classes are declared in.
+	 */
+	public static final String PACKAGE = "com.matthewtamlin.avatar.benchmark.fixture";
+	
+	/**
+	 * Creates a fixture containing the supplied number of classes. Each class declares the supplied number of
+	 * methods, and each method and class is annotated with an element ID and with {@link BenchmarkMarker}. Element
+	 * IDs are unique across the fixture and follow the pattern {@code class<n>} and {@code class<n>.method<m>}.
+	 *
+	 * @param classCount
+	 * 		the number of classes in the fixture
+	 * @param methodsPerClass
+	 * 		the number of methods declared in each class
+	 *
+	 * @return the fixture sources, not null
+	 */
+	public static List<JavaFileObject> create(final int classCount, final int methodsPerClass) {
+		final List<JavaFileObject> sources = new ArrayList<>(classCount);
+		
+		for (int i = 0; i < classCount; i++) {
+			sources.add(createClass(i, methodsPerClass));
+		}
+		
+		return sources;
+	}
+	
+	private static JavaFileObject createClass(final int index, final int methodCount) {
+		final String className = "Fixture" + index;
+		final StringBuilder source = new StringBuilder();
+		
+		source.append("package ").append(PACKAGE).append(";\n\n");
+		source.append("import com.matthewtamlin.avatar.benchmark.BenchmarkMarker;\n");
+		source.append("import com.matthewtamlin.avatar.rules.ElementId;\n\n");
+		source.append("@BenchmarkMarker\n");
+		source.append("@ElementId(\"class").append(index).append("\")\n");
+		source.append("public class ").append(className).append(" {\n");
+		
+		for (int j = 0; j < methodCount; j++) {
+			source.append("\t@BenchmarkMarker\n");
+			source.append("\t@ElementId(\"class").append(index).append(".method").append(j).append("\")\n");
+			source.append("\tpublic int method").append(j).append("(final int value) {\n");
+			source.append("\t\treturn value * ").append(j).append(" + ").append(index).append(";\n");
+			source.append("\t}\n\n");
+		}
+		
+		source.append("}\n");
+		
+		return JavaFileObjects.forSourceString(PACKAGE + "." + className, source.toString());
+	}
+	
+	/**
+	 * A processor which generates a number of small sources in its first round. Each generated source is compiled, so
+	 * the processor exercises the file manager lookups which javac performs for every generated file.
+	 */
+	public static class GeneratingProcessor extends AbstractProcessor {
+		private final int fileCount;
+		
+		private boolean generated = false;
+		
+		public GeneratingProcessor(final int fileCount) {
+			this.fileCount = fileCount;
+		}
+		
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return Collections.singleton("*");
+		}
+		
+		@Override
+		public SourceVersion getSupportedSourceVersion() {
+			return SourceVersion.latestSupported();
+		}
+		
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+			if (generated) {
+				return false;
+			}
+			
+			generated = true;
+			
+			for (int i = 0; i < fileCount; i++) {
+				final String className = "Generated" + i;
+				
+				try (final Writer writer = processingEnv
+						.getFiler()
+						.createSourceFile(PACKAGE + ".generated." + className)
+						.openWriter()) {
+					
+					writer.write("package " + PACKAGE + ".generated; public class " + className + " {}");
+				} catch (final IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			
+			return false;
+		}
+	}
+	
+	/**
+	 * A processor which does nothing, so that benchmarks measure the cost of compilation alone.
+	 */
+	public static class NoOpProcessor extends AbstractProcessor {
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return Collections.singleton("*");
+		}
+		
+		@Override
+		public SourceVersion getSupportedSourceVersion() {
+			return SourceVersion.latestSupported();
+		}
+		
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package com.matthewtamlin.avatar.compilation;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * An executor which limits the number of tasks running at once on a delegate executor. Tasks beyond the limit wait in
+ * a queue and are handed to the delegate as running tasks finish, so no delegate thread is ever blocked waiting for a
+ * permit. Tasks start in the order they are submitted.
+ * <p>
+ * If the delegate rejects a task, the task is cancelled if it is a {@link Future} and the rejection is rethrown. Tasks
+ * which are still waiting when no other tasks are running are cancelled as well, since nothing would hand them to the
+ * delegate. Cancelling the tasks ensures that anything waiting for their results does not wait forever.
+ */
+class BoundedExecutor implements Executor {
+	/**
+	 * The executor which runs the tasks.
+	 */
+	private final Executor delegate;
+	
+	/**
+	 * The maximum number of tasks which can be running on the delegate at once.
+	 */
+	private final int maximumRunning;
+	
+	/**
+	 * Tasks which have been submitted but not yet handed to the delegate.
+	 */
+	private final Queue<Runnable> waitingTasks = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * The number of tasks which have been handed to the delegate and have not yet finished.
+	 */
+	private final AtomicInteger running = new AtomicInteger(0);
+	
+	/**
+	 * Constructs a new BoundedExecutor.
+	 *
+	 * @param delegate
+	 * 		the executor which runs the tasks, not null
+	 * @param maximumRunning
+	 * 		the maximum number of tasks which can be running at once, at least one
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code delegate} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code maximumRunning} is less than one
+	 */
+	BoundedExecutor(final Executor delegate, final int maximumRunning) {
+		this.delegate = checkNotNull(delegate, "Argument \'delegate\' cannot be null.");
+		
+		if (maximumRunning < 1) {
+			throw new IllegalArgumentException("Argument \'maximumRunning\' must be at least one.");
+		}
+		
+		this.maximumRunning = maximumRunning;
+	}
+	
+	@Override
+	public void execute(final Runnable task) {
+		checkNotNull(task, "Argument \'task\' cannot be null.");
+		
+		waitingTasks.add(task);
+		dispatch();
+	}
+	
+	/**
+	 * Hands waiting tasks to the delegate until the limit is reached or no tasks are waiting.
+	 */
+	private void dispatch() {
+		while (!waitingTasks.isEmpty()) {
+			final int currentlyRunning = running.get();
+			
+			if (currentlyRunning >= maximumRunning) {
+				return;
+			}
+			
+			if (!running.compareAndSet(currentlyRunning, currentlyRunning + 1)) {
+				continue;
+			}
+			
+			final Runnable task = waitingTasks.poll();
+			
+			if (task == null) {
+				// Another thread took the last task, so give back the slot and check again
+				running.decrementAndGet();
+				continue;
+			}
+			
+			try {
+				delegate.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							task.run();
+						} finally {
+							running.decrementAndGet();
+							dispatch();
+						}
+					}
+				});
+			} catch (final RuntimeException e) {
+				cancel(task);
+				
+				// No running task will dispatch the remaining tasks once it finishes
+				if (running.decrementAndGet() == 0) {
+					Runnable waitingTask;
+					
+					while ((waitingTask = waitingTasks.poll()) != null) {
+						cancel(waitingTask);
+					}
+				}
+				
+				throw e;
+			}
+		}
+	}
+	
+	private static void cancel(final Runnable task) {
+		if (task instanceof Future) {
+			((Future<?>) task).cancel(false);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,18 @@
+package com.matthewtamlin.avatar.compilation;
+
+/**
+ * A processor which can identify its own configuration, so that differently configured instances of the same class
+ * do not share cached results. {@link CompilationCache} and {@link DiskCompilationCache} key results on the class of
+ * the processor, so processors which are configured through their constructor or setters should implement this
+ * interface. Processors which do not implement it are treated as if every instance were configured the same way.
+ */
+public interface CacheableProcessor {
+	/**
+	 * Gets a key which identifies the configuration of this processor. Two instances of the same class with equal keys
+	 * must produce the same results when compiling the same sources. The key is stored in the disk cache, so it should
+	 * be stable between runs and must not be based on identity hash codes.
+	 *
+	 * @return the key, not null
+	 */
+	String getCacheKey();
+}
\ No newline at end of file
@@ -0,0 +1,325 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * A forwarding file manager which memoizes the package listings and binary names of the platform class path, and of
+ * the class path when it only contains archives. The memoized listings are shared by every CachingJavaFileManager
+ * which wraps the same standard file manager, so repeated compilations using a pooled file manager do not walk the
+ * same archives again. Listings are keyed by the path, modification time and size of every archive in the location,
+ * so a listing is not reused once an archive changes. Directories can change without their modification time
+ * changing, so listings are never memoized for locations which contain directories.
+ * <p>
+ * Some file managers create files which can only be read once, such as the archive files of the JDK 8 file manager.
+ * Returning the same files from more than one listing would break the compiler in that case, so listings which
+ * contain files are only memoized if the files of the wrapped file manager can be reopened. Empty listings are
+ * always memoized, and are the majority of the listings requested by the compiler.
+ * <p>
+ * The search locations of a location are read the first time it is listed, and again whenever an option is handled.
+ * This class is not safe for use by multiple threads, however the memoized listings may be shared by file managers in
+ * different threads.
+ */
+public class CachingJavaFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+	/**
+	 * The maximum number of listings to retain for each standard file manager.
+	 */
+	private static final int MAXIMUM_LISTINGS = 20_000;
+	
+	/**
+	 * The listings shared by all instances in the JVM. Each key is a standard file manager, and the corresponding
+	 * value contains the listings it returned. Keys are weakly referenced so the listings are discarded along with
+	 * the file manager which created them.
+	 */
+	private static final LoadingCache<StandardJavaFileManager, ListingCache> SHARED_LISTINGS = CacheBuilder
+			.newBuilder()
+			.weakKeys()
+			.build(new CacheLoader<StandardJavaFileManager, ListingCache>() {
+				@Override
+				public ListingCache load(final StandardJavaFileManager fileManager) {
+					return new ListingCache();
+				}
+			});
+	
+	/**
+	 * The listings returned by the wrapped file manager.
+	 */
+	private final ListingCache listings;
+	
+	/**
+	 * The archives in each location which has been listed. Each key is a location, and the corresponding value
+	 * contains the archives in the location, or null if the listings of the location cannot be memoized.
+	 */
+	private final Map<Location, ImmutableList<ArchiveStamp>> archives = new HashMap<>();
+	
+	/**
+	 * Constructs a new CachingJavaFileManager.
+	 *
+	 * @param fileManager
+	 * 		the file manager to wrap, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code fileManager} is null
+	 */
+	public CachingJavaFileManager(final StandardJavaFileManager fileManager) {
+		super(checkNotNull(fileManager, "Argument \'fileManager\' cannot be null."));
+		
+		listings = SHARED_LISTINGS.getUnchecked(fileManager);
+	}
+	
+	@Override
+	public Iterable<JavaFileObject> list(
+			final Location location,
+			final String packageName,
+			final Set<Kind> kinds,
+			final boolean recurse)
+			throws IOException {
+		
+		final ImmutableList<ArchiveStamp> archivesInLocation = getArchives(location);
+		
+		if (archivesInLocation == null) {
+			return super.list(location, packageName, kinds, recurse);
+		}
+		
+		final ListingKey key = ListingKey.create(
+				location,
+				archivesInLocation,
+				packageName,
+				kinds.isEmpty() ? ImmutableSet.<Kind>of() : Sets.immutableEnumSet(kinds),
+				recurse);
+		
+		final ImmutableList<JavaFileObject> cachedListing = listings.files.getIfPresent(key);
+		
+		if (cachedListing != null) {
+			return cachedListing;
+		}
+		
+		final ImmutableList<JavaFileObject> listing = ImmutableList.copyOf(
+				super.list(location, packageName, kinds, recurse));
+		
+		if (!listing.isEmpty() && !filesCanBeReopened(location, packageName, kinds, recurse)) {
+			return listing;
+		}
+		
+		// The compiler infers the binary name of every listed file, so infer them all while the archive is open
+		for (final JavaFileObject file : listing) {
+			final String binaryName = super.inferBinaryName(location, file);
+			
+			if (binaryName != null) {
+				listings.binaryNames.put(file, binaryName);
+			}
+		}
+		
+		listings.files.put(key, listing);
+		
+		return listing;
+	}
+	
+	@Override
+	public String inferBinaryName(final Location location, final JavaFileObject file) {
+		final String binaryName = listings.binaryNames.getIfPresent(file);
+		
+		return binaryName == null ? super.inferBinaryName(location, file) : binaryName;
+	}
+	
+	@Override
+	public boolean handleOption(final String current, final Iterator<String> remaining) {
+		final boolean handled = super.handleOption(current, remaining);
+		
+		// The option may have changed the search path of a location
+		if (handled) {
+			archives.clear();
+		}
+		
+		return handled;
+	}
+	
+	/**
+	 * Gets the archives in a location, reading them from the wrapped file manager the first time the location is
+	 * listed.
+	 *
+	 * @param location
+	 * 		the location, not null
+	 *
+	 * @return the archives in the location, or null if the listings of the location cannot be memoized
+	 */
+	private ImmutableList<ArchiveStamp> getArchives(final Location location) {
+		if (location != StandardLocation.PLATFORM_CLASS_PATH && location != StandardLocation.CLASS_PATH) {
+			return null;
+		}
+		
+		if (!archives.containsKey(location)) {
+			archives.put(location, readArchives(location));
+		}
+		
+		return archives.get(location);
+	}
+	
+	/**
+	 * Determines whether the files created by the wrapped file manager can be read more than once. The files are
+	 * probed the first time a listing containing files is memoized, and the result is shared by all instances which
+	 * wrap the same file manager.
+	 *
+	 * @param location
+	 * 		the location of a listing which contains files, not null
+	 * @param packageName
+	 * 		the package of the listing, not null
+	 * @param kinds
+	 * 		the kinds of the listing, not null
+	 * @param recurse
+	 * 		whether the listing includes subpackages
+	 *
+	 * @return true if the files can be read more than once, false otherwise
+	 *
+	 * @throws IOException
+	 * 		if the listing cannot be repeated
+	 */
+	private boolean filesCanBeReopened(
+			final Location location,
+			final String packageName,
+			final Set<Kind> kinds,
+			final boolean recurse)
+			throws IOException {
+		
+		if (listings.filesCanBeReopened == null) {
+			// Listing again gives a file the compiler will never read, so probing it cannot break the compilation
+			final Iterator<JavaFileObject> files = super.list(location, packageName, kinds, recurse).iterator();
+			
+			listings.filesCanBeReopened = files.hasNext() && canBeReopened(files.next());
+		}
+		
+		return listings.filesCanBeReopened;
+	}
+	
+	private ImmutableList<ArchiveStamp> readArchives(final Location location) {
+		final Iterable<? extends File> files = fileManager.getLocation(location);
+		
+		if (files == null) {
+			return null;
+		}
+		
+		final ImmutableList.Builder<ArchiveStamp> stamps = ImmutableList.builder();
+		
+		for (final File file : files) {
+			if (file.isDirectory()) {
+				return null;
+			}
+			
+			// Missing files are included so the listings are not reused if they are created later
+			stamps.add(ArchiveStamp.create(file.getAbsolutePath(), file.lastModified(), file.length()));
+		}
+		
+		return stamps.build();
+	}
+	
+	/**
+	 * The listings and binary names returned by a standard file manager.
+	 */
+	private static class ListingCache {
+		private final Cache<ListingKey, ImmutableList<JavaFileObject>> files = CacheBuilder
+				.newBuilder()
+				.maximumSize(MAXIMUM_LISTINGS)
+				.build();
+		
+		/**
+		 * The binary names of the listed files. Keys are weakly referenced and compared by identity, so names are
+		 * discarded along with the listings which contain their files.
+		 */
+		private final Cache<JavaFileObject, String> binaryNames = CacheBuilder
+				.newBuilder()
+				.weakKeys()
+				.build();
+		
+		/**
+		 * Whether the files created by the file manager can be read more than once, null if not yet determined.
+		 */
+		private volatile Boolean filesCanBeReopened;
+	}
+	
+	private static boolean canBeReopened(final JavaFileObject file) {
+		try {
+			try (final InputStream first = file.openInputStream()) {
+				ByteStreams.exhaust(first);
+			}
+			
+			try (final InputStream second = file.openInputStream()) {
+				return second.read() != -1;
+			}
+		} catch (final IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * The state of an archive when a listing was created.
+	 */
+	@AutoValue
+	static abstract class ArchiveStamp {
+		/**
+		 * @return the absolute path of the archive, not null
+		 */
+		abstract String path();
+		
+		/**
+		 * @return the time the archive was last modified, measured in milliseconds since the epoch
+		 */
+		abstract long lastModified();
+		
+		/**
+		 * @return the size of the archive, measured in bytes
+		 */
+		abstract long length();
+		
+		static ArchiveStamp create(final String path, final long lastModified, final long length) {
+			return new AutoValue_CachingJavaFileManager_ArchiveStamp(path, lastModified, length);
+		}
+	}
+	
+	/**
+	 * The arguments of a memoized call to {@link #list(Location, String, Set, boolean)}.
+	 */
+	@AutoValue
+	static abstract class ListingKey {
+		abstract Location location();
+		
+		abstract ImmutableList<ArchiveStamp> archives();
+		
+		abstract String packageName();
+		
+		abstract ImmutableSet<Kind> kinds();
+		
+		abstract boolean recurse();
+		
+		static ListingKey create(
+				final Location location,
+				final ImmutableList<ArchiveStamp> archives,
+				final String packageName,
+				final ImmutableSet<Kind> kinds,
+				final boolean recurse) {
+			
+			return new AutoValue_CachingJavaFileManager_ListingKey(location, archives, packageName, kinds, recurse);
+		}
+	}
+}
\ No newline at end of file
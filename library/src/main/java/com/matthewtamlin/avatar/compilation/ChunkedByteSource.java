@@ -0,0 +1,185 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.common.base.Optional;
+import com.google.common.io.ByteSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * An immutable byte source which is backed by a list of buffers. Streams read directly from the buffers, so opening a
+ * stream does not copy the contents.
+ * <p>
+ * This class is safe for use by multiple threads.
+ */
+class ChunkedByteSource extends ByteSource {
+	/**
+	 * The contents, in order. Each buffer is read-only and is positioned at the start of its contents. The buffers are
+	 * never read directly, only through duplicates, so their positions never change.
+	 */
+	private final List<ByteBuffer> chunks;
+	
+	/**
+	 * The total number of bytes in the buffers.
+	 */
+	private final long size;
+	
+	/**
+	 * Constructs a new ChunkedByteSource.
+	 *
+	 * @param chunks
+	 * 		the contents, each positioned at the start of its contents, not null
+	 * @param size
+	 * 		the total number of bytes remaining in the buffers
+	 */
+	ChunkedByteSource(final List<ByteBuffer> chunks, final long size) {
+		this.chunks = checkNotNull(chunks, "Argument \'chunks\' cannot be null.");
+		this.size = size;
+	}
+	
+	@Override
+	public InputStream openStream() {
+		return new ChunkInputStream();
+	}
+	
+	@Override
+	public long size() {
+		return size;
+	}
+	
+	@Override
+	public Optional<Long> sizeIfKnown() {
+		return Optional.of(size);
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	@Override
+	public byte[] read() {
+		if (size > Integer.MAX_VALUE) {
+			throw new OutOfMemoryError("Contents are too large for an array.");
+		}
+		
+		final byte[] bytes = new byte[(int) size];
+		int position = 0;
+		
+		for (final ByteBuffer chunk : chunks) {
+			final ByteBuffer duplicate = chunk.duplicate();
+			final int length = duplicate.remaining();
+			
+			duplicate.get(bytes, position, length);
+			position += length;
+		}
+		
+		return bytes;
+	}
+	
+	@Override
+	public long copyTo(final OutputStream output) throws IOException {
+		checkNotNull(output, "Argument \'output\' cannot be null.");
+		
+		final byte[] transferBuffer = new byte[8192];
+		
+		for (final ByteBuffer chunk : chunks) {
+			final ByteBuffer duplicate = chunk.duplicate();
+			
+			while (duplicate.hasRemaining()) {
+				final int length = Math.min(transferBuffer.length, duplicate.remaining());
+				
+				duplicate.get(transferBuffer, 0, length);
+				output.write(transferBuffer, 0, length);
+			}
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * Reads the buffers in order.
+	 */
+	private class ChunkInputStream extends InputStream {
+		/**
+		 * The index of the next buffer to read after the current buffer.
+		 */
+		private int nextChunkIndex = 0;
+		
+		/**
+		 * A duplicate of the buffer currently being read, null if there are no more buffers.
+		 */
+		private ByteBuffer currentChunk = nextChunk();
+		
+		@Override
+		public int read() {
+			if (!advance()) {
+				return -1;
+			}
+			
+			return currentChunk.get() & 0xFF;
+		}
+		
+		@Override
+		public int read(final byte[] bytes, final int offset, final int length) {
+			if (offset < 0 || length < 0 || offset + length > bytes.length) {
+				throw new IndexOutOfBoundsException();
+			}
+			
+			if (length == 0) {
+				return 0;
+			}
+			
+			if (!advance()) {
+				return -1;
+			}
+			
+			final int count = Math.min(length, currentChunk.remaining());
+			
+			currentChunk.get(bytes, offset, count);
+			
+			return count;
+		}
+		
+		@Override
+		public long skip(final long count) {
+			long skipped = 0;
+			
+			while (skipped < count && advance()) {
+				final int chunkSkip = (int) Math.min(count - skipped, currentChunk.remaining());
+				
+				currentChunk.position(currentChunk.position() + chunkSkip);
+				skipped += chunkSkip;
+			}
+			
+			return skipped;
+		}
+		
+		@Override
+		public int available() {
+			return currentChunk == null ? 0 : currentChunk.remaining();
+		}
+		
+		/**
+		 * Moves to the next buffer if the current buffer has been fully read.
+		 *
+		 * @return true if there are bytes remaining, false otherwise
+		 */
+		private boolean advance() {
+			while (currentChunk != null && !currentChunk.hasRemaining()) {
+				currentChunk = nextChunk();
+			}
+			
+			return currentChunk != null;
+		}
+		
+		private ByteBuffer nextChunk() {
+			return nextChunkIndex < chunks.size() ? chunks.get(nextChunkIndex++).duplicate() : null;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,156 @@
+package com.matthewtamlin.avatar.compilation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * An output stream which stores the written bytes in a list of buffers. Buffers are allocated as the stream grows,
+ * starting small and doubling in size up to a maximum, so existing bytes are never copied to make room for more. When
+ * the stream is closed the buffers are handed off to a {@link ChunkedByteSource} without being copied. Buffers are
+ * allocated on the heap or as direct buffers depending on the storage mode.
+ * <p>
+ * This class is not safe for use by multiple threads.
+ */
+class ChunkedOutputStream extends OutputStream {
+	/**
+	 * The size of the first buffer, measured in bytes.
+	 */
+	private static final int MIN_CHUNK_SIZE = 256;
+	
+	/**
+	 * The size of the first buffer when using direct buffers, measured in bytes. Direct buffers are more expensive to
+	 * allocate, so fewer, larger buffers are used.
+	 */
+	private static final int MIN_DIRECT_CHUNK_SIZE = 4 * 1024;
+	
+	/**
+	 * The maximum size of a buffer, measured in bytes.
+	 */
+	private static final int MAX_CHUNK_SIZE = 64 * 1024;
+	
+	/**
+	 * The buffers written so far, including the current buffer.
+	 */
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+	
+	/**
+	 * Determines how buffers are allocated.
+	 */
+	private final StorageMode storageMode;
+	
+	/**
+	 * The buffer currently being written to, null if no bytes have been written.
+	 */
+	private ByteBuffer currentChunk;
+	
+	/**
+	 * The number of bytes written.
+	 */
+	private long size;
+	
+	/**
+	 * The written bytes, null if the stream has not been closed.
+	 */
+	private ChunkedByteSource result;
+	
+	/**
+	 * Constructs a new ChunkedOutputStream.
+	 *
+	 * @param storageMode
+	 * 		determines how buffers are allocated, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code storageMode} is null
+	 */
+	ChunkedOutputStream(final StorageMode storageMode) {
+		this.storageMode = checkNotNull(storageMode, "Argument \'storageMode\' cannot be null.");
+	}
+	
+	@Override
+	public void write(final int b) throws IOException {
+		ensureOpen();
+		ensureSpace();
+		
+		currentChunk.put((byte) b);
+		size++;
+	}
+	
+	@Override
+	public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+		checkNotNull(bytes, "Argument \'bytes\' cannot be null.");
+		
+		if (offset < 0 || length < 0 || offset + length > bytes.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		
+		ensureOpen();
+		
+		int written = 0;
+		
+		while (written < length) {
+			ensureSpace();
+			
+			final int count = Math.min(length - written, currentChunk.remaining());
+			
+			currentChunk.put(bytes, offset + written, count);
+			written += count;
+		}
+		
+		size += length;
+	}
+	
+	@Override
+	public void close() {
+		if (result == null) {
+			final List<ByteBuffer> readableChunks = new ArrayList<>(chunks.size());
+			
+			for (final ByteBuffer chunk : chunks) {
+				chunk.flip();
+				readableChunks.add(chunk.asReadOnlyBuffer());
+			}
+			
+			result = new ChunkedByteSource(readableChunks, size);
+		}
+	}
+	
+	/**
+	 * Gets the bytes written to this stream. The stream must be closed first, and the same source is returned every
+	 * time.
+	 *
+	 * @return the written bytes, not null
+	 *
+	 * @throws IllegalStateException
+	 * 		if the stream has not been closed
+	 */
+	ChunkedByteSource toByteSource() {
+		if (result == null) {
+			throw new IllegalStateException("The stream has not been closed.");
+		}
+		
+		return result;
+	}
+	
+	private void ensureOpen() throws IOException {
+		if (result != null) {
+			throw new IOException("Stream closed.");
+		}
+	}
+	
+	private void ensureSpace() {
+		if (currentChunk == null || !currentChunk.hasRemaining()) {
+			final boolean direct = storageMode == StorageMode.DIRECT;
+			
+			final int chunkSize = currentChunk == null ?
+					(direct ? MIN_DIRECT_CHUNK_SIZE : MIN_CHUNK_SIZE) :
+					Math.min(currentChunk.capacity() * 2, MAX_CHUNK_SIZE);
+			
+			currentChunk = direct ? ByteBuffer.allocateDirect(chunkSize) : ByteBuffer.allocate(chunkSize);
+			chunks.add(currentChunk);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,217 @@
+package com.matthewtamlin.avatar.compilation;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * The details of a class file which are needed to track dependencies between compilation units: the name of the
+ * class, the name of the source file it was compiled from, and the classes it refers to. References are read from the
+ * constant pool, including types which only appear in field and method descriptors and generic signatures, so the
+ * referenced classes are a superset of the classes the class depends on at the binary level.
+ */
+class ClassFileInfo {
+	/**
+	 * The first four bytes of every class file.
+	 */
+	private static final int MAGIC = 0xCAFEBABE;
+	
+	/**
+	 * Matches class types in descriptors and signatures. Group 1 is the internal name of the class.
+	 */
+	private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([\\w/$]+)[;<.]");
+	
+	/**
+	 * The binary name of the class, using '.' to separate packages and '$' to separate nested classes.
+	 */
+	private final String className;
+	
+	/**
+	 * The name of the source file the class was compiled from, without any directories, null if unknown.
+	 */
+	private final String sourceFileName;
+	
+	/**
+	 * The binary names of the classes referred to by the class, not including the class itself.
+	 */
+	private final Set<String> referencedClassNames;
+	
+	private ClassFileInfo(final String className, final String sourceFileName, final Set<String> referencedClassNames) {
+		this.className = className;
+		this.sourceFileName = sourceFileName;
+		this.referencedClassNames = Collections.unmodifiableSet(referencedClassNames);
+	}
+	
+	/**
+	 * Reads the details of a class file.
+	 *
+	 * @param classFile
+	 * 		the contents of the class file, not null
+	 *
+	 * @return the details, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code classFile} is null
+	 * @throws IOException
+	 * 		if {@code classFile} is not a valid class file
+	 */
+	static ClassFileInfo read(final byte[] classFile) throws IOException {
+		checkNotNull(classFile, "Argument \'classFile\' cannot be null.");
+		
+		final DataInputStream input = new DataInputStream(new ByteArrayInputStream(classFile));
+		
+		if (input.readInt() != MAGIC) {
+			throw new IOException("Not a class file.");
+		}
+		
+		// Minor and major version
+		input.skipBytes(4);
+		
+		final int constantPoolCount = input.readUnsignedShort();
+		final String[] utf8Entries = new String[constantPoolCount];
+		final int[] classEntries = new int[constantPoolCount];
+		
+		for (int i = 1; i < constantPoolCount; i++) {
+			final int tag = input.readUnsignedByte();
+			
+			switch (tag) {
+				case 1: // Utf8
+					utf8Entries[i] = input.readUTF();
+					break;
+				case 7: // Class
+					classEntries[i] = input.readUnsignedShort();
+					break;
+				case 8: // String
+				case 16: // MethodType
+				case 19: // Module
+				case 20: // Package
+					input.skipBytes(2);
+					break;
+				case 15: // MethodHandle
+					input.skipBytes(3);
+					break;
+				case 3: // Integer
+				case 4: // Float
+				case 9: // Fieldref
+				case 10: // Methodref
+				case 11: // InterfaceMethodref
+				case 12: // NameAndType
+				case 17: // Dynamic
+				case 18: // InvokeDynamic
+					input.skipBytes(4);
+					break;
+				case 5: // Long
+				case 6: // Double
+					input.skipBytes(8);
+					i++;
+					break;
+				default:
+					throw new IOException("Unknown constant pool tag " + tag + ".");
+			}
+		}
+		
+		// Access flags
+		input.skipBytes(2);
+		
+		final String className = toBinaryName(utf8Entries[classEntries[input.readUnsignedShort()]]);
+		
+		// Super class
+		input.skipBytes(2);
+		
+		input.skipBytes(2 * input.readUnsignedShort());
+		skipMembers(input);
+		skipMembers(input);
+		
+		String sourceFileName = null;
+		final int attributeCount = input.readUnsignedShort();
+		
+		for (int i = 0; i < attributeCount; i++) {
+			final String attributeName = utf8Entries[input.readUnsignedShort()];
+			final int length = input.readInt();
+			
+			if ("SourceFile".equals(attributeName)) {
+				sourceFileName = utf8Entries[input.readUnsignedShort()];
+			} else {
+				input.skipBytes(length);
+			}
+		}
+		
+		final Set<String> referencedClassNames = new HashSet<>();
+		
+		for (int i = 1; i < constantPoolCount; i++) {
+			if (classEntries[i] != 0) {
+				addReference(referencedClassNames, utf8Entries[classEntries[i]]);
+			} else if (utf8Entries[i] != null && utf8Entries[i].indexOf('L') != -1) {
+				final Matcher matcher = DESCRIPTOR_CLASS.matcher(utf8Entries[i]);
+				
+				while (matcher.find()) {
+					referencedClassNames.add(toBinaryName(matcher.group(1)));
+				}
+			}
+		}
+		
+		referencedClassNames.remove(className);
+		
+		return new ClassFileInfo(className, sourceFileName, referencedClassNames);
+	}
+	
+	/**
+	 * @return the binary name of the class, not null
+	 */
+	String getClassName() {
+		return className;
+	}
+	
+	/**
+	 * @return the name of the source file the class was compiled from, without any directories, null if unknown
+	 */
+	String getSourceFileName() {
+		return sourceFileName;
+	}
+	
+	/**
+	 * @return the binary names of the classes referred to by the class, may be empty, not null
+	 */
+	Set<String> getReferencedClassNames() {
+		return referencedClassNames;
+	}
+	
+	private static void skipMembers(final DataInputStream input) throws IOException {
+		final int memberCount = input.readUnsignedShort();
+		
+		for (int i = 0; i < memberCount; i++) {
+			// Access flags, name and descriptor
+			input.skipBytes(6);
+			
+			final int attributeCount = input.readUnsignedShort();
+			
+			for (int j = 0; j < attributeCount; j++) {
+				input.skipBytes(2);
+				input.skipBytes(input.readInt());
+			}
+		}
+	}
+	
+	private static void addReference(final Set<String> referencedClassNames, final String internalName) {
+		if (internalName.startsWith("[")) {
+			final Matcher matcher = DESCRIPTOR_CLASS.matcher(internalName);
+			
+			while (matcher.find()) {
+				referencedClassNames.add(toBinaryName(matcher.group(1)));
+			}
+		} else {
+			referencedClassNames.add(toBinaryName(internalName));
+		}
+	}
+	
+	private static String toBinaryName(final String internalName) {
+		return internalName.replace('/', '.');
+	}
+}
\ No newline at end of file
@@ -0,0 +1,193 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.annotation.processing.Processor;
+import javax.tools.JavaFileObject;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * An in-memory cache of compilation results. Results are keyed by a fingerprint of the sources, the compiler options
+ * and the class of the processor, and are evicted in least-recently-used order once the total size of the cached
+ * outputs exceeds a maximum weight.
+ * <p>
+ * A cache hit returns the stored result without running the compiler, which means the processor is not invoked. The
+ * cache should therefore only be used with processors that have no side effects beyond the files they generate.
+ * Cached results are shared by every caller, so {@link CompilationResult#release()} has no effect on them.
+ * Results are shared by every instance of a processor class, so processors which are configured per instance must
+ * implement {@link CacheableProcessor} to keep their results apart.
+ * <p>
+ * A cache can be backed by a {@link DiskCompilationCache}, in which case results which are not in memory are read
+ * from disk before falling back to compilation, and newly compiled results are written to disk as well as memory.
+ * This allows results to be shared between JVMs and reused by later runs.
+ * <p>
+ * This class is safe for use by multiple threads.
+ */
+public class CompilationCache {
+	/**
+	 * The weight added for each diagnostic, so that results with no generated files still have a non-zero weight.
+	 */
+	private static final int DIAGNOSTIC_WEIGHT = 256;
+	
+	/**
+	 * The underlying cache. Each key is a fingerprint, and the corresponding value is the result of compiling the
+	 * inputs which produced that fingerprint.
+	 */
+	private final Cache<String, CompilationResult> cache;
+	
+	/**
+	 * The cache to fall back to when a result is not in memory, null if there is none.
+	 */
+	private final DiskCompilationCache diskCache;
+	
+	/**
+	 * Constructs a new CompilationCache which is not backed by a disk cache.
+	 *
+	 * @param maximumWeightInBytes
+	 * 		the maximum total size of the generated files stored in the cache, measured in bytes, not negative
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code maximumWeightInBytes} is negative
+	 */
+	public CompilationCache(final long maximumWeightInBytes) {
+		this(maximumWeightInBytes, null);
+	}
+	
+	/**
+	 * Constructs a new CompilationCache which is backed by a disk cache.
+	 *
+	 * @param maximumWeightInBytes
+	 * 		the maximum total size of the generated files stored in memory, measured in bytes, not negative
+	 * @param diskCache
+	 * 		the cache to fall back to when a result is not in memory, null to not use a disk cache
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code maximumWeightInBytes} is negative
+	 */
+	public CompilationCache(final long maximumWeightInBytes, final DiskCompilationCache diskCache) {
+		if (maximumWeightInBytes < 0) {
+			throw new IllegalArgumentException("Argument \'maximumWeightInBytes\' cannot be negative.");
+		}
+		
+		this.diskCache = diskCache;
+		
+		cache = CacheBuilder
+				.newBuilder()
+				.maximumWeight(maximumWeightInBytes)
+				.weigher(new ResultWeigher())
+				.recordStats()
+				.build();
+	}
+	
+	/**
+	 * @return the number of lookups which returned a cached result
+	 */
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+	
+	/**
+	 * @return the number of lookups which did not find a result in memory, including lookups which found a result in
+	 * the disk cache
+	 */
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+	
+	/**
+	 * @return the number of results which have been evicted to keep the cache within its maximum weight
+	 */
+	public long getEvictionCount() {
+		return cache.stats().evictionCount();
+	}
+	
+	/**
+	 * @return the number of results currently in the cache
+	 */
+	public long size() {
+		return cache.size();
+	}
+	
+	/**
+	 * Removes all results from the cache. The counters are not reset.
+	 */
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+	
+	/**
+	 * Gets the cached result for the supplied compilation inputs, or compiles and caches a new result if there is no
+	 * cached result.
+	 *
+	 * @param processor
+	 * 		the processor to compile with, not null
+	 * @param sources
+	 * 		the sources to compile, not null, not containing null
+	 * @param options
+	 * 		the compiler options, not null, not containing null
+	 * @param storageMode
+	 * 		the storage mode of the compilation, not null
+	 * @param compilation
+	 * 		performs the compilation if there is no cached result, not null
+	 *
+	 * @return the result, not null
+	 */
+	CompilationResult get(
+			final Processor processor,
+			final Iterable<? extends JavaFileObject> sources,
+			final Iterable<String> options,
+			final StorageMode storageMode,
+			final Callable<CompilationResult> compilation) {
+		
+		checkNotNull(storageMode, "Argument \'storageMode\' cannot be null.");
+		checkNotNull(compilation, "Argument \'compilation\' cannot be null.");
+		
+		// Results are shared with every caller, so results stored differently are cached separately
+		final String fingerprint = CompilationFingerprint.create(processor, sources, options) + ":" + storageMode;
+		
+		final Callable<CompilationResult> loader = diskCache == null ? compilation : new Callable<CompilationResult>() {
+			@Override
+			public CompilationResult call() {
+				return diskCache.get(processor, sources, options, storageMode, compilation);
+			}
+		};
+		
+		try {
+			final CompilationResult result = cache.get(fingerprint, loader);
+			
+			// The same instance is returned by every hit, so no caller may release it
+			result.markShared();
+			
+			return result;
+		} catch (final ExecutionException | UncheckedExecutionException e) {
+			Throwables.throwIfUnchecked(e.getCause());
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Weighs compilation results by the total size of their generated files.
+	 */
+	private static class ResultWeigher implements Weigher<String, CompilationResult> {
+		@Override
+		public int weigh(final String key, final CompilationResult value) {
+			long weight = (long) value.diagnostics().size() * DIAGNOSTIC_WEIGHT;
+			
+			for (final JavaFileObject file : value.generatedFiles()) {
+				if (file instanceof InMemoryJavaFileObject) {
+					weight += ((InMemoryJavaFileObject) file).getSizeInBytes();
+				}
+			}
+			
+			return (int) Math.min(weight, Integer.MAX_VALUE);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.processing.Processor;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+
+import static com.matthewtamlin.avatar.util.IterableNullChecker.checkNotContainsNull;
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Creates fingerprints which identify the inputs of a compilation. Two compilations with the same fingerprint are
+ * expected to produce the same result, provided the processors involved are deterministic.
+ */
+class CompilationFingerprint {
+	/**
+	 * Creates a fingerprint for a compilation. The fingerprint covers the name and contents of each source, the
+	 * compiler options, the class of the processor, and the cache key of the processor if it is a {@link
+	 * CacheableProcessor}.
+	 *
+	 * @param processor
+	 * 		the processor used during compilation, not null
+	 * @param sources
+	 * 		the sources to compile, not null, not containing null
+	 * @param options
+	 * 		the options passed to the compiler, not null, not containing null
+	 *
+	 * @return the fingerprint as a hex string, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code processor} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code options} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} or {@code options} contains null
+	 * @throws IllegalStateException
+	 * 		if the processor is a {@link CacheableProcessor} and its cache key is null
+	 * @throws RuntimeException
+	 * 		if the contents of a source cannot be read
+	 */
+	public static String create(
+			final Processor processor,
+			final Iterable<? extends JavaFileObject> sources,
+			final Iterable<String> options) {
+		
+		checkNotNull(processor, "Argument \'processor\' cannot be null.");
+		checkNotNull(sources, "Argument \'sources\' cannot be null.");
+		checkNotNull(options, "Argument \'options\' cannot be null.");
+		checkNotContainsNull(sources, "Argument \'sources\' cannot contain null.");
+		checkNotContainsNull(options, "Argument \'options\' cannot contain null.");
+		
+		final Hasher hasher = Hashing.sha256().newHasher();
+		
+		hasher.putString(processor.getClass().getName(), UTF_8);
+		
+		if (processor instanceof CacheableProcessor) {
+			final String cacheKey = ((CacheableProcessor) processor).getCacheKey();
+			
+			if (cacheKey == null) {
+				throw new IllegalStateException("Cache key of \'" + processor.getClass().getName() + "\' is null.");
+			}
+			
+			hasher.putByte((byte) 3);
+			hasher.putString(cacheKey, UTF_8);
+		}
+		
+		for (final String option : options) {
+			hasher.putByte((byte) 1);
+			hasher.putString(option, UTF_8);
+		}
+		
+		for (final JavaFileObject source : sources) {
+			final CharSequence content;
+			
+			try {
+				content = source.getCharContent(true);
+			} catch (final IOException e) {
+				throw new RuntimeException("Could not read source \'" + source.toUri() + "\'.", e);
+			}
+			
+			hasher.putByte((byte) 2);
+			hasher.putString(source.toUri().toString(), UTF_8);
+			hasher.putInt(content.length());
+			hasher.putString(content, UTF_8);
+		}
+		
+		return hasher.hash().toString();
+	}
+}
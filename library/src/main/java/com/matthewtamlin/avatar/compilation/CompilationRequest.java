@@ -0,0 +1,186 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.processing.Processor;
+import javax.tools.JavaFileObject;
+import java.util.List;
+
+import static com.matthewtamlin.avatar.util.IterableNullChecker.checkNotContainsNull;
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * An immutable description of a single compilation, for use with the batch methods of {@link CompilerUtil}.
+ * <p>
+ * Processors usually hold state between rounds, so each request should have its own processor instance when the
+ * requests are compiled concurrently.
+ */
+@AutoValue
+public abstract class CompilationRequest {
+	/**
+	 * @return the processor to use when compiling, not null
+	 */
+	public abstract Processor processor();
+	
+	/**
+	 * @return the sources to compile, not null, not containing null
+	 */
+	public abstract List<JavaFileObject> sources();
+	
+	/**
+	 * @return defines how far compilation proceeds, not null
+	 */
+	public abstract CompilePolicy compilePolicy();
+	
+	/**
+	 * @return additional options to pass to the compiler after the options of the compile policy, may be empty, not
+	 * null
+	 */
+	public abstract List<String> options();
+	
+	/**
+	 * @return determines where the contents of generated files are stored, not null
+	 */
+	public abstract StorageMode storageMode();
+	
+	/**
+	 * Creates a new CompilationRequest which uses the {@link CompilePolicy#FULL} policy and no additional options.
+	 *
+	 * @param processor
+	 * 		the processor to use when compiling, not null
+	 * @param sources
+	 * 		the sources to compile, not null, not containing null
+	 *
+	 * @return the new CompilationRequest, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code processor} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} contains null
+	 */
+	public static CompilationRequest create(final Processor processor, final Iterable<JavaFileObject> sources) {
+		return create(processor, sources, CompilePolicy.FULL);
+	}
+	
+	/**
+	 * Creates a new CompilationRequest which uses no additional options.
+	 *
+	 * @param processor
+	 * 		the processor to use when compiling, not null
+	 * @param sources
+	 * 		the sources to compile, not null, not containing null
+	 * @param compilePolicy
+	 * 		defines how far compilation proceeds, not null
+	 *
+	 * @return the new CompilationRequest, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code processor} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code compilePolicy} is null
+	 */
+	public static CompilationRequest create(
+			final Processor processor,
+			final Iterable<JavaFileObject> sources,
+			final CompilePolicy compilePolicy) {
+		
+		return create(processor, sources, compilePolicy, ImmutableList.<String>of());
+	}
+	
+	/**
+	 * Creates a new CompilationRequest which stores generated files using {@link StorageMode#HEAP}.
+	 *
+	 * @param processor
+	 * 		the processor to use when compiling, not null
+	 * @param sources
+	 * 		the sources to compile, not null, not containing null
+	 * @param compilePolicy
+	 * 		defines how far compilation proceeds, not null
+	 * @param options
+	 * 		additional options to pass to the compiler, not null, not containing null
+	 *
+	 * @return the new CompilationRequest, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code processor} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code compilePolicy} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code options} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code options} contains null
+	 */
+	public static CompilationRequest create(
+			final Processor processor,
+			final Iterable<JavaFileObject> sources,
+			final CompilePolicy compilePolicy,
+			final Iterable<String> options) {
+		
+		return create(processor, sources, compilePolicy, options, StorageMode.HEAP);
+	}
+	
+	/**
+	 * Creates a new CompilationRequest.
+	 *
+	 * @param processor
+	 * 		the processor to use when compiling, not null
+	 * @param sources
+	 * 		the sources to compile, not null, not containing null
+	 * @param compilePolicy
+	 * 		defines how far compilation proceeds, not null
+	 * @param options
+	 * 		additional options to pass to the compiler, not null, not containing null
+	 * @param storageMode
+	 * 		determines where the contents of generated files are stored, not null
+	 *
+	 * @return the new CompilationRequest, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code processor} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code compilePolicy} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code options} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code options} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code storageMode} is null
+	 */
+	public static CompilationRequest create(
+			final Processor processor,
+			final Iterable<JavaFileObject> sources,
+			final CompilePolicy compilePolicy,
+			final Iterable<String> options,
+			final StorageMode storageMode) {
+		
+		checkNotNull(processor, "Argument \'processor\' cannot be null.");
+		checkNotNull(sources, "Argument \'sources\' cannot be null.");
+		checkNotContainsNull(sources, "Argument \'sources\' cannot contain null.");
+		checkNotNull(compilePolicy, "Argument \'compilePolicy\' cannot be null.");
+		checkNotNull(options, "Argument \'options\' cannot be null.");
+		checkNotContainsNull(options, "Argument \'options\' cannot contain null.");
+		checkNotNull(storageMode, "Argument \'storageMode\' cannot be null.");
+		
+		return new AutoValue_CompilationRequest(
+				processor,
+				ImmutableList.copyOf(sources),
+				compilePolicy,
+				ImmutableList.copyOf(options),
+				storageMode);
+	}
+}
\ No newline at end of file
@@ -16,6 +16,11 @@ import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull
  */
 @AutoValue
 public abstract class CompilationResult {
+	/**
+	 * Whether or not this result is shared by several callers, in which case it cannot be released.
+	 */
+	private volatile boolean shared = false;
+	
 	/**
 	 * @return true if the compilation was successful, false otherwise
 	 */
@@ -32,7 +37,51 @@ public abstract class CompilationResult {
 	public abstract Collection<? extends JavaFileObject> generatedFiles();
 	
 	/**
-	 * Creates a new CompilationResult.
+	 * @return an index of the files generated by compilation, for looking up files by location, class name or
+	 * package, not null
+	 */
+	public abstract OutputIndex generatedFileIndex();
+	
+	/**
+	 * @return the policy which determined how far compilation proceeded, not null
+	 */
+	public abstract CompilePolicy compilePolicy();
+	
+	/**
+	 * @return the time spent in each phase of compilation, not null
+	 */
+	public abstract CompilationTimings timings();
+	
+	/**
+	 * Releases the contents of the generated files, as if each file had been deleted. This should be called once the
+	 * result is no longer needed when the files were stored using {@link StorageMode#DIRECT}, so the buffers are not
+	 * kept reachable by the result. The direct memory is returned once the buffers are collected, which does not
+	 * require the result itself to be collected. The result must not be read afterwards.
+	 * <p>
+	 * Results returned by a {@link CompilationCache} are shared by every caller which gets them from the cache, so
+	 * releasing them has no effect. Their contents are reclaimed once the cache and every caller stop using them.
+	 */
+	public void release() {
+		if (shared) {
+			return;
+		}
+		
+		for (final JavaFileObject file : generatedFiles()) {
+			if (file instanceof InMemoryJavaFileObject) {
+				file.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Marks this result as shared by several callers, so that {@link #release()} has no effect.
+	 */
+	void markShared() {
+		shared = true;
+	}
+	
+	/**
+	 * Creates a new CompilationResult for a compilation which used the {@link CompilePolicy#FULL} policy.
 	 *
 	 * @param success
 	 * 		whether or not compilation was successful
@@ -59,13 +108,145 @@ public abstract class CompilationResult {
 			final Collection<? extends Diagnostic<? extends JavaFileObject>> diagnostics,
 			final Collection<? extends JavaFileObject> generatedFiles) {
 		
+		return create(success, diagnostics, generatedFiles, CompilePolicy.FULL);
+	}
+	
+	/**
+	 * Creates a new CompilationResult.
+	 *
+	 * @param success
+	 * 		whether or not compilation was successful
+	 * @param diagnostics
+	 * 		the diagnostics generated during compilation, not null, not containing null
+	 * @param generatedFiles
+	 * 		the files generated by compilation, not null, not containing null
+	 * @param compilePolicy
+	 * 		the policy which determined how far compilation proceeded, not null
+	 *
+	 * @return the new CompilationResult, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code diagnostics} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code generatedFiles} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code diagnostics} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code generatedFiles} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code compilePolicy} is null
+	 */
+	public static CompilationResult create(
+			final boolean success,
+			final Collection<? extends Diagnostic<? extends JavaFileObject>> diagnostics,
+			final Collection<? extends JavaFileObject> generatedFiles,
+			final CompilePolicy compilePolicy) {
+		
+		return create(success, diagnostics, generatedFiles, compilePolicy, CompilationTimings.empty());
+	}
+	
+	/**
+	 * Creates a new CompilationResult.
+	 *
+	 * @param success
+	 * 		whether or not compilation was successful
+	 * @param diagnostics
+	 * 		the diagnostics generated during compilation, not null, not containing null
+	 * @param generatedFiles
+	 * 		the files generated by compilation, not null, not containing null
+	 * @param compilePolicy
+	 * 		the policy which determined how far compilation proceeded, not null
+	 * @param timings
+	 * 		the time spent in each phase of compilation, not null
+	 *
+	 * @return the new CompilationResult, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code diagnostics} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code generatedFiles} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code diagnostics} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code generatedFiles} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code compilePolicy} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code timings} is null
+	 */
+	public static CompilationResult create(
+			final boolean success,
+			final Collection<? extends Diagnostic<? extends JavaFileObject>> diagnostics,
+			final Collection<? extends JavaFileObject> generatedFiles,
+			final CompilePolicy compilePolicy,
+			final CompilationTimings timings) {
+		
 		checkNotNull(success, "Argument \'success\' cannot be null.");
 		checkNotNull(diagnostics, "Argument \'diagnostics\' cannot be null.");
 		checkNotNull(generatedFiles, "Argument \'generatedFiles\' cannot be null.");
+		checkNotNull(compilePolicy, "Argument \'compilePolicy\' cannot be null.");
+		checkNotNull(timings, "Argument \'timings\' cannot be null.");
 		
 		checkEachElementIsNotNull(diagnostics, "Argument \'diagnostics\' cannot contain null.");
 		checkEachElementIsNotNull(generatedFiles, "Argument \'generatedFiles\' cannot be null.");
 		
-		return new AutoValue_CompilationResult(success, diagnostics, generatedFiles);
+		return new AutoValue_CompilationResult(
+				success,
+				diagnostics,
+				generatedFiles,
+				OutputIndex.fromFiles(generatedFiles),
+				compilePolicy,
+				timings);
+	}
+	
+	/**
+	 * Creates a new CompilationResult using an existing index of the generated files. The generated files of the
+	 * result are a view of the files in the index.
+	 *
+	 * @param success
+	 * 		whether or not compilation was successful
+	 * @param diagnostics
+	 * 		the diagnostics generated during compilation, not null, not containing null
+	 * @param generatedFileIndex
+	 * 		an index of the files generated by compilation, not null
+	 * @param compilePolicy
+	 * 		the policy which determined how far compilation proceeded, not null
+	 * @param timings
+	 * 		the time spent in each phase of compilation, not null
+	 *
+	 * @return the new CompilationResult, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code diagnostics} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code generatedFileIndex} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code diagnostics} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code compilePolicy} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code timings} is null
+	 */
+	public static CompilationResult create(
+			final boolean success,
+			final Collection<? extends Diagnostic<? extends JavaFileObject>> diagnostics,
+			final OutputIndex generatedFileIndex,
+			final CompilePolicy compilePolicy,
+			final CompilationTimings timings) {
+		
+		checkNotNull(diagnostics, "Argument \'diagnostics\' cannot be null.");
+		checkNotNull(generatedFileIndex, "Argument \'generatedFileIndex\' cannot be null.");
+		checkNotNull(compilePolicy, "Argument \'compilePolicy\' cannot be null.");
+		checkNotNull(timings, "Argument \'timings\' cannot be null.");
+		
+		checkEachElementIsNotNull(diagnostics, "Argument \'diagnostics\' cannot contain null.");
+		
+		return new AutoValue_CompilationResult(
+				success,
+				diagnostics,
+				generatedFileIndex.getAllFiles(),
+				generatedFileIndex,
+				compilePolicy,
+				timings);
 	}
 }
\ No newline at end of file
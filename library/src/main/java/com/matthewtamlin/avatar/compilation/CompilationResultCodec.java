@@ -0,0 +1,317 @@
+package com.matthewtamlin.avatar.compilation;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Converts compilation results to and from a compact binary form. Diagnostics are stored as plain values, and
+ * generated files are stored with their contents and charsets. Timings are not stored, since a decoded result was not
+ * produced by a compilation.
+ * <p>
+ * Only results whose generated files are all {@link InMemoryJavaFileObject}s can be encoded.
+ */
+class CompilationResultCodec {
+	/**
+	 * Identifies the format. Must be changed whenever the format changes, so that data written in an old format is
+	 * treated as missing instead of being misread.
+	 */
+	private static final int FORMAT_VERSION = 0x41564102;
+	
+	/**
+	 * Determines whether a result can be encoded.
+	 *
+	 * @param result
+	 * 		the result to check, not null
+	 *
+	 * @return true if the result can be encoded, false otherwise
+	 */
+	static boolean canEncode(final CompilationResult result) {
+		for (final JavaFileObject file : result.generatedFiles()) {
+			if (!(file instanceof InMemoryJavaFileObject)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Encodes a result.
+	 *
+	 * @param result
+	 * 		the result to encode, not null, must be encodable according to {@link #canEncode(CompilationResult)}
+	 * @param output
+	 * 		the stream to write to, not null
+	 *
+	 * @throws IOException
+	 * 		if the result cannot be written
+	 */
+	static void encode(final CompilationResult result, final DataOutputStream output) throws IOException {
+		output.writeInt(FORMAT_VERSION);
+		output.writeBoolean(result.success());
+		output.writeUTF(result.compilePolicy().name());
+		
+		output.writeInt(result.diagnostics().size());
+		
+		for (final Diagnostic<? extends JavaFileObject> diagnostic : result.diagnostics()) {
+			output.writeUTF(diagnostic.getKind().name());
+			writeNullableString(output, diagnostic.getSource() == null ? null : diagnostic.getSource().toUri().toString());
+			output.writeLong(diagnostic.getPosition());
+			output.writeLong(diagnostic.getStartPosition());
+			output.writeLong(diagnostic.getEndPosition());
+			output.writeLong(diagnostic.getLineNumber());
+			output.writeLong(diagnostic.getColumnNumber());
+			writeNullableString(output, diagnostic.getCode());
+			writeNullableString(output, diagnostic.getMessage(null));
+		}
+		
+		output.writeInt(result.generatedFiles().size());
+		
+		for (final JavaFileObject file : result.generatedFiles()) {
+			final byte[] contents = ((InMemoryJavaFileObject) file).getContents();
+			
+			output.writeUTF(file.toUri().toString());
+			output.writeUTF(((InMemoryJavaFileObject) file).getCharset().name());
+			output.writeLong(file.getLastModified());
+			output.writeBoolean(contents != null);
+			
+			if (contents != null) {
+				output.writeInt(contents.length);
+				output.write(contents);
+			}
+		}
+	}
+	
+	/**
+	 * Decodes a result. The sources of diagnostics are resolved against the supplied sources and the decoded
+	 * generated files, and are null if they cannot be resolved. Generated files use the charset they were encoded
+	 * with, so they decode the same way as the files of the original result.
+	 *
+	 * @param input
+	 * 		the stream to read from, not null
+	 * @param sources
+	 * 		the sources which were compiled to produce the result, not null
+	 * @param storageMode
+	 * 		determines where the contents of the generated files are stored, not null
+	 *
+	 * @return the result, not null
+	 *
+	 * @throws IOException
+	 * 		if the result cannot be read, or was written in a different format
+	 */
+	static CompilationResult decode(
+			final DataInputStream input,
+			final Iterable<? extends JavaFileObject> sources,
+			final StorageMode storageMode)
+			throws IOException {
+		
+		if (input.readInt() != FORMAT_VERSION) {
+			throw new IOException("Unsupported format.");
+		}
+		
+		final boolean success = input.readBoolean();
+		final CompilePolicy policy = readEnum(CompilePolicy.class, input.readUTF());
+		
+		final List<StoredDiagnostic> diagnostics = new ArrayList<>();
+		final int diagnosticCount = input.readInt();
+		
+		for (int i = 0; i < diagnosticCount; i++) {
+			diagnostics.add(new StoredDiagnostic(
+					readEnum(Diagnostic.Kind.class, input.readUTF()),
+					readNullableString(input),
+					input.readLong(),
+					input.readLong(),
+					input.readLong(),
+					input.readLong(),
+					input.readLong(),
+					readNullableString(input),
+					readNullableString(input)));
+		}
+		
+		final Map<String, JavaFileObject> filesByUri = new HashMap<>();
+		
+		for (final JavaFileObject source : sources) {
+			filesByUri.put(source.toUri().toString(), source);
+		}
+		
+		final List<JavaFileObject> generatedFiles = new ArrayList<>();
+		final int fileCount = input.readInt();
+		
+		for (int i = 0; i < fileCount; i++) {
+			final String uri = input.readUTF();
+			final Charset charset = readCharset(input.readUTF());
+			final long lastModified = input.readLong();
+			final InMemoryJavaFileObject file = new InMemoryJavaFileObject(URI.create(uri), charset, storageMode);
+			
+			if (input.readBoolean()) {
+				final byte[] contents = new byte[input.readInt()];
+				input.readFully(contents);
+				file.setContents(contents, lastModified);
+			}
+			
+			generatedFiles.add(file);
+			filesByUri.put(uri, file);
+		}
+		
+		for (final StoredDiagnostic diagnostic : diagnostics) {
+			diagnostic.source = diagnostic.sourceUri == null ? null : filesByUri.get(diagnostic.sourceUri);
+		}
+		
+		return CompilationResult.create(
+				success,
+				diagnostics,
+				OutputIndex.fromFiles(generatedFiles),
+				policy,
+				CompilationTimings.empty());
+	}
+	
+	private static void writeNullableString(final DataOutputStream output, final String value) throws IOException {
+		output.writeBoolean(value != null);
+		
+		if (value != null) {
+			// Messages can exceed the limit of writeUTF, so write the length explicitly
+			final byte[] bytes = value.getBytes(UTF_8);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+	}
+	
+	private static String readNullableString(final DataInputStream input) throws IOException {
+		if (!input.readBoolean()) {
+			return null;
+		}
+		
+		final byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		
+		return new String(bytes, UTF_8);
+	}
+	
+	private static Charset readCharset(final String name) throws IOException {
+		try {
+			return Charset.forName(name);
+		} catch (final IllegalCharsetNameException | UnsupportedCharsetException e) {
+			throw new IOException("Unknown charset \'" + name + "\'.", e);
+		}
+	}
+	
+	private static <E extends Enum<E>> E readEnum(final Class<E> enumClass, final String name) throws IOException {
+		try {
+			return Enum.valueOf(enumClass, name);
+		} catch (final IllegalArgumentException e) {
+			throw new IOException("Unknown constant \'" + name + "\'.", e);
+		}
+	}
+	
+	/**
+	 * A diagnostic restored from its encoded form. The message is the message encoded in the default locale, and is
+	 * returned for every locale.
+	 */
+	private static class StoredDiagnostic implements Diagnostic<JavaFileObject> {
+		private final Kind kind;
+		
+		private final String sourceUri;
+		
+		private final long position;
+		
+		private final long startPosition;
+		
+		private final long endPosition;
+		
+		private final long lineNumber;
+		
+		private final long columnNumber;
+		
+		private final String code;
+		
+		private final String message;
+		
+		private JavaFileObject source;
+		
+		private StoredDiagnostic(
+				final Kind kind,
+				final String sourceUri,
+				final long position,
+				final long startPosition,
+				final long endPosition,
+				final long lineNumber,
+				final long columnNumber,
+				final String code,
+				final String message) {
+			
+			this.kind = kind;
+			this.sourceUri = sourceUri;
+			this.position = position;
+			this.startPosition = startPosition;
+			this.endPosition = endPosition;
+			this.lineNumber = lineNumber;
+			this.columnNumber = columnNumber;
+			this.code = code;
+			this.message = message;
+		}
+		
+		@Override
+		public Kind getKind() {
+			return kind;
+		}
+		
+		@Override
+		public JavaFileObject getSource() {
+			return source;
+		}
+		
+		@Override
+		public long getPosition() {
+			return position;
+		}
+		
+		@Override
+		public long getStartPosition() {
+			return startPosition;
+		}
+		
+		@Override
+		public long getEndPosition() {
+			return endPosition;
+		}
+		
+		@Override
+		public long getLineNumber() {
+			return lineNumber;
+		}
+		
+		@Override
+		public long getColumnNumber() {
+			return columnNumber;
+		}
+		
+		@Override
+		public String getCode() {
+			return code;
+		}
+		
+		@Override
+		public String getMessage(final Locale locale) {
+			return message;
+		}
+		
+		@Override
+		public String toString() {
+			return kind + ": " + message;
+		}
+	}
+}
\ No newline at end of file
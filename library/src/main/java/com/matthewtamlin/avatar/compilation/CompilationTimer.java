@@ -0,0 +1,153 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.tools.JavaCompiler.CompilationTask;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * Records the wall time and number of events for each phase of a compilation task, as well as the wall time of each
+ * annotation processing round. Timings can be read while the task is still running, in which case they cover only the
+ * events which have finished so far.
+ * <p>
+ * The compiler often starts an event for every compilation unit before finishing any of them, so the wall time of a
+ * phase is measured from when its first open event starts until its last open event finishes, rather than by adding
+ * up the durations of overlapping events.
+ * <p>
+ * Phases are only recorded when the compiler is javac. For other compilers the timings only contain the total time.
+ * <p>
+ * This class is safe for use by multiple threads.
+ */
+public class CompilationTimer {
+	/**
+	 * The phases which have been entered. Each key is a phase, and the corresponding value is the accumulated time
+	 * and event count for that phase.
+	 */
+	private final Map<CompilePhase, long[]> phases = new EnumMap<>(CompilePhase.class);
+	
+	/**
+	 * The phases which have events in progress. Each key is a phase, and the corresponding value is the number of
+	 * events in progress and the time the first of them started.
+	 */
+	private final Map<CompilePhase, long[]> openSpans = new EnumMap<>(CompilePhase.class);
+	
+	/**
+	 * The wall time of each finished annotation processing round, in order.
+	 */
+	private final List<Long> roundNanos = new ArrayList<>();
+	
+	/**
+	 * The time the task started, or -1 if it has not started.
+	 */
+	private long taskStartNanos = -1;
+	
+	/**
+	 * The wall time of the entire task, or zero if it has not finished.
+	 */
+	private long taskNanos = 0;
+	
+	/**
+	 * Attaches this timer to a compilation task. Must be called before the task is run.
+	 *
+	 * @param task
+	 * 		the task to time, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code task} is null
+	 */
+	void attachTo(final CompilationTask task) {
+		checkNotNull(task, "Argument \'task\' cannot be null.");
+		
+		try {
+			TimingTaskListener.attach(task, this);
+		} catch (final LinkageError e) {
+			// The compiler API extensions are not visible to this class loader, so only the total time is recorded
+		}
+	}
+	
+	/**
+	 * Records the start of the entire compilation task.
+	 */
+	synchronized void taskStarted() {
+		taskStartNanos = System.nanoTime();
+	}
+	
+	/**
+	 * Records the end of the entire compilation task.
+	 */
+	synchronized void taskFinished() {
+		if (taskStartNanos != -1) {
+			taskNanos = System.nanoTime() - taskStartNanos;
+		}
+	}
+	
+	/**
+	 * Records the start of an event in a phase.
+	 *
+	 * @param phase
+	 * 		the phase, not null
+	 */
+	synchronized void eventStarted(final CompilePhase phase) {
+		if (!openSpans.containsKey(phase)) {
+			openSpans.put(phase, new long[2]);
+		}
+		
+		final long[] span = openSpans.get(phase);
+		
+		if (span[0] == 0) {
+			span[1] = System.nanoTime();
+		}
+		
+		span[0] += 1;
+	}
+	
+	/**
+	 * Records the end of an event in a phase. The wall time of the phase is only added to once no events in the phase
+	 * are in progress. Events which finish without having been started are ignored.
+	 *
+	 * @param phase
+	 * 		the phase, not null
+	 */
+	synchronized void eventFinished(final CompilePhase phase) {
+		final long[] span = openSpans.get(phase);
+		
+		if (span == null || span[0] == 0) {
+			return;
+		}
+		
+		if (!phases.containsKey(phase)) {
+			phases.put(phase, new long[2]);
+		}
+		
+		phases.get(phase)[1] += 1;
+		span[0] -= 1;
+		
+		if (span[0] == 0) {
+			final long duration = System.nanoTime() - span[1];
+			
+			phases.get(phase)[0] += duration;
+			
+			if (phase == CompilePhase.ANNOTATION_PROCESSING_ROUND) {
+				roundNanos.add(duration);
+			}
+		}
+	}
+	
+	/**
+	 * @return a snapshot of the timings recorded so far, not null
+	 */
+	public synchronized CompilationTimings getTimings() {
+		final ImmutableMap.Builder<CompilePhase, PhaseTiming> phaseTimings = ImmutableMap.builder();
+		
+		for (final Map.Entry<CompilePhase, long[]> entry : phases.entrySet()) {
+			phaseTimings.put(entry.getKey(), PhaseTiming.create(entry.getValue()[0], (int) entry.getValue()[1]));
+		}
+		
+		return CompilationTimings.create(taskNanos, phaseTimings.build(), roundNanos);
+	}
+}
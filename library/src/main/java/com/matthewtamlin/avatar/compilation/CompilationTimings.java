@@ -0,0 +1,103 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.matthewtamlin.avatar.util.IterableNullChecker.checkNotContainsNull;
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * An immutable breakdown of the time spent compiling, by phase and by annotation processing round.
+ */
+@AutoValue
+public abstract class CompilationTimings {
+	/**
+	 * The timing reported for phases which were never entered.
+	 */
+	private static final PhaseTiming NO_TIME = PhaseTiming.create(0, 0);
+	
+	/**
+	 * @return the wall time of the entire compilation task, measured in nanoseconds, or zero if the task has not
+	 * finished
+	 */
+	public abstract long totalNanos();
+	
+	/**
+	 * @return the time spent in each phase, containing only the phases which were entered, not null
+	 */
+	public abstract Map<CompilePhase, PhaseTiming> phases();
+	
+	/**
+	 * @return the wall time of each annotation processing round in the order the rounds occurred, measured in
+	 * nanoseconds, may be empty, not null
+	 */
+	public abstract List<Long> roundNanos();
+	
+	/**
+	 * Gets the time spent in a single phase.
+	 *
+	 * @param phase
+	 * 		the phase to get the time of, not null
+	 *
+	 * @return the time spent in the phase, with a time and count of zero if the phase was never entered, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code phase} is null
+	 */
+	public PhaseTiming phase(final CompilePhase phase) {
+		checkNotNull(phase, "Argument \'phase\' cannot be null.");
+		
+		return phases().containsKey(phase) ? phases().get(phase) : NO_TIME;
+	}
+	
+	/**
+	 * @return timings which contain no phases and no rounds, not null
+	 */
+	public static CompilationTimings empty() {
+		return create(0, ImmutableMap.<CompilePhase, PhaseTiming>of(), ImmutableList.<Long>of());
+	}
+	
+	/**
+	 * Creates a new CompilationTimings. The supplied collections are copied.
+	 *
+	 * @param totalNanos
+	 * 		the wall time of the entire compilation task, measured in nanoseconds, not negative
+	 * @param phases
+	 * 		the time spent in each phase, not null
+	 * @param roundNanos
+	 * 		the wall time of each annotation processing round, not null, not containing null
+	 *
+	 * @return the new CompilationTimings, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code totalNanos} is negative
+	 * @throws IllegalArgumentException
+	 * 		if {@code phases} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code roundNanos} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code roundNanos} contains null
+	 */
+	public static CompilationTimings create(
+			final long totalNanos,
+			final Map<CompilePhase, PhaseTiming> phases,
+			final List<Long> roundNanos) {
+		
+		if (totalNanos < 0) {
+			throw new IllegalArgumentException("Argument \'totalNanos\' cannot be negative.");
+		}
+		
+		checkNotNull(phases, "Argument \'phases\' cannot be null.");
+		checkNotNull(roundNanos, "Argument \'roundNanos\' cannot be null.");
+		checkNotContainsNull(roundNanos, "Argument \'roundNanos\' cannot contain null.");
+		
+		return new AutoValue_CompilationTimings(
+				totalNanos,
+				ImmutableMap.copyOf(phases),
+				ImmutableList.copyOf(roundNanos));
+	}
+}
@@ -0,0 +1,36 @@
+package com.matthewtamlin.avatar.compilation;
+
+/**
+ * The phases of compilation which are timed by a {@link CompilationTimer}.
+ */
+public enum CompilePhase {
+	/**
+	 * Parsing of source files into syntax trees.
+	 */
+	PARSE,
+	
+	/**
+	 * Entering of symbols for the parsed syntax trees.
+	 */
+	ENTER,
+	
+	/**
+	 * Attribution and flow analysis.
+	 */
+	ANALYZE,
+	
+	/**
+	 * Generation of class files.
+	 */
+	GENERATE,
+	
+	/**
+	 * Annotation processing, covering all processing rounds.
+	 */
+	ANNOTATION_PROCESSING,
+	
+	/**
+	 * A single annotation processing round.
+	 */
+	ANNOTATION_PROCESSING_ROUND
+}
@@ -0,0 +1,48 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Defines how far compilation proceeds before stopping. Stopping early skips work which is not needed when only the
+ * element model and the annotation processing rounds are of interest.
+ */
+public enum CompilePolicy {
+	/**
+	 * Runs every phase of compilation, including class file generation.
+	 */
+	FULL(ImmutableList.<String>of()),
+	
+	/**
+	 * Runs annotation processing and then stops. Generated sources are still processed in subsequent rounds, but
+	 * nothing is attributed or compiled to class files. Errors which would be found by attribution are not reported.
+	 */
+	PROCESSING_ONLY(ImmutableList.of("-proc:only")),
+	
+	/**
+	 * Runs annotation processing and attribution, then stops. Type errors are reported, but flow analysis,
+	 * desugaring and class file generation are skipped.
+	 */
+	STOP_AFTER_ATTRIBUTION(ImmutableList.of(
+			// Recognised by Java 8 and earlier
+			"-XDshouldStopPolicyIfNoError=ATTR",
+			// Recognised by Java 9 and later
+			"-XDshould-stop.ifNoError=ATTR"));
+	
+	/**
+	 * The compiler options which implement the policy.
+	 */
+	private final List<String> options;
+	
+	CompilePolicy(final List<String> options) {
+		this.options = options;
+	}
+	
+	/**
+	 * @return the compiler options which implement this policy, may be empty, not null
+	 */
+	public List<String> getOptions() {
+		return options;
+	}
+}
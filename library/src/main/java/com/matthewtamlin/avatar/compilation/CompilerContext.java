@@ -0,0 +1,247 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A reusable context for compiling Java sources. The context holds a Java compiler and a bounded pool of standard
+ * file managers. Reusing file managers avoids reopening the archives and rescanning the directories on the class path
+ * for every compilation, which dominates the cost of compiling small sources.
+ * <p>
+ * File managers are acquired for the duration of a single compilation task and must be released afterwards. Released
+ * file managers are flushed and their search locations are restored before they are returned to the pool. Options
+ * handled by a file manager, such as {@code -encoding} or {@code -bootclasspath}, change it in ways which cannot be
+ * restored, so a file manager which was given options must be discarded with {@link
+ * #discardFileManager(StandardJavaFileManager)} instead. Each task should wrap the acquired file manager in a new
+ * {@link InMemoryJavaFileManager} rather than using it directly.
+ * <p>
+ * This class is safe for use by multiple threads. A file manager is never given to more than one thread at a time.
+ */
+public class CompilerContext {
+	/**
+	 * The default maximum number of idle file managers retained by the shared context.
+	 */
+	private static final int DEFAULT_POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+	
+	/**
+	 * The search locations which are restored when a file manager is released.
+	 */
+	private static final List<StandardLocation> RESTORED_LOCATIONS = ImmutableList.of(
+			StandardLocation.CLASS_PATH,
+			StandardLocation.SOURCE_PATH,
+			StandardLocation.ANNOTATION_PROCESSOR_PATH);
+	
+	/**
+	 * The context shared by all compilations which do not supply their own context. Lazily initialised.
+	 */
+	private static CompilerContext sharedContext;
+	
+	/**
+	 * The compiler used to create file managers.
+	 */
+	private final JavaCompiler compiler;
+	
+	/**
+	 * The idle file managers.
+	 */
+	private final BlockingQueue<PooledFileManager> idleFileManagers;
+	
+	/**
+	 * The file managers which are currently acquired. Each key is a file manager, and the corresponding value is the
+	 * pool entry it was taken from.
+	 */
+	private final Map<StandardJavaFileManager, PooledFileManager> acquiredFileManagers = new ConcurrentHashMap<>();
+	
+	/**
+	 * Constructs a new CompilerContext.
+	 *
+	 * @param compiler
+	 * 		the compiler to use, not null
+	 * @param maximumPoolSize
+	 * 		the maximum number of idle file managers to retain, at least one
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code compiler} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code maximumPoolSize} is less than one
+	 */
+	public CompilerContext(final JavaCompiler compiler, final int maximumPoolSize) {
+		this.compiler = checkNotNull(compiler, "Argument \'compiler\' cannot be null.");
+		
+		if (maximumPoolSize < 1) {
+			throw new IllegalArgumentException("Argument \'maximumPoolSize\' must be at least one.");
+		}
+		
+		idleFileManagers = new ArrayBlockingQueue<>(maximumPoolSize);
+	}
+	
+	/**
+	 * Gets the context shared by all compilations in the JVM. The context is created when this method is first
+	 * called.
+	 *
+	 * @return the shared context, not null
+	 *
+	 * @throws CompilerMissingException
+	 * 		if no Java compiler is found at runtime
+	 */
+	public static synchronized CompilerContext getShared() {
+		if (sharedContext == null) {
+			final JavaCompiler compiler = checkNotNull(
+					ToolProvider.getSystemJavaCompiler(),
+					new CompilerMissingException("Cannot compile if there is no Java compiler available at runtime."));
+			
+			sharedContext = new CompilerContext(compiler, DEFAULT_POOL_SIZE);
+		}
+		
+		return sharedContext;
+	}
+	
+	/**
+	 * @return the compiler used by this context, not null
+	 */
+	public JavaCompiler getCompiler() {
+		return compiler;
+	}
+	
+	/**
+	 * Gets a file manager from the pool, or creates a new file manager if the pool is empty. The file manager must be
+	 * returned by calling {@link #releaseFileManager(StandardJavaFileManager)} once the compilation task is complete.
+	 *
+	 * @return the file manager, not null
+	 */
+	public StandardJavaFileManager acquireFileManager() {
+		PooledFileManager pooled = idleFileManagers.poll();
+		
+		if (pooled == null) {
+			pooled = new PooledFileManager(compiler.getStandardFileManager(null, Locale.getDefault(), UTF_8));
+		}
+		
+		acquiredFileManagers.put(pooled.fileManager, pooled);
+		
+		return pooled.fileManager;
+	}
+	
+	/**
+	 * Resets the supplied file manager and returns it to the pool. If the pool is full or the file manager cannot be
+	 * reset, then the file manager is closed instead.
+	 *
+	 * @param fileManager
+	 * 		the file manager to release, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code fileManager} is null
+	 */
+	public void releaseFileManager(final StandardJavaFileManager fileManager) {
+		checkNotNull(fileManager, "Argument \'fileManager\' cannot be null.");
+		
+		PooledFileManager pooled = acquiredFileManagers.remove(fileManager);
+		
+		if (pooled == null) {
+			pooled = new PooledFileManager(fileManager);
+		}
+		
+		try {
+			pooled.reset();
+			
+			if (!idleFileManagers.offer(pooled)) {
+				fileManager.close();
+			}
+		} catch (final IOException e) {
+			closeQuietly(fileManager);
+		}
+	}
+	
+	/**
+	 * Closes a file manager which was acquired from this context, instead of returning it to the pool. This should be
+	 * used instead of {@link #releaseFileManager(StandardJavaFileManager)} when the file manager was given options,
+	 * since options may change the file manager in ways which would leak into later compilations.
+	 *
+	 * @param fileManager
+	 * 		the file manager to discard, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code fileManager} is null
+	 */
+	public void discardFileManager(final StandardJavaFileManager fileManager) {
+		checkNotNull(fileManager, "Argument \'fileManager\' cannot be null.");
+		
+		acquiredFileManagers.remove(fileManager);
+		closeQuietly(fileManager);
+	}
+	
+	/**
+	 * Closes all idle file managers. File managers which are currently acquired are closed when they are released
+	 * if the pool is full, otherwise they are retained.
+	 */
+	public void clear() {
+		PooledFileManager pooled;
+		
+		while ((pooled = idleFileManagers.poll()) != null) {
+			closeQuietly(pooled.fileManager);
+		}
+	}
+	
+	private static void closeQuietly(final StandardJavaFileManager fileManager) {
+		try {
+			fileManager.close();
+		} catch (final IOException e) {
+			// Nothing can be done, and the file manager is being discarded anyway
+		}
+	}
+	
+	/**
+	 * A pooled file manager, along with the search locations it had when it was created.
+	 */
+	private static class PooledFileManager {
+		private final StandardJavaFileManager fileManager;
+		
+		private final Map<StandardLocation, List<File>> defaultLocations = new EnumMap<>(StandardLocation.class);
+		
+		private PooledFileManager(final StandardJavaFileManager fileManager) {
+			this.fileManager = fileManager;
+			
+			for (final StandardLocation location : RESTORED_LOCATIONS) {
+				defaultLocations.put(location, copyOf(fileManager.getLocation(location)));
+			}
+		}
+		
+		/**
+		 * Flushes the file manager and restores any search locations which have changed since it was created.
+		 *
+		 * @throws IOException
+		 * 		if the file manager cannot be flushed or a location cannot be restored
+		 */
+		private void reset() throws IOException {
+			fileManager.flush();
+			
+			for (final StandardLocation location : RESTORED_LOCATIONS) {
+				final List<File> defaultLocation = defaultLocations.get(location);
+				
+				if (!Objects.equals(copyOf(fileManager.getLocation(location)), defaultLocation)) {
+					fileManager.setLocation(location, defaultLocation);
+				}
+			}
+		}
+		
+		private static List<File> copyOf(final Iterable<? extends File> files) {
+			return files == null ? null : ImmutableList.<File>copyOf(files);
+		}
+	}
+}
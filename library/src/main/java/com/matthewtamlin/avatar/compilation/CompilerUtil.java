@@ -1,14 +1,27 @@
 package com.matthewtamlin.avatar.compilation;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import javax.annotation.processing.Processor;
 import javax.tools.JavaCompiler;
-import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
-import javax.tools.ToolProvider;
+import javax.tools.StandardJavaFileManager;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Locale;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import static com.matthewtamlin.avatar.util.IterableNullChecker.checkNotContainsNull;
 import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
@@ -16,6 +29,13 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Compiles Java source files using an annotation processors. All generated files are stored in memory.
+ * <p>
+ * Compilations share the compiler and file managers held by {@link CompilerContext#getShared()}, so the class path is
+ * only opened and scanned once per file manager rather than once per compilation.
+ * <p>
+ * Independent compilations can be run concurrently using {@link #compileConcurrently(Iterable, Executor, int)} and
+ * {@link #compileAllConcurrently(Iterable, Executor, int)}, or combined into a single compilation using {@link
+ * #compileAsMicroBatch(Iterable)}.
  */
 public class CompilerUtil {
 	/**
@@ -62,30 +82,644 @@ public class CompilerUtil {
 			final Processor processor,
 			final Iterable<JavaFileObject> sources) {
 		
+		return compileUsingProcessor(processor, sources, CompilePolicy.FULL);
+	}
+	
+	/**
+	 * Compiles the supplied sources with the system Java compiler and the supplied processor, stopping at the point
+	 * defined by the supplied policy. All generated files are stored in memory.
+	 *
+	 * @param processor
+	 * 		the processor to use when compiling, not null
+	 * @param sources
+	 * 		the sources to compile, not null, not containing null
+	 * @param policy
+	 * 		defines how far compilation proceeds, not null
+	 *
+	 * @throws CompilerMissingException
+	 * 		if no Java compiler is found at runtime
+	 * @throws IllegalArgumentException
+	 * 		if {@code processor} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws IllegalArgumentException
+	 * 		if (@code sources} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code policy} is null
+	 */
+	public static CompilationResult compileUsingProcessor(
+			final Processor processor,
+			final Iterable<JavaFileObject> sources,
+			final CompilePolicy policy) {
+		
+		checkNotNull(processor, "Argument \'processor\' cannot be null.");
+		checkNotNull(sources, "Argument \'sources\' cannot be null.");
+		checkNotContainsNull(sources, "Argument \'sources\' cannot contain null.");
+		checkNotNull(policy, "Argument \'policy\' cannot be null.");
+		
+		return compile(processor, sources, policy, new CompilationTimer());
+	}
+	
+	/**
+	 * Compiles the supplied sources with the system Java compiler and the supplied processor, stopping at the point
+	 * defined by the supplied policy and recording the time spent in each phase with the supplied timer. The timer can
+	 * be read during compilation (for example by the processor) to get the timings recorded so far. All generated
+	 * files are stored in memory.
+	 *
+	 * @param processor
+	 * 		the processor to use when compiling, not null
+	 * @param sources
+	 * 		the sources to compile, not null, not containing null
+	 * @param policy
+	 * 		defines how far compilation proceeds, not null
+	 * @param timer
+	 * 		records the time spent in each phase, not null
+	 *
+	 * @throws CompilerMissingException
+	 * 		if no Java compiler is found at runtime
+	 * @throws IllegalArgumentException
+	 * 		if {@code processor} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws IllegalArgumentException
+	 * 		if (@code sources} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code policy} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code timer} is null
+	 */
+	public static CompilationResult compileUsingProcessor(
+			final Processor processor,
+			final Iterable<JavaFileObject> sources,
+			final CompilePolicy policy,
+			final CompilationTimer timer) {
+		
+		checkNotNull(processor, "Argument \'processor\' cannot be null.");
+		checkNotNull(sources, "Argument \'sources\' cannot be null.");
+		checkNotContainsNull(sources, "Argument \'sources\' cannot contain null.");
+		checkNotNull(policy, "Argument \'policy\' cannot be null.");
+		checkNotNull(timer, "Argument \'timer\' cannot be null.");
+		
+		return compile(processor, sources, policy, timer);
+	}
+	
+	/**
+	 * Compiles the supplied sources with the system Java compiler and the supplied processor, stopping at the point
+	 * defined by the supplied policy. The class files generated by earlier compilations are added to the class path,
+	 * so the sources can depend on classes compiled earlier without the classes being written to disk. This allows
+	 * shared sources to be compiled once and reused by many dependent compilations. All generated files are stored in
+	 * memory.
+	 * <p>
+	 * The earlier results are searched in the order they are supplied, and before the rest of the class path, so a
+	 * class in an earlier result takes precedence over classes with the same name in later results. Compilations can
+	 * be chained by passing the result of each compilation along with the results it was compiled against. The
+	 * earlier results are not modified, so they can be shared by concurrent compilations, but they must not be
+	 * released while they are in use.
+	 *
+	 * @param processor
+	 * 		the processor to use when compiling, not null
+	 * @param sources
+	 * 		the sources to compile, not null, not containing null
+	 * @param policy
+	 * 		defines how far compilation proceeds, not null
+	 * @param classPath
+	 * 		the results of the earlier compilations, in order of precedence, not null, not containing null
+	 *
+	 * @throws CompilerMissingException
+	 * 		if no Java compiler is found at runtime
+	 * @throws IllegalArgumentException
+	 * 		if {@code processor} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws IllegalArgumentException
+	 * 		if (@code sources} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code policy} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code classPath} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code classPath} contains null
+	 */
+	public static CompilationResult compileUsingProcessor(
+			final Processor processor,
+			final Iterable<JavaFileObject> sources,
+			final CompilePolicy policy,
+			final Iterable<CompilationResult> classPath) {
+		
+		return compileUsingProcessor(processor, sources, policy, new CompilationTimer(), classPath);
+	}
+	
+	/**
+	 * Compiles the supplied sources with the system Java compiler and the supplied processor, stopping at the point
+	 * defined by the supplied policy and recording the time spent in each phase of compilation with the supplied
+	 * timer. The class files generated by earlier compilations are added to the class path, as described in {@link
+	 * #compileUsingProcessor(Processor, Iterable, CompilePolicy, Iterable)}. All generated files are stored in memory.
+	 *
+	 * @param processor
+	 * 		the processor to use when compiling, not null
+	 * @param sources
+	 * 		the sources to compile, not null, not containing null
+	 * @param policy
+	 * 		defines how far compilation proceeds, not null
+	 * @param timer
+	 * 		the timer to record the compilation with, not null
+	 * @param classPath
+	 * 		the results of the earlier compilations, in order of precedence, not null, not containing null
+	 *
+	 * @throws CompilerMissingException
+	 * 		if no Java compiler is found at runtime
+	 * @throws IllegalArgumentException
+	 * 		if {@code processor} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws IllegalArgumentException
+	 * 		if (@code sources} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code policy} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code timer} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code classPath} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code classPath} contains null
+	 */
+	public static CompilationResult compileUsingProcessor(
+			final Processor processor,
+			final Iterable<JavaFileObject> sources,
+			final CompilePolicy policy,
+			final CompilationTimer timer,
+			final Iterable<CompilationResult> classPath) {
+		
+		checkNotNull(processor, "Argument \'processor\' cannot be null.");
+		checkNotNull(sources, "Argument \'sources\' cannot be null.");
+		checkNotContainsNull(sources, "Argument \'sources\' cannot contain null.");
+		checkNotNull(policy, "Argument \'policy\' cannot be null.");
+		checkNotNull(timer, "Argument \'timer\' cannot be null.");
+		checkNotNull(classPath, "Argument \'classPath\' cannot be null.");
+		checkNotContainsNull(classPath, "Argument \'classPath\' cannot contain null.");
+		
+		final ImmutableList.Builder<OutputIndex> classPathOutputs = ImmutableList.builder();
+		
+		for (final CompilationResult result : classPath) {
+			classPathOutputs.add(result.generatedFileIndex());
+		}
+		
+		return compile(
+				ImmutableSet.of(processor),
+				sources,
+				policy,
+				ImmutableList.<String>of(),
+				StorageMode.HEAP,
+				timer,
+				classPathOutputs.build());
+	}
+	
+	/**
+	 * Compiles the supplied sources with the system Java compiler and the supplied processor, reusing a cached result
+	 * if the same sources have already been compiled with the same type of processor. All generated files are stored
+	 * in memory.
+	 * <p>
+	 * The processor is not invoked when a cached result is returned, so this method should only be used with
+	 * processors that have no side effects beyond the files they generate.
+	 *
+	 * @param processor
+	 * 		the processor to use when compiling, not null
+	 * @param sources
+	 * 		the sources to compile, not null, not containing null
+	 * @param cache
+	 * 		the cache to get the result from and to store new results in, not null
+	 *
+	 * @throws CompilerMissingException
+	 * 		if no Java compiler is found at runtime
+	 * @throws IllegalArgumentException
+	 * 		if {@code processor} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws IllegalArgumentException
+	 * 		if (@code sources} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code cache} is null
+	 */
+	public static CompilationResult compileUsingProcessor(
+			final Processor processor,
+			final Iterable<JavaFileObject> sources,
+			final CompilationCache cache) {
+		
+		return compileUsingProcessor(processor, sources, CompilePolicy.FULL, cache);
+	}
+	
+	/**
+	 * Compiles the supplied sources with the system Java compiler and the supplied processor, stopping at the point
+	 * defined by the supplied policy and reusing a cached result if the same sources have already been compiled with
+	 * the same type of processor and policy. All generated files are stored in memory.
+	 * <p>
+	 * The processor is not invoked when a cached result is returned, so this method should only be used with
+	 * processors that have no side effects beyond the files they generate.
+	 *
+	 * @param processor
+	 * 		the processor to use when compiling, not null
+	 * @param sources
+	 * 		the sources to compile, not null, not containing null
+	 * @param policy
+	 * 		defines how far compilation proceeds, not null
+	 * @param cache
+	 * 		the cache to get the result from and to store new results in, not null
+	 *
+	 * @throws CompilerMissingException
+	 * 		if no Java compiler is found at runtime
+	 * @throws IllegalArgumentException
+	 * 		if {@code processor} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws IllegalArgumentException
+	 * 		if (@code sources} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code policy} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code cache} is null
+	 */
+	public static CompilationResult compileUsingProcessor(
+			final Processor processor,
+			final Iterable<JavaFileObject> sources,
+			final CompilePolicy policy,
+			final CompilationCache cache) {
+		
 		checkNotNull(processor, "Argument \'processor\' cannot be null.");
 		checkNotNull(sources, "Argument \'sources\' cannot be null.");
 		checkNotContainsNull(sources, "Argument \'sources\' cannot contain null.");
+		checkNotNull(policy, "Argument \'policy\' cannot be null.");
+		checkNotNull(cache, "Argument \'cache\' cannot be null.");
 		
-		final JavaCompiler compiler = checkNotNull(
-				ToolProvider.getSystemJavaCompiler(),
-				new CompilerMissingException("Cannot get elements if there is no Java compiler available at runtime."));
+		// Cached compilations store their outputs on the heap, so restored results must match
+		return cache.get(processor, sources, policy.getOptions(), StorageMode.HEAP, new Callable<CompilationResult>() {
+			@Override
+			public CompilationResult call() {
+				return compile(processor, sources, policy, new CompilationTimer());
+			}
+		});
+	}
+	
+	/**
+	 * Compiles several independent requests concurrently. The compilations run on the supplied executor, and no more
+	 * than {@code maximumParallelism} of them run at once. Requests start in the order they are supplied. This method
+	 * returns immediately.
+	 * <p>
+	 * Each compilation uses its own file manager, so the requests do not share outputs. Processors are invoked on the
+	 * executor threads, so each request should have its own processor instance.
+	 *
+	 * @param requests
+	 * 		the requests to compile, not null, not containing null
+	 * @param executor
+	 * 		the executor to run the compilations on, not null
+	 * @param maximumParallelism
+	 * 		the maximum number of compilations which can run at once, at least one
+	 *
+	 * @return a future for the result of each request, in the same order as the requests, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code requests} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code requests} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code executor} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code maximumParallelism} is less than one
+	 */
+	public static List<ListenableFuture<CompilationResult>> compileConcurrently(
+			final Iterable<CompilationRequest> requests,
+			final Executor executor,
+			final int maximumParallelism) {
 		
-		final DiagnosticCollector<JavaFileObject> diagnostic = new DiagnosticCollector<>();
-		final JavaFileManager baseFileManager = compiler.getStandardFileManager(diagnostic, Locale.getDefault(), UTF_8);
-		final InMemoryJavaFileManager inMemoryFileManager = new InMemoryJavaFileManager(baseFileManager);
+		checkNotNull(requests, "Argument \'requests\' cannot be null.");
+		checkNotContainsNull(requests, "Argument \'requests\' cannot contain null.");
+		checkNotNull(executor, "Argument \'executor\' cannot be null.");
 		
-		final JavaCompiler.CompilationTask task = compiler.getTask(
-				null,
-				inMemoryFileManager,
-				diagnostic,
-				null,
-				null,
-				ImmutableSet.copyOf(sources));
+		final Executor boundedExecutor = new BoundedExecutor(executor, maximumParallelism);
+		final List<ListenableFuture<CompilationResult>> futures = new ArrayList<>();
 		
-		task.setProcessors(ImmutableSet.of(processor));
+		for (final CompilationRequest request : requests) {
+			final ListenableFutureTask<CompilationResult> task = ListenableFutureTask.create(
+					new Callable<CompilationResult>() {
+						@Override
+						public CompilationResult call() {
+							return compile(
+									ImmutableSet.of(request.processor()),
+									request.sources(),
+									request.compilePolicy(),
+									request.options(),
+									request.storageMode(),
+									new CompilationTimer(),
+									ImmutableList.<OutputIndex>of());
+						}
+					});
+			
+			futures.add(task);
+			boundedExecutor.execute(task);
+		}
 		
-		final boolean success = task.call();
+		return futures;
+	}
+	
+	/**
+	 * Compiles several independent requests concurrently and waits for all of them to finish. The compilations run on
+	 * the supplied executor, and no more than {@code maximumParallelism} of them run at once. If any compilation
+	 * throws an exception, the remaining compilations are cancelled and the exception is rethrown.
+	 *
+	 * @param requests
+	 * 		the requests to compile, not null, not containing null
+	 * @param executor
+	 * 		the executor to run the compilations on, not null
+	 * @param maximumParallelism
+	 * 		the maximum number of compilations which can run at once, at least one
+	 *
+	 * @return the result of each request, in the same order as the requests, not null
+	 *
+	 * @throws CompilerMissingException
+	 * 		if no Java compiler is found at runtime
+	 * @throws IllegalArgumentException
+	 * 		if {@code requests} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code requests} contains null
+	 * @throws IllegalArgumentException
+	 * 		if {@code executor} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code maximumParallelism} is less than one
+	 */
+	public static List<CompilationResult> compileAllConcurrently(
+			final Iterable<CompilationRequest> requests,
+			final Executor executor,
+			final int maximumParallelism) {
+		
+		final List<ListenableFuture<CompilationResult>> futures = compileConcurrently(
+				requests,
+				executor,
+				maximumParallelism);
+		
+		final List<CompilationResult> results = new ArrayList<>();
+		
+		try {
+			for (final ListenableFuture<CompilationResult> future : futures) {
+				results.add(Uninterruptibles.getUninterruptibly(future));
+			}
+		} catch (final ExecutionException e) {
+			for (final ListenableFuture<CompilationResult> future : futures) {
+				future.cancel(false);
+			}
+			
+			Throwables.throwIfUnchecked(e.getCause());
+			throw new RuntimeException(e.getCause());
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Compiles several small, independent requests in a single compilation, and splits the result back into one
+	 * result per request. This avoids paying the fixed cost of starting the compiler for every request, which
+	 * dominates when each request only contains a few classes.
+	 * <p>
+	 * Each request is moved into its own namespace package before compilation, as described in {@link MicroBatch}, so
+	 * requests can declare classes with the same names without colliding. Package declarations and imports of the
+	 * packages declared by the request are rewritten, but fully qualified names in code are not, so requests should
+	 * refer to their own classes using imports or simple names. Generated files and element names include the
+	 * namespace, for example a class generated in package {@code com.example} by the first request is found at {@code
+	 * avatar_batch_0.com.example}.
+	 * <p>
+	 * The processor of each request only sees the elements of its own request, and never claims annotations. All
+	 * requests must use the same compile policy, options and storage mode, since they share one compiler invocation.
+	 * The results share the timings of the combined compilation.
+	 * <p>
+	 * If any request fails to compile, the compiler stops early for the whole micro-batch, so requests which had no
+	 * errors may not have been fully checked. Those requests are compiled again in a further micro-batch until every
+	 * remaining request either fails or compiles successfully, so each result matches compiling the request on its
+	 * own. A processor is never run in more than one compilation: requests whose processors have already run are
+	 * compiled again from their sources and the sources their processors generated. If a processor reports an error,
+	 * the compiler runs no further processing rounds for the micro-batch, so the processors of other requests may miss
+	 * rounds they would otherwise have run in.
+	 *
+	 * @param requests
+	 * 		the requests to compile, not null, not containing null
+	 *
+	 * @return the result of each request, in the same order as the requests, not null
+	 *
+	 * @throws CompilerMissingException
+	 * 		if no Java compiler is found at runtime
+	 * @throws IllegalArgumentException
+	 * 		if {@code requests} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code requests} contains null
+	 * @throws IllegalArgumentException
+	 * 		if the requests do not all use the same compile policy, options and storage mode
+	 */
+	public static List<CompilationResult> compileAsMicroBatch(final Iterable<CompilationRequest> requests) {
+		checkNotNull(requests, "Argument \'requests\' cannot be null.");
+		checkNotContainsNull(requests, "Argument \'requests\' cannot contain null.");
+		
+		final List<CompilationRequest> requestList = ImmutableList.copyOf(requests);
+		
+		if (requestList.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final CompilePolicy policy = requestList.get(0).compilePolicy();
+		final List<String> options = requestList.get(0).options();
+		final StorageMode storageMode = requestList.get(0).storageMode();
+		
+		for (int i = 0; i < requestList.size(); i++) {
+			final CompilationRequest request = requestList.get(i);
+			
+			if (request.compilePolicy() != policy ||
+					!request.options().equals(options) ||
+					request.storageMode() != storageMode) {
+				
+				throw new IllegalArgumentException(
+						"All requests must use the same compile policy, options and storage mode.");
+			}
+		}
+		
+		final CompilationResult[] results = new CompilationResult[requestList.size()];
+		
+		// Each key is the index of a request whose processor has run, and the value is the result of that run
+		final Map<Integer, CompilationResult> processingResults = new HashMap<>();
+		
+		List<Integer> pending = new ArrayList<>();
+		
+		for (int i = 0; i < requestList.size(); i++) {
+			pending.add(i);
+		}
+		
+		while (!pending.isEmpty()) {
+			final Map<Integer, FixtureProcessor> processors = new LinkedHashMap<>();
+			final Set<JavaFileObject> sources = new LinkedHashSet<>();
+			
+			for (final int i : pending) {
+				sources.addAll(NamespacedSource.rewriteAll(requestList.get(i).sources(), i));
+				
+				if (processingResults.containsKey(i)) {
+					sources.addAll(getGeneratedSources(processingResults.get(i)));
+				} else {
+					processors.put(i, new FixtureProcessor(requestList.get(i).processor(), MicroBatch.getNamespace(i)));
+				}
+			}
+			
+			final CompilationResult batchResult = compile(
+					processors.values(),
+					sources,
+					policy,
+					options,
+					storageMode,
+					new CompilationTimer(),
+					ImmutableList.<OutputIndex>of());
+			
+			final List<CompilationResult> fixtureResults = MicroBatch.split(batchResult, requestList.size());
+			final List<Integer> unconfirmed = new ArrayList<>();
+			
+			for (final int i : pending) {
+				final CompilationResult processingResult = processingResults.get(i);
+				final CompilationResult fixtureResult = processingResult == null ?
+						fixtureResults.get(i) :
+						MicroBatch.merge(processingResult, fixtureResults.get(i));
+				
+				if (batchResult.success() || MicroBatch.containsError(fixtureResult.diagnostics())) {
+					results[i] = fixtureResult;
+				} else {
+					unconfirmed.add(i);
+					
+					if (processors.containsKey(i) && processors.get(i).isDelegateInitialised()) {
+						processingResults.put(i, fixtureResult);
+					}
+				}
+			}
+			
+			pending = unconfirmed;
+		}
+		
+		return new ArrayList<>(Arrays.asList(results));
+	}
+	
+	/**
+	 * Gets the sources generated by the processor of a micro-batch fixture, so they can be compiled again without
+	 * running the processor.
+	 */
+	private static List<JavaFileObject> getGeneratedSources(final CompilationResult result) {
+		final List<JavaFileObject> sources = new ArrayList<>();
+		
+		for (final JavaFileObject file : result.generatedFiles()) {
+			if (file.getKind() == JavaFileObject.Kind.SOURCE) {
+				sources.add(file);
+			}
+		}
+		
+		return sources;
+	}
+	
+	/**
+	 * Compiles the supplied sources with the system Java compiler and the supplied processor. Arguments are not
+	 * checked.
+	 */
+	private static CompilationResult compile(
+			final Processor processor,
+			final Iterable<JavaFileObject> sources,
+			final CompilePolicy policy,
+			final CompilationTimer timer) {
+		
+		return compile(ImmutableSet.of(processor), sources, policy, ImmutableList.<String>of(), timer);
+	}
+	
+	/**
+	 * Compiles the supplied sources with the system Java compiler and the supplied processors, passing the options of
+	 * the policy followed by the additional options to the compiler. Arguments are not checked.
+	 */
+	private static CompilationResult compile(
+			final Iterable<? extends Processor> processors,
+			final Iterable<? extends JavaFileObject> sources,
+			final CompilePolicy policy,
+			final List<String> additionalOptions,
+			final CompilationTimer timer) {
+		
+		return compile(
+				processors,
+				sources,
+				policy,
+				additionalOptions,
+				StorageMode.HEAP,
+				timer,
+				ImmutableList.<OutputIndex>of());
+	}
+	
+	/**
+	 * Compiles the supplied sources with the system Java compiler and the supplied processors, passing the options of
+	 * the policy followed by the additional options to the compiler. Generated files are stored according to the
+	 * storage mode, and the class files in the class output locations of {@code classPathOutputs} are added to the
+	 * class path in order of precedence. Arguments are not checked.
+	 */
+	static CompilationResult compile(
+			final Iterable<? extends Processor> processors,
+			final Iterable<? extends JavaFileObject> sources,
+			final CompilePolicy policy,
+			final List<String> additionalOptions,
+			final StorageMode storageMode,
+			final CompilationTimer timer,
+			final List<OutputIndex> classPathOutputs) {
+		
+		final CompilerContext context = CompilerContext.getShared();
+		final StandardJavaFileManager baseFileManager = context.acquireFileManager();
+		final List<String> options = ImmutableList.<String>builder()
+				.addAll(policy.getOptions())
+				.addAll(additionalOptions)
+				.build();
+		
+		try {
+			final DiagnosticCollector<JavaFileObject> diagnostic = new DiagnosticCollector<>();
+			// Outputs use the same charset as the base file manager, so generated and supplied sources are treated alike
+			final InMemoryJavaFileManager inMemoryFileManager = new InMemoryJavaFileManager(
+					new CachingJavaFileManager(baseFileManager),
+					UTF_8,
+					storageMode,
+					null,
+					classPathOutputs);
+			
+			final JavaCompiler.CompilationTask task = context.getCompiler().getTask(
+					null,
+					inMemoryFileManager,
+					diagnostic,
+					options,
+					null,
+					ImmutableSet.copyOf(sources));
+			
+			task.setProcessors(ImmutableList.copyOf(processors));
+			timer.attachTo(task);
+			
+			timer.taskStarted();
+			final boolean success = task.call();
+			timer.taskFinished();
+			
+			return CompilationResult.create(
+					success,
+					diagnostic.getDiagnostics(),
+					inMemoryFileManager.getOutputIndex(),
+					policy,
+					timer.getTimings());
+		} finally {
+			if (handlesAnyOption(baseFileManager, options)) {
+				context.discardFileManager(baseFileManager);
+			} else {
+				context.releaseFileManager(baseFileManager);
+			}
+		}
+	}
+	
+	/**
+	 * Determines whether a file manager handles any of the supplied compiler options. The compiler passes these
+	 * options to the file manager, which changes it for the rest of its life.
+	 */
+	private static boolean handlesAnyOption(final StandardJavaFileManager fileManager, final List<String> options) {
+		for (final String option : options) {
+			if (fileManager.isSupportedOption(option) >= 0) {
+				return true;
+			}
+		}
 		
-		return CompilationResult.create(success, diagnostic.getDiagnostics(), inMemoryFileManager.getOutputFiles());
+		return false;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,260 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.testing.compile.JavaFileObjects;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileObject;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Primes the compiler before the first real compilation, by repeatedly compiling a small synthetic fixture on a
+ * background thread. The first compilation in a JVM is much slower than later ones because the compiler classes must be
+ * loaded and compiled by the JIT, so warming up while the test runner is starting hides most of that cost.
+ * <p>
+ * Warming up is opt-in. A test suite can start the shared warm-up with {@link #startShared(int)}, for example in a
+ * static initializer or a {@link org.junit.BeforeClass} method, and {@link com.matthewtamlin.avatar.rules.AvatarRule}
+ * waits for the shared warm-up before compiling if it is still running. Failures during the warm-up are recorded in
+ * the completion future but are never propagated to tests.
+ * <p>
+ * This class is safe for use by multiple threads.
+ */
+public class CompilerWarmUp {
+	/**
+	 * The warm-up shared by all rules in the JVM, null if it has not been started.
+	 */
+	private static CompilerWarmUp sharedWarmUp;
+	
+	/**
+	 * The sources compiled in each iteration. They use generics, annotations, and nested and anonymous classes, so
+	 * the common paths through the compiler are exercised.
+	 */
+	private static final List<JavaFileObject> SOURCES = ImmutableList.of(
+			JavaFileObjects.forSourceLines(
+					"avatar.warmup.Marker",
+					"package avatar.warmup;",
+					"import java.lang.annotation.*;",
+					"@Retention(RetentionPolicy.RUNTIME)",
+					"@Target({ElementType.TYPE, ElementType.METHOD, ElementType.FIELD})",
+					"public @interface Marker {",
+					"  String value() default \"\";",
+					"}"),
+			JavaFileObjects.forSourceLines(
+					"avatar.warmup.Fixture",
+					"package avatar.warmup;",
+					"import java.util.*;",
+					"@Marker(\"fixture\")",
+					"public class Fixture<T extends Comparable<T>> implements Iterable<T> {",
+					"  @Marker private final List<T> values = new ArrayList<>();",
+					"  private final Map<String, Set<T>> groups = new HashMap<>();",
+					"  @Marker public void add(final T value) {",
+					"    values.add(value);",
+					"    Collections.sort(values);",
+					"  }",
+					"  public Set<T> group(final String name) {",
+					"    if (!groups.containsKey(name)) { groups.put(name, new TreeSet<T>()); }",
+					"    return groups.get(name);",
+					"  }",
+					"  @Override public Iterator<T> iterator() {",
+					"    return new Iterator<T>() {",
+					"      private int index;",
+					"      @Override public boolean hasNext() { return index < values.size(); }",
+					"      @Override public T next() { return values.get(index++); }",
+					"      @Override public void remove() { throw new UnsupportedOperationException(); }",
+					"    };",
+					"  }",
+					"  public static class Nested extends Fixture<String> {",
+					"    @Override public String toString() { return String.valueOf(group(\"nested\").size()); }",
+					"  }",
+					"}"));
+	
+	/**
+	 * The number of times to compile the synthetic fixture.
+	 */
+	private final int iterations;
+	
+	/**
+	 * Completes once every iteration has finished, or fails if an iteration fails.
+	 */
+	private final SettableFuture<Void> completion = SettableFuture.create();
+	
+	/**
+	 * The number of iterations which have finished.
+	 */
+	private final AtomicInteger completedIterations = new AtomicInteger();
+	
+	/**
+	 * Whether or not the warm-up has been started.
+	 */
+	private boolean started;
+	
+	/**
+	 * Constructs a new CompilerWarmUp. The warm-up does not begin until {@link #start()} is called.
+	 *
+	 * @param iterations
+	 * 		the number of times to compile the synthetic fixture, at least one
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code iterations} is less than one
+	 */
+	public CompilerWarmUp(final int iterations) {
+		if (iterations < 1) {
+			throw new IllegalArgumentException("Argument \'iterations\' must be at least one.");
+		}
+		
+		this.iterations = iterations;
+	}
+	
+	/**
+	 * Starts the warm-up shared by all rules in the JVM, or does nothing if it has already been started. The number of
+	 * iterations of an already started warm-up is not changed.
+	 *
+	 * @param iterations
+	 * 		the number of times to compile the synthetic fixture, at least one
+	 *
+	 * @return the shared warm-up, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code iterations} is less than one
+	 */
+	public static synchronized CompilerWarmUp startShared(final int iterations) {
+		if (sharedWarmUp == null) {
+			sharedWarmUp = new CompilerWarmUp(iterations);
+			sharedWarmUp.start();
+		}
+		
+		return sharedWarmUp;
+	}
+	
+	/**
+	 * @return the warm-up shared by all rules in the JVM, or null if it has not been started
+	 */
+	public static synchronized CompilerWarmUp getShared() {
+		return sharedWarmUp;
+	}
+	
+	/**
+	 * Waits for the shared warm-up to finish if it has been started and is still running. Returns immediately
+	 * otherwise.
+	 */
+	public static void awaitShared() {
+		final CompilerWarmUp warmUp = getShared();
+		
+		if (warmUp != null) {
+			warmUp.awaitCompletion();
+		}
+	}
+	
+	/**
+	 * Starts the warm-up on a new daemon thread, or does nothing if it has already been started. This method returns
+	 * immediately.
+	 *
+	 * @return a future which completes when the warm-up finishes, not null
+	 */
+	public synchronized ListenableFuture<Void> start() {
+		if (!started) {
+			started = true;
+			
+			final Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					warmUp();
+				}
+			}, "avatar-compiler-warm-up");
+			
+			thread.setDaemon(true);
+			thread.start();
+		}
+		
+		return completion;
+	}
+	
+	/**
+	 * @return a future which completes when the warm-up finishes, never completes if the warm-up is not started, not
+	 * null
+	 */
+	public ListenableFuture<Void> getCompletion() {
+		return completion;
+	}
+	
+	/**
+	 * @return the number of iterations which have finished, not negative
+	 */
+	public int getCompletedIterations() {
+		return completedIterations.get();
+	}
+	
+	/**
+	 * Waits for the warm-up to finish if it has been started and is still running. Returns immediately if the warm-up
+	 * has not been started. Failures during the warm-up are ignored, since the compiler works without warming up.
+	 */
+	public void awaitCompletion() {
+		synchronized (this) {
+			if (!started) {
+				return;
+			}
+		}
+		
+		try {
+			Uninterruptibles.getUninterruptibly(completion);
+		} catch (final ExecutionException e) {
+			// Real compilations report their own failures
+		}
+	}
+	
+	private void warmUp() {
+		try {
+			for (int i = 0; i < iterations; i++) {
+				CompilerUtil
+						.compileUsingProcessor(new WarmUpProcessor(), SOURCES, CompilePolicy.FULL)
+						.release();
+				
+				completedIterations.incrementAndGet();
+			}
+			
+			completion.set(null);
+		} catch (final Throwable t) {
+			completion.setException(t);
+		}
+	}
+	
+	/**
+	 * A processor which visits every root element and the elements annotated with any annotation, so the annotation
+	 * processing paths are warmed up along with the compiler.
+	 */
+	private static class WarmUpProcessor extends AbstractProcessor {
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return ImmutableSet.of("*");
+		}
+		
+		@Override
+		public SourceVersion getSupportedSourceVersion() {
+			return SourceVersion.latestSupported();
+		}
+		
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnvironment) {
+			for (final TypeElement annotation : annotations) {
+				roundEnvironment.getElementsAnnotatedWith(annotation);
+			}
+			
+			for (final Element element : roundEnvironment.getRootElements()) {
+				processingEnv.getElementUtils().getAllMembers((TypeElement) element);
+			}
+			
+			return false;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,231 @@
+package com.matthewtamlin.avatar.compilation;
+
+import javax.tools.JavaFileObject;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Watches a directory of sources and recompiles them with an {@link IncrementalCompiler} whenever they change. Each
+ * compilation uses every {@code .java} file in the directory tree, and only the affected sources are recompiled.
+ * Changes which occur in quick succession are combined into a single compilation.
+ * <p>
+ * The directory is watched by a daemon thread which is created when the compilation is started and stopped when it
+ * is closed. Listeners are notified on that thread.
+ */
+public class ContinuousCompilation implements Closeable {
+	/**
+	 * The time to wait for further changes before compiling, measured in milliseconds.
+	 */
+	private static final long DEBOUNCE_MS = 100;
+	
+	/**
+	 * The root of the watched directory tree.
+	 */
+	private final File sourceDirectory;
+	
+	/**
+	 * Compiles the sources.
+	 */
+	private final IncrementalCompiler compiler;
+	
+	/**
+	 * Notified after each compilation.
+	 */
+	private final Listener listener;
+	
+	/**
+	 * Receives events for the directory tree, null if the compilation has not been started.
+	 */
+	private WatchService watchService;
+	
+	/**
+	 * Watches the directory tree, null if the compilation has not been started.
+	 */
+	private Thread watchThread;
+	
+	/**
+	 * Constructs a new ContinuousCompilation. The compilation does not begin until {@link #start()} is called.
+	 *
+	 * @param sourceDirectory
+	 * 		the root of the directory tree containing the sources, not null
+	 * @param compiler
+	 * 		the compiler to use, not null
+	 * @param listener
+	 * 		notified after each compilation, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code sourceDirectory} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code compiler} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code listener} is null
+	 */
+	public ContinuousCompilation(
+			final File sourceDirectory,
+			final IncrementalCompiler compiler,
+			final Listener listener) {
+		
+		this.sourceDirectory = checkNotNull(sourceDirectory, "Argument \'sourceDirectory\' cannot be null.");
+		this.compiler = checkNotNull(compiler, "Argument \'compiler\' cannot be null.");
+		this.listener = checkNotNull(listener, "Argument \'listener\' cannot be null.");
+	}
+	
+	/**
+	 * Compiles the sources and begins watching the directory tree for changes. The initial compilation occurs on the
+	 * calling thread.
+	 *
+	 * @throws IOException
+	 * 		if the directory tree cannot be watched or read
+	 * @throws IllegalStateException
+	 * 		if the compilation has already been started
+	 */
+	public synchronized void start() throws IOException {
+		if (watchService != null) {
+			throw new IllegalStateException("The compilation has already been started.");
+		}
+		
+		watchService = FileSystems.getDefault().newWatchService();
+		register(sourceDirectory.toPath());
+		
+		compileAndNotify();
+		
+		watchThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "avatar-continuous-compilation");
+		
+		watchThread.setDaemon(true);
+		watchThread.start();
+	}
+	
+	/**
+	 * Stops watching the directory tree. Has no effect if the compilation is not running.
+	 *
+	 * @throws IOException
+	 * 		if the underlying watch service cannot be closed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (watchService != null) {
+			watchService.close();
+			watchThread.interrupt();
+		}
+	}
+	
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				
+				// Wait until the directory tree has been quiet for the debounce period
+				while (key != null) {
+					registerCreatedDirectories(key);
+					key.reset();
+					key = watchService.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+				}
+				
+				compileAndNotify();
+			}
+		} catch (final InterruptedException | ClosedWatchServiceException e) {
+			// Closed, so stop watching
+		}
+	}
+	
+	private void compileAndNotify() {
+		try {
+			listener.onCompilation(compiler.compile(findSources()), compiler.getLastRecompiledSources());
+		} catch (final IOException | RuntimeException e) {
+			listener.onFailure(e);
+		}
+	}
+	
+	private List<JavaFileObject> findSources() throws IOException {
+		final List<JavaFileObject> sources = new ArrayList<>();
+		
+		Files.walkFileTree(sourceDirectory.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+				if (file.toString().endsWith(".java")) {
+					sources.add(MappedSourceFileObject.forFile(file.toFile()));
+				}
+				
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		
+		return sources;
+	}
+	
+	private void registerCreatedDirectories(final WatchKey key) {
+		for (final WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == ENTRY_CREATE) {
+				final Path created = ((Path) key.watchable()).resolve((Path) event.context());
+				
+				if (Files.isDirectory(created)) {
+					try {
+						register(created);
+					} catch (final IOException e) {
+						listener.onFailure(e);
+					}
+				}
+			}
+		}
+	}
+	
+	private void register(final Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(final Path directory, final BasicFileAttributes attributes)
+					throws IOException {
+				
+				directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	/**
+	 * Notified when a continuous compilation completes or fails.
+	 */
+	public interface Listener {
+		/**
+		 * Called after each compilation.
+		 *
+		 * @param result
+		 * 		the result of compiling every source, not null
+		 * @param recompiledSources
+		 * 		the sources which were actually recompiled, not null
+		 */
+		void onCompilation(CompilationResult result, Set<JavaFileObject> recompiledSources);
+		
+		/**
+		 * Called if the sources cannot be read or compiled.
+		 *
+		 * @param exception
+		 * 		the cause of the failure, not null
+		 */
+		void onFailure(Exception exception);
+	}
+}
\ No newline at end of file
@@ -4,17 +4,22 @@ import javax.tools.Diagnostic;
 import javax.tools.DiagnosticListener;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
 
 /**
  * Simple utility for collecting and accessing diagnostics.
+ * <p>
+ * This class is safe for use by multiple threads. Diagnostics are collected in a lock-free queue, so reporting never
+ * blocks, and the diagnostics reported by any one thread are returned in the order that thread reported them.
  *
  * @param <T>
  * 		the type of diagnostic to collect
  */
 public class DiagnosticCollector<T> implements DiagnosticListener<T> {
-	private final List<Diagnostic<? extends T>> diagnostics = new ArrayList<>();
+	private final Queue<Diagnostic<? extends T>> diagnostics = new ConcurrentLinkedQueue<>();
 	
 	@Override
 	public void report(final Diagnostic<? extends T> diagnostic) {
@@ -24,7 +29,7 @@ public class DiagnosticCollector<T> implements DiagnosticListener<T> {
 	}
 	
 	/**
-	 * @return the collected diagnostics, may be empty, not null
+	 * @return a snapshot of the diagnostics collected so far, may be empty, not null
 	 */
 	public List<Diagnostic<? extends T>> getDiagnostics() {
 		return new ArrayList<>(diagnostics);
@@ -0,0 +1,447 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import javax.annotation.processing.Processor;
+import javax.tools.JavaFileObject;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A cache of compilation results stored in a directory, so that results can be shared between JVMs (for example the
+ * forked test JVMs of a build) and reused by later runs. Results are keyed by a fingerprint of the sources, the
+ * compiler options, the processor class (including its bytecode), the cache key of the processor if it is a {@link
+ * CacheableProcessor}, and the Java version. Once the total size of the stored results exceeds a maximum, the least
+ * recently used results are deleted.
+ * <p>
+ * Entries are written to a temporary file and atomically renamed into place, so readers never see a partially
+ * written entry and reads do not need to take a lock. Eviction is coordinated between JVMs with a lock on a file in
+ * the cache directory, and entries which disappear or cannot be read are treated as misses. Temporary files left by
+ * a JVM which died while writing are deleted once they are stale.
+ * <p>
+ * The fingerprint only covers the bytecode of the processor class itself. If the processor delegates to other
+ * classes which change, the cache directory should be cleared. Like {@link CompilationCache}, the processor is not
+ * invoked for a cached result, and restored results have empty timings.
+ * <p>
+ * This class is safe for use by multiple threads and by multiple JVMs sharing the same directory.
+ */
+public class DiskCompilationCache {
+	/**
+	 * The extension of entry files.
+	 */
+	private static final String ENTRY_EXTENSION = ".result";
+	
+	/**
+	 * The prefix of temporary files which entries are written to before being moved into place.
+	 */
+	private static final String TEMPORARY_PREFIX = "entry";
+	
+	/**
+	 * The extension of temporary files which entries are written to before being moved into place.
+	 */
+	private static final String TEMPORARY_EXTENSION = ".tmp";
+	
+	/**
+	 * The time after which a temporary file is assumed to have been abandoned by a writer which died, measured in
+	 * milliseconds. Writes take far less time, so files this old are never still being written.
+	 */
+	private static final long STALE_TEMPORARY_AGE_MS = 60 * 60 * 1000;
+	
+	/**
+	 * The name of the file locked while evicting.
+	 */
+	private static final String LOCK_FILE_NAME = "eviction.lock";
+	
+	/**
+	 * The directory the entries are stored in.
+	 */
+	private final Path directory;
+	
+	/**
+	 * The maximum total size of the entries, measured in bytes.
+	 */
+	private final long maximumSizeInBytes;
+	
+	private final AtomicLong hitCount = new AtomicLong(0);
+	
+	private final AtomicLong missCount = new AtomicLong(0);
+	
+	private final AtomicLong evictionCount = new AtomicLong(0);
+	
+	/**
+	 * Constructs a new DiskCompilationCache. The directory is created if it does not exist.
+	 *
+	 * @param directory
+	 * 		the directory to store results in, not null
+	 * @param maximumSizeInBytes
+	 * 		the maximum total size of the stored results, measured in bytes, not negative
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code directory} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code maximumSizeInBytes} is negative
+	 * @throws RuntimeException
+	 * 		if the directory cannot be created
+	 */
+	public DiskCompilationCache(final File directory, final long maximumSizeInBytes) {
+		checkNotNull(directory, "Argument \'directory\' cannot be null.");
+		
+		if (maximumSizeInBytes < 0) {
+			throw new IllegalArgumentException("Argument \'maximumSizeInBytes\' cannot be negative.");
+		}
+		
+		this.directory = directory.toPath();
+		this.maximumSizeInBytes = maximumSizeInBytes;
+		
+		try {
+			Files.createDirectories(this.directory);
+		} catch (final IOException e) {
+			throw new RuntimeException("Could not create cache directory \'" + directory + "\'.", e);
+		}
+	}
+	
+	/**
+	 * @return the number of lookups in this JVM which returned a stored result
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+	
+	/**
+	 * @return the number of lookups in this JVM which required compilation
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+	
+	/**
+	 * @return the number of results deleted by this JVM to keep the cache within its maximum size
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+	
+	/**
+	 * @return the total size of the stored results, measured in bytes
+	 *
+	 * @throws RuntimeException
+	 * 		if the cache directory cannot be read
+	 */
+	public long getSizeInBytes() {
+		long size = 0;
+		
+		for (final Entry entry : listEntries()) {
+			size += entry.size;
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * Deletes all stored results. The counters are not reset.
+	 *
+	 * @throws RuntimeException
+	 * 		if the cache directory cannot be read
+	 */
+	public void clear() {
+		for (final Entry entry : listEntries()) {
+			deleteQuietly(entry.path);
+		}
+	}
+	
+	/**
+	 * Gets the stored result for the supplied compilation inputs, or compiles and stores a new result if there is no
+	 * stored result. Failures to read or write the cache are not reported, since the result can always be produced by
+	 * compiling.
+	 *
+	 * @param processor
+	 * 		the processor to compile with, not null
+	 * @param sources
+	 * 		the sources to compile, not null, not containing null
+	 * @param options
+	 * 		the compiler options, not null, not containing null
+	 * @param storageMode
+	 * 		determines where the contents of restored files are stored, not null
+	 * @param compilation
+	 * 		performs the compilation if there is no stored result, not null
+	 *
+	 * @return the result, not null
+	 */
+	CompilationResult get(
+			final Processor processor,
+			final Iterable<? extends JavaFileObject> sources,
+			final Iterable<String> options,
+			final StorageMode storageMode,
+			final Callable<CompilationResult> compilation) {
+		
+		checkNotNull(storageMode, "Argument \'storageMode\' cannot be null.");
+		checkNotNull(compilation, "Argument \'compilation\' cannot be null.");
+		
+		final Path entryPath = directory.resolve(createKey(processor, sources, options) + ENTRY_EXTENSION);
+		final CompilationResult storedResult = read(entryPath, sources, storageMode);
+		
+		if (storedResult != null) {
+			hitCount.incrementAndGet();
+			return storedResult;
+		}
+		
+		missCount.incrementAndGet();
+		
+		final CompilationResult result;
+		
+		try {
+			result = compilation.call();
+		} catch (final RuntimeException e) {
+			throw e;
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+		
+		if (CompilationResultCodec.canEncode(result)) {
+			write(entryPath, result);
+			evictIfNecessary();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Reads a stored result, and marks it as recently used.
+	 *
+	 * @return the result, or null if there is no stored result or it cannot be read
+	 */
+	private CompilationResult read(
+			final Path entryPath,
+			final Iterable<? extends JavaFileObject> sources,
+			final StorageMode storageMode) {
+		
+		try (final DataInputStream input = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(entryPath)))) {
+			
+			final CompilationResult result = CompilationResultCodec.decode(input, sources, storageMode);
+			
+			touchQuietly(entryPath);
+			
+			return result;
+		} catch (final NoSuchFileException e) {
+			return null;
+		} catch (final IOException | RuntimeException e) {
+			// Entries are only ever replaced atomically, so an unreadable entry is corrupt or from another version
+			deleteQuietly(entryPath);
+			return null;
+		}
+	}
+	
+	/**
+	 * Writes a result to a temporary file and atomically moves it into place.
+	 */
+	private void write(final Path entryPath, final CompilationResult result) {
+		Path temporaryPath = null;
+		
+		try {
+			temporaryPath = Files.createTempFile(directory, TEMPORARY_PREFIX, TEMPORARY_EXTENSION);
+			
+			try (final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(temporaryPath)))) {
+				
+				CompilationResultCodec.encode(result, output);
+			}
+			
+			Files.move(temporaryPath, entryPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (final IOException e) {
+			if (temporaryPath != null) {
+				deleteQuietly(temporaryPath);
+			}
+		}
+	}
+	
+	/**
+	 * Deletes stale temporary files, then deletes the least recently used entries until the cache is within its maximum
+	 * size. Does not delete entries if another thread or JVM is already evicting, since that eviction will have the
+	 * same effect.
+	 */
+	private void evictIfNecessary() {
+		deleteStaleTemporaryFiles();
+		
+		final List<Entry> entries = listEntries();
+		long size = 0;
+		
+		for (final Entry entry : entries) {
+			size += entry.size;
+		}
+		
+		if (size <= maximumSizeInBytes) {
+			return;
+		}
+		
+		try (final FileChannel channel = FileChannel.open(
+				directory.resolve(LOCK_FILE_NAME),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+				final FileLock lock = channel.tryLock()) {
+			
+			if (lock == null) {
+				return;
+			}
+			
+			Collections.sort(entries, new Comparator<Entry>() {
+				@Override
+				public int compare(final Entry a, final Entry b) {
+					return Long.compare(a.lastUsedMs, b.lastUsedMs);
+				}
+			});
+			
+			for (final Entry entry : entries) {
+				if (size <= maximumSizeInBytes) {
+					break;
+				}
+				
+				if (deleteQuietly(entry.path)) {
+					evictionCount.incrementAndGet();
+				}
+				
+				size -= entry.size;
+			}
+		} catch (final OverlappingFileLockException | IOException e) {
+			// Another thread in this JVM holds the lock, or the lock file is unavailable
+		}
+	}
+	
+	/**
+	 * Deletes temporary files which are too old to still be being written.
+	 */
+	private void deleteStaleTemporaryFiles() {
+		final long staleBeforeMs = System.currentTimeMillis() - STALE_TEMPORARY_AGE_MS;
+		
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(
+				directory,
+				TEMPORARY_PREFIX + "*" + TEMPORARY_EXTENSION)) {
+			
+			for (final Path path : stream) {
+				try {
+					if (Files.getLastModifiedTime(path).toMillis() < staleBeforeMs) {
+						deleteQuietly(path);
+					}
+				} catch (final IOException e) {
+					// The file was moved into place or deleted after it was listed
+				}
+			}
+		} catch (final IOException e) {
+			// The files will be deleted by a later eviction
+		}
+	}
+	
+	/**
+	 * Lists the entries in the cache directory.
+	 */
+	private List<Entry> listEntries() {
+		final List<Entry> entries = new ArrayList<>();
+		
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + ENTRY_EXTENSION)) {
+			for (final Path path : stream) {
+				try {
+					final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+					entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime().toMillis()));
+				} catch (final IOException e) {
+					// The entry was deleted after it was listed
+				}
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Could not read cache directory \'" + directory + "\'.", e);
+		}
+		
+		return entries;
+	}
+	
+	/**
+	 * Creates the key of an entry. The key extends the in-memory fingerprint with details which can change between
+	 * runs: the bytecode of the processor class and the Java version.
+	 */
+	private static String createKey(
+			final Processor processor,
+			final Iterable<? extends JavaFileObject> sources,
+			final Iterable<String> options) {
+		
+		final Hasher hasher = Hashing.sha256().newHasher();
+		
+		hasher.putString(CompilationFingerprint.create(processor, sources, options), UTF_8);
+		hasher.putString(System.getProperty("java.version"), UTF_8);
+		
+		final Class<?> processorClass = processor.getClass();
+		final String classFileName = processorClass.getName().replace('.', '/') + ".class";
+		final ClassLoader classLoader = processorClass.getClassLoader() == null ?
+				ClassLoader.getSystemClassLoader() :
+				processorClass.getClassLoader();
+		
+		try (final InputStream classFile = classLoader.getResourceAsStream(classFileName)) {
+			if (classFile != null) {
+				hasher.putBytes(ByteStreams.toByteArray(classFile));
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Could not read class file of \'" + processorClass.getName() + "\'.", e);
+		}
+		
+		return hasher.hash().toString();
+	}
+	
+	private static void touchQuietly(final Path path) {
+		try {
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (final IOException e) {
+			// The entry will be evicted sooner than necessary, which is harmless
+		}
+	}
+	
+	private static boolean deleteQuietly(final Path path) {
+		try {
+			return Files.deleteIfExists(path);
+		} catch (final IOException e) {
+			// The file is in use or already gone, so leave it for a later eviction
+			return false;
+		}
+	}
+	
+	/**
+	 * A snapshot of an entry in the cache directory.
+	 */
+	private static class Entry {
+		private final Path path;
+		
+		private final long size;
+		
+		private final long lastUsedMs;
+		
+		private Entry(final Path path, final long size, final long lastUsedMs) {
+			this.path = path;
+			this.size = size;
+			this.lastUsedMs = lastUsedMs;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,144 @@
+package com.matthewtamlin.avatar.compilation;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * Wraps the processor of one fixture in a micro-batch so that it only sees the elements of that fixture. The wrapped
+ * processor is first invoked in the first round which contains one of its supported annotations on an element of the
+ * fixture (or the first round, if it supports all annotations), and is invoked in every round after that, which
+ * matches how the compiler invokes processors in a normal compilation.
+ * <p>
+ * Annotations are never claimed, since claiming an annotation would hide it from the processors of other fixtures.
+ */
+class FixtureProcessor implements Processor {
+	/**
+	 * The processor of the fixture.
+	 */
+	private final Processor delegate;
+	
+	/**
+	 * The namespace of the fixture.
+	 */
+	private final String namespace;
+	
+	/**
+	 * Whether or not the delegate has been invoked.
+	 */
+	private boolean delegateInvoked = false;
+	
+	/**
+	 * Whether or not the delegate has been initialised.
+	 */
+	private boolean delegateInitialised = false;
+	
+	/**
+	 * Constructs a new FixtureProcessor.
+	 *
+	 * @param delegate
+	 * 		the processor of the fixture, not null
+	 * @param namespace
+	 * 		the namespace of the fixture, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code delegate} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code namespace} is null
+	 */
+	FixtureProcessor(final Processor delegate, final String namespace) {
+		this.delegate = checkNotNull(delegate, "Argument \'delegate\' cannot be null.");
+		this.namespace = checkNotNull(namespace, "Argument \'namespace\' cannot be null.");
+	}
+	
+	/**
+	 * Returns whether or not the delegate has been initialised. The compiler only initialises a processor when it is
+	 * first needed, so a delegate which has not been initialised has not taken part in annotation processing and can
+	 * still be used in another compilation.
+	 *
+	 * @return true if the delegate has been initialised, false otherwise
+	 */
+	boolean isDelegateInitialised() {
+		return delegateInitialised;
+	}
+	
+	@Override
+	public Set<String> getSupportedOptions() {
+		return delegate.getSupportedOptions();
+	}
+	
+	/**
+	 * Gets the annotation types supported by the delegate, along with the same types moved into the namespace of the
+	 * fixture. Annotation types declared by the fixture are renamed along with the rest of the fixture, so the
+	 * delegate would otherwise never be invoked for them. Patterns such as {@code com.example.*} are moved the same
+	 * way, and {@code *} is left as is.
+	 *
+	 * @return the supported annotation types, not null
+	 */
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		final Set<String> supportedTypes = new LinkedHashSet<>();
+		
+		for (final String supportedType : delegate.getSupportedAnnotationTypes()) {
+			supportedTypes.add(supportedType);
+			
+			if (!supportedType.equals("*")) {
+				supportedTypes.add(namespace + "." + supportedType);
+			}
+		}
+		
+		return supportedTypes;
+	}
+	
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return delegate.getSupportedSourceVersion();
+	}
+	
+	@Override
+	public void init(final ProcessingEnvironment processingEnv) {
+		delegateInitialised = true;
+		delegate.init(processingEnv);
+	}
+	
+	@Override
+	public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+		final FixtureRoundEnvironment fixtureRoundEnv = new FixtureRoundEnvironment(roundEnv, namespace);
+		final Set<TypeElement> fixtureAnnotations = new LinkedHashSet<>();
+		
+		for (final TypeElement annotation : annotations) {
+			if (!fixtureRoundEnv.getElementsAnnotatedWith(annotation).isEmpty()) {
+				fixtureAnnotations.add(annotation);
+			}
+		}
+		
+		if (!delegateInvoked && fixtureAnnotations.isEmpty() && !delegate.getSupportedAnnotationTypes().contains("*")) {
+			return false;
+		}
+		
+		delegateInvoked = true;
+		delegate.process(fixtureAnnotations, fixtureRoundEnv);
+		
+		return false;
+	}
+	
+	@Override
+	public Iterable<? extends Completion> getCompletions(
+			final Element element,
+			final AnnotationMirror annotation,
+			final ExecutableElement member,
+			final String userText) {
+		
+		return delegate.getCompletions(element, annotation, member, userText);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,107 @@
+package com.matthewtamlin.avatar.compilation;
+
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * A view of a micro-batch round environment which only contains the elements of one fixture. An element belongs to
+ * a fixture if its package is the namespace of the fixture or a subpackage of it.
+ */
+class FixtureRoundEnvironment implements RoundEnvironment {
+	/**
+	 * The round environment of the whole micro-batch.
+	 */
+	private final RoundEnvironment delegate;
+	
+	/**
+	 * The namespace of the fixture.
+	 */
+	private final String namespace;
+	
+	/**
+	 * Constructs a new FixtureRoundEnvironment.
+	 *
+	 * @param delegate
+	 * 		the round environment of the whole micro-batch, not null
+	 * @param namespace
+	 * 		the namespace of the fixture, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code delegate} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code namespace} is null
+	 */
+	FixtureRoundEnvironment(final RoundEnvironment delegate, final String namespace) {
+		this.delegate = checkNotNull(delegate, "Argument \'delegate\' cannot be null.");
+		this.namespace = checkNotNull(namespace, "Argument \'namespace\' cannot be null.");
+	}
+	
+	@Override
+	public boolean processingOver() {
+		return delegate.processingOver();
+	}
+	
+	@Override
+	public boolean errorRaised() {
+		return delegate.errorRaised();
+	}
+	
+	@Override
+	public Set<? extends Element> getRootElements() {
+		return filter(delegate.getRootElements());
+	}
+	
+	@Override
+	public Set<? extends Element> getElementsAnnotatedWith(final TypeElement a) {
+		return filter(delegate.getElementsAnnotatedWith(a));
+	}
+	
+	@Override
+	public Set<? extends Element> getElementsAnnotatedWith(final Class<? extends Annotation> a) {
+		return filter(delegate.getElementsAnnotatedWith(a));
+	}
+	
+	/**
+	 * Determines whether an element belongs to the fixture.
+	 *
+	 * @param element
+	 * 		the element to check, not null
+	 *
+	 * @return true if the element belongs to the fixture, false otherwise
+	 */
+	boolean contains(final Element element) {
+		Element current = element;
+		
+		while (current != null && !(current instanceof PackageElement)) {
+			current = current.getEnclosingElement();
+		}
+		
+		if (current == null) {
+			return false;
+		}
+		
+		final String packageName = ((PackageElement) current).getQualifiedName().toString();
+		
+		return packageName.equals(namespace) || packageName.startsWith(namespace + ".");
+	}
+	
+	private Set<Element> filter(final Set<? extends Element> elements) {
+		final Set<Element> filtered = new LinkedHashSet<>();
+		
+		for (final Element element : elements) {
+			if (contains(element)) {
+				filtered.add(element);
+			}
+		}
+		
+		return Collections.unmodifiableSet(filtered);
+	}
+}
\ No newline at end of file
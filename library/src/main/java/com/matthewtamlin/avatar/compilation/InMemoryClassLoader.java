@@ -0,0 +1,218 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.common.io.ByteStreams;
+
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Collections;
+import java.util.Enumeration;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * A class loader which loads classes and resources directly from the class output of an {@link
+ * InMemoryJavaFileManager}. Classes are defined from the stored bytes without writing anything to disk, and each
+ * lookup goes straight to the stored file for the requested name.
+ * <p>
+ * The usual parent-first delegation applies, so classes which are also available from the parent class loader are
+ * loaded from the parent.
+ */
+public class InMemoryClassLoader extends ClassLoader {
+	/**
+	 * The protocol of the URLs returned for resources.
+	 */
+	private static final String PROTOCOL = "memory";
+	
+	static {
+		registerAsParallelCapable();
+	}
+	
+	/**
+	 * The outputs to load classes and resources from.
+	 */
+	private final OutputIndex outputs;
+	
+	/**
+	 * Opens connections to resources in the outputs.
+	 */
+	private final URLStreamHandler resourceHandler = new ResourceHandler();
+	
+	/**
+	 * Constructs a new InMemoryClassLoader which delegates to the class loader that loaded this class.
+	 *
+	 * @param fileManager
+	 * 		the file manager to load classes and resources from, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code fileManager} is null
+	 */
+	public InMemoryClassLoader(final InMemoryJavaFileManager fileManager) {
+		this(fileManager, InMemoryClassLoader.class.getClassLoader());
+	}
+	
+	/**
+	 * Constructs a new InMemoryClassLoader.
+	 *
+	 * @param fileManager
+	 * 		the file manager to load classes and resources from, not null
+	 * @param parent
+	 * 		the parent class loader, null to use the bootstrap class loader
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code fileManager} is null
+	 */
+	public InMemoryClassLoader(final InMemoryJavaFileManager fileManager, final ClassLoader parent) {
+		this(checkNotNull(fileManager, "Argument \'fileManager\' cannot be null.").getOutputIndex(), parent);
+	}
+	
+	/**
+	 * Constructs a new InMemoryClassLoader which delegates to the class loader that loaded this class. This
+	 * constructor can be used to load the classes of a {@link CompilationResult} via {@link
+	 * CompilationResult#generatedFileIndex()}.
+	 *
+	 * @param outputs
+	 * 		the outputs to load classes and resources from, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code outputs} is null
+	 */
+	public InMemoryClassLoader(final OutputIndex outputs) {
+		this(outputs, InMemoryClassLoader.class.getClassLoader());
+	}
+	
+	/**
+	 * Constructs a new InMemoryClassLoader.
+	 *
+	 * @param outputs
+	 * 		the outputs to load classes and resources from, not null
+	 * @param parent
+	 * 		the parent class loader, null to use the bootstrap class loader
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code outputs} is null
+	 */
+	public InMemoryClassLoader(final OutputIndex outputs, final ClassLoader parent) {
+		super(parent);
+		
+		this.outputs = checkNotNull(outputs, "Argument \'outputs\' cannot be null.");
+	}
+	
+	@Override
+	protected Class<?> findClass(final String name) throws ClassNotFoundException {
+		final JavaFileObject classFile = outputs.getGeneratedClass(name);
+		
+		if (classFile == null) {
+			throw new ClassNotFoundException(name);
+		}
+		
+		final byte[] bytes;
+		
+		try (final InputStream stream = classFile.openInputStream()) {
+			bytes = ByteStreams.toByteArray(stream);
+		} catch (final FileNotFoundException e) {
+			// The file was looked up but never written
+			throw new ClassNotFoundException(name, e);
+		} catch (final IOException e) {
+			throw new ClassNotFoundException("Could not read class file for " + name + ".", e);
+		}
+		
+		definePackageFor(name);
+		
+		return defineClass(name, bytes, 0, bytes.length);
+	}
+	
+	@Override
+	protected URL findResource(final String name) {
+		final JavaFileObject file = findResourceFile(name);
+		
+		if (file == null) {
+			return null;
+		}
+		
+		try {
+			return new URL(PROTOCOL, null, -1, "/" + name, resourceHandler);
+		} catch (final MalformedURLException e) {
+			return null;
+		}
+	}
+	
+	@Override
+	protected Enumeration<URL> findResources(final String name) {
+		final URL url = findResource(name);
+		
+		return url == null ? Collections.<URL>emptyEnumeration() : Collections.enumeration(Collections.singleton(url));
+	}
+	
+	/**
+	 * Gets the stored file for a resource, if it exists and has been written.
+	 *
+	 * @param name
+	 * 		the resource name, using '/' as the separator, not null
+	 *
+	 * @return the file, or null if there is no such resource
+	 */
+	private JavaFileObject findResourceFile(final String name) {
+		final String normalisedName = name.startsWith("/") ? name.substring(1) : name;
+		final JavaFileObject file = outputs.getByPath(StandardLocation.CLASS_OUTPUT, normalisedName);
+		
+		// Files which have been looked up but never written have no modification time
+		if (file == null || file.getLastModified() == 0L) {
+			return null;
+		}
+		
+		return file;
+	}
+	
+	/**
+	 * Defines the package of a class if it has not already been defined, so that {@link Class#getPackage()} works
+	 * for loaded classes.
+	 */
+	private void definePackageFor(final String className) {
+		final int lastDot = className.lastIndexOf('.');
+		
+		if (lastDot == -1) {
+			return;
+		}
+		
+		final String packageName = className.substring(0, lastDot);
+		
+		synchronized (this) {
+			if (getPackage(packageName) == null) {
+				definePackage(packageName, null, null, null, null, null, null, null);
+			}
+		}
+	}
+	
+	/**
+	 * Opens connections to resources by reading the stored files directly.
+	 */
+	private class ResourceHandler extends URLStreamHandler {
+		@Override
+		protected URLConnection openConnection(final URL url) throws IOException {
+			final JavaFileObject file = findResourceFile(url.getPath());
+			
+			if (file == null) {
+				throw new FileNotFoundException(url.toString());
+			}
+			
+			return new URLConnection(url) {
+				@Override
+				public void connect() {
+					connected = true;
+				}
+				
+				@Override
+				public InputStream getInputStream() throws IOException {
+					return file.openInputStream();
+				}
+			};
+		}
+	}
+}
@@ -1,35 +1,281 @@
 package com.matthewtamlin.avatar.compilation;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
 import javax.tools.FileObject;
 import javax.tools.ForwardingJavaFileManager;
 import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardLocation;
+import java.io.File;
 import java.io.IOException;
-import java.net.URI;
-import java.util.HashMap;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
+import static com.matthewtamlin.avatar.util.IterableNullChecker.checkNotContainsNull;
 import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
 
 /**
- * A Java file manager which stores files in memory.
+ * A Java file manager which stores files in memory. Output files are held in an {@link OutputIndex}, so lookups by
+ * class name or path do not scan the stored files.
+ * <p>
+ * Output files are stored in concurrent maps, so this class is safe for use by multiple threads as long as the
+ * wrapped file manager is. When several threads request the same output file at once, they all receive the same file
+ * object. Operations on input locations are forwarded to the wrapped file manager without additional locking.
  */
 public class InMemoryJavaFileManager extends ForwardingJavaFileManager<JavaFileManager> {
-	private static final String BASE_LOCATION = "memory:///";
+	/**
+	 * Stores the files in memory, indexed by location, path, binary name and package.
+	 */
+	private final OutputIndex files = new OutputIndex();
+	
+	/**
+	 * The outputs of earlier compilations, whose class files are added to the class path. Earlier entries take
+	 * precedence over later entries.
+	 */
+	private final List<OutputIndex> classPathOutputs;
+	
+	/**
+	 * The charset used to encode and decode output files.
+	 */
+	private final Charset charset;
+	
+	/**
+	 * Determines where the contents of output files are stored.
+	 */
+	private final StorageMode storageMode;
 	
-	private final Map<URI, JavaFileObject> files = new HashMap<>();
+	/**
+	 * Moves the contents of output files to disk when the memory budget is exceeded, null if there is no budget.
+	 */
+	private final SpillStore spillStore;
 	
 	/**
 	 * Constructs a new InMemoryJavaFileManager by wrapping the supplied file manager and storing its files in memory.
+	 * Output files are encoded using the default charset of the platform.
 	 *
 	 * @param fileManager
 	 * 		the file manager to wrap, not null
 	 */
 	public InMemoryJavaFileManager(final JavaFileManager fileManager) {
+		this(fileManager, Charset.defaultCharset());
+	}
+	
+	/**
+	 * Constructs a new InMemoryJavaFileManager by wrapping the supplied file manager and storing its files in memory.
+	 *
+	 * @param fileManager
+	 * 		the file manager to wrap, not null
+	 * @param charset
+	 * 		the charset used to encode and decode output files, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code charset} is null
+	 */
+	public InMemoryJavaFileManager(final JavaFileManager fileManager, final Charset charset) {
+		this(fileManager, charset, StorageMode.HEAP);
+	}
+	
+	/**
+	 * Constructs a new InMemoryJavaFileManager by wrapping the supplied file manager and storing its files in memory.
+	 * When the outputs are no longer needed, {@link #release()} can be called to discard them without waiting for the
+	 * file manager to be collected.
+	 *
+	 * @param fileManager
+	 * 		the file manager to wrap, not null
+	 * @param charset
+	 * 		the charset used to encode and decode output files, not null
+	 * @param storageMode
+	 * 		determines where the contents of output files are stored, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code charset} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code storageMode} is null
+	 */
+	public InMemoryJavaFileManager(
+			final JavaFileManager fileManager,
+			final Charset charset,
+			final StorageMode storageMode) {
+		
+		this(fileManager, charset, storageMode, null, ImmutableList.<OutputIndex>of());
+	}
+	
+	/**
+	 * Constructs a new InMemoryJavaFileManager which keeps the contents of its files in memory until their total size
+	 * exceeds a budget. Once over budget, the contents of the least recently used files are moved to temporary files
+	 * in the spill directory until the total is back within budget. Spilled files are read from disk, but otherwise
+	 * behave the same as files in memory. Temporary files are deleted when the files are rewritten, deleted or
+	 * released, so the files of results which are discarded without being released remain in the spill directory
+	 * until the caller removes it.
+	 *
+	 * @param fileManager
+	 * 		the file manager to wrap, not null
+	 * @param charset
+	 * 		the charset used to encode and decode output files, not null
+	 * @param storageMode
+	 * 		determines where the contents of output files are stored while in memory, not null
+	 * @param memoryBudgetInBytes
+	 * 		the maximum total size of the contents kept in memory, measured in bytes, not negative
+	 * @param spillDirectory
+	 * 		the directory to create temporary files in, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code charset} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code storageMode} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code memoryBudgetInBytes} is negative
+	 * @throws IllegalArgumentException
+	 * 		if {@code spillDirectory} is null
+	 */
+	public InMemoryJavaFileManager(
+			final JavaFileManager fileManager,
+			final Charset charset,
+			final StorageMode storageMode,
+			final long memoryBudgetInBytes,
+			final File spillDirectory) {
+		
+		this(
+				fileManager,
+				charset,
+				storageMode,
+				new SpillStore(memoryBudgetInBytes, spillDirectory),
+				ImmutableList.<OutputIndex>of());
+	}
+	
+	/**
+	 * Constructs a new InMemoryJavaFileManager which also adds the class files in the class output locations of
+	 * earlier compilations to the class path, so compilations can be chained without writing their outputs to disk.
+	 * The class files are listed before the class path of the wrapped file manager, and the outputs are searched in
+	 * the order they are supplied, so a class in an earlier output takes precedence over classes with the same name
+	 * in later outputs and on the class path. Only class files which have been written are added.
+	 * <p>
+	 * The outputs are read but never modified, so the same outputs can be shared by any number of file managers,
+	 * including file managers in other threads. The outputs must not be released while they are in use.
+	 *
+	 * @param fileManager
+	 * 		the file manager to wrap, not null
+	 * @param charset
+	 * 		the charset used to encode and decode output files, not null
+	 * @param storageMode
+	 * 		determines where the contents of output files are stored, not null
+	 * @param classPathOutputs
+	 * 		the outputs of the earlier compilations, in order of precedence, not null, not containing null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code charset} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code storageMode} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code classPathOutputs} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code classPathOutputs} contains null
+	 */
+	public InMemoryJavaFileManager(
+			final JavaFileManager fileManager,
+			final Charset charset,
+			final StorageMode storageMode,
+			final Iterable<OutputIndex> classPathOutputs) {
+		
+		this(
+				fileManager,
+				charset,
+				storageMode,
+				null,
+				ImmutableList.copyOf(checkNotContainsNull(
+						checkNotNull(classPathOutputs, "Argument \'classPathOutputs\' cannot be null."),
+						"Argument \'classPathOutputs\' cannot contain null.")));
+	}
+	
+	/**
+	 * Constructs a new InMemoryJavaFileManager which also adds the class files in the class output locations of
+	 * earlier compilations to the class path, as described in
+	 * {@link #InMemoryJavaFileManager(JavaFileManager, Charset, StorageMode, Iterable)}.
+	 *
+	 * @param fileManager
+	 * 		the file manager to wrap, not null
+	 * @param charset
+	 * 		the charset used to encode and decode output files, not null
+	 * @param storageMode
+	 * 		determines where the contents of output files are stored, not null
+	 * @param spillStore
+	 * 		moves the contents of output files to disk when too much memory is in use, null to keep all contents in
+	 * 		memory
+	 * @param classPathOutputs
+	 * 		the outputs of the earlier compilations, in order of precedence, not null, not containing null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code charset} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code storageMode} is null
+	 */
+	InMemoryJavaFileManager(
+			final JavaFileManager fileManager,
+			final Charset charset,
+			final StorageMode storageMode,
+			final SpillStore spillStore,
+			final List<OutputIndex> classPathOutputs) {
+		
 		super(fileManager);
+		
+		this.charset = checkNotNull(charset, "Argument \'charset\' cannot be null.");
+		this.storageMode = checkNotNull(storageMode, "Argument \'storageMode\' cannot be null.");
+		this.spillStore = spillStore;
+		this.classPathOutputs = classPathOutputs;
+	}
+	
+	@Override
+	public Iterable<JavaFileObject> list(
+			final Location location,
+			final String packageName,
+			final Set<Kind> kinds,
+			final boolean recurse)
+			throws IOException {
+		
+		final Iterable<JavaFileObject> files = super.list(location, packageName, kinds, recurse);
+		
+		if (classPathOutputs.isEmpty() || location != StandardLocation.CLASS_PATH || !kinds.contains(Kind.CLASS)) {
+			return files;
+		}
+		
+		final List<JavaFileObject> classFiles = new ArrayList<>();
+		
+		// Only needed when a class can be in more than one output
+		final Set<String> addedBinaryNames = classPathOutputs.size() == 1 ? null : new HashSet<String>();
+		
+		for (final OutputIndex outputs : classPathOutputs) {
+			addWrittenClassFiles(classFiles, addedBinaryNames, outputs, packageName);
+			
+			if (recurse) {
+				for (final String outputPackageName : outputs.getPackageNames(StandardLocation.CLASS_OUTPUT)) {
+					if (isSubpackage(outputPackageName, packageName)) {
+						addWrittenClassFiles(classFiles, addedBinaryNames, outputs, outputPackageName);
+					}
+				}
+			}
+		}
+		
+		return classFiles.isEmpty() ? files : Iterables.concat(classFiles, files);
+	}
+	
+	@Override
+	public String inferBinaryName(final Location location, final JavaFileObject file) {
+		if (file instanceof InMemoryJavaFileObject) {
+			// The path is the location name followed by the path of the file relative to the location
+			final String path = file.toUri().getPath();
+			final String relativePath = path.substring(path.indexOf('/', 1) + 1);
+			final int extensionStart = relativePath.lastIndexOf('.');
+			
+			return (extensionStart == -1 ? relativePath : relativePath.substring(0, extensionStart)).replace('/', '.');
+		} else {
+			return super.inferBinaryName(location, file);
+		}
 	}
 	
 	@Override
@@ -45,9 +291,7 @@ public class InMemoryJavaFileManager extends ForwardingJavaFileManager<JavaFileM
 			throws IOException {
 		
 		if (location.isOutputLocation()) {
-			final URI uri = createUri(location, packageName, relativeName);
-			
-			return files.containsKey(uri) ? files.get(uri) : null;
+			return getStoredFile(location, packageName, relativeName);
 		} else {
 			return super.getFileForInput(location, packageName, relativeName);
 		}
@@ -61,16 +305,21 @@ public class InMemoryJavaFileManager extends ForwardingJavaFileManager<JavaFileM
 			throws IOException {
 		
 		if (location.isOutputLocation()) {
-			final URI uri = createUri(location, className, kind);
-			
-			if (!files.containsKey(uri)) {
-				files.put(uri, new InMemoryJavaFileObject(uri));
+			return getOrCreateJavaFile(location, className, kind);
+		}
+		
+		if (location == StandardLocation.CLASS_PATH && kind == Kind.CLASS) {
+			for (final OutputIndex outputs : classPathOutputs) {
+				final JavaFileObject file = outputs.getJavaFile(StandardLocation.CLASS_OUTPUT, className, Kind.CLASS);
+				
+				// Files which have been looked up but never written have no modification time
+				if (file != null && file.getLastModified() != 0L) {
+					return file;
+				}
 			}
-			
-			return files.get(uri);
-		} else {
-			return super.getJavaFileForInput(location, className, kind);
 		}
+		
+		return super.getJavaFileForInput(location, className, kind);
 	}
 	
 	@Override
@@ -81,13 +330,7 @@ public class InMemoryJavaFileManager extends ForwardingJavaFileManager<JavaFileM
 			final FileObject sibling)
 			throws IOException {
 		
-		final URI uri = createUri(location, packageName, relativeName);
-		
-		if (!files.containsKey(uri)) {
-			files.put(uri, new InMemoryJavaFileObject(uri));
-		}
-		
-		return files.get(uri);
+		return getOrCreateFile(location, packageName, relativeName);
 	}
 	
 	@Override
@@ -98,13 +341,7 @@ public class InMemoryJavaFileManager extends ForwardingJavaFileManager<JavaFileM
 			final FileObject sibling)
 			throws IOException {
 		
-		final URI uri = createUri(location, className, kind);
-		
-		if (!files.containsKey(uri)) {
-			files.put(uri, new InMemoryJavaFileObject(uri));
-		}
-		
-		return files.get(uri);
+		return getOrCreateJavaFile(location, className, kind);
 	}
 	
 	@Override
@@ -113,23 +350,41 @@ public class InMemoryJavaFileManager extends ForwardingJavaFileManager<JavaFileM
 	}
 	
 	/**
-	 * @return all output files, may be empty, not null
+	 * Gets a stored file by class name and kind. Unlike {@link #getJavaFileForInput(Location, String, Kind)}, this
+	 * method never creates a new file.
+	 *
+	 * @param location
+	 * 		the location of the file, not null
+	 * @param className
+	 * 		the binary name of the class, not null
+	 * @param kind
+	 * 		the kind of the file, not null
+	 *
+	 * @return the file, or null if no file has been stored for the supplied location, class name and kind
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code location} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code className} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code kind} is null
 	 */
-	public Set<JavaFileObject> getOutputFiles() {
-		return new HashSet<>(files.values());
+	public JavaFileObject getStoredJavaFile(final Location location, final String className, final Kind kind) {
+		return files.getJavaFile(location, className, kind);
 	}
 	
 	/**
-	 * Creates a URI for a class file using a location, a package name, and a relative class name.
+	 * Gets a stored file by package name and relative name. Unlike {@link #getFileForInput(Location, String,
+	 * String)}, this method never throws an exception for a missing file.
 	 *
 	 * @param location
-	 * 		the location of the file relative to {@code BASE_LOCATION}, not null
+	 * 		the location of the file, not null
 	 * @param packageName
-	 * 		the package name of the class, not null
+	 * 		the name of the package containing the file, empty for the unnamed package, not null
 	 * @param relativeName
-	 * 		the name of the class, relative to the package name, not null
+	 * 		the name of the file relative to the package, not null
 	 *
-	 * @return the URI, not null
+	 * @return the file, or null if no file has been stored for the supplied location, package and name
 	 *
 	 * @throws IllegalArgumentException
 	 * 		if {@code location} is null
@@ -138,67 +393,140 @@ public class InMemoryJavaFileManager extends ForwardingJavaFileManager<JavaFileM
 	 * @throws IllegalArgumentException
 	 * 		if {@code relativeName} is null
 	 */
-	private static URI createUri(
-			final JavaFileManager.Location location,
-			final String packageName,
-			final String relativeName) {
-		
-		checkNotNull(location, "Argument \'location\' cannot be null.");
-		checkNotNull(packageName, "Argument \'packageName\' cannot be null.");
-		checkNotNull(relativeName, "Argument \'relativeName\' cannot be null.");
-		
-		final StringBuilder uri = new StringBuilder();
+	public JavaFileObject getStoredFile(final Location location, final String packageName, final String relativeName) {
+		return files.getFile(location, packageName, relativeName);
+	}
+	
+	/**
+	 * @return an unmodifiable view of all output files, may be empty, not null
+	 */
+	public Set<JavaFileObject> getOutputFiles() {
+		return files.getAllFiles();
+	}
+	
+	/**
+	 * @return the total size of the contents of all output files, measured in bytes
+	 */
+	public long getOutputSizeInBytes() {
+		long size = 0;
 		
-		uri.append(BASE_LOCATION);
-		uri.append(location.getName());
-		uri.append("/");
+		for (final JavaFileObject file : files.getAllFiles()) {
+			if (file instanceof InMemoryJavaFileObject) {
+				size += ((InMemoryJavaFileObject) file).getSizeInBytes();
+			}
+		}
 		
-		if (!packageName.isEmpty()) {
-			uri.append(packageName.replace('.', '/'));
-			uri.append("/");
+		return size;
+	}
+	
+	/**
+	 * @return the total size of the contents of output files which are kept in memory rather than spilled to disk,
+	 * measured in bytes
+	 */
+	public long getInMemoryOutputSizeInBytes() {
+		return spillStore == null ? getOutputSizeInBytes() : spillStore.getInMemoryBytes();
+	}
+	
+	/**
+	 * @return the number of output files which have been spilled to disk, zero if there is no memory budget
+	 */
+	public long getSpilledFileCount() {
+		return spillStore == null ? 0 : spillStore.getSpillCount();
+	}
+	
+	/**
+	 * Releases the contents of all output files, as if each file had been deleted. The files remain in the index.
+	 */
+	public void release() {
+		for (final JavaFileObject file : files.getAllFiles()) {
+			file.delete();
 		}
+	}
+	
+	/**
+	 * @return the index of all output files, not null
+	 */
+	public OutputIndex getOutputIndex() {
+		return files;
+	}
+	
+	/**
+	 * Gets the file stored for a class name and kind, creating and storing a new empty file if none exists. This
+	 * method is atomic, and does not allocate if the file already exists.
+	 */
+	private JavaFileObject getOrCreateJavaFile(final Location location, final String className, final Kind kind) {
+		final JavaFileObject existingFile = files.getJavaFile(location, className, kind);
+		
+		return existingFile != null ? existingFile : create(location, OutputIndex.createPath(className, kind));
+	}
+	
+	/**
+	 * Gets the file stored for a package and relative name, creating and storing a new empty file if none exists. This
+	 * method is atomic, and does not allocate if the file already exists.
+	 */
+	private JavaFileObject getOrCreateFile(
+			final Location location,
+			final String packageName,
+			final String relativeName) {
 		
-		uri.append(relativeName);
+		final JavaFileObject existingFile = files.getFile(location, packageName, relativeName);
 		
-		return URI.create(uri.toString());
+		return existingFile != null ?
+				existingFile :
+				create(location, OutputIndex.createPath(packageName, relativeName));
 	}
 	
 	/**
-	 * Creates a URI for a class file using a location, a class name, and a kind.
+	 * Creates and stores a new empty file, unless another thread stores a file at the same location and path first.
 	 *
 	 * @param location
-	 * 		the location of the file relative to {@code BASE_LOCATION}, not null
-	 * @param className
-	 * 		the name of the class, not null
-	 * @param kind
-	 * 		the kind of the class, not null
-	 *
-	 * @return the URI, not null
+	 * 		the location of the file, not null
+	 * @param path
+	 * 		the path of the file relative to the location, not null
 	 *
-	 * @throws IllegalArgumentException
-	 * 		if {@code location} is null
-	 * @throws IllegalArgumentException
-	 * 		if {@code className} is null
-	 * @throws IllegalArgumentException
-	 * 		if {@code kind} is null
+	 * @return the stored file, not null
 	 */
-	private static URI createUri(
-			final JavaFileManager.Location location,
-			final String className,
-			final JavaFileObject.Kind kind) {
-		
-		checkNotNull(location, "Argument \'location\' cannot be null.");
-		checkNotNull(className, "Argument \'className\' cannot be null.");
-		checkNotNull(kind, "Argument \'kind\' cannot be null.");
+	private JavaFileObject create(final Location location, final String path) {
+		final JavaFileObject newFile = new InMemoryJavaFileObject(
+				OutputIndex.createUri(location, path),
+				charset,
+				storageMode,
+				spillStore);
 		
-		final StringBuilder uri = new StringBuilder();
+		return files.addIfAbsent(location, path, newFile);
+	}
+	
+	/**
+	 * Adds the class files from some outputs which are directly in a package and have been written. If the binary
+	 * names of the added files are being tracked, then files with the same binary name as an added file are skipped.
+	 */
+	private void addWrittenClassFiles(
+			final List<JavaFileObject> classFiles,
+			final Set<String> addedBinaryNames,
+			final OutputIndex outputs,
+			final String packageName) {
 		
-		uri.append(BASE_LOCATION);
-		uri.append(location.getName());
-		uri.append("/");
-		uri.append(className.replace(".", "/"));
-		uri.append(kind.extension);
+		for (final JavaFileObject file : outputs.getFilesInPackage(
+				StandardLocation.CLASS_OUTPUT,
+				packageName,
+				Kind.CLASS)) {
+			
+			// Files which have been looked up but never written have no modification time
+			if (file.getLastModified() == 0L) {
+				continue;
+			}
+			
+			if (addedBinaryNames == null || addedBinaryNames.add(inferBinaryName(StandardLocation.CLASS_OUTPUT, file))) {
+				classFiles.add(file);
+			}
+		}
+	}
+	
+	private static boolean isSubpackage(final String candidate, final String packageName) {
+		if (packageName.isEmpty()) {
+			return !candidate.isEmpty();
+		}
 		
-		return URI.create(uri.toString());
+		return candidate.startsWith(packageName + ".");
 	}
 }
\ No newline at end of file
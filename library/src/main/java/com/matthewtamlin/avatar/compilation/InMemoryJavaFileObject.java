@@ -1,6 +1,7 @@
 package com.matthewtamlin.avatar.compilation;
 
 import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
 
 import javax.tools.JavaFileObject;
 import javax.tools.SimpleJavaFileObject;
@@ -12,25 +13,58 @@ import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull
 
 /**
  * A Java file object which stores data in memory.
+ * <p>
+ * Written data is stored in a list of buffers which grow as data is written, and the buffers become the file contents
+ * when the stream or writer is closed, without being copied. Reads stream directly from the buffers. Decoded
+ * character content of files stored on the heap is cached until the file is next written or deleted.
+ * <p>
+ * Files created by an {@link InMemoryJavaFileManager} with a memory budget may have their contents moved to a
+ * temporary file on disk when the budget is exceeded. Spilled contents are read from disk but otherwise behave exactly
+ * like contents in memory.
+ * <p>
+ * This class is safe for use by multiple threads. The contents are replaced atomically when a stream or writer is
+ * closed, so readers always see either the previous contents or the new contents and never a partial write.
  */
 public class InMemoryJavaFileObject extends SimpleJavaFileObject {
 	/**
 	 * The encoding used by the file.
 	 */
-	private static final Charset charset = Charset.defaultCharset();
+	private final Charset charset;
+	
+	/**
+	 * Determines where the contents are stored.
+	 */
+	private final StorageMode storageMode;
+	
+	/**
+	 * Moves the contents to disk when too much memory is in use, null if the contents are always kept in memory.
+	 */
+	private final SpillStore spillStore;
+	
+	/**
+	 * The temporary file holding the contents, null if the contents are in memory. Guarded by this object.
+	 */
+	private File spillFile;
 	
 	/**
 	 * The contents of the file.
 	 */
-	private ByteSource data;
+	private volatile ByteSource data;
+	
+	/**
+	 * The most recently decoded contents, null if the contents have not been decoded. The decoded contents are only
+	 * valid while they belong to the current {@link #data}.
+	 */
+	private volatile DecodedContent decodedContent;
 	
 	/**
 	 * The time this file was last modified, measured in milliseconds since the epoch date.
 	 */
-	private long lastModifiedMsFromEpoch = 0L;
+	private volatile long lastModifiedMsFromEpoch = 0L;
 	
 	/**
-	 * Constructs a new InMemoryJavaFileObject for the file located at the supplied URI.
+	 * Constructs a new InMemoryJavaFileObject for the file located at the supplied URI. The file is encoded using the
+	 * default charset of the platform.
 	 *
 	 * @param uri
 	 * 		a URI pointing at the file, not null
@@ -39,12 +73,84 @@ public class InMemoryJavaFileObject extends SimpleJavaFileObject {
 	 * 		if {@code uri} is null
 	 */
 	public InMemoryJavaFileObject(final URI uri) {
+		this(uri, Charset.defaultCharset());
+	}
+	
+	/**
+	 * Constructs a new InMemoryJavaFileObject for the file located at the supplied URI.
+	 *
+	 * @param uri
+	 * 		a URI pointing at the file, not null
+	 * @param charset
+	 * 		the charset used to encode and decode the file, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code uri} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code charset} is null
+	 */
+	public InMemoryJavaFileObject(final URI uri, final Charset charset) {
+		this(uri, charset, StorageMode.HEAP);
+	}
+	
+	/**
+	 * Constructs a new InMemoryJavaFileObject for the file located at the supplied URI.
+	 *
+	 * @param uri
+	 * 		a URI pointing at the file, not null
+	 * @param charset
+	 * 		the charset used to encode and decode the file, not null
+	 * @param storageMode
+	 * 		determines where the contents are stored, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code uri} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code charset} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code storageMode} is null
+	 */
+	public InMemoryJavaFileObject(final URI uri, final Charset charset, final StorageMode storageMode) {
+		this(uri, charset, storageMode, null);
+	}
+	
+	/**
+	 * Constructs a new InMemoryJavaFileObject for the file located at the supplied URI.
+	 *
+	 * @param uri
+	 * 		a URI pointing at the file, not null
+	 * @param charset
+	 * 		the charset used to encode and decode the file, not null
+	 * @param storageMode
+	 * 		determines where the contents are stored, not null
+	 * @param spillStore
+	 * 		moves the contents to disk when too much memory is in use, null to always keep the contents in memory
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code uri} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code charset} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code storageMode} is null
+	 */
+	InMemoryJavaFileObject(
+			final URI uri,
+			final Charset charset,
+			final StorageMode storageMode,
+			final SpillStore spillStore) {
+		
 		super(checkNotNull(uri, "Argument \'uri\' cannot be null."), getKindFromExtension(uri));
+		this.charset = checkNotNull(charset, "Argument \'charset\' cannot be null.");
+		this.storageMode = checkNotNull(storageMode, "Argument \'storageMode\' cannot be null.");
+		this.spillStore = spillStore;
 	}
 	
 	@Override
 	public InputStream openInputStream() throws IOException {
+		final ByteSource data = this.data;
+		
 		if (data != null) {
+			recordAccess();
 			return data.openStream();
 		} else {
 			throw new FileNotFoundException();
@@ -53,44 +159,67 @@ public class InMemoryJavaFileObject extends SimpleJavaFileObject {
 	
 	@Override
 	public OutputStream openOutputStream() throws IOException {
-		return new ByteArrayOutputStream() {
+		return new ChunkedOutputStream(storageMode) {
 			@Override
-			public void close() throws IOException {
+			public void close() {
+				super.close();
+				
 				// Save the output stream contents as the file contents
-				data = ByteSource.wrap(toByteArray());
-				lastModifiedMsFromEpoch = System.currentTimeMillis();
+				replaceData(toByteSource(), System.currentTimeMillis());
 			}
 		};
 	}
 	
 	@Override
 	public Reader openReader(final boolean ignoreEncodingErrors) throws IOException {
-		if (data != null) {
-			return data.asCharSource(charset).openStream();
-		} else {
+		final ByteSource data = this.data;
+		
+		if (data == null) {
 			throw new FileNotFoundException();
 		}
+		
+		final DecodedContent decodedContent = this.decodedContent;
+		
+		recordAccess();
+		
+		// Streaming avoids decoding the whole file onto the heap when there is no cached content to reuse
+		if (decodedContent != null && decodedContent.source == data) {
+			return new StringReader(decodedContent.content);
+		} else {
+			return data.asCharSource(charset).openStream();
+		}
 	}
 	
 	@Override
 	public CharSequence getCharContent(final boolean ignoreEncodingErrors) throws IOException {
-		if (data != null) {
-			return data.asCharSource(charset).read();
-		} else {
+		final ByteSource data = this.data;
+		
+		if (data == null) {
 			throw new FileNotFoundException();
 		}
+		
+		final DecodedContent decodedContent = this.decodedContent;
+		
+		if (decodedContent != null && decodedContent.source == data) {
+			recordAccess();
+			return decodedContent.content;
+		}
+		
+		final String content = data.asCharSource(charset).read();
+		
+		// Caching the decoded contents of spilled or direct files would put them back on the heap
+		if (storageMode == StorageMode.HEAP && data instanceof ChunkedByteSource) {
+			this.decodedContent = new DecodedContent(data, content);
+			recordAccess();
+		}
+		
+		return content;
 	}
 	
 	@Override
 	public Writer openWriter() throws IOException {
-		return new StringWriter() {
-			@Override
-			public void close() throws IOException {
-				// Save the writer contents as the file contents
-				data = ByteSource.wrap(toString().getBytes(charset));
-				lastModifiedMsFromEpoch = System.currentTimeMillis();
-			}
-		};
+		// Closing the writer closes the output stream, which saves the contents
+		return new OutputStreamWriter(openOutputStream(), charset);
 	}
 	
 	@Override
@@ -98,14 +227,174 @@ public class InMemoryJavaFileObject extends SimpleJavaFileObject {
 		return lastModifiedMsFromEpoch;
 	}
 	
+	/**
+	 * Discards the contents of the file, as if it had never been written. The buffers holding the contents are
+	 * released, so the memory they occupy can be reclaimed once any streams which are still reading them are closed.
+	 * Spilled contents are deleted from disk.
+	 *
+	 * @return true
+	 */
 	@Override
 	public boolean delete() {
-		this.data = null;
-		this.lastModifiedMsFromEpoch = 0L;
+		replaceData(null, 0L);
 		
 		return true;
 	}
 	
+	/**
+	 * @return a copy of the file contents, or null if the file has never been written
+	 *
+	 * @throws IOException
+	 * 		if the contents cannot be read
+	 */
+	byte[] getContents() throws IOException {
+		final ByteSource data = this.data;
+		
+		if (data == null) {
+			return null;
+		}
+		
+		recordAccess();
+		
+		return data.read();
+	}
+	
+	/**
+	 * Replaces the file contents, as if they had been written using {@link #openOutputStream()}.
+	 *
+	 * @param contents
+	 * 		the new contents, not null
+	 * @param lastModifiedMsFromEpoch
+	 * 		the modification time to report, measured in milliseconds since the epoch date
+	 */
+	void setContents(final byte[] contents, final long lastModifiedMsFromEpoch) {
+		final ChunkedOutputStream output = new ChunkedOutputStream(storageMode);
+		
+		try {
+			output.write(contents);
+		} catch (final IOException e) {
+			// Never happens since the stream is open
+			throw new RuntimeException(e);
+		}
+		
+		output.close();
+		
+		replaceData(output.toByteSource(), lastModifiedMsFromEpoch);
+	}
+	
+	/**
+	 * Moves the contents to a new temporary file in a directory, if the contents are in memory. Readers which are
+	 * already reading the contents are unaffected. This method is called by the {@link SpillStore}, without holding
+	 * its lock.
+	 *
+	 * @param directory
+	 * 		the directory to create the temporary file in, not null
+	 *
+	 * @return true if the contents were moved, false if they were not in memory or were replaced while being moved
+	 *
+	 * @throws IOException
+	 * 		if the contents cannot be written to disk
+	 */
+	boolean spill(final File directory) throws IOException {
+		final ByteSource inMemoryData = this.data;
+		
+		if (!(inMemoryData instanceof ChunkedByteSource)) {
+			return false;
+		}
+		
+		final File file = File.createTempFile("avatar", ".spill", directory);
+		
+		inMemoryData.copyTo(Files.asByteSink(file));
+		
+		synchronized (this) {
+			// The contents may have been replaced while they were being written to disk
+			if (data == inMemoryData) {
+				data = Files.asByteSource(file);
+				decodedContent = null;
+				spillFile = file;
+				
+				return true;
+			}
+		}
+		
+		file.delete();
+		
+		return false;
+	}
+	
+	/**
+	 * @return true if the contents have been moved to disk, false otherwise
+	 */
+	synchronized boolean isSpilled() {
+		return spillFile != null;
+	}
+	
+	/**
+	 * Atomically replaces the contents of the file, deletes any spilled contents, and informs the spill store.
+	 *
+	 * @param newData
+	 * 		the new contents, null if the file has no contents
+	 * @param lastModifiedMsFromEpoch
+	 * 		the modification time to report, measured in milliseconds since the epoch date
+	 */
+	private void replaceData(final ByteSource newData, final long lastModifiedMsFromEpoch) {
+		final File oldSpillFile;
+		
+		synchronized (this) {
+			oldSpillFile = spillFile;
+			
+			this.data = newData;
+			this.decodedContent = null;
+			this.lastModifiedMsFromEpoch = lastModifiedMsFromEpoch;
+			this.spillFile = null;
+		}
+		
+		if (oldSpillFile != null) {
+			oldSpillFile.delete();
+		}
+		
+		// The spill store is informed outside the lock, since it may call back into this file to spill it
+		if (spillStore != null) {
+			if (newData == null) {
+				spillStore.recordRemoval(this);
+			} else {
+				spillStore.recordWrite(this, newData.sizeIfKnown().or(0L));
+			}
+		}
+	}
+	
+	/**
+	 * Informs the spill store that the contents were read, if the contents are in memory.
+	 */
+	private void recordAccess() {
+		if (spillStore != null && data instanceof ChunkedByteSource) {
+			spillStore.recordAccess(this);
+		}
+	}
+	
+	/**
+	 * @return the size of the file contents in bytes, or zero if the file has no contents
+	 */
+	public long getSizeInBytes() {
+		final ByteSource data = this.data;
+		
+		return data == null ? 0 : data.sizeIfKnown().or(0L);
+	}
+	
+	/**
+	 * @return determines where the contents are stored, not null
+	 */
+	public StorageMode getStorageMode() {
+		return storageMode;
+	}
+	
+	/**
+	 * @return the charset used to encode and decode the file, not null
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+	
 	/**
 	 * Extracts the {@link Kind} from a file.
 	 *
@@ -130,4 +419,18 @@ public class InMemoryJavaFileObject extends SimpleJavaFileObject {
 		
 		return JavaFileObject.Kind.OTHER;
 	}
+	
+	/**
+	 * Decoded file contents, and the data they were decoded from.
+	 */
+	private static class DecodedContent {
+		private final ByteSource source;
+		
+		private final String content;
+		
+		private DecodedContent(final ByteSource source, final String content) {
+			this.source = source;
+			this.content = content;
+		}
+	}
 }
\ No newline at end of file
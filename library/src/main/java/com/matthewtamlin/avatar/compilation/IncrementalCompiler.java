@@ -0,0 +1,465 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.matthewtamlin.avatar.util.IterableNullChecker.checkNotContainsNull;
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compiles a set of sources repeatedly, recompiling only the sources which are affected by changes since the
+ * previous compilation. The class files of unaffected sources are reused from the previous compilation and supplied
+ * to the compiler on the class path, so they do not need to be recompiled.
+ * <p>
+ * A source is affected if it was added or changed, or if it depends (directly or transitively) on a source which was
+ * changed or removed. Source A depends on source B if a class compiled from A refers to a class compiled from B, or if
+ * the text of A contains the simple name of a top level class compiled from B. The second rule catches references the
+ * compiler removes from class files, such as inlined constants, at the cost of recompiling some sources unnecessarily.
+ * <p>
+ * Everything is recompiled when there is no previous compilation, when the previous compilation failed, or when the
+ * previous compilation generated files other than class files (for example sources generated by the processor),
+ * since the origin of those files cannot be tracked. A new processor is obtained from the supplier for every
+ * compilation, and only sees the sources being recompiled.
+ * <p>
+ * This class is safe for use by multiple threads, but compilations are serialized.
+ */
+public class IncrementalCompiler {
+	/**
+	 * Matches Java identifiers.
+	 */
+	private static final Pattern IDENTIFIER = Pattern.compile(
+			"[\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*");
+	
+	/**
+	 * Matches a package declaration. Group 1 is the package name.
+	 */
+	private static final Pattern PACKAGE_DECLARATION = Pattern.compile(
+			"^\\s*package\\s+([\\w.]+)\\s*;",
+			Pattern.MULTILINE);
+	
+	/**
+	 * Supplies a new processor for each compilation.
+	 */
+	private final Supplier<? extends Processor> processorSupplier;
+	
+	/**
+	 * The state of each source after the previous compilation. Each key is the URI of a source. Null if everything
+	 * must be recompiled next time.
+	 */
+	private Map<String, SourceState> previousSourceStates;
+	
+	/**
+	 * The result of the previous compilation, null if there was no previous compilation.
+	 */
+	private CompilationResult previousResult;
+	
+	/**
+	 * The sources which were compiled by the most recent call to {@link #compile(Iterable)}.
+	 */
+	private Set<JavaFileObject> lastRecompiledSources = Collections.emptySet();
+	
+	/**
+	 * Constructs a new IncrementalCompiler.
+	 *
+	 * @param processorSupplier
+	 * 		supplies a new processor for each compilation, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code processorSupplier} is null
+	 */
+	public IncrementalCompiler(final Supplier<? extends Processor> processorSupplier) {
+		this.processorSupplier = checkNotNull(processorSupplier, "Argument \'processorSupplier\' cannot be null.");
+	}
+	
+	/**
+	 * Compiles the supplied sources, recompiling only the sources affected by changes since the previous call. The
+	 * returned result contains the class files of every source, including the reused class files, and the diagnostics
+	 * of every source, including the diagnostics retained from earlier compilations of unaffected sources.
+	 * <p>
+	 * Sources are identified by their URIs. Sources are compared by content, so a source which is replaced by a new
+	 * file object with the same URI and content is not recompiled.
+	 *
+	 * @param sources
+	 * 		the complete set of sources to compile, not null, not containing null
+	 *
+	 * @return the result, not null
+	 *
+	 * @throws CompilerMissingException
+	 * 		if no Java compiler is found at runtime
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} contains null
+	 * @throws RuntimeException
+	 * 		if a source cannot be read
+	 */
+	public synchronized CompilationResult compile(final Iterable<JavaFileObject> sources) {
+		checkNotNull(sources, "Argument \'sources\' cannot be null.");
+		checkNotContainsNull(sources, "Argument \'sources\' cannot contain null.");
+		
+		final Map<String, JavaFileObject> sourcesByUri = new LinkedHashMap<>();
+		final Map<String, String> contentsByUri = new HashMap<>();
+		
+		for (final JavaFileObject source : sources) {
+			final String uri = source.toUri().toString();
+			
+			sourcesByUri.put(uri, source);
+			contentsByUri.put(uri, read(source));
+		}
+		
+		if (previousSourceStates == null) {
+			return compileAll(sourcesByUri, contentsByUri);
+		}
+		
+		final Set<String> changedUris = new HashSet<>();
+		
+		for (final String uri : sourcesByUri.keySet()) {
+			final SourceState previousState = previousSourceStates.get(uri);
+			
+			if (previousState == null || !previousState.fingerprint.equals(fingerprint(contentsByUri.get(uri)))) {
+				changedUris.add(uri);
+			}
+		}
+		
+		for (final String uri : previousSourceStates.keySet()) {
+			if (!sourcesByUri.containsKey(uri)) {
+				changedUris.add(uri);
+			}
+		}
+		
+		if (changedUris.isEmpty()) {
+			lastRecompiledSources = Collections.emptySet();
+			return previousResult;
+		}
+		
+		final Set<String> affectedUris = findAffected(changedUris, previousSourceStates);
+		final Map<String, JavaFileObject> sourcesToCompile = new LinkedHashMap<>();
+		final List<JavaFileObject> reusedClassFiles = new ArrayList<>();
+		final Map<String, SourceState> reusedStates = new HashMap<>();
+		
+		for (final Map.Entry<String, JavaFileObject> entry : sourcesByUri.entrySet()) {
+			if (affectedUris.contains(entry.getKey())) {
+				sourcesToCompile.put(entry.getKey(), entry.getValue());
+			} else {
+				final SourceState state = previousSourceStates.get(entry.getKey());
+				
+				reusedStates.put(entry.getKey(), state);
+				reusedClassFiles.addAll(state.classFiles);
+			}
+		}
+		
+		final List<Diagnostic<? extends JavaFileObject>> retainedDiagnostics = new ArrayList<>();
+		
+		for (final Diagnostic<? extends JavaFileObject> diagnostic : previousResult.diagnostics()) {
+			if (diagnostic.getSource() != null && reusedStates.containsKey(diagnostic.getSource().toUri().toString())) {
+				retainedDiagnostics.add(diagnostic);
+			}
+		}
+		
+		final CompilationResult partialResult;
+		
+		if (sourcesToCompile.isEmpty()) {
+			partialResult = CompilationResult.create(
+					true,
+					ImmutableList.<Diagnostic<? extends JavaFileObject>>of(),
+					new OutputIndex(),
+					CompilePolicy.FULL,
+					CompilationTimings.empty());
+		} else {
+			partialResult = CompilerUtil.compile(
+					ImmutableSet.of(processorSupplier.get()),
+					sourcesToCompile.values(),
+					CompilePolicy.FULL,
+					ImmutableList.<String>of(),
+					StorageMode.HEAP,
+					new CompilationTimer(),
+					ImmutableList.of(OutputIndex.fromFiles(reusedClassFiles)));
+		}
+		
+		final List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>(retainedDiagnostics);
+		diagnostics.addAll(partialResult.diagnostics());
+		
+		final List<JavaFileObject> generatedFiles = new ArrayList<>(reusedClassFiles);
+		generatedFiles.addAll(partialResult.generatedFiles());
+		
+		final CompilationResult result = CompilationResult.create(
+				partialResult.success(),
+				diagnostics,
+				OutputIndex.fromFiles(generatedFiles),
+				CompilePolicy.FULL,
+				partialResult.timings());
+		
+		final Map<String, SourceState> newStates = analyse(partialResult, sourcesToCompile, contentsByUri);
+		
+		if (newStates == null) {
+			previousSourceStates = null;
+		} else {
+			newStates.putAll(reusedStates);
+			previousSourceStates = newStates;
+		}
+		
+		previousResult = result;
+		lastRecompiledSources = Collections.unmodifiableSet(new LinkedHashSet<>(sourcesToCompile.values()));
+		
+		return result;
+	}
+	
+	/**
+	 * @return the sources which were compiled by the most recent call to {@link #compile(Iterable)}, empty if nothing
+	 * was recompiled or there have been no calls, not null
+	 */
+	public synchronized Set<JavaFileObject> getLastRecompiledSources() {
+		return lastRecompiledSources;
+	}
+	
+	/**
+	 * Discards the state of the previous compilation, so that the next call to {@link #compile(Iterable)} compiles
+	 * every source.
+	 */
+	public synchronized void reset() {
+		previousSourceStates = null;
+		previousResult = null;
+		lastRecompiledSources = Collections.emptySet();
+	}
+	
+	private CompilationResult compileAll(
+			final Map<String, JavaFileObject> sourcesByUri,
+			final Map<String, String> contentsByUri) {
+		
+		final CompilationResult result = CompilerUtil.compile(
+				ImmutableSet.of(processorSupplier.get()),
+				sourcesByUri.values(),
+				CompilePolicy.FULL,
+				ImmutableList.<String>of(),
+				StorageMode.HEAP,
+				new CompilationTimer(),
+				ImmutableList.<OutputIndex>of());
+		
+		previousSourceStates = analyse(result, sourcesByUri, contentsByUri);
+		previousResult = result;
+		lastRecompiledSources = Collections.unmodifiableSet(new LinkedHashSet<>(sourcesByUri.values()));
+		
+		return result;
+	}
+	
+	/**
+	 * Determines the state of each compiled source from a compilation result.
+	 *
+	 * @return the state of each source keyed by URI, or null if the result cannot be tracked
+	 */
+	private static Map<String, SourceState> analyse(
+			final CompilationResult result,
+			final Map<String, JavaFileObject> compiledSources,
+			final Map<String, String> contentsByUri) {
+		
+		if (!result.success()) {
+			return null;
+		}
+		
+		// Maps the path of each source relative to the source root (derived from its package) to its URI
+		final Map<String, String> urisByRelativePath = new HashMap<>();
+		final Map<String, SourceState> states = new HashMap<>();
+		
+		for (final String uri : compiledSources.keySet()) {
+			final String content = contentsByUri.get(uri);
+			final Matcher packageMatcher = PACKAGE_DECLARATION.matcher(content);
+			final String packagePath = packageMatcher.find() ? packageMatcher.group(1).replace('.', '/') + "/" : "";
+			final String path = compiledSources.get(uri).toUri().getPath();
+			
+			urisByRelativePath.put(packagePath + path.substring(path.lastIndexOf('/') + 1), uri);
+			states.put(uri, new SourceState(fingerprint(content), identifiers(content)));
+		}
+		
+		for (final JavaFileObject file : result.generatedFiles()) {
+			// Files which have been looked up but never written have no modification time
+			if (file.getLastModified() == 0L) {
+				continue;
+			}
+			
+			if (file.getKind() != Kind.CLASS || !(file instanceof InMemoryJavaFileObject)) {
+				return null;
+			}
+			
+			final ClassFileInfo info;
+			
+			try {
+				info = ClassFileInfo.read(((InMemoryJavaFileObject) file).getContents());
+			} catch (final IOException e) {
+				return null;
+			}
+			
+			final String className = info.getClassName();
+			final int lastDot = className.lastIndexOf('.');
+			final String packagePath = lastDot == -1 ? "" : className.substring(0, lastDot).replace('.', '/') + "/";
+			final String uri = urisByRelativePath.get(packagePath + info.getSourceFileName());
+			
+			if (info.getSourceFileName() == null || uri == null) {
+				return null;
+			}
+			
+			final SourceState state = states.get(uri);
+			
+			state.classNames.add(className);
+			state.referencedClassNames.addAll(info.getReferencedClassNames());
+			state.classFiles.add(file);
+		}
+		
+		return states;
+	}
+	
+	/**
+	 * Finds the sources affected by a set of changed sources, using the dependencies recorded by the previous
+	 * compilation.
+	 *
+	 * @return the URIs of the affected sources, including the changed sources, not null
+	 */
+	private static Set<String> findAffected(final Set<String> changedUris, final Map<String, SourceState> states) {
+		final Map<String, String> ownersByClassName = new HashMap<>();
+		final Map<String, Set<String>> ownersBySimpleName = new HashMap<>();
+		
+		for (final Map.Entry<String, SourceState> entry : states.entrySet()) {
+			for (final String className : entry.getValue().classNames) {
+				ownersByClassName.put(className, entry.getKey());
+				
+				final String simpleName = getTopLevelSimpleName(className);
+				
+				if (!ownersBySimpleName.containsKey(simpleName)) {
+					ownersBySimpleName.put(simpleName, new HashSet<String>());
+				}
+				
+				ownersBySimpleName.get(simpleName).add(entry.getKey());
+			}
+		}
+		
+		// Each key is a source, and the corresponding value is the set of sources which depend on it
+		final Map<String, Set<String>> dependents = new HashMap<>();
+		
+		for (final Map.Entry<String, SourceState> entry : states.entrySet()) {
+			final Set<String> dependencies = new HashSet<>();
+			
+			for (final String className : entry.getValue().referencedClassNames) {
+				if (ownersByClassName.containsKey(className)) {
+					dependencies.add(ownersByClassName.get(className));
+				}
+			}
+			
+			for (final String identifier : entry.getValue().identifiers) {
+				if (ownersBySimpleName.containsKey(identifier)) {
+					dependencies.addAll(ownersBySimpleName.get(identifier));
+				}
+			}
+			
+			for (final String dependency : dependencies) {
+				if (!dependents.containsKey(dependency)) {
+					dependents.put(dependency, new HashSet<String>());
+				}
+				
+				dependents.get(dependency).add(entry.getKey());
+			}
+		}
+		
+		final Set<String> affected = new HashSet<>(changedUris);
+		final Deque<String> queue = new ArrayDeque<>(changedUris);
+		
+		while (!queue.isEmpty()) {
+			final Set<String> sourceDependents = dependents.get(queue.poll());
+			
+			if (sourceDependents != null) {
+				for (final String dependent : sourceDependents) {
+					if (affected.add(dependent)) {
+						queue.add(dependent);
+					}
+				}
+			}
+		}
+		
+		return affected;
+	}
+	
+	private static String read(final JavaFileObject source) {
+		try {
+			return source.getCharContent(true).toString();
+		} catch (final IOException e) {
+			throw new RuntimeException("Could not read source \'" + source.toUri() + "\'.", e);
+		}
+	}
+	
+	private static String fingerprint(final String content) {
+		return Hashing.sha256().hashString(content, UTF_8).toString();
+	}
+	
+	private static Set<String> identifiers(final String content) {
+		final Set<String> identifiers = new HashSet<>();
+		final Matcher matcher = IDENTIFIER.matcher(content);
+		
+		while (matcher.find()) {
+			identifiers.add(matcher.group());
+		}
+		
+		return identifiers;
+	}
+	
+	private static String getTopLevelSimpleName(final String className) {
+		final String simpleName = className.substring(className.lastIndexOf('.') + 1);
+		final int dollar = simpleName.indexOf('$');
+		
+		return dollar == -1 ? simpleName : simpleName.substring(0, dollar);
+	}
+	
+	/**
+	 * The state of a source after it was compiled.
+	 */
+	private static class SourceState {
+		/**
+		 * A fingerprint of the content of the source.
+		 */
+		private final String fingerprint;
+		
+		/**
+		 * Every identifier in the text of the source.
+		 */
+		private final Set<String> identifiers;
+		
+		/**
+		 * The binary names of the classes compiled from the source.
+		 */
+		private final Set<String> classNames = new HashSet<>();
+		
+		/**
+		 * The binary names of the classes referred to by the classes compiled from the source.
+		 */
+		private final Set<String> referencedClassNames = new HashSet<>();
+		
+		/**
+		 * The class files compiled from the source.
+		 */
+		private final List<JavaFileObject> classFiles = new ArrayList<>();
+		
+		private SourceState(final String fingerprint, final Set<String> identifiers) {
+			this.fingerprint = fingerprint;
+			this.identifiers = identifiers;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,220 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import javax.tools.SimpleJavaFileObject;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.MalformedInputException;
+import java.nio.file.StandardOpenOption;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A Java source file object which reads a file from disk, and caches the decoded content. The cached content is reused
+ * until the modification time or size of the file changes, so repeatedly compiling the same file only reads and
+ * decodes it once. Files are decoded as UTF-8, and malformed input is only replaced when encoding errors are ignored.
+ * <p>
+ * Large files are read by memory mapping them. A mapping cannot be closed explicitly, so on some platforms (notably
+ * Windows) a large file cannot be modified or deleted until the mapping is garbage collected. Smaller files, which
+ * include almost all source files, are read through a channel and are never locked after reading.
+ * <p>
+ * Instances obtained from {@link #forFile(File)} are shared across the JVM, so the cached content is reused by every
+ * compilation which uses the same file. The shared instances are softly referenced, so cached content is released
+ * when memory runs low.
+ * <p>
+ * This class is safe for use by multiple threads.
+ */
+public class MappedSourceFileObject extends SimpleJavaFileObject {
+	/**
+	 * The size at which files are memory mapped instead of being read through a channel, measured in bytes.
+	 */
+	private static final long MAPPING_THRESHOLD_BYTES = 1024 * 1024;
+	
+	/**
+	 * The shared instances. Each key is a canonical file, and the corresponding value is the file object for it.
+	 */
+	private static final LoadingCache<File, MappedSourceFileObject> sharedInstances = CacheBuilder
+			.newBuilder()
+			.softValues()
+			.build(new CacheLoader<File, MappedSourceFileObject>() {
+				@Override
+				public MappedSourceFileObject load(final File file) {
+					return new MappedSourceFileObject(file);
+				}
+			});
+	
+	/**
+	 * The file to read.
+	 */
+	private final File file;
+	
+	/**
+	 * The most recently decoded content, null if the file has not been read yet.
+	 */
+	private volatile Snapshot snapshot;
+	
+	/**
+	 * Constructs a new MappedSourceFileObject. The file is not read until its content is requested.
+	 *
+	 * @param file
+	 * 		the source file, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code file} is null
+	 */
+	public MappedSourceFileObject(final File file) {
+		super(checkNotNull(file, "Argument \'file\' cannot be null.").toURI(), Kind.SOURCE);
+		this.file = file;
+	}
+	
+	/**
+	 * Gets the shared file object for a file, creating it if necessary.
+	 *
+	 * @param file
+	 * 		the source file, not null
+	 *
+	 * @return the shared file object, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code file} is null
+	 */
+	public static MappedSourceFileObject forFile(final File file) {
+		checkNotNull(file, "Argument \'file\' cannot be null.");
+		
+		File canonicalFile;
+		
+		try {
+			canonicalFile = file.getCanonicalFile();
+		} catch (final IOException e) {
+			canonicalFile = file.getAbsoluteFile();
+		}
+		
+		return sharedInstances.getUnchecked(canonicalFile);
+	}
+	
+	@Override
+	public CharSequence getCharContent(final boolean ignoreEncodingErrors) throws IOException {
+		final long lastModified = file.lastModified();
+		final long size = file.length();
+		final Snapshot snapshot = this.snapshot;
+		
+		if (snapshot != null && snapshot.lastModified == lastModified && snapshot.size == size) {
+			if (snapshot.malformed && !ignoreEncodingErrors) {
+				throw new IOException("Could not decode file \'" + file + "\'.", new MalformedInputException(0));
+			}
+			
+			return snapshot.content;
+		}
+		
+		final ByteBuffer bytes = read();
+		
+		String content;
+		boolean malformed = false;
+		
+		try {
+			content = decode(bytes.duplicate(), CodingErrorAction.REPORT);
+		} catch (final CharacterCodingException e) {
+			if (!ignoreEncodingErrors) {
+				throw new IOException("Could not decode file \'" + file + "\'.", e);
+			}
+			
+			content = decode(bytes.duplicate(), CodingErrorAction.REPLACE);
+			malformed = true;
+		}
+		
+		this.snapshot = new Snapshot(lastModified, size, content, malformed);
+		
+		return content;
+	}
+	
+	@Override
+	public Reader openReader(final boolean ignoreEncodingErrors) throws IOException {
+		return new StringReader(getCharContent(ignoreEncodingErrors).toString());
+	}
+	
+	@Override
+	public InputStream openInputStream() throws IOException {
+		return new FileInputStream(file);
+	}
+	
+	@Override
+	public long getLastModified() {
+		return file.lastModified();
+	}
+	
+	/**
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Reads the contents of the file, mapping it if it is large.
+	 */
+	private ByteBuffer read() throws IOException {
+		try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			
+			if (size >= MAPPING_THRESHOLD_BYTES) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			
+			final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			
+			while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+				// Keep reading until the buffer is full or the file ends
+			}
+			
+			buffer.flip();
+			
+			return buffer;
+		}
+	}
+	
+	private static String decode(final ByteBuffer bytes, final CodingErrorAction errorAction)
+			throws CharacterCodingException {
+		
+		return UTF_8
+				.newDecoder()
+				.onMalformedInput(errorAction)
+				.onUnmappableCharacter(errorAction)
+				.decode(bytes)
+				.toString();
+	}
+	
+	/**
+	 * The decoded content of the file at a point in time.
+	 */
+	private static class Snapshot {
+		private final long lastModified;
+		
+		private final long size;
+		
+		private final String content;
+		
+		/**
+		 * Whether or not malformed input was replaced while decoding the content.
+		 */
+		private final boolean malformed;
+		
+		private Snapshot(final long lastModified, final long size, final String content, final boolean malformed) {
+			this.lastModified = lastModified;
+			this.size = size;
+			this.content = content;
+			this.malformed = malformed;
+		}
+	}
+}
\ No newline at end of file
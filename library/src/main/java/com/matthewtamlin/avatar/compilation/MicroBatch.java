@@ -0,0 +1,267 @@
+package com.matthewtamlin.avatar.compilation;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Support for compiling many small fixtures in a single compilation. Each fixture is moved into its own namespace
+ * package so that fixtures cannot collide, and the result of the combined compilation is split back into one result
+ * per fixture.
+ * <p>
+ * The namespace of a fixture is a top level package named after the index of the fixture in the micro-batch (see
+ * {@link #getNamespace(int)}). Every package declared by the fixture is moved inside the namespace, so class {@code
+ * com.example.Foo} in the first fixture becomes {@code avatar_batch_0.com.example.Foo}, and class {@code Foo} in the
+ * unnamed package becomes {@code avatar_batch_0.Foo}.
+ *
+ * @see CompilerUtil#compileAsMicroBatch(Iterable)
+ */
+public class MicroBatch {
+	/**
+	 * The prefix of every namespace package.
+	 */
+	private static final String NAMESPACE_PREFIX = "avatar_batch_";
+	
+	/**
+	 * Gets the namespace package of a fixture in a micro-batch.
+	 *
+	 * @param fixtureIndex
+	 * 		the index of the fixture in the micro-batch, not negative
+	 *
+	 * @return the namespace, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code fixtureIndex} is negative
+	 */
+	public static String getNamespace(final int fixtureIndex) {
+		if (fixtureIndex < 0) {
+			throw new IllegalArgumentException("Argument \'fixtureIndex\' cannot be negative.");
+		}
+		
+		return NAMESPACE_PREFIX + fixtureIndex;
+	}
+	
+	/**
+	 * Splits the result of a micro-batch into one result per fixture. Diagnostics and generated files are assigned to
+	 * fixtures based on their source and location. Diagnostics and files which cannot be assigned to a fixture are
+	 * included in every result. The timings of the micro-batch are shared by every result.
+	 * <p>
+	 * If the micro-batch failed, fixtures without errors are reported as successful, but the compiler may have stopped
+	 * before checking them fully. Such results must be confirmed by compiling the fixtures again.
+	 *
+	 * @param batchResult
+	 * 		the result of the micro-batch, not null
+	 * @param fixtureCount
+	 * 		the number of fixtures in the micro-batch
+	 *
+	 * @return the result of each fixture, in fixture order, not null
+	 */
+	static List<CompilationResult> split(final CompilationResult batchResult, final int fixtureCount) {
+		final List<List<Diagnostic<? extends JavaFileObject>>> diagnostics = new ArrayList<>();
+		final List<List<JavaFileObject>> generatedFiles = new ArrayList<>();
+		
+		for (int i = 0; i < fixtureCount; i++) {
+			diagnostics.add(new ArrayList<Diagnostic<? extends JavaFileObject>>());
+			generatedFiles.add(new ArrayList<JavaFileObject>());
+		}
+		
+		for (final Diagnostic<? extends JavaFileObject> diagnostic : batchResult.diagnostics()) {
+			final JavaFileObject source = diagnostic.getSource();
+			final int fixtureIndex = source == null ? -1 : getFixtureIndex(source);
+			
+			if (fixtureIndex < 0 || fixtureIndex >= fixtureCount) {
+				for (final List<Diagnostic<? extends JavaFileObject>> fixtureDiagnostics : diagnostics) {
+					fixtureDiagnostics.add(diagnostic);
+				}
+			} else if (source instanceof NamespacedSource) {
+				diagnostics.get(fixtureIndex).add(new FixtureDiagnostic(diagnostic, (NamespacedSource) source));
+			} else {
+				diagnostics.get(fixtureIndex).add(diagnostic);
+			}
+		}
+		
+		for (final JavaFileObject file : batchResult.generatedFiles()) {
+			final int fixtureIndex = getFixtureIndex(file);
+			
+			if (fixtureIndex < 0 || fixtureIndex >= fixtureCount) {
+				for (final List<JavaFileObject> fixtureFiles : generatedFiles) {
+					fixtureFiles.add(file);
+				}
+			} else {
+				generatedFiles.get(fixtureIndex).add(file);
+			}
+		}
+		
+		final List<CompilationResult> results = new ArrayList<>();
+		
+		for (int i = 0; i < fixtureCount; i++) {
+			results.add(CompilationResult.create(
+					batchResult.success() || !containsError(diagnostics.get(i)),
+					diagnostics.get(i),
+					OutputIndex.fromFiles(generatedFiles.get(i)),
+					batchResult.compilePolicy(),
+					batchResult.timings()));
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Combines the result of a fixture whose processor ran in an earlier micro-batch with the result of compiling the
+	 * fixture again without its processor. Diagnostics reported by both compilations are only included once, and
+	 * generated files from the later compilation replace files with the same URI from the earlier one.
+	 *
+	 * @param processingResult
+	 * 		the result of the micro-batch in which the processor of the fixture ran, not null
+	 * @param compilationResult
+	 * 		the result of compiling the fixture again, not null
+	 *
+	 * @return the combined result, not null
+	 */
+	static CompilationResult merge(final CompilationResult processingResult, final CompilationResult compilationResult) {
+		final Map<String, Diagnostic<? extends JavaFileObject>> diagnostics = new LinkedHashMap<>();
+		final Map<URI, JavaFileObject> generatedFiles = new LinkedHashMap<>();
+		
+		for (final CompilationResult result : Arrays.asList(processingResult, compilationResult)) {
+			for (final Diagnostic<? extends JavaFileObject> diagnostic : result.diagnostics()) {
+				final String key = diagnostic.getKind() + ":" + diagnostic.toString();
+				
+				if (!diagnostics.containsKey(key)) {
+					diagnostics.put(key, diagnostic);
+				}
+			}
+			
+			for (final JavaFileObject file : result.generatedFiles()) {
+				generatedFiles.put(file.toUri(), file);
+			}
+		}
+		
+		return CompilationResult.create(
+				compilationResult.success(),
+				new ArrayList<>(diagnostics.values()),
+				OutputIndex.fromFiles(generatedFiles.values()),
+				compilationResult.compilePolicy(),
+				compilationResult.timings());
+	}
+	
+	/**
+	 * Determines whether any of the supplied diagnostics is an error.
+	 *
+	 * @param diagnostics
+	 * 		the diagnostics to check, not null
+	 *
+	 * @return true if there is an error, false otherwise
+	 */
+	static boolean containsError(final Iterable<? extends Diagnostic<? extends JavaFileObject>> diagnostics) {
+		for (final Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+			if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Gets the index of the fixture a file belongs to, based on the namespace in its URI.
+	 *
+	 * @param file
+	 * 		the file, not null
+	 *
+	 * @return the index of the fixture, or -1 if the file does not belong to a fixture
+	 */
+	private static int getFixtureIndex(final JavaFileObject file) {
+		if (file instanceof NamespacedSource) {
+			return ((NamespacedSource) file).getFixtureIndex();
+		}
+		
+		final String path = file.toUri().getPath();
+		
+		if (path == null) {
+			return -1;
+		}
+		
+		for (final String segment : path.split("/")) {
+			if (segment.startsWith(NAMESPACE_PREFIX)) {
+				try {
+					return Integer.parseInt(segment.substring(NAMESPACE_PREFIX.length()));
+				} catch (final NumberFormatException e) {
+					return -1;
+				}
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * A diagnostic which reports the original source of a fixture instead of the namespaced copy. Line numbers are
+	 * the same in both, but positions and columns refer to the namespaced copy.
+	 */
+	private static class FixtureDiagnostic implements Diagnostic<JavaFileObject> {
+		private final Diagnostic<? extends JavaFileObject> delegate;
+		
+		private final NamespacedSource source;
+		
+		private FixtureDiagnostic(final Diagnostic<? extends JavaFileObject> delegate, final NamespacedSource source) {
+			this.delegate = delegate;
+			this.source = source;
+		}
+		
+		@Override
+		public Kind getKind() {
+			return delegate.getKind();
+		}
+		
+		@Override
+		public JavaFileObject getSource() {
+			return source.getOriginal();
+		}
+		
+		@Override
+		public long getPosition() {
+			return delegate.getPosition();
+		}
+		
+		@Override
+		public long getStartPosition() {
+			return delegate.getStartPosition();
+		}
+		
+		@Override
+		public long getEndPosition() {
+			return delegate.getEndPosition();
+		}
+		
+		@Override
+		public long getLineNumber() {
+			return delegate.getLineNumber();
+		}
+		
+		@Override
+		public long getColumnNumber() {
+			return delegate.getColumnNumber();
+		}
+		
+		@Override
+		public String getCode() {
+			return delegate.getCode();
+		}
+		
+		@Override
+		public String getMessage(final Locale locale) {
+			return delegate.getMessage(locale);
+		}
+		
+		@Override
+		public String toString() {
+			return delegate.toString();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,189 @@
+package com.matthewtamlin.avatar.compilation;
+
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * A copy of a source file which has been moved into a namespace package. The package declaration is prefixed with
+ * the namespace (or added if the source is in the unnamed package), and imports of packages declared by the other
+ * sources of the same fixture are prefixed in the same way. No other code is changed, and no lines are added or
+ * removed, so line numbers match the original source.
+ */
+class NamespacedSource extends SimpleJavaFileObject {
+	/**
+	 * Matches a package declaration. Group 1 is the package name.
+	 */
+	private static final Pattern PACKAGE_DECLARATION = Pattern.compile(
+			"^\\s*package\\s+([\\w.]+)\\s*;",
+			Pattern.MULTILINE);
+	
+	/**
+	 * Matches an import declaration. Group 1 is everything before the imported name, and group 2 is the imported
+	 * name.
+	 */
+	private static final Pattern IMPORT_DECLARATION = Pattern.compile(
+			"^(\\s*import\\s+(?:static\\s+)?)([\\w.]+(?:\\.\\*)?)\\s*;",
+			Pattern.MULTILINE);
+	
+	/**
+	 * The source this source was copied from.
+	 */
+	private final JavaFileObject original;
+	
+	/**
+	 * The index of the fixture this source belongs to.
+	 */
+	private final int fixtureIndex;
+	
+	/**
+	 * The rewritten content of the source.
+	 */
+	private final String content;
+	
+	private NamespacedSource(
+			final URI uri,
+			final JavaFileObject original,
+			final int fixtureIndex,
+			final String content) {
+		
+		super(uri, Kind.SOURCE);
+		
+		this.original = original;
+		this.fixtureIndex = fixtureIndex;
+		this.content = content;
+	}
+	
+	/**
+	 * Moves all sources of a fixture into a namespace package.
+	 *
+	 * @param sources
+	 * 		the sources of the fixture, not null, not containing null
+	 * @param fixtureIndex
+	 * 		the index of the fixture in the micro-batch
+	 *
+	 * @return the rewritten sources, in the same order as the supplied sources, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws RuntimeException
+	 * 		if a source cannot be read
+	 */
+	static List<NamespacedSource> rewriteAll(final List<JavaFileObject> sources, final int fixtureIndex) {
+		checkNotNull(sources, "Argument \'sources\' cannot be null.");
+		
+		final String namespace = MicroBatch.getNamespace(fixtureIndex);
+		final List<String> contents = new ArrayList<>();
+		final Set<String> declaredPackages = new HashSet<>();
+		
+		for (final JavaFileObject source : sources) {
+			final String content = read(source);
+			final Matcher packageMatcher = PACKAGE_DECLARATION.matcher(content);
+			
+			if (packageMatcher.find()) {
+				declaredPackages.add(packageMatcher.group(1));
+			}
+			
+			contents.add(content);
+		}
+		
+		final List<NamespacedSource> rewrittenSources = new ArrayList<>();
+		
+		for (int i = 0; i < sources.size(); i++) {
+			final JavaFileObject source = sources.get(i);
+			final String content = rewriteImports(contents.get(i), namespace, declaredPackages);
+			final String fileName = source.toUri().getPath().substring(source.toUri().getPath().lastIndexOf('/') + 1);
+			final URI uri = URI.create("batch:///" + namespace + "/" + i + "/" + fileName);
+			
+			rewrittenSources.add(new NamespacedSource(
+					uri,
+					source,
+					fixtureIndex,
+					rewritePackage(content, namespace)));
+		}
+		
+		return rewrittenSources;
+	}
+	
+	@Override
+	public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+		return content;
+	}
+	
+	/**
+	 * @return the source this source was copied from, not null
+	 */
+	JavaFileObject getOriginal() {
+		return original;
+	}
+	
+	/**
+	 * @return the index of the fixture this source belongs to
+	 */
+	int getFixtureIndex() {
+		return fixtureIndex;
+	}
+	
+	private static String read(final JavaFileObject source) {
+		try {
+			return source.getCharContent(true).toString();
+		} catch (final IOException e) {
+			throw new RuntimeException("Could not read source \'" + source.toUri() + "\'.", e);
+		}
+	}
+	
+	private static String rewritePackage(final String content, final String namespace) {
+		final Matcher matcher = PACKAGE_DECLARATION.matcher(content);
+		
+		if (matcher.find()) {
+			return content.substring(0, matcher.start(1)) + namespace + "." + content.substring(matcher.start(1));
+		} else {
+			// Insert on the first line so that line numbers are unchanged
+			return "package " + namespace + "; " + content;
+		}
+	}
+	
+	private static String rewriteImports(
+			final String content,
+			final String namespace,
+			final Set<String> declaredPackages) {
+		
+		final Matcher matcher = IMPORT_DECLARATION.matcher(content);
+		final StringBuffer rewritten = new StringBuffer();
+		
+		while (matcher.find()) {
+			final String importedName = matcher.group(2);
+			
+			if (isInDeclaredPackage(importedName, declaredPackages)) {
+				matcher.appendReplacement(
+						rewritten,
+						Matcher.quoteReplacement(matcher.group(1) + namespace + "." + importedName + ";"));
+			} else {
+				matcher.appendReplacement(rewritten, Matcher.quoteReplacement(matcher.group()));
+			}
+		}
+		
+		matcher.appendTail(rewritten);
+		
+		return rewritten.toString();
+	}
+	
+	private static boolean isInDeclaredPackage(final String importedName, final Set<String> declaredPackages) {
+		for (final String declaredPackage : declaredPackages) {
+			if (importedName.startsWith(declaredPackage + ".")) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+}
\ No newline at end of file
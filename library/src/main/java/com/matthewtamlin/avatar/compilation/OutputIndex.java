@@ -0,0 +1,432 @@
+package com.matthewtamlin.avatar.compilation;
+
+import javax.tools.JavaFileManager.Location;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardLocation;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * An index of the files generated by compilation. Files can be looked up by location and binary name, by location
+ * and relative path, or grouped by location, package and kind. Single file lookups take constant time, and methods
+ * which return multiple files return unmodifiable views instead of copies.
+ * <p>
+ * Binary names are only indexed for sources, class files and HTML files. The binary name of a nested class uses
+ * '$' as the separator, for example {@code com.example.Outer$Inner}. Files of other kinds are found by path using a
+ * structured key, so single file lookups never build a path string and do not allocate.
+ * <p>
+ * This class is safe for use by multiple threads. Every lookup is backed by concurrent maps, so compilations running
+ * in parallel never contend on a single lock. The views returned by this class are weakly consistent: they never
+ * throw {@link java.util.ConcurrentModificationException}, and a file added concurrently with an iteration may or may
+ * not be seen by that iteration. Iteration order is unspecified.
+ */
+public class OutputIndex {
+	/**
+	 * The prefix of the URIs of files stored by an {@link InMemoryJavaFileManager}.
+	 */
+	static final String BASE_LOCATION = "memory:///";
+	
+	/**
+	 * The entries for each location.
+	 */
+	private final ConcurrentMap<Location, LocationEntries> locations = new ConcurrentHashMap<>();
+	
+	/**
+	 * Every indexed file.
+	 */
+	private final Set<JavaFileObject> allFiles = newConcurrentSet();
+	
+	/**
+	 * An unmodifiable view of {@link #allFiles}.
+	 */
+	private final Set<JavaFileObject> allFilesView = Collections.unmodifiableSet(allFiles);
+	
+	/**
+	 * Creates an index containing the supplied files. The location and path of each file is inferred from its URI if
+	 * it was created by an {@link InMemoryJavaFileManager}. Other files are only included in {@link #getAllFiles()}.
+	 *
+	 * @param files
+	 * 		the files to index, not null
+	 *
+	 * @return the new index, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code files} is null
+	 */
+	public static OutputIndex fromFiles(final Iterable<? extends JavaFileObject> files) {
+		checkNotNull(files, "Argument \'files\' cannot be null.");
+		
+		final OutputIndex index = new OutputIndex();
+		
+		for (final JavaFileObject file : files) {
+			final String uri = file.toUri().toString();
+			
+			if (uri.startsWith(BASE_LOCATION)) {
+				final String locationAndPath = uri.substring(BASE_LOCATION.length());
+				final int separator = locationAndPath.indexOf('/');
+				
+				if (separator != -1) {
+					final Location location = StandardLocation.locationFor(locationAndPath.substring(0, separator));
+					
+					index.addIfAbsent(location, locationAndPath.substring(separator + 1), file);
+					continue;
+				}
+			}
+			
+			index.allFiles.add(file);
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * Gets a file by location, binary name and kind.
+	 *
+	 * @param location
+	 * 		the location of the file, not null
+	 * @param binaryName
+	 * 		the binary name of the class the file belongs to, not null
+	 * @param kind
+	 * 		the kind of the file, not null
+	 *
+	 * @return the file, or null if there is no such file
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if any argument is null
+	 */
+	public JavaFileObject getJavaFile(final Location location, final String binaryName, final Kind kind) {
+		checkNotNull(location, "Argument \'location\' cannot be null.");
+		checkNotNull(binaryName, "Argument \'binaryName\' cannot be null.");
+		checkNotNull(kind, "Argument \'kind\' cannot be null.");
+		
+		final LocationEntries entries = locations.get(location);
+		
+		if (entries == null) {
+			return null;
+		}
+		
+		if (isBinaryNameIndexed(kind)) {
+			final Map<String, JavaFileObject> filesByBinaryName = entries.filesByBinaryName.get(kind);
+			
+			return filesByBinaryName == null ? null : filesByBinaryName.get(binaryName);
+		} else {
+			return entries.filesByPath.get(PathKey.probe(binaryName, kind));
+		}
+	}
+	
+	/**
+	 * Gets a file by location, package and relative name.
+	 *
+	 * @param location
+	 * 		the location of the file, not null
+	 * @param packageName
+	 * 		the name of the package containing the file, empty for the unnamed package, not null
+	 * @param relativeName
+	 * 		the name of the file relative to the package, using '/' as the separator, not null
+	 *
+	 * @return the file, or null if there is no such file
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if any argument is null
+	 */
+	public JavaFileObject getFile(final Location location, final String packageName, final String relativeName) {
+		checkNotNull(location, "Argument \'location\' cannot be null.");
+		checkNotNull(packageName, "Argument \'packageName\' cannot be null.");
+		checkNotNull(relativeName, "Argument \'relativeName\' cannot be null.");
+		
+		final LocationEntries entries = locations.get(location);
+		
+		return entries == null ? null : entries.filesByPath.get(PathKey.probe(packageName, relativeName));
+	}
+	
+	/**
+	 * Convenience method for getting the source generated for a class. Equivalent to calling {@code
+	 * getJavaFile(StandardLocation.SOURCE_OUTPUT, binaryName, Kind.SOURCE)}.
+	 *
+	 * @param binaryName
+	 * 		the binary name of the class, not null
+	 *
+	 * @return the source file, or null if no source was generated for the class
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code binaryName} is null
+	 */
+	public JavaFileObject getGeneratedSource(final String binaryName) {
+		return getJavaFile(StandardLocation.SOURCE_OUTPUT, binaryName, Kind.SOURCE);
+	}
+	
+	/**
+	 * Convenience method for getting the class file generated for a class. Equivalent to calling {@code
+	 * getJavaFile(StandardLocation.CLASS_OUTPUT, binaryName, Kind.CLASS)}.
+	 *
+	 * @param binaryName
+	 * 		the binary name of the class, not null
+	 *
+	 * @return the class file, or null if no class file was generated for the class
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code binaryName} is null
+	 */
+	public JavaFileObject getGeneratedClass(final String binaryName) {
+		return getJavaFile(StandardLocation.CLASS_OUTPUT, binaryName, Kind.CLASS);
+	}
+	
+	/**
+	 * Gets the files of one kind which are directly in a package. Files in subpackages are not included.
+	 *
+	 * @param location
+	 * 		the location of the files, not null
+	 * @param packageName
+	 * 		the name of the package, empty for the unnamed package, not null
+	 * @param kind
+	 * 		the kind of the files, not null
+	 *
+	 * @return an unmodifiable view of the files, may be empty, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if any argument is null
+	 */
+	public Set<JavaFileObject> getFilesInPackage(final Location location, final String packageName, final Kind kind) {
+		checkNotNull(location, "Argument \'location\' cannot be null.");
+		checkNotNull(packageName, "Argument \'packageName\' cannot be null.");
+		checkNotNull(kind, "Argument \'kind\' cannot be null.");
+		
+		final LocationEntries entries = locations.get(location);
+		
+		final Map<Kind, Set<JavaFileObject>> filesByKind = entries == null ? null : entries.filesByPackage.get(packageName);
+		
+		if (filesByKind == null) {
+			return Collections.emptySet();
+		}
+		
+		final Set<JavaFileObject> files = filesByKind.get(kind);
+		
+		return files == null ? Collections.<JavaFileObject>emptySet() : Collections.unmodifiableSet(files);
+	}
+	
+	/**
+	 * Gets all files in a location.
+	 *
+	 * @param location
+	 * 		the location, not null
+	 *
+	 * @return an unmodifiable view of the files, may be empty, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code location} is null
+	 */
+	public Set<JavaFileObject> getFiles(final Location location) {
+		checkNotNull(location, "Argument \'location\' cannot be null.");
+		
+		final LocationEntries entries = locations.get(location);
+		
+		return entries == null ? Collections.<JavaFileObject>emptySet() : entries.allFilesView;
+	}
+	
+	/**
+	 * Gets the names of the packages which contain at least one file in a location.
+	 *
+	 * @param location
+	 * 		the location, not null
+	 *
+	 * @return an unmodifiable view of the package names, may be empty, not null
+	 */
+	Set<String> getPackageNames(final Location location) {
+		final LocationEntries entries = locations.get(location);
+		
+		if (entries == null) {
+			return Collections.emptySet();
+		}
+		
+		return Collections.unmodifiableSet(entries.filesByPackage.keySet());
+	}
+	
+	/**
+	 * @return an unmodifiable view of every file in the index, may be empty, not null
+	 */
+	public Set<JavaFileObject> getAllFiles() {
+		return allFilesView;
+	}
+	
+	/**
+	 * Gets a file by location and path.
+	 *
+	 * @param location
+	 * 		the location of the file, not null
+	 * @param path
+	 * 		the path of the file relative to the location, using '/' as the separator, not null
+	 *
+	 * @return the file, or null if there is no such file
+	 */
+	JavaFileObject getByPath(final Location location, final String path) {
+		final LocationEntries entries = locations.get(location);
+		
+		return entries == null ? null : entries.filesByPath.get(PathKey.probe(path));
+	}
+	
+	/**
+	 * Adds a file to the index unless a file already exists at the same location and path. If two threads add a file
+	 * at the same location and path concurrently, exactly one file is added and both threads receive it.
+	 *
+	 * @param location
+	 * 		the location of the file, not null
+	 * @param path
+	 * 		the path of the file relative to the location, using '/' as the separator, not null
+	 * @param file
+	 * 		the file to add, not null
+	 *
+	 * @return the file in the index at the location and path after this call, not null
+	 */
+	JavaFileObject addIfAbsent(final Location location, final String path, final JavaFileObject file) {
+		LocationEntries entries = locations.get(location);
+		
+		if (entries == null) {
+			entries = putIfAbsent(locations, location, new LocationEntries());
+		}
+		
+		final JavaFileObject existingFile = entries.filesByPath.putIfAbsent(PathKey.forPath(path), file);
+		
+		if (existingFile != null) {
+			return existingFile;
+		}
+		
+		allFiles.add(file);
+		entries.allFiles.add(file);
+		
+		final int lastSlash = path.lastIndexOf('/');
+		final String packageName = lastSlash == -1 ? "" : path.substring(0, lastSlash).replace('/', '.');
+		final Kind kind = file.getKind();
+		
+		ConcurrentMap<Kind, Set<JavaFileObject>> filesByKind = entries.filesByPackage.get(packageName);
+		
+		if (filesByKind == null) {
+			filesByKind = putIfAbsent(
+					entries.filesByPackage,
+					packageName,
+					new ConcurrentHashMap<Kind, Set<JavaFileObject>>());
+		}
+		
+		Set<JavaFileObject> filesInPackage = filesByKind.get(kind);
+		
+		if (filesInPackage == null) {
+			filesInPackage = putIfAbsent(filesByKind, kind, OutputIndex.<JavaFileObject>newConcurrentSet());
+		}
+		
+		filesInPackage.add(file);
+		
+		if (isBinaryNameIndexed(kind) && path.endsWith(kind.extension)) {
+			final String binaryName = path.substring(0, path.length() - kind.extension.length()).replace('/', '.');
+			
+			ConcurrentMap<String, JavaFileObject> filesByBinaryName = entries.filesByBinaryName.get(kind);
+			
+			if (filesByBinaryName == null) {
+				filesByBinaryName = putIfAbsent(
+						entries.filesByBinaryName,
+						kind,
+						new ConcurrentHashMap<String, JavaFileObject>());
+			}
+			
+			filesByBinaryName.put(binaryName, file);
+		}
+		
+		return file;
+	}
+	
+	/**
+	 * Creates the path of a file relative to its location.
+	 *
+	 * @param packageName
+	 * 		the name of the package containing the file, empty for the unnamed package, not null
+	 * @param relativeName
+	 * 		the name of the file relative to the package, not null
+	 *
+	 * @return the path, not null
+	 */
+	static String createPath(final String packageName, final String relativeName) {
+		return packageName.isEmpty() ? relativeName : packageName.replace('.', '/') + "/" + relativeName;
+	}
+	
+	/**
+	 * Creates the path of a file relative to its location.
+	 *
+	 * @param binaryName
+	 * 		the binary name of the class the file belongs to, not null
+	 * @param kind
+	 * 		the kind of the file, not null
+	 *
+	 * @return the path, not null
+	 */
+	static String createPath(final String binaryName, final Kind kind) {
+		return binaryName.replace('.', '/') + kind.extension;
+	}
+	
+	/**
+	 * Creates the URI for a file stored in memory.
+	 *
+	 * @param location
+	 * 		the location of the file, not null
+	 * @param path
+	 * 		the path of the file relative to the location, not null
+	 *
+	 * @return the URI, not null
+	 */
+	static URI createUri(final Location location, final String path) {
+		return URI.create(BASE_LOCATION + location.getName() + "/" + path);
+	}
+	
+	/**
+	 * Puts a value in a map unless the key is already mapped, and returns whichever value is in the map afterwards.
+	 */
+	private static <K, V> V putIfAbsent(final ConcurrentMap<K, V> map, final K key, final V newValue) {
+		final V existingValue = map.putIfAbsent(key, newValue);
+		
+		return existingValue == null ? newValue : existingValue;
+	}
+	
+	private static <T> Set<T> newConcurrentSet() {
+		return Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+	}
+	
+	private static boolean isBinaryNameIndexed(final Kind kind) {
+		return kind == Kind.SOURCE || kind == Kind.CLASS || kind == Kind.HTML;
+	}
+	
+	/**
+	 * The files in a single location.
+	 */
+	private static class LocationEntries {
+		/**
+		 * Each key identifies a path relative to the location, and the corresponding value is the file at that path.
+		 */
+		private final ConcurrentMap<PathKey, JavaFileObject> filesByPath = new ConcurrentHashMap<>();
+		
+		/**
+		 * Each key is a kind, and the corresponding value maps binary names to the files of that kind.
+		 */
+		private final ConcurrentMap<Kind, ConcurrentMap<String, JavaFileObject>> filesByBinaryName =
+				new ConcurrentHashMap<>();
+		
+		/**
+		 * Each key is a package name, and the corresponding value groups the files in that package by kind.
+		 */
+		private final ConcurrentMap<String, ConcurrentMap<Kind, Set<JavaFileObject>>> filesByPackage =
+				new ConcurrentHashMap<>();
+		
+		/**
+		 * Every file in the location.
+		 */
+		private final Set<JavaFileObject> allFiles = newConcurrentSet();
+		
+		/**
+		 * An unmodifiable view of {@link #allFiles}.
+		 */
+		private final Set<JavaFileObject> allFilesView = Collections.unmodifiableSet(allFiles);
+	}
+}
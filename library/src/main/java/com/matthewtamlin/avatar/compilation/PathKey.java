@@ -0,0 +1,252 @@
+package com.matthewtamlin.avatar.compilation;
+
+import javax.tools.JavaFileObject.Kind;
+
+/**
+ * Identifies a file by its path relative to its location, without building the path. Files are looked up by package
+ * and relative name, by binary name and kind, or by path, and all three forms identify the same file when they
+ * describe the same path, for example {@code ("com.example", "Test.java")}, {@code ("com.example.Test", SOURCE)} and
+ * {@code "com/example/Test.java"}. The key holds the strings it was created from and compares them character by
+ * character, so no strings are created to look up a file.
+ * <p>
+ * Keys stored in maps must not be modified. Lookups use a per-thread probe key which is reset for each lookup, so a
+ * lookup allocates nothing. Instances are not safe for use by multiple threads while they are being modified.
+ */
+final class PathKey {
+	/**
+	 * The per-thread keys used for lookups.
+	 */
+	private static final ThreadLocal<PathKey> PROBES = new ThreadLocal<PathKey>() {
+		@Override
+		protected PathKey initialValue() {
+			return new PathKey();
+		}
+	};
+	
+	/**
+	 * The first part of the path, in which '.' is treated as '/'. Either a package name or a binary name.
+	 */
+	private String dottedPart;
+	
+	/**
+	 * Whether or not a '/' separates the dotted part and the plain part.
+	 */
+	private boolean separated;
+	
+	/**
+	 * The part of the path which follows the dotted part, used as is.
+	 */
+	private String plainPart;
+	
+	/**
+	 * The extension at the end of the path, used as is.
+	 */
+	private String extension;
+	
+	/**
+	 * The number of characters in the path.
+	 */
+	private int length;
+	
+	/**
+	 * The hash code of the path, computed the same way as {@link String#hashCode()}.
+	 */
+	private int hash;
+	
+	private PathKey() {}
+	
+	/**
+	 * Creates a key for a path.
+	 *
+	 * @param path
+	 * 		the path of the file relative to its location, using '/' as the separator, not null
+	 *
+	 * @return the new key, not null
+	 */
+	static PathKey forPath(final String path) {
+		return new PathKey().set("", false, path, "");
+	}
+	
+	/**
+	 * Gets the probe key of the current thread, set to a package and relative name. The probe must only be used for
+	 * lookups, and only until the next call to a probe method on the same thread.
+	 *
+	 * @param packageName
+	 * 		the name of the package containing the file, empty for the unnamed package, not null
+	 * @param relativeName
+	 * 		the name of the file relative to the package, using '/' as the separator, not null
+	 *
+	 * @return the probe key, not null
+	 */
+	static PathKey probe(final String packageName, final String relativeName) {
+		return PROBES.get().set(packageName, !packageName.isEmpty(), relativeName, "");
+	}
+	
+	/**
+	 * Gets the probe key of the current thread, set to a binary name and kind. The probe must only be used for
+	 * lookups, and only until the next call to a probe method on the same thread.
+	 *
+	 * @param binaryName
+	 * 		the binary name of the class the file belongs to, not null
+	 * @param kind
+	 * 		the kind of the file, not null
+	 *
+	 * @return the probe key, not null
+	 */
+	static PathKey probe(final String binaryName, final Kind kind) {
+		return PROBES.get().set(binaryName, false, "", kind.extension);
+	}
+	
+	/**
+	 * Gets the probe key of the current thread, set to a path. The probe must only be used for lookups, and only until
+	 * the next call to a probe method on the same thread.
+	 *
+	 * @param path
+	 * 		the path of the file relative to its location, using '/' as the separator, not null
+	 *
+	 * @return the probe key, not null
+	 */
+	static PathKey probe(final String path) {
+		return PROBES.get().set("", false, path, "");
+	}
+	
+	/**
+	 * @return the path this key identifies, not null
+	 */
+	String toPath() {
+		final StringBuilder path = new StringBuilder(length);
+		
+		for (int i = 0; i < length; i++) {
+			path.append(charAt(i));
+		}
+		
+		return path.toString();
+	}
+	
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+	
+	@Override
+	public boolean equals(final Object object) {
+		if (object == this) {
+			return true;
+		}
+		
+		if (!(object instanceof PathKey)) {
+			return false;
+		}
+		
+		final PathKey other = (PathKey) object;
+		
+		if (other.hash != hash || other.length != length) {
+			return false;
+		}
+		
+		// Stored keys are always created from paths, so comparing against a path is the common case
+		if (other.isPath()) {
+			return matchesPath(other.plainPart);
+		} else if (isPath()) {
+			return other.matchesPath(plainPart);
+		}
+		
+		for (int i = 0; i < length; i++) {
+			if (other.charAt(i) != charAt(i)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	@Override
+	public String toString() {
+		return toPath();
+	}
+	
+	private boolean isPath() {
+		return dottedPart.isEmpty() && extension.isEmpty();
+	}
+	
+	/**
+	 * Compares this key to a path of the same length, segment by segment.
+	 */
+	private boolean matchesPath(final String path) {
+		int position = 0;
+		
+		for (int i = 0; i < dottedPart.length(); i++, position++) {
+			final char c = dottedPart.charAt(i);
+			
+			if ((c == '.' ? '/' : c) != path.charAt(position)) {
+				return false;
+			}
+		}
+		
+		if (separated && path.charAt(position++) != '/') {
+			return false;
+		}
+		
+		return path.regionMatches(position, plainPart, 0, plainPart.length()) &&
+				path.regionMatches(position + plainPart.length(), extension, 0, extension.length());
+	}
+	
+	private PathKey set(
+			final String dottedPart,
+			final boolean separated,
+			final String plainPart,
+			final String extension) {
+		
+		this.dottedPart = dottedPart;
+		this.separated = separated;
+		this.plainPart = plainPart;
+		this.extension = extension;
+		this.length = dottedPart.length() + (separated ? 1 : 0) + plainPart.length() + extension.length();
+		
+		int hash = 0;
+		
+		for (int i = 0; i < dottedPart.length(); i++) {
+			final char c = dottedPart.charAt(i);
+			hash = 31 * hash + (c == '.' ? '/' : c);
+		}
+		
+		if (separated) {
+			hash = 31 * hash + '/';
+		}
+		
+		for (int i = 0; i < plainPart.length(); i++) {
+			hash = 31 * hash + plainPart.charAt(i);
+		}
+		
+		for (int i = 0; i < extension.length(); i++) {
+			hash = 31 * hash + extension.charAt(i);
+		}
+		
+		this.hash = hash;
+		
+		return this;
+	}
+	
+	private char charAt(int index) {
+		if (index < dottedPart.length()) {
+			final char c = dottedPart.charAt(index);
+			return c == '.' ? '/' : c;
+		}
+		
+		index -= dottedPart.length();
+		
+		if (separated) {
+			if (index == 0) {
+				return '/';
+			}
+			
+			index--;
+		}
+		
+		if (index < plainPart.length()) {
+			return plainPart.charAt(index);
+		}
+		
+		return extension.charAt(index - plainPart.length());
+	}
+}
\ No newline at end of file
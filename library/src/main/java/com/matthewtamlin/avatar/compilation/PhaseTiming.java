@@ -0,0 +1,46 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * The time spent in one phase of compilation.
+ */
+@AutoValue
+public abstract class PhaseTiming {
+	/**
+	 * @return the total wall time spent in the phase, measured in nanoseconds
+	 */
+	public abstract long totalNanos();
+	
+	/**
+	 * @return the number of times the phase was entered, for example once per parsed file
+	 */
+	public abstract int eventCount();
+	
+	/**
+	 * Creates a new PhaseTiming.
+	 *
+	 * @param totalNanos
+	 * 		the total wall time spent in the phase, measured in nanoseconds, not negative
+	 * @param eventCount
+	 * 		the number of times the phase was entered, not negative
+	 *
+	 * @return the new PhaseTiming, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code totalNanos} is negative
+	 * @throws IllegalArgumentException
+	 * 		if {@code eventCount} is negative
+	 */
+	public static PhaseTiming create(final long totalNanos, final int eventCount) {
+		if (totalNanos < 0) {
+			throw new IllegalArgumentException("Argument \'totalNanos\' cannot be negative.");
+		}
+		
+		if (eventCount < 0) {
+			throw new IllegalArgumentException("Argument \'eventCount\' cannot be negative.");
+		}
+		
+		return new AutoValue_PhaseTiming(totalNanos, eventCount);
+	}
+}
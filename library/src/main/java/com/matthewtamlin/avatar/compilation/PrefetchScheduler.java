@@ -0,0 +1,422 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import javax.tools.JavaFileObject;
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * Compiles requests speculatively before they are needed, so that the compiler runs while the test runner is busy
+ * with other work. Requests are registered ahead of time with {@link #prefetch(CompilationRequest)} and compiled on
+ * background daemon threads, and {@link #take(CompilationRequest)} hands over the result once it is needed. If the
+ * result is still being compiled then the taker waits for it, and if it has not started compiling then the taker
+ * compiles it directly, so taking a result is never slower than compiling it. Each request is compiled at most once,
+ * since a processor cannot be used in more than one compilation.
+ * <p>
+ * No more than a fixed number of compilations run at once, and finished results which have not been taken are
+ * limited by a memory budget. Prefetches are refused while the budget is used, and queued prefetches are skipped if
+ * the budget has been used by the time they are due to start. Skipped requests are unscheduled, so they can be
+ * prefetched again once the budget frees up, and are otherwise compiled when taken. The size of a result is only known
+ * once it has been compiled, so the results retained at once may exceed the budget by the size of the compilations
+ * which were running when the budget was reached. The time saved by prefetching is reported by {@link
+ * #getStatistics()}.
+ * <p>
+ * Prefetched results are shared with the taker, so as with {@link CompilationCache} this class should only be used
+ * with processors that have no side effects beyond the files they generate. Rules which run tests during annotation
+ * processing cannot use prefetched results, since the test must run inside the compilation.
+ * <p>
+ * This class is safe for use by multiple threads.
+ */
+public class PrefetchScheduler implements Closeable {
+	/**
+	 * The weight added for each diagnostic, so that results with no generated files still use some of the budget.
+	 */
+	private static final int DIAGNOSTIC_WEIGHT = 256;
+	
+	/**
+	 * The maximum total size of the finished results which have not been taken, measured in bytes.
+	 */
+	private final long memoryBudgetInBytes;
+	
+	/**
+	 * Runs the compilations on daemon threads, limiting the number which run at once.
+	 */
+	private final BoundedExecutor executor;
+	
+	/**
+	 * The prefetches which have not been taken. Each key is a request, and the corresponding value is the prefetch of
+	 * that request. Guarded by this.
+	 */
+	private final Map<CompilationRequest, Prefetch> prefetches = new HashMap<>();
+	
+	/**
+	 * The total size of the finished results which have not been taken, measured in bytes. Guarded by this.
+	 */
+	private long retainedBytes;
+	
+	/**
+	 * The counters reported by {@link #getStatistics()}. Guarded by this.
+	 */
+	private int hitCount;
+	
+	private int missCount;
+	
+	private int rejectedCount;
+	
+	private int skippedCount;
+	
+	private long savedWaitNanos;
+	
+	/**
+	 * Whether or not this scheduler has been closed. Guarded by this.
+	 */
+	private boolean closed;
+	
+	/**
+	 * Constructs a new PrefetchScheduler.
+	 *
+	 * @param maximumParallelism
+	 * 		the maximum number of compilations which can run at once, at least one
+	 * @param memoryBudgetInBytes
+	 * 		the maximum total size of the finished results which have not been taken, measured in bytes, not negative
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code maximumParallelism} is less than one
+	 * @throws IllegalArgumentException
+	 * 		if {@code memoryBudgetInBytes} is negative
+	 */
+	public PrefetchScheduler(final int maximumParallelism, final long memoryBudgetInBytes) {
+		if (maximumParallelism < 1) {
+			throw new IllegalArgumentException("Argument \'maximumParallelism\' must be at least one.");
+		}
+		
+		if (memoryBudgetInBytes < 0) {
+			throw new IllegalArgumentException("Argument \'memoryBudgetInBytes\' cannot be negative.");
+		}
+		
+		this.memoryBudgetInBytes = memoryBudgetInBytes;
+		
+		final Executor threads = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+				.setDaemon(true)
+				.setNameFormat("avatar-prefetch-%d")
+				.build());
+		
+		executor = new BoundedExecutor(threads, maximumParallelism);
+	}
+	
+	/**
+	 * Schedules a request to be compiled in the background. Registering a request which is already scheduled has no
+	 * effect. Requests are compiled in the order they are registered.
+	 *
+	 * @param request
+	 * 		the request to compile, not null
+	 *
+	 * @return true if the request is scheduled, false if it was refused because the memory budget is used
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code request} is null
+	 * @throws IllegalStateException
+	 * 		if this scheduler has been closed
+	 */
+	public boolean prefetch(final CompilationRequest request) {
+		checkNotNull(request, "Argument \'request\' cannot be null.");
+		
+		final Prefetch prefetch;
+		
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("Cannot prefetch after the scheduler is closed.");
+			}
+			
+			if (prefetches.containsKey(request)) {
+				return true;
+			}
+			
+			if (retainedBytes >= memoryBudgetInBytes) {
+				rejectedCount++;
+				return false;
+			}
+			
+			prefetch = new Prefetch(request);
+			prefetches.put(request, prefetch);
+		}
+		
+		executor.execute(prefetch.task);
+		
+		return true;
+	}
+	
+	/**
+	 * Gets the result of a request, removing it from this scheduler. If the request was prefetched then the
+	 * prefetched result is returned, waiting for it to finish compiling if necessary. Otherwise the request is
+	 * compiled on the calling thread. Each request can only be taken once, since its processor is used by the
+	 * compilation.
+	 *
+	 * @param request
+	 * 		the request to get the result of, not null
+	 *
+	 * @return the result, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code request} is null
+	 * @throws CompilerMissingException
+	 * 		if no Java compiler is found at runtime
+	 */
+	public CompilationResult take(final CompilationRequest request) {
+		checkNotNull(request, "Argument \'request\' cannot be null.");
+		
+		final Prefetch prefetch;
+		
+		synchronized (this) {
+			prefetch = prefetches.remove(request);
+			
+			if (prefetch != null && prefetch.retained) {
+				retainedBytes -= prefetch.sizeInBytes;
+			}
+		}
+		
+		// Claiming a prefetch which has not started stops it from running, so it can be compiled here without waiting
+		if (prefetch == null || prefetch.started.compareAndSet(false, true)) {
+			synchronized (this) {
+				missCount++;
+			}
+			
+			return compile(request);
+		}
+		
+		final long waitStartNanos = System.nanoTime();
+		
+		final CompilationResult result;
+		
+		try {
+			result = Uninterruptibles.getUninterruptibly(prefetch.task);
+		} catch (final ExecutionException e) {
+			Throwables.throwIfUnchecked(e.getCause());
+			throw new RuntimeException(e.getCause());
+		}
+		
+		final long waitNanos = System.nanoTime() - waitStartNanos;
+		final long compileNanos = prefetch.finishNanos - prefetch.startNanos;
+		
+		synchronized (this) {
+			hitCount++;
+			savedWaitNanos += Math.max(0, compileNanos - waitNanos);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @return the total size of the finished results which have not been taken, measured in bytes
+	 */
+	public synchronized long getRetainedBytes() {
+		return retainedBytes;
+	}
+	
+	/**
+	 * @return a snapshot of how effective prefetching has been so far, not null
+	 */
+	public synchronized PrefetchStatistics getStatistics() {
+		return PrefetchStatistics.create(hitCount, missCount, rejectedCount, skippedCount, savedWaitNanos);
+	}
+	
+	/**
+	 * Stops scheduling compilations and releases the finished results which have not been taken. Compilations which
+	 * are already running are allowed to finish, and their results are released once they do. The threads used for
+	 * compiling exit once they are idle, so the scheduler does not need to be closed before the JVM exits.
+	 */
+	@Override
+	public void close() {
+		final ImmutableList.Builder<Prefetch> finished = ImmutableList.builder();
+		
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			
+			closed = true;
+			
+			for (final Prefetch prefetch : prefetches.values()) {
+				prefetch.abandoned = true;
+				
+				if (prefetch.retained) {
+					finished.add(prefetch);
+				}
+				
+				// Claiming a prefetch which has not started stops it from running
+				prefetch.started.compareAndSet(false, true);
+			}
+			
+			prefetches.clear();
+			retainedBytes = 0;
+		}
+		
+		for (final Prefetch prefetch : finished.build()) {
+			releaseQuietly(prefetch);
+		}
+	}
+	
+	/**
+	 * Determines whether a prefetch can start. If not, the prefetch is counted as skipped and unscheduled.
+	 */
+	private synchronized boolean canStart(final Prefetch prefetch) {
+		if (retainedBytes >= memoryBudgetInBytes) {
+			skippedCount++;
+			
+			if (prefetches.get(prefetch.request) == prefetch) {
+				prefetches.remove(prefetch.request);
+			}
+			
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Records a finished prefetch against the memory budget.
+	 */
+	private void onFinished(final Prefetch prefetch) {
+		final CompilationResult result = getResultOrNull(prefetch);
+		
+		if (result == null) {
+			return;
+		}
+		
+		synchronized (this) {
+			// Taken prefetches are owned by their taker
+			if (!prefetch.abandoned) {
+				if (prefetches.get(prefetch.request) == prefetch) {
+					prefetch.sizeInBytes = sizeOf(result);
+					prefetch.retained = true;
+					retainedBytes += prefetch.sizeInBytes;
+				}
+				
+				return;
+			}
+		}
+		
+		result.release();
+	}
+	
+	private static CompilationResult compile(final CompilationRequest request) {
+		return CompilerUtil.compile(
+				ImmutableSet.of(request.processor()),
+				request.sources(),
+				request.compilePolicy(),
+				request.options(),
+				request.storageMode(),
+				new CompilationTimer(),
+				ImmutableList.<OutputIndex>of());
+	}
+	
+	private static void releaseQuietly(final Prefetch prefetch) {
+		final CompilationResult result = getResultOrNull(prefetch);
+		
+		if (result != null) {
+			result.release();
+		}
+	}
+	
+	/**
+	 * Gets the result of a finished prefetch, or null if the prefetch failed or was skipped.
+	 */
+	private static CompilationResult getResultOrNull(final Prefetch prefetch) {
+		try {
+			return Uninterruptibles.getUninterruptibly(prefetch.task);
+		} catch (final ExecutionException e) {
+			// The failure is rethrown to the taker
+			return null;
+		}
+	}
+	
+	private static long sizeOf(final CompilationResult result) {
+		long size = (long) result.diagnostics().size() * DIAGNOSTIC_WEIGHT;
+		
+		for (final JavaFileObject file : result.generatedFiles()) {
+			if (file instanceof InMemoryJavaFileObject) {
+				size += ((InMemoryJavaFileObject) file).getSizeInBytes();
+			}
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * A scheduled compilation of a request.
+	 */
+	private class Prefetch {
+		private final CompilationRequest request;
+		
+		/**
+		 * Set by whichever runs first: the background task, or a taker or close claiming the prefetch before it
+		 * started. The task does nothing if it was claimed first.
+		 */
+		private final AtomicBoolean started = new AtomicBoolean();
+		
+		private final ListenableFutureTask<CompilationResult> task;
+		
+		private volatile long startNanos;
+		
+		private volatile long finishNanos;
+		
+		/**
+		 * The size of the result, measured in bytes. Guarded by the scheduler.
+		 */
+		private long sizeInBytes;
+		
+		/**
+		 * Whether or not the size of the result is included in the retained bytes. Guarded by the scheduler.
+		 */
+		private boolean retained;
+		
+		/**
+		 * Whether or not the scheduler was closed before the prefetch was taken. Guarded by the scheduler.
+		 */
+		private boolean abandoned;
+		
+		private Prefetch(final CompilationRequest request) {
+			this.request = request;
+			
+			task = ListenableFutureTask.create(new Callable<CompilationResult>() {
+				@Override
+				public CompilationResult call() {
+					// A skipped prefetch is unscheduled so it can be prefetched again or compiled by the taker
+					if (started.get() || !canStart(Prefetch.this) || !started.compareAndSet(false, true)) {
+						return null;
+					}
+					
+					startNanos = System.nanoTime();
+					
+					try {
+						return compile(Prefetch.this.request);
+					} finally {
+						finishNanos = System.nanoTime();
+					}
+				}
+			});
+			
+			task.addListener(new Runnable() {
+				@Override
+				public void run() {
+					onFinished(Prefetch.this);
+				}
+			}, MoreExecutors.directExecutor());
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,71 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * An immutable snapshot of how effective a {@link PrefetchScheduler} has been.
+ */
+@AutoValue
+public abstract class PrefetchStatistics {
+	/**
+	 * @return the number of results which had been prefetched when they were taken, including results which were
+	 * still being compiled
+	 */
+	public abstract int hitCount();
+	
+	/**
+	 * @return the number of results which were compiled when they were taken, because they were never prefetched,
+	 * were skipped, or had not started compiling
+	 */
+	public abstract int missCount();
+	
+	/**
+	 * @return the number of prefetches which were refused because the memory budget was already used
+	 */
+	public abstract int rejectedCount();
+	
+	/**
+	 * @return the number of prefetches which were skipped because the memory budget was used by the time they were
+	 * due to start
+	 */
+	public abstract int skippedCount();
+	
+	/**
+	 * @return the total time that takers did not have to wait because compilation had already been done ahead of
+	 * time, measured in nanoseconds
+	 */
+	public abstract long savedWaitNanos();
+	
+	/**
+	 * Creates a new PrefetchStatistics.
+	 *
+	 * @param hitCount
+	 * 		the number of results which had been prefetched when they were taken, not negative
+	 * @param missCount
+	 * 		the number of results which were compiled when they were taken, not negative
+	 * @param rejectedCount
+	 * 		the number of prefetches which were refused, not negative
+	 * @param skippedCount
+	 * 		the number of prefetches which were skipped, not negative
+	 * @param savedWaitNanos
+	 * 		the total time that takers did not have to wait, measured in nanoseconds, not negative
+	 *
+	 * @return the new PrefetchStatistics, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if any argument is negative
+	 */
+	public static PrefetchStatistics create(
+			final int hitCount,
+			final int missCount,
+			final int rejectedCount,
+			final int skippedCount,
+			final long savedWaitNanos) {
+		
+		if (hitCount < 0 || missCount < 0 || rejectedCount < 0 || skippedCount < 0 || savedWaitNanos < 0) {
+			throw new IllegalArgumentException("Arguments cannot be negative.");
+		}
+		
+		return new AutoValue_PrefetchStatistics(hitCount, missCount, rejectedCount, skippedCount, savedWaitNanos);
+	}
+}
\ No newline at end of file
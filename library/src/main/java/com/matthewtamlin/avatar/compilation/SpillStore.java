@@ -0,0 +1,181 @@
+package com.matthewtamlin.avatar.compilation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * Keeps the total size of the in-memory contents of a set of files within a budget, by moving the contents of the
+ * least recently used files to temporary files on disk whenever the budget is exceeded. Files inform the store when
+ * their contents are written, read and deleted.
+ * <p>
+ * This class is safe for use by multiple threads. Files are chosen for spilling while holding the lock, but are
+ * written to disk after releasing it, so writers are not serialized behind disk writes.
+ */
+class SpillStore {
+	/**
+	 * The maximum total size of the contents kept in memory, measured in bytes.
+	 */
+	private final long memoryBudgetInBytes;
+	
+	/**
+	 * The directory to create temporary files in.
+	 */
+	private final File directory;
+	
+	/**
+	 * The files with contents in memory, from least to most recently used. Each value is the size of the contents of
+	 * the corresponding file, measured in bytes.
+	 */
+	private final LinkedHashMap<InMemoryJavaFileObject, Long> inMemoryFiles = new LinkedHashMap<>(16, 0.75f, true);
+	
+	/**
+	 * The total size of the contents of the files in {@link #inMemoryFiles}, measured in bytes.
+	 */
+	private long inMemoryBytes;
+	
+	/**
+	 * The number of files which have been moved to disk.
+	 */
+	private long spillCount;
+	
+	/**
+	 * Constructs a new SpillStore.
+	 *
+	 * @param memoryBudgetInBytes
+	 * 		the maximum total size of the contents kept in memory, measured in bytes, not negative
+	 * @param directory
+	 * 		the directory to create temporary files in, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code memoryBudgetInBytes} is negative
+	 * @throws IllegalArgumentException
+	 * 		if {@code directory} is null
+	 */
+	SpillStore(final long memoryBudgetInBytes, final File directory) {
+		if (memoryBudgetInBytes < 0) {
+			throw new IllegalArgumentException("Argument \'memoryBudgetInBytes\' cannot be negative.");
+		}
+		
+		this.memoryBudgetInBytes = memoryBudgetInBytes;
+		this.directory = checkNotNull(directory, "Argument \'directory\' cannot be null.");
+	}
+	
+	/**
+	 * Records that the contents of a file were replaced with new contents in memory, and spills files if the budget is
+	 * exceeded.
+	 *
+	 * @param file
+	 * 		the file, not null
+	 * @param sizeInBytes
+	 * 		the size of the new contents, measured in bytes
+	 */
+	void recordWrite(final InMemoryJavaFileObject file, final long sizeInBytes) {
+		final List<Map.Entry<InMemoryJavaFileObject, Long>> victims;
+		
+		synchronized (this) {
+			final Long previousSize = inMemoryFiles.put(file, sizeInBytes);
+			
+			inMemoryBytes += sizeInBytes - (previousSize == null ? 0 : previousSize);
+			
+			victims = takeLeastRecentlyUsedOverBudget();
+		}
+		
+		spill(victims);
+	}
+	
+	/**
+	 * Records that the contents of a file were read, so the file becomes the most recently used.
+	 *
+	 * @param file
+	 * 		the file, not null
+	 */
+	synchronized void recordAccess(final InMemoryJavaFileObject file) {
+		inMemoryFiles.get(file);
+	}
+	
+	/**
+	 * Records that the contents of a file were deleted.
+	 *
+	 * @param file
+	 * 		the file, not null
+	 */
+	synchronized void recordRemoval(final InMemoryJavaFileObject file) {
+		final Long previousSize = inMemoryFiles.remove(file);
+		
+		if (previousSize != null) {
+			inMemoryBytes -= previousSize;
+		}
+	}
+	
+	/**
+	 * @return the total size of the contents currently kept in memory, measured in bytes
+	 */
+	synchronized long getInMemoryBytes() {
+		return inMemoryBytes;
+	}
+	
+	/**
+	 * @return the number of files which have been moved to disk
+	 */
+	synchronized long getSpillCount() {
+		return spillCount;
+	}
+	
+	/**
+	 * Removes the least recently used files from the in-memory files until the total is within budget. The removed
+	 * files must then be spilled.
+	 *
+	 * @return the removed files and their sizes, not null
+	 */
+	private List<Map.Entry<InMemoryJavaFileObject, Long>> takeLeastRecentlyUsedOverBudget() {
+		final List<Map.Entry<InMemoryJavaFileObject, Long>> victims = new ArrayList<>();
+		final Iterator<Map.Entry<InMemoryJavaFileObject, Long>> iterator = inMemoryFiles.entrySet().iterator();
+		
+		while (inMemoryBytes > memoryBudgetInBytes && iterator.hasNext()) {
+			final Map.Entry<InMemoryJavaFileObject, Long> leastRecentlyUsed = iterator.next();
+			
+			victims.add(new AbstractMap.SimpleImmutableEntry<>(leastRecentlyUsed));
+			inMemoryBytes -= leastRecentlyUsed.getValue();
+			iterator.remove();
+		}
+		
+		return victims;
+	}
+	
+	/**
+	 * Moves the contents of files to disk. Files which cannot be written to disk are kept in memory, unless their
+	 * contents were replaced or deleted in the meantime.
+	 *
+	 * @param victims
+	 * 		the files to spill and their sizes, not null
+	 */
+	private void spill(final List<Map.Entry<InMemoryJavaFileObject, Long>> victims) {
+		for (final Map.Entry<InMemoryJavaFileObject, Long> victim : victims) {
+			final InMemoryJavaFileObject file = victim.getKey();
+			
+			try {
+				if (file.spill(directory)) {
+					synchronized (this) {
+						spillCount++;
+					}
+				}
+			} catch (final IOException e) {
+				// Keep the file in memory rather than failing the write
+				synchronized (this) {
+					if (!inMemoryFiles.containsKey(file) && file.getSizeInBytes() == victim.getValue()) {
+						inMemoryFiles.put(file, victim.getValue());
+						inMemoryBytes += victim.getValue();
+					}
+				}
+			}
+		}
+	}
+}
\ No newline at end of file
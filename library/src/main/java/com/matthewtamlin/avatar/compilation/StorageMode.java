@@ -0,0 +1,18 @@
+package com.matthewtamlin.avatar.compilation;
+
+/**
+ * Defines where the contents of in-memory output files are stored.
+ */
+public enum StorageMode {
+	/**
+	 * Stores contents in byte arrays on the Java heap.
+	 */
+	HEAP,
+	
+	/**
+	 * Stores contents in direct buffers outside the Java heap, so large outputs do not add to the heap or to garbage
+	 * collection pauses. Direct memory is limited by the {@code -XX:MaxDirectMemorySize} option of the JVM. The memory
+	 * is returned once the files are released and their buffers are collected.
+	 */
+	DIRECT
+}
\ No newline at end of file
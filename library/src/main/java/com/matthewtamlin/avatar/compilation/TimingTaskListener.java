@@ -0,0 +1,69 @@
+package com.matthewtamlin.avatar.compilation;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+import javax.tools.JavaCompiler.CompilationTask;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Forwards javac task events to a {@link CompilationTimer}. This class is kept separate from the timer so that the
+ * timer can still be used when the javac API extensions are not available.
+ */
+class TimingTaskListener implements TaskListener {
+	/**
+	 * Maps the names of javac event kinds to phases. Names are used instead of the kinds themselves so that kinds
+	 * added in later versions of javac are ignored instead of causing failures.
+	 */
+	private static final Map<String, CompilePhase> PHASES_BY_KIND_NAME = new HashMap<>();
+	
+	static {
+		for (final CompilePhase phase : CompilePhase.values()) {
+			PHASES_BY_KIND_NAME.put(phase.name(), phase);
+		}
+	}
+	
+	/**
+	 * The timer to forward events to.
+	 */
+	private final CompilationTimer timer;
+	
+	private TimingTaskListener(final CompilationTimer timer) {
+		this.timer = timer;
+	}
+	
+	/**
+	 * Attaches a new listener to the supplied task if the task is a javac task. Other tasks are ignored. Listeners
+	 * which are already registered with the task, such as those of compiler plugins, are kept.
+	 *
+	 * @param task
+	 * 		the task to attach to, not null
+	 * @param timer
+	 * 		the timer to forward events to, not null
+	 */
+	static void attach(final CompilationTask task, final CompilationTimer timer) {
+		if (task instanceof JavacTask) {
+			((JavacTask) task).addTaskListener(new TimingTaskListener(timer));
+		}
+	}
+	
+	@Override
+	public void started(final TaskEvent event) {
+		final CompilePhase phase = PHASES_BY_KIND_NAME.get(event.getKind().name());
+		
+		if (phase != null) {
+			timer.eventStarted(phase);
+		}
+	}
+	
+	@Override
+	public void finished(final TaskEvent event) {
+		final CompilePhase phase = PHASES_BY_KIND_NAME.get(event.getKind().name());
+		
+		if (phase != null) {
+			timer.eventFinished(phase);
+		}
+	}
+}
@@ -4,7 +4,12 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.testing.compile.JavaFileObjects;
 import com.matthewtamlin.avatar.compilation.CompilationResult;
+import com.matthewtamlin.avatar.compilation.CompilationTimer;
+import com.matthewtamlin.avatar.compilation.CompilationTimings;
+import com.matthewtamlin.avatar.compilation.CompilePolicy;
 import com.matthewtamlin.avatar.compilation.CompilerUtil;
+import com.matthewtamlin.avatar.compilation.CompilerWarmUp;
+import com.matthewtamlin.avatar.compilation.MappedSourceFileObject;
 import org.junit.rules.TestRule;
 import org.junit.runner.Description;
 import org.junit.runners.model.Statement;
@@ -17,8 +22,10 @@ import javax.lang.model.util.Types;
 import javax.tools.JavaFileObject;
 import java.io.File;
 import java.lang.annotation.Annotation;
-import java.net.MalformedURLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.matthewtamlin.avatar.util.IterableNullChecker.checkNotContainsNull;
 import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
@@ -32,6 +39,16 @@ import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull
  * ElementId} and call {@link #getElementsWithId(String)} or {@link #getElementWithUniqueId(String)}.</li> <li>Annotate
  * elements with any annotation and call {@link #getElementsWithAnnotation(Class)}.</li> <li>Call {@link
  * #getRootElements()}.</li></ul>
+ * <p>
+ * The rule can be used as a method rule (annotated with {@link org.junit.Rule}) or as a class rule (annotated with
+ * {@link org.junit.ClassRule}). As a method rule, the sources are compiled once for every test method. As a class
+ * rule, the sources are compiled once for the entire test class, and every test method runs against the same
+ * processing environment, round environments and elements. In both cases the accessor methods of the rule behave the
+ * same way, so switching between the two modes only requires changing the annotation and making the field static.
+ * <p>
+ * The collections held by the rule are concurrent, so reading them never corrupts the rule. Tests run inside the final
+ * round of annotation processing, and the elements, types and utilities provided by the compiler are not safe for use
+ * by multiple threads, so they must not be used from several threads at once.
  */
 public class AvatarRule implements TestRule {
 	/**
@@ -44,38 +61,55 @@ public class AvatarRule implements TestRule {
 	 */
 	private final boolean requireSuccessfulCompilation;
 	
+	/**
+	 * Defines how far compilation proceeds.
+	 */
+	private final CompilePolicy compilePolicy;
+	
+	/**
+	 * The names of the fixture libraries to add to the class path, in order of precedence.
+	 */
+	private final List<String> fixtureLibraries;
+	
 	/**
 	 * The round environments generated by compilation, in the order that they were generated.
 	 */
-	private final List<RoundEnvironment> roundEnvironments = new ArrayList<>();
+	private final List<RoundEnvironment> roundEnvironments = new CopyOnWriteArrayList<>();
 	
 	/**
 	 * The root elements generated by compilation.
 	 */
-	private final Set<Element> rootElements = new HashSet<>();
+	private final Set<Element> rootElements = Collections.newSetFromMap(new ConcurrentHashMap<Element, Boolean>());
 	
 	/**
 	 * All elements that were generated by compilation with at least one annotation. Each key is the fully qualified
 	 * name
 	 * of an annotation, and the corresponding value is the set of elements that possess that annotation.
 	 */
-	private final Map<String, Set<Element>> elementsByAnnotationName = new HashMap<>();
+	private final ConcurrentMap<String, Set<Element>> elementsByAnnotationName = new ConcurrentHashMap<>();
 	
 	/**
 	 * All elements that were generated by compilation with an {@link ElementId} annotation. Each key is an element ID,
 	 * and the corresponding value is the set of elements with that ID.
 	 */
-	private final Map<String, Set<Element>> elementsById = new HashMap<>();
+	private final ConcurrentMap<String, Set<Element>> elementsById = new ConcurrentHashMap<>();
 	
 	/**
 	 * The processing environment supplied by the system during compilation.
 	 */
-	private ProcessingEnvironment processingEnvironment;
+	private volatile ProcessingEnvironment processingEnvironment;
+	
+	/**
+	 * Records the time spent in each phase of compilation.
+	 */
+	private volatile CompilationTimer compilationTimer;
 	
 	/**
-	 * Whether or not compilation has finished. The rule may still be running even when this variable is true.
+	 * Whether or not compilation has finished. The rule may still be running even when this variable is true. This
+	 * variable is written after all elements have been collected, so any thread which reads true also sees the
+	 * collected elements.
 	 */
-	private boolean compilationFinished;
+	private volatile boolean compilationFinished;
 	
 	private AvatarRule(final Builder builder) {
 		if (builder.sources == null || !builder.sources.iterator().hasNext()) {
@@ -85,6 +119,8 @@ public class AvatarRule implements TestRule {
 		}
 		
 		requireSuccessfulCompilation = builder.requireSuccessfulCompilation;
+		compilePolicy = builder.compilePolicy;
+		fixtureLibraries = ImmutableList.copyOf(builder.fixtureLibraries);
 	}
 	
 	public static AvatarRule withoutSources() {
@@ -96,9 +132,20 @@ public class AvatarRule implements TestRule {
 		return new Statement() {
 			@Override
 			public void evaluate() throws Throwable {
+				resetState();
+				
+				// Compiling alongside the warm-up would slow both down, so let it finish first
+				CompilerWarmUp.awaitShared();
+				
 				final Processor processor = new Processor(base);
+				compilationTimer = new CompilationTimer();
 				
-				final CompilationResult compilationResult = CompilerUtil.compileUsingProcessor(processor, sources);
+				final CompilationResult compilationResult = CompilerUtil.compileUsingProcessor(
+						processor,
+						sources,
+						compilePolicy,
+						compilationTimer,
+						getCompiledFixtureLibraries());
 				
 				if (requireSuccessfulCompilation && !compilationResult.success()) {
 					throw new RuntimeException("Compilation failed. Use Builder" +
@@ -112,6 +159,34 @@ public class AvatarRule implements TestRule {
 		};
 	}
 	
+	/**
+	 * Gets the compiled fixture libraries, compiling any which have not been compiled yet in this JVM.
+	 */
+	private List<CompilationResult> getCompiledFixtureLibraries() {
+		final List<CompilationResult> compiledLibraries = new ArrayList<>();
+		
+		for (final String name : fixtureLibraries) {
+			compiledLibraries.add(FixtureLibraryRegistry.getShared().getCompiledLibrary(name));
+		}
+		
+		return compiledLibraries;
+	}
+	
+	/**
+	 * Discards everything collected by a previous evaluation of this rule, so that each evaluation starts from a
+	 * clean state.
+	 */
+	private void resetState() {
+		compilationFinished = false;
+		processingEnvironment = null;
+		compilationTimer = null;
+		
+		roundEnvironments.clear();
+		rootElements.clear();
+		elementsByAnnotationName.clear();
+		elementsById.clear();
+	}
+	
 	/**
 	 * Gets the {@link ProcessingEnvironment} supplied by the system during compilation.
 	 *
@@ -209,6 +284,24 @@ public class AvatarRule implements TestRule {
 		return roundEnvironments;
 	}
 	
+	/**
+	 * Gets the time spent in each phase of compilation. The tests run during the final annotation processing round,
+	 * so when called from a test the timings cover parsing, entering and the processing rounds which came before the
+	 * test. When called after the rule has finished evaluating, the timings cover the entire compilation.
+	 *
+	 * @return the timings, not null
+	 *
+	 * @throws IllegalStateException
+	 * 		if the rule has not been applied or compilation is still in progress
+	 */
+	public CompilationTimings getCompilationTimings() {
+		if (!compilationFinished) {
+			throw new IllegalStateException("Rule must be evaluated before accessing compilation timings.");
+		}
+		
+		return compilationTimer.getTimings();
+	}
+	
 	/**
 	 * Gets all elements generated by compilation that match with the supplied ID. The ID of an element is defined by
 	 * applying the {@link ElementId} annotation.
@@ -363,8 +456,8 @@ public class AvatarRule implements TestRule {
 			roundEnvironments.add(roundEnvironment);
 			rootElements.addAll(roundEnvironment.getRootElements());
 			
-			collectElementsByAnnotation(annotations, roundEnvironment);
-			collectElementsById(roundEnvironment);
+			new ElementIndexer(processingEnv.getElementUtils(), elementsByAnnotationName, elementsById)
+					.index(roundEnvironment.getRootElements());
 			
 			if (roundEnvironment.processingOver()) {
 				compilationFinished = true;
@@ -374,53 +467,6 @@ public class AvatarRule implements TestRule {
 			return false;
 		}
 		
-		/**
-		 * Maps the elements in the supplied round environment to the supplied annotations. The mappings are added to
-		 * the
-		 * {@link AvatarRule#elementsByAnnotationName} map.
-		 *
-		 * @param annotations
-		 * 		the annotations to map, not null
-		 * @param roundEnvironment
-		 * 		contains the elements to map, not null
-		 */
-		private void collectElementsByAnnotation(
-				final Set<? extends TypeElement> annotations,
-				final RoundEnvironment roundEnvironment) {
-			
-			for (final TypeElement annotation : annotations) {
-				final String annotationName = annotation.getQualifiedName().toString();
-				
-				if (!elementsByAnnotationName.containsKey(annotationName)) {
-					elementsByAnnotationName.put(annotationName, new HashSet<Element>());
-				}
-				
-				elementsByAnnotationName
-						.get(annotationName)
-						.addAll(roundEnvironment.getElementsAnnotatedWith(annotation));
-			}
-		}
-		
-		/**
-		 * Maps the elements in the supplied round environment to their IDs. The mappings are added to the {@link
-		 * AvatarRule#elementsById} map. Elements with no ID are ignored.
-		 *
-		 * @param roundEnvironment
-		 * 		contains the elements to map, not null
-		 */
-		private void collectElementsById(final RoundEnvironment roundEnvironment) {
-			for (final Element e : roundEnvironment.getElementsAnnotatedWith(ElementId.class)) {
-				final ElementId elementId = e.getAnnotation(ElementId.class);
-				final String id = elementId.value();
-				
-				if (!elementsById.containsKey(id)) {
-					elementsById.put(id, new HashSet<Element>());
-				}
-				
-				elementsById.get(id).add(e);
-			}
-		}
-		
 		private void callBaseStatement() {
 			try {
 				baseStatement.evaluate();
@@ -444,6 +490,16 @@ public class AvatarRule implements TestRule {
 		 */
 		private boolean requireSuccessfulCompilation = true;
 		
+		/**
+		 * Defines how far compilation proceeds.
+		 */
+		private CompilePolicy compilePolicy = CompilePolicy.FULL;
+		
+		/**
+		 * The names of the fixture libraries to add to the class path, in order of precedence.
+		 */
+		private final Set<String> fixtureLibraries = new LinkedHashSet<>();
+		
 		/**
 		 * Constructs a new {@link AvatarRule} based on the values provided to this builder. The operation will fail if
 		 * no sources have been set.
@@ -522,11 +578,7 @@ public class AvatarRule implements TestRule {
 					throw new IllegalArgumentException("File \'" + source + "\' does not exist.");
 				}
 				
-				try {
-					javaFileObjects.add(JavaFileObjects.forResource(source.toURI().toURL()));
-				} catch (final MalformedURLException e) {
-					throw new RuntimeException("Could not get URL for file \'" + source + "\'.", e);
-				}
+				javaFileObjects.add(MappedSourceFileObject.forFile(source));
 			}
 			
 			return withSourceFileObjects(javaFileObjects);
@@ -623,5 +675,54 @@ public class AvatarRule implements TestRule {
 			
 			return this;
 		}
+		
+		/**
+		 * Sets how far compilation proceeds, replacing any value which has been set previously. The rule runs the
+		 * tests before attribution and class file generation begin, so stopping early does not change the elements or
+		 * utilities available to the tests. It does however change which errors are detected when successful
+		 * compilation is required. The default is {@link CompilePolicy#FULL}.
+		 *
+		 * @param policy
+		 * 		the policy to compile with, not null
+		 *
+		 * @return this builder
+		 *
+		 * @throws IllegalArgumentException
+		 * 		if {@code policy} is null
+		 */
+		public Builder withCompilePolicy(final CompilePolicy policy) {
+			compilePolicy = checkNotNull(policy, "Argument \'policy\' cannot be null.");
+			
+			return this;
+		}
+		
+		/**
+		 * Adds a fixture library to the class path, adding to any libraries that have been added previously. The
+		 * library must already be registered with the {@link FixtureLibraryRegistry#getShared() shared registry}. The
+		 * library is compiled once per JVM the first time a rule which uses it is evaluated, so the sources of the rule
+		 * can use the classes in the library without recompiling them. Libraries added earlier take precedence over
+		 * libraries added later.
+		 *
+		 * @param name
+		 * 		the name of the library, not null
+		 *
+		 * @return this builder
+		 *
+		 * @throws IllegalArgumentException
+		 * 		if {@code name} is null
+		 * @throws IllegalArgumentException
+		 * 		if no library is registered under the name
+		 */
+		public Builder withFixtureLibrary(final String name) {
+			checkNotNull(name, "Argument \'name\' cannot be null.");
+			
+			if (!FixtureLibraryRegistry.getShared().isRegistered(name)) {
+				throw new IllegalArgumentException("No fixture library is registered as \'" + name + "\'.");
+			}
+			
+			fixtureLibraries.add(name);
+			
+			return this;
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,166 @@
+package com.matthewtamlin.avatar.rules;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.ElementScanner7;
+import javax.lang.model.util.Elements;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * Indexes elements by annotation and by {@link ElementId} in a single pass over a set of root elements. Annotations
+ * are read from annotation mirrors, so no annotation proxies are created. The elements found for each annotation are
+ * the same as those returned by {@link javax.annotation.processing.RoundEnvironment#getElementsAnnotatedWith(
+ *TypeElement)}, including types which inherit an annotation from a superclass.
+ */
+class ElementIndexer extends ElementScanner7<Void, Void> {
+	/**
+	 * The fully qualified name of the {@link ElementId} annotation.
+	 */
+	private static final String ELEMENT_ID_NAME = ElementId.class.getCanonicalName();
+	
+	/**
+	 * Used to get the annotations inherited by types.
+	 */
+	private final Elements elementUtils;
+	
+	/**
+	 * Receives the annotation index. Each key is the fully qualified name of an annotation, and the corresponding value
+	 * is the set of elements with that annotation.
+	 */
+	private final ConcurrentMap<String, Set<Element>> elementsByAnnotationName;
+	
+	/**
+	 * Receives the ID index. Each key is an element ID, and the corresponding value is the set of elements with that
+	 * ID.
+	 */
+	private final ConcurrentMap<String, Set<Element>> elementsById;
+	
+	/**
+	 * Constructs a new ElementIndexer which adds to the supplied maps.
+	 *
+	 * @param elementUtils
+	 * 		the element utils of the current processing environment, not null
+	 * @param elementsByAnnotationName
+	 * 		the map to add the annotation index to, not null
+	 * @param elementsById
+	 * 		the map to add the ID index to, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if any argument is null
+	 */
+	public ElementIndexer(
+			final Elements elementUtils,
+			final ConcurrentMap<String, Set<Element>> elementsByAnnotationName,
+			final ConcurrentMap<String, Set<Element>> elementsById) {
+		
+		this.elementUtils = checkNotNull(elementUtils, "Argument \'elementUtils\' cannot be null.");
+		this.elementsByAnnotationName = checkNotNull(
+				elementsByAnnotationName,
+				"Argument \'elementsByAnnotationName\' cannot be null.");
+		this.elementsById = checkNotNull(elementsById, "Argument \'elementsById\' cannot be null.");
+	}
+	
+	/**
+	 * Indexes the supplied root elements and everything they enclose.
+	 *
+	 * @param rootElements
+	 * 		the elements to index, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code rootElements} is null
+	 */
+	public void index(final Iterable<? extends Element> rootElements) {
+		checkNotNull(rootElements, "Argument \'rootElements\' cannot be null.");
+		
+		for (final Element rootElement : rootElements) {
+			scan(rootElement, null);
+		}
+	}
+	
+	@Override
+	public Void scan(final Element element, final Void unused) {
+		indexElement(element);
+		
+		return super.scan(element, unused);
+	}
+	
+	@Override
+	public Void visitPackage(final PackageElement element, final Void unused) {
+		// The types in a package are root elements in their own right, so they are not scanned via the package
+		return null;
+	}
+	
+	@Override
+	public Void visitType(final TypeElement element, final Void unused) {
+		// Type parameters are not enclosed elements, so they must be scanned explicitly
+		scan(element.getTypeParameters(), unused);
+		
+		return super.visitType(element, unused);
+	}
+	
+	@Override
+	public Void visitExecutable(final ExecutableElement element, final Void unused) {
+		// Type parameters are not enclosed elements, so they must be scanned explicitly
+		scan(element.getTypeParameters(), unused);
+		
+		return super.visitExecutable(element, unused);
+	}
+	
+	private void indexElement(final Element element) {
+		// Only types can inherit annotations, and getting inherited annotations is comparatively expensive
+		final List<? extends AnnotationMirror> mirrors = element instanceof TypeElement ?
+				elementUtils.getAllAnnotationMirrors(element) :
+				element.getAnnotationMirrors();
+		
+		for (final AnnotationMirror mirror : mirrors) {
+			final DeclaredType annotationType = mirror.getAnnotationType();
+			
+			if (annotationType.getKind() == TypeKind.ERROR) {
+				continue;
+			}
+			
+			final String annotationName = ((TypeElement) annotationType.asElement()).getQualifiedName().toString();
+			
+			addToIndex(elementsByAnnotationName, annotationName, element);
+			
+			if (annotationName.equals(ELEMENT_ID_NAME)) {
+				addToIndex(elementsById, getElementIdValue(mirror), element);
+			}
+		}
+	}
+	
+	private static String getElementIdValue(final AnnotationMirror elementIdMirror) {
+		for (final Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+				elementIdMirror.getElementValues().entrySet()) {
+			
+			if (entry.getKey().getSimpleName().contentEquals("value")) {
+				return String.valueOf(entry.getValue().getValue());
+			}
+		}
+		
+		// Unreachable for code which compiles, since the value is mandatory
+		return "";
+	}
+	
+	private static void addToIndex(
+			final ConcurrentMap<String, Set<Element>> index,
+			final String key,
+			final Element element) {
+		
+		index.putIfAbsent(key, Collections.newSetFromMap(new ConcurrentHashMap<Element, Boolean>()));
+		index.get(key).add(element);
+	}
+}
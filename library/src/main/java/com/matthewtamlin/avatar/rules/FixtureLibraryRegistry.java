@@ -0,0 +1,225 @@
+package com.matthewtamlin.avatar.rules;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.matthewtamlin.avatar.compilation.CompilationResult;
+import com.matthewtamlin.avatar.compilation.CompilePolicy;
+import com.matthewtamlin.avatar.compilation.CompilerUtil;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileObject;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.matthewtamlin.avatar.util.IterableNullChecker.checkNotContainsNull;
+import static com.matthewtamlin.java_utilities.checkers.NullChecker.checkNotNull;
+
+/**
+ * Named libraries of fixture sources which are shared by many tests, such as helper annotations and base classes. Each
+ * library is compiled the first time it is needed and the class files are kept in memory, so tests which use the
+ * library only compile their own sources. Libraries are used by passing their names to {@link
+ * AvatarRule.Builder#withFixtureLibrary(String)}.
+ * <p>
+ * Libraries are compiled without annotation processors, so the elements they contain are available to tests through
+ * the element and type utils, but are not root elements of the compilations which use them.
+ * <p>
+ * This class is safe for use by multiple threads. Each library is compiled at most once, even if several threads need
+ * it at the same time.
+ */
+public class FixtureLibraryRegistry {
+	/**
+	 * The registry shared by all rules in the JVM, null until first requested.
+	 */
+	private static FixtureLibraryRegistry sharedRegistry;
+	
+	/**
+	 * The registered libraries. Each key is the name of a library, and the corresponding value is the library.
+	 */
+	private final ConcurrentMap<String, Library> libraries = new ConcurrentHashMap<>();
+	
+	/**
+	 * Gets the registry shared by all rules in the JVM. The registry is created when this method is first called.
+	 *
+	 * @return the shared registry, not null
+	 */
+	public static synchronized FixtureLibraryRegistry getShared() {
+		if (sharedRegistry == null) {
+			sharedRegistry = new FixtureLibraryRegistry();
+		}
+		
+		return sharedRegistry;
+	}
+	
+	/**
+	 * Registers a library. Registering the same sources under the same name more than once has no effect, so
+	 * libraries can be registered by every test class which uses them.
+	 *
+	 * @param name
+	 * 		the name of the library, not null
+	 * @param sources
+	 * 		the sources of the library, not null, not containing null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code name} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} contains null
+	 * @throws IllegalStateException
+	 * 		if a library with different sources is already registered under the same name
+	 */
+	public void register(final String name, final Iterable<JavaFileObject> sources) {
+		checkNotNull(name, "Argument \'name\' cannot be null.");
+		checkNotNull(sources, "Argument \'sources\' cannot be null.");
+		checkNotContainsNull(sources, "Argument \'sources\' cannot contain null.");
+		
+		final Library library = new Library(sources);
+		final Library existingLibrary = libraries.putIfAbsent(name, library);
+		
+		if (existingLibrary != null && !existingLibrary.sourceUris.equals(library.sourceUris)) {
+			throw new IllegalStateException("A different library is already registered as \'" + name + "\'.");
+		}
+	}
+	
+	/**
+	 * Registers a library. Registering the same sources under the same name more than once has no effect, so
+	 * libraries can be registered by every test class which uses them.
+	 *
+	 * @param name
+	 * 		the name of the library, not null
+	 * @param sources
+	 * 		the sources of the library, not null, not containing null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code name} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} is null
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} contains null
+	 * @throws IllegalStateException
+	 * 		if a library with different sources is already registered under the same name
+	 */
+	public void register(final String name, final JavaFileObject... sources) {
+		checkNotNull(sources, "Argument \'sources\' cannot be null.");
+		
+		register(name, Arrays.asList(sources));
+	}
+	
+	/**
+	 * Determines whether a library is registered.
+	 *
+	 * @param name
+	 * 		the name of the library, not null
+	 *
+	 * @return true if a library is registered under the name, false otherwise
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code name} is null
+	 */
+	public boolean isRegistered(final String name) {
+		checkNotNull(name, "Argument \'name\' cannot be null.");
+		
+		return libraries.containsKey(name);
+	}
+	
+	/**
+	 * Gets the result of compiling a library, compiling it if this is the first time it is needed.
+	 *
+	 * @param name
+	 * 		the name of the library, not null
+	 *
+	 * @return the result of compiling the library, not null
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code name} is null
+	 * @throws IllegalArgumentException
+	 * 		if no library is registered under the name
+	 * @throws IllegalStateException
+	 * 		if the library does not compile
+	 */
+	public CompilationResult getCompiledLibrary(final String name) {
+		checkNotNull(name, "Argument \'name\' cannot be null.");
+		
+		final Library library = libraries.get(name);
+		
+		if (library == null) {
+			throw new IllegalArgumentException("No library is registered as \'" + name + "\'.");
+		}
+		
+		final CompilationResult result = library.getCompilationResult();
+		
+		if (!result.success()) {
+			throw new IllegalStateException("Library \'" + name + "\' failed to compile: " + result.diagnostics());
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * A registered library, and the result of compiling it once it has been compiled.
+	 */
+	private static class Library {
+		private final List<JavaFileObject> sources;
+		
+		/**
+		 * The URIs of the sources, used to detect when a different library is registered under the same name.
+		 */
+		private final Set<URI> sourceUris;
+		
+		private volatile CompilationResult compilationResult;
+		
+		private Library(final Iterable<JavaFileObject> sources) {
+			this.sources = ImmutableList.copyOf(sources);
+			
+			final ImmutableSet.Builder<URI> sourceUris = ImmutableSet.builder();
+			
+			for (final JavaFileObject source : this.sources) {
+				sourceUris.add(source.toUri());
+			}
+			
+			this.sourceUris = sourceUris.build();
+		}
+		
+		private CompilationResult getCompilationResult() {
+			if (compilationResult == null) {
+				synchronized (this) {
+					if (compilationResult == null) {
+						compilationResult = CompilerUtil.compileUsingProcessor(
+								new NoOpProcessor(),
+								sources,
+								CompilePolicy.FULL);
+					}
+				}
+			}
+			
+			return compilationResult;
+		}
+	}
+	
+	/**
+	 * A processor which does nothing, for compiling libraries without processing them.
+	 */
+	private static class NoOpProcessor extends AbstractProcessor {
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return ImmutableSet.of();
+		}
+		
+		@Override
+		public SourceVersion getSupportedSourceVersion() {
+			return SourceVersion.latestSupported();
+		}
+		
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnvironment) {
+			return false;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,214 @@
+package com.matthewtamlin.avatar.compilation.caching_java_file_manager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.matthewtamlin.avatar.compilation.CachingJavaFileManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.tools.StandardLocation.CLASS_PATH;
+import static javax.tools.StandardLocation.PLATFORM_CLASS_PATH;
+import static javax.tools.StandardLocation.SOURCE_PATH;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(JUnit4.class)
+public class TestCachingJavaFileManager {
+	private static final Set<Kind> CLASS_KINDS = ImmutableSet.of(Kind.CLASS);
+	
+	private File directory;
+	
+	private File archive;
+	
+	private JavaFileObject file;
+	
+	private StandardJavaFileManager baseFileManager;
+	
+	@Before
+	public void setup() throws IOException {
+		directory = Files.createTempDir();
+		archive = new File(directory, "library.jar");
+		Files.asCharSink(archive, UTF_8).write("archive");
+		
+		file = mock(JavaFileObject.class);
+		baseFileManager = mock(StandardJavaFileManager.class);
+		
+		doReturn(ImmutableList.of(archive)).when(baseFileManager).getLocation(CLASS_PATH);
+		when(baseFileManager.list(CLASS_PATH, "com.example", CLASS_KINDS, false))
+				.thenReturn(ImmutableList.of(file));
+		when(baseFileManager.inferBinaryName(CLASS_PATH, file)).thenReturn("com.example.Example");
+		
+		when(file.openInputStream()).thenAnswer(new Answer<InputStream>() {
+			@Override
+			public InputStream answer(final InvocationOnMock invocation) {
+				return new ByteArrayInputStream(new byte[]{1, 2, 3});
+			}
+		});
+	}
+	
+	@After
+	public void tearDown() {
+		archive.delete();
+		directory.delete();
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_nullFileManager() {
+		new CachingJavaFileManager(null);
+	}
+	
+	@Test
+	public void testList_classPathOfArchives_listsWrappedFileManagerOnce() throws IOException {
+		final CachingJavaFileManager fileManager = new CachingJavaFileManager(baseFileManager);
+		
+		final List<JavaFileObject> first = ImmutableList.copyOf(
+				fileManager.list(CLASS_PATH, "com.example", CLASS_KINDS, false));
+		final List<JavaFileObject> second = ImmutableList.copyOf(
+				fileManager.list(CLASS_PATH, "com.example", CLASS_KINDS, false));
+		
+		assertThat(first, is((List<JavaFileObject>) ImmutableList.of(file)));
+		assertThat(second, is(first));
+		// The first listing is repeated once to probe the files
+		verify(baseFileManager, times(2)).list(CLASS_PATH, "com.example", CLASS_KINDS, false);
+	}
+	
+	@Test
+	public void testList_filesCannotBeReopened_listsWrappedFileManagerEveryTime() throws IOException {
+		when(file.openInputStream()).thenReturn(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+		final CachingJavaFileManager fileManager = new CachingJavaFileManager(baseFileManager);
+		
+		final List<JavaFileObject> first = ImmutableList.copyOf(
+				fileManager.list(CLASS_PATH, "com.example", CLASS_KINDS, false));
+		final List<JavaFileObject> second = ImmutableList.copyOf(
+				fileManager.list(CLASS_PATH, "com.example", CLASS_KINDS, false));
+		
+		assertThat(first, is((List<JavaFileObject>) ImmutableList.of(file)));
+		assertThat(second, is(first));
+		// The first listing is repeated once to probe the files
+		verify(baseFileManager, times(3)).list(CLASS_PATH, "com.example", CLASS_KINDS, false);
+	}
+	
+	@Test
+	public void testList_filesCannotBeReopened_listsEmptyPackageOnce() throws IOException {
+		when(file.openInputStream()).thenReturn(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+		when(baseFileManager.list(CLASS_PATH, "com.empty", CLASS_KINDS, false))
+				.thenReturn(ImmutableList.<JavaFileObject>of());
+		final CachingJavaFileManager fileManager = new CachingJavaFileManager(baseFileManager);
+		
+		fileManager.list(CLASS_PATH, "com.example", CLASS_KINDS, false);
+		
+		assertThat(fileManager.list(CLASS_PATH, "com.empty", CLASS_KINDS, false).iterator().hasNext(), is(false));
+		assertThat(fileManager.list(CLASS_PATH, "com.empty", CLASS_KINDS, false).iterator().hasNext(), is(false));
+		verify(baseFileManager, times(1)).list(CLASS_PATH, "com.empty", CLASS_KINDS, false);
+	}
+	
+	@Test
+	public void testList_sameWrappedFileManager_sharesListingsBetweenInstances() throws IOException {
+		new CachingJavaFileManager(baseFileManager).list(CLASS_PATH, "com.example", CLASS_KINDS, false);
+		new CachingJavaFileManager(baseFileManager).list(CLASS_PATH, "com.example", CLASS_KINDS, false);
+		
+		verify(baseFileManager, times(2)).list(CLASS_PATH, "com.example", CLASS_KINDS, false);
+	}
+	
+	@Test
+	public void testList_archiveModifiedBetweenInstances_listsWrappedFileManagerAgain() throws IOException {
+		new CachingJavaFileManager(baseFileManager).list(CLASS_PATH, "com.example", CLASS_KINDS, false);
+		
+		archive.setLastModified(archive.lastModified() - 10_000);
+		
+		new CachingJavaFileManager(baseFileManager).list(CLASS_PATH, "com.example", CLASS_KINDS, false);
+		
+		verify(baseFileManager, times(3)).list(CLASS_PATH, "com.example", CLASS_KINDS, false);
+	}
+	
+	@Test
+	public void testList_classPathContainsDirectory_listsWrappedFileManagerEveryTime() throws IOException {
+		doReturn(ImmutableList.of(archive, directory)).when(baseFileManager).getLocation(CLASS_PATH);
+		final CachingJavaFileManager fileManager = new CachingJavaFileManager(baseFileManager);
+		
+		fileManager.list(CLASS_PATH, "com.example", CLASS_KINDS, false);
+		fileManager.list(CLASS_PATH, "com.example", CLASS_KINDS, false);
+		
+		verify(baseFileManager, times(2)).list(CLASS_PATH, "com.example", CLASS_KINDS, false);
+	}
+	
+	@Test
+	public void testList_sourcePath_listsWrappedFileManagerEveryTime() throws IOException {
+		doReturn(ImmutableList.of(archive)).when(baseFileManager).getLocation(SOURCE_PATH);
+		final CachingJavaFileManager fileManager = new CachingJavaFileManager(baseFileManager);
+		
+		fileManager.list(SOURCE_PATH, "com.example", CLASS_KINDS, false);
+		fileManager.list(SOURCE_PATH, "com.example", CLASS_KINDS, false);
+		
+		verify(baseFileManager, times(2)).list(SOURCE_PATH, "com.example", CLASS_KINDS, false);
+	}
+	
+	@Test
+	public void testInferBinaryName_listedFile_returnsNameInferredWhenListed() throws IOException {
+		final CachingJavaFileManager fileManager = new CachingJavaFileManager(baseFileManager);
+		
+		fileManager.list(CLASS_PATH, "com.example", CLASS_KINDS, false);
+		
+		assertThat(fileManager.inferBinaryName(CLASS_PATH, file), is("com.example.Example"));
+		assertThat(fileManager.inferBinaryName(CLASS_PATH, file), is("com.example.Example"));
+		verify(baseFileManager, times(1)).inferBinaryName(CLASS_PATH, file);
+	}
+	
+	@Test
+	public void testList_platformClassPath_returnsSameFilesAsWrappedFileManager() throws IOException {
+		final StandardJavaFileManager standardFileManager = ToolProvider
+				.getSystemJavaCompiler()
+				.getStandardFileManager(null, null, UTF_8);
+		
+		try {
+			final CachingJavaFileManager fileManager = new CachingJavaFileManager(standardFileManager);
+			
+			final List<String> expectedNames = new ArrayList<>();
+			
+			for (final JavaFileObject file : standardFileManager.list(PLATFORM_CLASS_PATH, "java.lang", CLASS_KINDS, false)) {
+				expectedNames.add(standardFileManager.inferBinaryName(PLATFORM_CLASS_PATH, file));
+			}
+			
+			final List<String> names = new ArrayList<>();
+			
+			for (final JavaFileObject file : fileManager.list(PLATFORM_CLASS_PATH, "java.lang", CLASS_KINDS, false)) {
+				names.add(fileManager.inferBinaryName(PLATFORM_CLASS_PATH, file));
+			}
+			
+			for (final JavaFileObject file : fileManager.list(PLATFORM_CLASS_PATH, "java.lang", CLASS_KINDS, false)) {
+				names.add(fileManager.inferBinaryName(PLATFORM_CLASS_PATH, file));
+			}
+			
+			assertThat(names.subList(0, expectedNames.size()), is(expectedNames));
+			assertThat(names.subList(expectedNames.size(), names.size()), is(expectedNames));
+			assertThat(names, hasItem("java.lang.Object"));
+		} finally {
+			standardFileManager.close();
+		}
+	}
+}
\ No newline at end of file
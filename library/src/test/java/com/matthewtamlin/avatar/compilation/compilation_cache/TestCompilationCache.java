@@ -0,0 +1,161 @@
+package com.matthewtamlin.avatar.compilation.compilation_cache;
+
+import com.google.testing.compile.JavaFileObjects;
+import com.matthewtamlin.avatar.compilation.CacheableProcessor;
+import com.matthewtamlin.avatar.compilation.CompilationCache;
+import com.matthewtamlin.avatar.compilation.CompilationResult;
+import com.matthewtamlin.avatar.compilation.CompilerUtil;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileObject;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.collect.ImmutableList.of;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestCompilationCache {
+	private static final JavaFileObject SOURCE_A = JavaFileObjects.forSourceLines("A", "public class A {}");
+	
+	private static final JavaFileObject SOURCE_A_CHANGED = JavaFileObjects.forSourceLines("A", "class A {}");
+	
+	private static final JavaFileObject SOURCE_B = JavaFileObjects.forSourceLines("B", "public class B {}");
+	
+	private CompilationCache cache;
+	
+	@Before
+	public void setup() {
+		cache = new CompilationCache(Long.MAX_VALUE);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_negativeMaximumWeight() {
+		new CompilationCache(-1);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompileUsingProcessor_nullCache() {
+		CompilerUtil.compileUsingProcessor(new MockProcessor(), of(SOURCE_A), (CompilationCache) null);
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_sameInputsTwice_secondCallIsHit() {
+		final CompilationResult first = compile(of(SOURCE_A));
+		final CompilationResult second = compile(of(SOURCE_A));
+		
+		assertThat(second, is(sameInstance(first)));
+		assertThat(cache.getMissCount(), is(1L));
+		assertThat(cache.getHitCount(), is(1L));
+	}
+	
+	@Test
+	public void testRelease_cachedResult_laterHitsStillHaveGeneratedFiles() {
+		final CompilationResult first = compile(of(SOURCE_A));
+		
+		first.release();
+		
+		final CompilationResult second = compile(of(SOURCE_A));
+		
+		assertThat(cache.getHitCount(), is(1L));
+		assertThat(second.generatedFileIndex().getGeneratedClass("A").getLastModified() > 0, is(true));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_differentSources_bothCallsAreMisses() {
+		final CompilationResult first = compile(of(SOURCE_A));
+		final CompilationResult second = compile(of(SOURCE_B));
+		
+		assertThat(second, is(not(sameInstance(first))));
+		assertThat(cache.getMissCount(), is(2L));
+		assertThat(cache.getHitCount(), is(0L));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_sameNameDifferentContents_bothCallsAreMisses() {
+		compile(of(SOURCE_A));
+		compile(of(SOURCE_A_CHANGED));
+		
+		assertThat(cache.getMissCount(), is(2L));
+		assertThat(cache.getHitCount(), is(0L));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_resultsExceedMaximumWeight_resultsAreEvicted() {
+		cache = new CompilationCache(1);
+		
+		compile(of(SOURCE_A));
+		compile(of(SOURCE_B));
+		compile(of(SOURCE_A));
+		
+		assertThat(cache.getHitCount(), is(0L));
+		assertThat(cache.getEvictionCount(), is(3L));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_differentCacheKeys_bothCallsAreMisses() {
+		final CompilationResult first = compile(of(SOURCE_A), new ConfiguredProcessor("first"));
+		final CompilationResult second = compile(of(SOURCE_A), new ConfiguredProcessor("second"));
+		
+		assertThat(second, is(not(sameInstance(first))));
+		assertThat(cache.getMissCount(), is(2L));
+		assertThat(cache.getHitCount(), is(0L));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_sameCacheKeys_secondCallIsHit() {
+		final CompilationResult first = compile(of(SOURCE_A), new ConfiguredProcessor("same"));
+		final CompilationResult second = compile(of(SOURCE_A), new ConfiguredProcessor("same"));
+		
+		assertThat(second, is(sameInstance(first)));
+		assertThat(cache.getHitCount(), is(1L));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testCompileUsingProcessor_nullCacheKey() {
+		compile(of(SOURCE_A), new ConfiguredProcessor(null));
+	}
+	
+	private CompilationResult compile(final List<JavaFileObject> sources) {
+		return CompilerUtil.compileUsingProcessor(new MockProcessor(), sources, cache);
+	}
+	
+	private CompilationResult compile(final List<JavaFileObject> sources, final Processor processor) {
+		return CompilerUtil.compileUsingProcessor(processor, sources, cache);
+	}
+	
+	private static class MockProcessor extends AbstractProcessor {
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+			return false;
+		}
+	}
+	
+	private static class ConfiguredProcessor extends AbstractProcessor implements CacheableProcessor {
+		private final String configuration;
+		
+		private ConfiguredProcessor(final String configuration) {
+			this.configuration = configuration;
+		}
+		
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+			return false;
+		}
+		
+		@Override
+		public String getCacheKey() {
+			return configuration;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,108 @@
+package com.matthewtamlin.avatar.compilation.compiler_context;
+
+import com.google.common.collect.ImmutableList;
+import com.matthewtamlin.avatar.compilation.CompilerContext;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static javax.tools.StandardLocation.CLASS_PATH;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestCompilerContext {
+	private JavaCompiler compiler;
+	
+	@Before
+	public void setup() {
+		compiler = ToolProvider.getSystemJavaCompiler();
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_nullCompiler() {
+		new CompilerContext(null, 1);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_poolSizeLessThanOne() {
+		new CompilerContext(compiler, 0);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testReleaseFileManager_nullFileManager() {
+		new CompilerContext(compiler, 1).releaseFileManager(null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDiscardFileManager_nullFileManager() {
+		new CompilerContext(compiler, 1).discardFileManager(null);
+	}
+	
+	@Test
+	public void testAcquireFileManager_afterDiscard_returnsDifferentFileManager() {
+		final CompilerContext context = new CompilerContext(compiler, 1);
+		
+		final StandardJavaFileManager first = context.acquireFileManager();
+		context.discardFileManager(first);
+		final StandardJavaFileManager second = context.acquireFileManager();
+		
+		assertThat(second, is(not(sameInstance(first))));
+	}
+	
+	@Test
+	public void testAcquireFileManager_afterRelease_returnsSameFileManager() {
+		final CompilerContext context = new CompilerContext(compiler, 1);
+		
+		final StandardJavaFileManager first = context.acquireFileManager();
+		context.releaseFileManager(first);
+		final StandardJavaFileManager second = context.acquireFileManager();
+		
+		assertThat(second, is(sameInstance(first)));
+	}
+	
+	@Test
+	public void testAcquireFileManager_withoutRelease_returnsDifferentFileManager() {
+		final CompilerContext context = new CompilerContext(compiler, 1);
+		
+		final StandardJavaFileManager first = context.acquireFileManager();
+		final StandardJavaFileManager second = context.acquireFileManager();
+		
+		assertThat(second, is(not(sameInstance(first))));
+	}
+	
+	@Test
+	public void testAcquireFileManager_afterClear_returnsDifferentFileManager() {
+		final CompilerContext context = new CompilerContext(compiler, 1);
+		
+		final StandardJavaFileManager first = context.acquireFileManager();
+		context.releaseFileManager(first);
+		context.clear();
+		final StandardJavaFileManager second = context.acquireFileManager();
+		
+		assertThat(second, is(not(sameInstance(first))));
+	}
+	
+	@Test
+	public void testReleaseFileManager_classPathChanged_classPathIsRestored() throws IOException {
+		final CompilerContext context = new CompilerContext(compiler, 1);
+		
+		final StandardJavaFileManager fileManager = context.acquireFileManager();
+		final List<File> originalClassPath = ImmutableList.copyOf(fileManager.getLocation(CLASS_PATH));
+		
+		fileManager.setLocation(CLASS_PATH, ImmutableList.of(new File("build")));
+		context.releaseFileManager(fileManager);
+		
+		assertThat(ImmutableList.copyOf(context.acquireFileManager().getLocation(CLASS_PATH)), is(originalClassPath));
+	}
+}
@@ -1,8 +1,17 @@
 package com.matthewtamlin.avatar.compilation.compiler_util;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.testing.compile.JavaFileObjects;
+import com.matthewtamlin.avatar.compilation.CompilationRequest;
 import com.matthewtamlin.avatar.compilation.CompilationResult;
+import com.matthewtamlin.avatar.compilation.CompilationTimer;
+import com.matthewtamlin.avatar.compilation.CompilationTimings;
+import com.matthewtamlin.avatar.compilation.CompilePhase;
+import com.matthewtamlin.avatar.compilation.CompilePolicy;
 import com.matthewtamlin.avatar.compilation.CompilerUtil;
+import com.matthewtamlin.avatar.compilation.InMemoryClassLoader;
+import com.matthewtamlin.avatar.compilation.InMemoryJavaFileObject;
+import com.matthewtamlin.avatar.compilation.StorageMode;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -13,14 +22,24 @@ import javax.annotation.processing.Processor;
 import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.element.TypeElement;
 import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
 
 import java.io.File;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Mockito.mock;
 
@@ -143,6 +162,458 @@ public class TestCompilerUtil {
 		assertThat(result.success(), is(false));
 	}
 	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompileUsingProcessor_policyVariant_nullPolicy() {
+		CompilerUtil.compileUsingProcessor(new MockProcessor(), sourcesOf(javaFileObject1), (CompilePolicy) null);
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_policyVariant_fullPolicy() {
+		final CompilationResult result = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(javaFileObject1),
+				CompilePolicy.FULL);
+		
+		assertThat(result.success(), is(true));
+		assertThat(result.compilePolicy(), is(CompilePolicy.FULL));
+		assertThat(containsKind(result.generatedFiles(), Kind.CLASS), is(true));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_policyVariant_processingOnlyPolicy() {
+		final CompilationResult result = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(javaFileObject1),
+				CompilePolicy.PROCESSING_ONLY);
+		
+		assertThat(result.success(), is(true));
+		assertThat(result.compilePolicy(), is(CompilePolicy.PROCESSING_ONLY));
+		assertThat(containsKind(result.generatedFiles(), Kind.CLASS), is(false));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_policyVariant_stopAfterAttributionPolicy() {
+		final CompilationResult result = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(javaFileObject1),
+				CompilePolicy.STOP_AFTER_ATTRIBUTION);
+		
+		assertThat(result.success(), is(true));
+		assertThat(result.compilePolicy(), is(CompilePolicy.STOP_AFTER_ATTRIBUTION));
+		assertThat(containsKind(result.generatedFiles(), Kind.CLASS), is(false));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_policyVariant_stopAfterAttributionPolicy_typeErrorIsReported() {
+		final CompilationResult result = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(JavaFileObjects.forSourceLines("Test", "public class Test { int i = \"\"; }")),
+				CompilePolicy.STOP_AFTER_ATTRIBUTION);
+		
+		assertThat(result.success(), is(false));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompileUsingProcessor_timerVariant_nullTimer() {
+		CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(javaFileObject1),
+				CompilePolicy.FULL,
+				(CompilationTimer) null);
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_timerVariant_timingsAreRecorded() {
+		final CompilationTimer timer = new CompilationTimer();
+		
+		final CompilationResult result = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(javaFileObject1, javaFileObject2),
+				CompilePolicy.FULL,
+				timer);
+		
+		final CompilationTimings timings = result.timings();
+		
+		assertThat(timings, is(timer.getTimings()));
+		assertThat(timings.totalNanos() > 0, is(true));
+		assertThat(timings.phase(CompilePhase.PARSE).eventCount(), is(2));
+		assertThat(timings.phase(CompilePhase.ENTER).eventCount() > 0, is(true));
+		assertThat(timings.phase(CompilePhase.ANALYZE).eventCount() > 0, is(true));
+		assertThat(timings.phase(CompilePhase.GENERATE).eventCount() > 0, is(true));
+		assertThat(timings.roundNanos().isEmpty(), is(false));
+		assertThat(
+				timings.roundNanos().size(),
+				is(timings.phase(CompilePhase.ANNOTATION_PROCESSING_ROUND).eventCount()));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_timerVariant_manySources_phaseTimesDoNotExceedTotalTime() {
+		final List<JavaFileObject> sources = new ArrayList<>();
+		
+		for (int i = 0; i < 50; i++) {
+			sources.add(JavaFileObjects.forSourceLines("Test" + i, "public class Test" + i + " {}"));
+		}
+		
+		final CompilationTimings timings = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sources,
+				CompilePolicy.FULL,
+				new CompilationTimer()).timings();
+		
+		assertThat(timings.phase(CompilePhase.ENTER).eventCount() >= 50, is(true));
+		
+		for (final CompilePhase phase : CompilePhase.values()) {
+			assertThat(timings.phase(phase).totalNanos() <= timings.totalNanos(), is(true));
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompileUsingProcessor_classPathVariant_nullClassPath() {
+		CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(javaFileObject1),
+				CompilePolicy.FULL,
+				(Iterable<CompilationResult>) null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompileUsingProcessor_classPathVariant_classPathContainingNull() {
+		CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(javaFileObject1),
+				CompilePolicy.FULL,
+				Arrays.asList((CompilationResult) null));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_classPathVariant_sourcesCanUseClassesFromEarlierResults() {
+		final CompilationResult library = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(JavaFileObjects.forSourceLines(
+						"library.Base",
+						"package library;",
+						"public class Base { public String name() { return \"base\"; } }")));
+		
+		final CompilationResult middle = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(JavaFileObjects.forSourceLines(
+						"middle.Middle",
+						"package middle;",
+						"public class Middle extends library.Base {}")),
+				CompilePolicy.FULL,
+				Arrays.asList(library));
+		
+		final CompilationResult top = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(JavaFileObjects.forSourceLines(
+						"top.Top",
+						"package top;",
+						"public class Top extends middle.Middle { library.Base base; }")),
+				CompilePolicy.FULL,
+				Arrays.asList(middle, library));
+		
+		assertThat(library.success(), is(true));
+		assertThat(middle.success(), is(true));
+		assertThat(top.success(), is(true));
+		assertThat(middle.generatedFileIndex().getGeneratedClass("library.Base"), is(nullValue()));
+		assertThat(top.generatedFileIndex().getGeneratedClass("top.Top"), is(notNullValue()));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_classPathVariant_withoutEarlierResults_compilationFails() {
+		final CompilationResult result = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(JavaFileObjects.forSourceLines(
+						"middle.Middle",
+						"package middle;",
+						"public class Middle extends library.Base {}")),
+				CompilePolicy.FULL,
+				new ArrayList<CompilationResult>());
+		
+		assertThat(result.success(), is(false));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_classPathVariant_earlierResultsTakePrecedence() {
+		final CompilationResult first = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(JavaFileObjects.forSourceLines(
+						"library.Base",
+						"package library;",
+						"public class Base { public void first() {} }")));
+		
+		final CompilationResult second = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(JavaFileObjects.forSourceLines(
+						"library.Base",
+						"package library;",
+						"public class Base { public void second() {} }")));
+		
+		final CompilationResult usesFirst = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(JavaFileObjects.forSourceLines(
+						"app.App",
+						"package app;",
+						"public class App { { new library.Base().first(); } }")),
+				CompilePolicy.FULL,
+				Arrays.asList(first, second));
+		
+		final CompilationResult usesSecond = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(JavaFileObjects.forSourceLines(
+						"app.App",
+						"package app;",
+						"public class App { { new library.Base().first(); } }")),
+				CompilePolicy.FULL,
+				Arrays.asList(second, first));
+		
+		assertThat(usesFirst.success(), is(true));
+		assertThat(usesSecond.success(), is(false));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_processingOnlyPolicy_laterPhasesAreNotTimed() {
+		final CompilationResult result = CompilerUtil.compileUsingProcessor(
+				new MockProcessor(),
+				sourcesOf(javaFileObject1),
+				CompilePolicy.PROCESSING_ONLY);
+		
+		assertThat(result.timings().phase(CompilePhase.PARSE).eventCount(), is(1));
+		assertThat(result.timings().phase(CompilePhase.GENERATE).eventCount(), is(0));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompileConcurrently_nullRequests() {
+		CompilerUtil.compileConcurrently(null, mock(Executor.class), 1);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompileConcurrently_requestsContainingNull() {
+		final List<CompilationRequest> requests = new ArrayList<>();
+		requests.add(null);
+		
+		CompilerUtil.compileConcurrently(requests, mock(Executor.class), 1);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompileConcurrently_nullExecutor() {
+		CompilerUtil.compileConcurrently(new ArrayList<CompilationRequest>(), null, 1);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompileConcurrently_zeroParallelism() {
+		CompilerUtil.compileConcurrently(new ArrayList<CompilationRequest>(), mock(Executor.class), 0);
+	}
+	
+	@Test(expected = RuntimeException.class, timeout = 60_000)
+	public void testCompileAllConcurrently_executorRejectsLaterTasks_failsInsteadOfWaitingForever() {
+		final AtomicInteger executedCount = new AtomicInteger();
+		
+		// Simulates an executor which shuts down after accepting the first task
+		final Executor executor = new Executor() {
+			@Override
+			public void execute(final Runnable task) {
+				if (executedCount.getAndIncrement() > 0) {
+					throw new RejectedExecutionException();
+				}
+				
+				new Thread(task).start();
+			}
+		};
+		
+		CompilerUtil.compileAllConcurrently(
+				Arrays.asList(
+						CompilationRequest.create(new MockProcessor(), sourcesOf(javaFileObject1)),
+						CompilationRequest.create(new MockProcessor(), sourcesOf(javaFileObject2)),
+						CompilationRequest.create(new MockProcessor(), sourcesOf(javaFileObject1))),
+				executor,
+				1);
+	}
+	
+	@Test
+	public void testCompileAllConcurrently_manyRequests_resultsAreInRequestOrder() {
+		final List<CompilationRequest> requests = new ArrayList<>();
+		
+		for (int i = 0; i < 12; i++) {
+			final JavaFileObject source = i % 3 == 0 ?
+					JavaFileObjects.forSourceLines("Test" + i, "public abstract final class Test" + i + " {}") :
+					JavaFileObjects.forSourceLines("Test" + i, "public class Test" + i + " {}");
+			
+			requests.add(CompilationRequest.create(new MockProcessor(), sourcesOf(source)));
+		}
+		
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		
+		try {
+			final List<CompilationResult> results = CompilerUtil.compileAllConcurrently(requests, executor, 4);
+			
+			assertThat(results.size(), is(12));
+			
+			for (int i = 0; i < 12; i++) {
+				assertThat(results.get(i).success(), is(i % 3 != 0));
+				
+				if (i % 3 != 0) {
+					assertThat(results.get(i).generatedFileIndex().getGeneratedClass("Test" + i) != null, is(true));
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testCompileAllConcurrently_parallelismLimitLowerThanThreadCount_limitIsRespected() {
+		final AtomicInteger running = new AtomicInteger(0);
+		final AtomicInteger maximumRunning = new AtomicInteger(0);
+		final List<CompilationRequest> requests = new ArrayList<>();
+		
+		for (int i = 0; i < 8; i++) {
+			requests.add(CompilationRequest.create(
+					new ConcurrencyTrackingProcessor(running, maximumRunning),
+					sourcesOf(javaFileObject1)));
+		}
+		
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		
+		try {
+			CompilerUtil.compileAllConcurrently(requests, executor, 2);
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		assertThat(maximumRunning.get() <= 2, is(true));
+		assertThat(maximumRunning.get() >= 1, is(true));
+	}
+	
+	@Test
+	public void testCompileAllConcurrently_requestWithOptions_optionsArePassedToCompiler() {
+		final CompilationRequest request = CompilationRequest.create(
+				new MockProcessor(),
+				sourcesOf(JavaFileObjects.forSourceLines("Test", "public class Test { java.util.List list; }")),
+				CompilePolicy.FULL,
+				Arrays.asList("-Xlint:rawtypes", "-Werror"));
+		
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		try {
+			final List<CompilationResult> results = CompilerUtil.compileAllConcurrently(
+					Arrays.asList(request),
+					executor,
+					1);
+			
+			assertThat(results.get(0).success(), is(false));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testCompileAllConcurrently_directStorageMode_classesCanBeLoadedUntilReleased() throws Exception {
+		final CompilationRequest request = CompilationRequest.create(
+				new MockProcessor(),
+				sourcesOf(JavaFileObjects.forSourceLines("Test", "public class Test {}")),
+				CompilePolicy.FULL,
+				new ArrayList<String>(),
+				StorageMode.DIRECT);
+		
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		try {
+			final CompilationResult result = CompilerUtil.compileAllConcurrently(
+					Arrays.asList(request),
+					executor,
+					1).get(0);
+			
+			final InMemoryJavaFileObject classFile =
+					(InMemoryJavaFileObject) result.generatedFileIndex().getGeneratedClass("Test");
+			
+			assertThat(classFile.getStorageMode(), is(StorageMode.DIRECT));
+			assertThat(new InMemoryClassLoader(result.generatedFileIndex()).loadClass("Test").getName(), is("Test"));
+			
+			result.release();
+			
+			assertThat(classFile.getSizeInBytes(), is(0L));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test(expected = RuntimeException.class)
+	public void testCompileAllConcurrently_processorThrows_exceptionIsPropagated() {
+		final CompilationRequest request = CompilationRequest.create(
+				new AbstractProcessor() {
+					@Override
+					public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+						throw new IllegalStateException();
+					}
+					
+					@Override
+					public Set<String> getSupportedAnnotationTypes() {
+						return ImmutableSet.of("*");
+					}
+				},
+				sourcesOf(javaFileObject1));
+		
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		try {
+			CompilerUtil.compileAllConcurrently(Arrays.asList(request), executor, 1);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	private static List<JavaFileObject> sourcesOf(final JavaFileObject... sources) {
+		return new ArrayList<>(Arrays.asList(sources));
+	}
+	
+	private static boolean containsKind(final Collection<? extends JavaFileObject> files, final Kind kind) {
+		for (final JavaFileObject file : files) {
+			if (file.getKind() == kind) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private static class ConcurrencyTrackingProcessor extends AbstractProcessor {
+		private final AtomicInteger running;
+		
+		private final AtomicInteger maximumRunning;
+		
+		private ConcurrencyTrackingProcessor(final AtomicInteger running, final AtomicInteger maximumRunning) {
+			this.running = running;
+			this.maximumRunning = maximumRunning;
+		}
+		
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+			if (!roundEnv.processingOver()) {
+				final int nowRunning = running.incrementAndGet();
+				
+				synchronized (maximumRunning) {
+					maximumRunning.set(Math.max(maximumRunning.get(), nowRunning));
+				}
+				
+				try {
+					Thread.sleep(50);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					running.decrementAndGet();
+				}
+			}
+			
+			return false;
+		}
+		
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return ImmutableSet.of("*");
+		}
+	}
+	
 	private static class MockProcessor extends AbstractProcessor {
 		@Override
 		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
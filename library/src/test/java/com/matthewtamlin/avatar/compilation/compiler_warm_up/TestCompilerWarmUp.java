@@ -0,0 +1,72 @@
+package com.matthewtamlin.avatar.compilation.compiler_warm_up;
+
+import com.matthewtamlin.avatar.compilation.CompilerWarmUp;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestCompilerWarmUp {
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_zeroIterations() {
+		new CompilerWarmUp(0);
+	}
+	
+	@Test
+	public void testGetCompletion_notStarted_isNotDone() {
+		final CompilerWarmUp warmUp = new CompilerWarmUp(1);
+		
+		assertThat(warmUp.getCompletion().isDone(), is(false));
+		assertThat(warmUp.getCompletedIterations(), is(0));
+	}
+	
+	@Test(timeout = 1000)
+	public void testAwaitCompletion_notStarted_returnsImmediately() {
+		new CompilerWarmUp(1).awaitCompletion();
+	}
+	
+	@Test
+	public void testStart_futureCompletesAfterAllIterations() throws Exception {
+		final CompilerWarmUp warmUp = new CompilerWarmUp(2);
+		
+		final Future<Void> completion = warmUp.start();
+		completion.get(60, TimeUnit.SECONDS);
+		
+		assertThat(warmUp.getCompletedIterations(), is(2));
+		assertThat(warmUp.getCompletion().isDone(), is(true));
+	}
+	
+	@Test
+	public void testStart_calledTwice_returnsSameFuture() throws Exception {
+		final CompilerWarmUp warmUp = new CompilerWarmUp(1);
+		
+		final Future<Void> first = warmUp.start();
+		final Future<Void> second = warmUp.start();
+		
+		assertThat(second, is(sameInstance(first)));
+		
+		warmUp.awaitCompletion();
+		
+		assertThat(warmUp.getCompletedIterations(), is(1));
+	}
+	
+	@Test
+	public void testStartShared_calledTwice_returnsSharedWarmUp() {
+		final CompilerWarmUp first = CompilerWarmUp.startShared(1);
+		final CompilerWarmUp second = CompilerWarmUp.startShared(3);
+		
+		assertThat(second, is(sameInstance(first)));
+		assertThat(CompilerWarmUp.getShared(), is(sameInstance(first)));
+		
+		CompilerWarmUp.awaitShared();
+		
+		assertThat(first.getCompletion().isDone(), is(true));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,230 @@
+package com.matthewtamlin.avatar.compilation.continuous_compilation;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
+import com.matthewtamlin.avatar.compilation.CompilationResult;
+import com.matthewtamlin.avatar.compilation.ContinuousCompilation;
+import com.matthewtamlin.avatar.compilation.IncrementalCompiler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+
+@RunWith(JUnit4.class)
+public class TestContinuousCompilation {
+	/**
+	 * The maximum time to wait for a compilation which is expected to happen, measured in seconds.
+	 */
+	private static final long TIMEOUT_SECONDS = 60;
+	
+	/**
+	 * The time to wait for a compilation which is not expected to happen, measured in milliseconds. Several times
+	 * longer than the debounce period of the compilation.
+	 */
+	private static final long QUIET_PERIOD_MS = 1000;
+	
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	private File sourceDirectory;
+	
+	private RecordingListener listener;
+	
+	private ContinuousCompilation compilation;
+	
+	@Before
+	public void setup() throws IOException {
+		sourceDirectory = temporaryFolder.newFolder();
+		
+		write("com/example/Leaf.java", "package com.example; public class Leaf {}");
+		write("com/example/Independent.java", "package com.example; public class Independent {}");
+		
+		listener = new RecordingListener();
+		compilation = new ContinuousCompilation(
+				sourceDirectory,
+				new IncrementalCompiler(new NoOpProcessorSupplier()),
+				listener);
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		compilation.close();
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_nullSourceDirectory() {
+		new ContinuousCompilation(null, mock(IncrementalCompiler.class), new RecordingListener());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_nullCompiler() {
+		new ContinuousCompilation(sourceDirectory, null, new RecordingListener());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_nullListener() {
+		new ContinuousCompilation(sourceDirectory, mock(IncrementalCompiler.class), null);
+	}
+	
+	@Test
+	public void testStart_compilesEverySourceOnCallingThread() throws Exception {
+		compilation.start();
+		
+		final Compilation initial = listener.compilations.poll();
+		
+		assertThat(initial, is(notNullValue()));
+		assertThat(initial.result.success(), is(true));
+		assertThat(initial.recompiledFileNames, is((Set<String>) ImmutableSet.of("Leaf.java", "Independent.java")));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testStart_calledTwice() throws Exception {
+		compilation.start();
+		compilation.start();
+	}
+	
+	@Test
+	public void testStart_sourceEdited_onlyEditedSourceIsRecompiled() throws Exception {
+		compilation.start();
+		listener.compilations.take();
+		
+		write("com/example/Independent.java", "package com.example; public class Independent { void method() {} }");
+		
+		final Compilation recompilation = listener.compilations.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		
+		assertThat(recompilation, is(notNullValue()));
+		assertThat(recompilation.result.success(), is(true));
+		assertThat(recompilation.recompiledFileNames, is((Set<String>) ImmutableSet.of("Independent.java")));
+		assertThat(
+				recompilation.result.generatedFileIndex().getGeneratedClass("com.example.Leaf"),
+				is(notNullValue()));
+		assertThat(listener.failures.isEmpty(), is(true));
+	}
+	
+	@Test
+	public void testStart_sourceAddedInNewDirectory_newSourceIsRecompiled() throws Exception {
+		compilation.start();
+		listener.compilations.take();
+		
+		write("com/example/nested/Added.java", "package com.example.nested; public class Added {}");
+		
+		// Creating the directory and then the file may be reported as separate changes
+		Compilation recompilation = listener.compilations.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		
+		while (recompilation != null && !recompilation.recompiledFileNames.contains("Added.java")) {
+			recompilation = listener.compilations.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+		
+		assertThat(recompilation, is(notNullValue()));
+		assertThat(recompilation.recompiledFileNames, is((Set<String>) ImmutableSet.of("Added.java")));
+		
+		write("com/example/nested/Added.java", "package com.example.nested; public class Added { int field; }");
+		
+		final Compilation afterEdit = listener.compilations.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		
+		assertThat(afterEdit, is(notNullValue()));
+		assertThat(afterEdit.recompiledFileNames, is((Set<String>) ImmutableSet.of("Added.java")));
+	}
+	
+	@Test
+	public void testClose_sourceEditedAfterClose_noCompilation() throws Exception {
+		compilation.start();
+		listener.compilations.take();
+		
+		compilation.close();
+		
+		write("com/example/Independent.java", "package com.example; public class Independent { void method() {} }");
+		
+		assertThat(listener.compilations.poll(QUIET_PERIOD_MS, TimeUnit.MILLISECONDS), is(nullValue()));
+	}
+	
+	@Test
+	public void testClose_notStarted_hasNoEffect() throws Exception {
+		compilation.close();
+		
+		assertThat(listener.compilations.isEmpty(), is(true));
+	}
+	
+	@Test
+	public void testClose_calledTwice_hasNoEffect() throws Exception {
+		compilation.start();
+		
+		compilation.close();
+		compilation.close();
+	}
+	
+	private void write(final String relativePath, final String contents) throws IOException {
+		final File file = new File(sourceDirectory, relativePath);
+		
+		Files.createDirectories(file.getParentFile().toPath());
+		Files.write(file.toPath(), contents.getBytes(UTF_8));
+	}
+	
+	private static class Compilation {
+		private final CompilationResult result;
+		
+		private final Set<String> recompiledFileNames = new HashSet<>();
+		
+		private Compilation(final CompilationResult result, final Set<JavaFileObject> recompiledSources) {
+			this.result = result;
+			
+			for (final JavaFileObject source : recompiledSources) {
+				recompiledFileNames.add(new File(source.toUri()).getName());
+			}
+		}
+	}
+	
+	private static class RecordingListener implements ContinuousCompilation.Listener {
+		private final BlockingQueue<Compilation> compilations = new LinkedBlockingQueue<>();
+		
+		private final BlockingQueue<Exception> failures = new LinkedBlockingQueue<>();
+		
+		@Override
+		public void onCompilation(final CompilationResult result, final Set<JavaFileObject> recompiledSources) {
+			compilations.add(new Compilation(result, recompiledSources));
+		}
+		
+		@Override
+		public void onFailure(final Exception exception) {
+			failures.add(exception);
+		}
+	}
+	
+	private static class NoOpProcessorSupplier implements Supplier<Processor> {
+		@Override
+		public Processor get() {
+			return new NoOpProcessor();
+		}
+	}
+	
+	private static class NoOpProcessor extends AbstractProcessor {
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnvironment) {
+			return false;
+		}
+	}
+}
\ No newline at end of file
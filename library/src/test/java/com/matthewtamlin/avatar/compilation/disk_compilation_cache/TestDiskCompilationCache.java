@@ -0,0 +1,262 @@
+package com.matthewtamlin.avatar.compilation.disk_compilation_cache;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.testing.compile.JavaFileObjects;
+import com.matthewtamlin.avatar.compilation.CompilationCache;
+import com.matthewtamlin.avatar.compilation.CompilationResult;
+import com.matthewtamlin.avatar.compilation.CompilerUtil;
+import com.matthewtamlin.avatar.compilation.CompilePolicy;
+import com.matthewtamlin.avatar.compilation.DiskCompilationCache;
+import com.matthewtamlin.avatar.compilation.InMemoryClassLoader;
+import com.matthewtamlin.avatar.compilation.InMemoryJavaFileObject;
+import com.matthewtamlin.avatar.compilation.StorageMode;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.collect.ImmutableList.of;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestDiskCompilationCache {
+	private static final JavaFileObject SOURCE_A = JavaFileObjects.forSourceLines("A", "public class A {}");
+	
+	private static final JavaFileObject SOURCE_B = JavaFileObjects.forSourceLines("B", "public class B {}");
+	
+	private static final JavaFileObject BAD_SOURCE = JavaFileObjects.forSourceLines(
+			"Bad",
+			"public abstract final class Bad {}");
+	
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	private File directory;
+	
+	private int compilationCount;
+	
+	@Before
+	public void setup() throws IOException {
+		directory = temporaryFolder.newFolder();
+		compilationCount = 0;
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_nullDirectory() {
+		new DiskCompilationCache(null, 0);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_negativeMaximumSize() {
+		new DiskCompilationCache(directory, -1);
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_sameInputsInSeparateCaches_secondCacheDoesNotCompile() throws Exception {
+		final DiskCompilationCache firstDiskCache = new DiskCompilationCache(directory, Long.MAX_VALUE);
+		final CompilationResult first = compile(of(SOURCE_A), new CompilationCache(Long.MAX_VALUE, firstDiskCache));
+		
+		// Simulates a second JVM sharing the directory
+		final DiskCompilationCache secondDiskCache = new DiskCompilationCache(directory, Long.MAX_VALUE);
+		final CompilationResult second = compile(of(SOURCE_A), new CompilationCache(Long.MAX_VALUE, secondDiskCache));
+		
+		assertThat(compilationCount, is(1));
+		assertThat(firstDiskCache.getMissCount(), is(1L));
+		assertThat(secondDiskCache.getHitCount(), is(1L));
+		
+		assertThat(second.success(), is(true));
+		assertThat(second.compilePolicy(), is(CompilePolicy.FULL));
+		assertThat(second.generatedFiles().size(), is(first.generatedFiles().size()));
+		assertThat(
+				read(second.generatedFileIndex().getGeneratedClass("A")),
+				is(read(first.generatedFileIndex().getGeneratedClass("A"))));
+		
+		final Class<?> loadedClass = new InMemoryClassLoader(second.generatedFileIndex()).loadClass("A");
+		assertThat(loadedClass.getName(), is("A"));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_generatedSourceIsRestored_charsetAndStorageModeMatchCompilation()
+			throws Exception {
+		
+		final CompilationResult first = CompilerUtil.compileUsingProcessor(
+				new GeneratingProcessor(),
+				of(SOURCE_A),
+				CompilePolicy.FULL,
+				new CompilationCache(Long.MAX_VALUE, new DiskCompilationCache(directory, Long.MAX_VALUE)));
+		
+		final DiskCompilationCache secondDiskCache = new DiskCompilationCache(directory, Long.MAX_VALUE);
+		final CompilationResult second = CompilerUtil.compileUsingProcessor(
+				new GeneratingProcessor(),
+				of(SOURCE_A),
+				CompilePolicy.FULL,
+				new CompilationCache(Long.MAX_VALUE, secondDiskCache));
+		
+		assertThat(secondDiskCache.getHitCount(), is(1L));
+		
+		final InMemoryJavaFileObject firstSource = (InMemoryJavaFileObject) first
+				.generatedFileIndex()
+				.getGeneratedSource("Generated");
+		final InMemoryJavaFileObject secondSource = (InMemoryJavaFileObject) second
+				.generatedFileIndex()
+				.getGeneratedSource("Generated");
+		
+		assertThat(secondSource.getCharset(), is(firstSource.getCharset()));
+		assertThat(secondSource.getCharset(), is(UTF_8));
+		assertThat(secondSource.getStorageMode(), is(StorageMode.HEAP));
+		assertThat(secondSource.getCharContent(true).toString(), is(firstSource.getCharContent(true).toString()));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_failedCompilationIsCached_diagnosticsAreRestored() {
+		final CompilationResult first = compile(
+				of(BAD_SOURCE),
+				new CompilationCache(Long.MAX_VALUE, new DiskCompilationCache(directory, Long.MAX_VALUE)));
+		
+		final DiskCompilationCache secondDiskCache = new DiskCompilationCache(directory, Long.MAX_VALUE);
+		final CompilationResult second = compile(of(BAD_SOURCE), new CompilationCache(Long.MAX_VALUE, secondDiskCache));
+		
+		assertThat(secondDiskCache.getHitCount(), is(1L));
+		assertThat(second.success(), is(false));
+		assertThat(second.diagnostics().size(), is(first.diagnostics().size()));
+		
+		final Diagnostic<? extends JavaFileObject> firstDiagnostic = first.diagnostics().iterator().next();
+		final Diagnostic<? extends JavaFileObject> secondDiagnostic = second.diagnostics().iterator().next();
+		
+		assertThat(secondDiagnostic.getKind(), is(firstDiagnostic.getKind()));
+		assertThat(secondDiagnostic.getLineNumber(), is(firstDiagnostic.getLineNumber()));
+		assertThat(secondDiagnostic.getColumnNumber(), is(firstDiagnostic.getColumnNumber()));
+		assertThat(secondDiagnostic.getMessage(null), is(firstDiagnostic.getMessage(null)));
+		assertThat(secondDiagnostic.getSource() == BAD_SOURCE, is(true));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_corruptEntry_entryIsReplaced() throws IOException {
+		final DiskCompilationCache diskCache = new DiskCompilationCache(directory, Long.MAX_VALUE);
+		compile(of(SOURCE_A), new CompilationCache(Long.MAX_VALUE, diskCache));
+		
+		for (final File file : directory.listFiles()) {
+			if (file.getName().endsWith(".result")) {
+				Files.write(file.toPath(), new byte[]{1, 2, 3});
+			}
+		}
+		
+		final CompilationResult result = compile(of(SOURCE_A), new CompilationCache(Long.MAX_VALUE, diskCache));
+		
+		assertThat(result.success(), is(true));
+		assertThat(compilationCount, is(2));
+		assertThat(diskCache.getMissCount(), is(2L));
+		
+		compile(of(SOURCE_A), new CompilationCache(Long.MAX_VALUE, diskCache));
+		
+		assertThat(compilationCount, is(2));
+		assertThat(diskCache.getHitCount(), is(1L));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_entriesExceedMaximumSize_entriesAreEvicted() {
+		final DiskCompilationCache unboundedCache = new DiskCompilationCache(directory, Long.MAX_VALUE);
+		compile(of(SOURCE_A), new CompilationCache(0, unboundedCache));
+		
+		final long entrySize = unboundedCache.getSizeInBytes();
+		final DiskCompilationCache boundedCache = new DiskCompilationCache(directory, entrySize);
+		
+		compile(of(SOURCE_B), new CompilationCache(0, boundedCache));
+		
+		assertThat(boundedCache.getEvictionCount(), is(1L));
+		assertThat(boundedCache.getSizeInBytes() <= entrySize, is(true));
+	}
+	
+	@Test
+	public void testCompileUsingProcessor_temporaryFilesLeftByDeadWriter_staleFilesAreDeleted() throws IOException {
+		final File staleFile = new File(directory, "entry123.tmp");
+		final File recentFile = new File(directory, "entry456.tmp");
+		
+		Files.write(staleFile.toPath(), new byte[]{1, 2, 3});
+		Files.write(recentFile.toPath(), new byte[]{1, 2, 3});
+		staleFile.setLastModified(System.currentTimeMillis() - 24 * 60 * 60 * 1000);
+		
+		compile(of(SOURCE_A), new CompilationCache(0, new DiskCompilationCache(directory, Long.MAX_VALUE)));
+		
+		assertThat(staleFile.exists(), is(false));
+		assertThat(recentFile.exists(), is(true));
+	}
+	
+	@Test
+	public void testClear_entriesAreDeleted() {
+		final DiskCompilationCache diskCache = new DiskCompilationCache(directory, Long.MAX_VALUE);
+		compile(of(SOURCE_A), new CompilationCache(Long.MAX_VALUE, diskCache));
+		
+		assertThat(diskCache.getSizeInBytes() > 0, is(true));
+		
+		diskCache.clear();
+		
+		assertThat(diskCache.getSizeInBytes(), is(0L));
+	}
+	
+	private CompilationResult compile(final List<JavaFileObject> sources, final CompilationCache cache) {
+		return CompilerUtil.compileUsingProcessor(new CountingProcessor(), sources, cache);
+	}
+	
+	private static byte[] read(final JavaFileObject file) throws IOException {
+		try (final InputStream stream = file.openInputStream()) {
+			return ByteStreams.toByteArray(stream);
+		}
+	}
+	
+	private class CountingProcessor extends AbstractProcessor {
+		@Override
+		public synchronized void init(final ProcessingEnvironment processingEnv) {
+			super.init(processingEnv);
+			compilationCount++;
+		}
+		
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+			return false;
+		}
+	}
+	
+	private static class GeneratingProcessor extends AbstractProcessor {
+		private boolean generated;
+		
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+			if (!generated) {
+				generated = true;
+				
+				try (final Writer writer = processingEnv.getFiler().createSourceFile("Generated").openWriter()) {
+					writer.write("/* \u00e9\u00fc\u4e2d */ public class Generated {}");
+				} catch (final IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			
+			return false;
+		}
+		
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return ImmutableSet.of("*");
+		}
+	}
+}
\ No newline at end of file
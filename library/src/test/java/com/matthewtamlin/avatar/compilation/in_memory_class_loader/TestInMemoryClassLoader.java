@@ -0,0 +1,113 @@
+package com.matthewtamlin.avatar.compilation.in_memory_class_loader;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.testing.compile.JavaFileObjects;
+import com.matthewtamlin.avatar.compilation.InMemoryClassLoader;
+import com.matthewtamlin.avatar.compilation.InMemoryJavaFileManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.tools.FileObject;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.tools.StandardLocation.CLASS_OUTPUT;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestInMemoryClassLoader {
+	private InMemoryJavaFileManager fileManager;
+	
+	private InMemoryClassLoader classLoader;
+	
+	@Before
+	public void setup() throws IOException {
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		
+		fileManager = new InMemoryJavaFileManager(compiler.getStandardFileManager(null, null, UTF_8));
+		
+		final boolean success = compiler
+				.getTask(
+						null,
+						fileManager,
+						null,
+						null,
+						null,
+						ImmutableList.of(JavaFileObjects.forSourceLines(
+								"com.example.Generated",
+								"package com.example;",
+								"public class Generated implements java.util.concurrent.Callable<String> {",
+								"  public String call() { return new Inner().value(); }",
+								"  static class Inner { String value() { return \"hello\"; } }",
+								"}")))
+				.call();
+		
+		assertThat(success, is(true));
+		
+		final FileObject resource = fileManager.getFileForOutput(CLASS_OUTPUT, "com.example", "data.txt", null);
+		
+		try (final OutputStream stream = resource.openOutputStream()) {
+			stream.write("resource".getBytes(UTF_8));
+		}
+		
+		classLoader = new InMemoryClassLoader(fileManager);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_nullFileManager() {
+		new InMemoryClassLoader((InMemoryJavaFileManager) null);
+	}
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testLoadClass_generatedClass_classCanBeUsed() throws Exception {
+		final Class<?> generated = classLoader.loadClass("com.example.Generated");
+		
+		assertThat(generated.getClassLoader() == classLoader, is(true));
+		assertThat(generated.getPackage().getName(), is("com.example"));
+		assertThat(((Callable<String>) generated.newInstance()).call(), is("hello"));
+	}
+	
+	@Test
+	public void testLoadClass_nestedClass_classIsLoaded() throws ClassNotFoundException {
+		assertThat(classLoader.loadClass("com.example.Generated$Inner"), is(notNullValue()));
+	}
+	
+	@Test(expected = ClassNotFoundException.class)
+	public void testLoadClass_missingClass() throws ClassNotFoundException {
+		classLoader.loadClass("com.example.Missing");
+	}
+	
+	@Test
+	public void testLoadClass_parentClass_loadedByParent() throws ClassNotFoundException {
+		assertThat(classLoader.loadClass(String.class.getName()) == String.class, is(true));
+	}
+	
+	@Test
+	public void testGetResource_existingResource_contentsCanBeRead() throws IOException {
+		try (final InputStream stream = classLoader.getResourceAsStream("com/example/data.txt")) {
+			assertThat(new String(ByteStreams.toByteArray(stream), UTF_8), is("resource"));
+		}
+	}
+	
+	@Test
+	public void testGetResource_classFile_isFound() {
+		assertThat(classLoader.getResource("com/example/Generated.class"), is(notNullValue()));
+	}
+	
+	@Test
+	public void testGetResource_missingResource_returnsNull() {
+		assertThat(classLoader.getResource("com/example/missing.txt"), is(nullValue()));
+	}
+}
@@ -0,0 +1,247 @@
+package com.matthewtamlin.avatar.compilation.in_memory_java_file_manager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.matthewtamlin.avatar.compilation.InMemoryJavaFileManager;
+import com.matthewtamlin.avatar.compilation.OutputIndex;
+import com.matthewtamlin.avatar.compilation.StorageMode;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardLocation;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(JUnit4.class)
+public class TestInMemoryJavaFileManager {
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	private File spillDirectory;
+	
+	private InMemoryJavaFileManager fileManager;
+	
+	@Before
+	public void setup() throws IOException {
+		spillDirectory = temporaryFolder.newFolder();
+		
+		fileManager = new InMemoryJavaFileManager(
+				mock(JavaFileManager.class),
+				UTF_8,
+				StorageMode.HEAP,
+				1000,
+				spillDirectory);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_negativeMemoryBudget() {
+		new InMemoryJavaFileManager(mock(JavaFileManager.class), UTF_8, StorageMode.HEAP, -1, spillDirectory);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_nullSpillDirectory() {
+		new InMemoryJavaFileManager(mock(JavaFileManager.class), UTF_8, StorageMode.HEAP, 1000, null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_nullClassPathOutputs() {
+		new InMemoryJavaFileManager(mock(JavaFileManager.class), UTF_8, StorageMode.HEAP, (Iterable<OutputIndex>) null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_classPathOutputsContainingNull() {
+		new InMemoryJavaFileManager(
+				mock(JavaFileManager.class),
+				UTF_8,
+				StorageMode.HEAP,
+				Arrays.asList((OutputIndex) null));
+	}
+	
+	@Test
+	public void testList_classPathOutputs_writtenClassFilesAreListedInOrderOfPrecedence() throws IOException {
+		final InMemoryJavaFileManager first = new InMemoryJavaFileManager(mock(JavaFileManager.class));
+		final InMemoryJavaFileManager second = new InMemoryJavaFileManager(mock(JavaFileManager.class));
+		final JavaFileObject firstA = writeClassFile(first, "library.A", 10);
+		final JavaFileObject secondA = writeClassFile(second, "library.A", 20);
+		final JavaFileObject secondB = writeClassFile(second, "library.B", 30);
+		
+		// Looked up but never written, so not on the class path
+		second.getJavaFileForOutput(StandardLocation.CLASS_OUTPUT, "library.C", Kind.CLASS, null);
+		
+		final JavaFileManager baseFileManager = mock(JavaFileManager.class);
+		when(baseFileManager.list(
+				StandardLocation.CLASS_PATH,
+				"library",
+				EnumSet.of(Kind.CLASS),
+				false)).thenReturn(new ArrayList<JavaFileObject>());
+		
+		final InMemoryJavaFileManager chained = new InMemoryJavaFileManager(
+				baseFileManager,
+				UTF_8,
+				StorageMode.HEAP,
+				Arrays.asList(first.getOutputIndex(), second.getOutputIndex()));
+		
+		final List<JavaFileObject> listed = ImmutableList.copyOf(
+				chained.list(StandardLocation.CLASS_PATH, "library", EnumSet.of(Kind.CLASS), false));
+		
+		assertThat(listed.size(), is(2));
+		assertThat(listed.contains(firstA), is(true));
+		assertThat(listed.contains(secondA), is(false));
+		assertThat(listed.contains(secondB), is(true));
+	}
+	
+	@Test
+	public void testGetJavaFileForInput_classPathOutputs_returnsClassFileFromFirstOutputContainingClass()
+			throws IOException {
+		
+		final InMemoryJavaFileManager first = new InMemoryJavaFileManager(mock(JavaFileManager.class));
+		final InMemoryJavaFileManager second = new InMemoryJavaFileManager(mock(JavaFileManager.class));
+		first.getJavaFileForOutput(StandardLocation.CLASS_OUTPUT, "library.A", Kind.CLASS, null);
+		final JavaFileObject secondA = writeClassFile(second, "library.A", 20);
+		
+		final InMemoryJavaFileManager chained = new InMemoryJavaFileManager(
+				mock(JavaFileManager.class),
+				UTF_8,
+				StorageMode.HEAP,
+				Arrays.asList(first.getOutputIndex(), second.getOutputIndex()));
+		
+		final JavaFileObject file = chained.getJavaFileForInput(StandardLocation.CLASS_PATH, "library.A", Kind.CLASS);
+		
+		assertThat(file, is(secondA));
+		assertThat(chained.inferBinaryName(StandardLocation.CLASS_PATH, file), is("library.A"));
+	}
+	
+	@Test
+	public void testWrite_withinBudget_nothingIsSpilled() throws IOException {
+		write("A", 400);
+		write("B", 400);
+		
+		assertThat(fileManager.getSpilledFileCount(), is(0L));
+		assertThat(fileManager.getInMemoryOutputSizeInBytes(), is(800L));
+		assertThat(spillDirectory.list().length, is(0));
+	}
+	
+	@Test
+	public void testWrite_overBudget_leastRecentlyUsedFilesAreSpilled() throws IOException {
+		final JavaFileObject a = write("A", 400);
+		write("B", 400);
+		
+		// Reading A makes B the least recently used
+		read(a);
+		
+		write("C", 400);
+		
+		assertThat(fileManager.getSpilledFileCount(), is(1L));
+		assertThat(fileManager.getInMemoryOutputSizeInBytes(), is(800L));
+		assertThat(spillDirectory.list().length, is(1));
+		assertThat(read(getClassFile("B")), is(createBytes(400, "B")));
+		assertThat(read(a), is(createBytes(400, "A")));
+	}
+	
+	@Test
+	public void testWrite_overBudget_spilledFilesBehaveLikeInMemoryFiles() throws IOException {
+		final FileObject source = fileManager.getJavaFileForOutput(
+				StandardLocation.SOURCE_OUTPUT,
+				"com.example.Test",
+				Kind.SOURCE,
+				null);
+		
+		final StringBuilder text = new StringBuilder();
+		
+		for (int i = 0; i < 200; i++) {
+			text.append("class Test").append(i).append(" {}\n");
+		}
+		
+		try (final Writer writer = source.openWriter()) {
+			writer.write(text.toString());
+		}
+		
+		assertThat(fileManager.getSpilledFileCount(), is(1L));
+		assertThat(source.getCharContent(true).toString(), is(text.toString()));
+		assertThat(fileManager.getOutputSizeInBytes(), is((long) text.length()));
+		assertThat(source.getLastModified() != 0L, is(true));
+	}
+	
+	@Test
+	public void testDelete_spilledFile_temporaryFileIsDeleted() throws IOException {
+		final JavaFileObject a = write("A", 1200);
+		
+		assertThat(spillDirectory.list().length, is(1));
+		
+		a.delete();
+		
+		assertThat(spillDirectory.list().length, is(0));
+		assertThat(fileManager.getOutputSizeInBytes(), is(0L));
+	}
+	
+	@Test
+	public void testWrite_spilledFileRewritten_newContentsAreInMemory() throws IOException {
+		write("A", 1200);
+		write("A", 100);
+		
+		assertThat(spillDirectory.list().length, is(0));
+		assertThat(fileManager.getInMemoryOutputSizeInBytes(), is(100L));
+		assertThat(read(getClassFile("A")), is(createBytes(100, "A")));
+	}
+	
+	private JavaFileObject write(final String className, final int size) throws IOException {
+		return writeClassFile(fileManager, className, size);
+	}
+	
+	private JavaFileObject getClassFile(final String className) throws IOException {
+		return fileManager.getJavaFileForOutput(StandardLocation.CLASS_OUTPUT, className, Kind.CLASS, null);
+	}
+	
+	private static JavaFileObject writeClassFile(
+			final InMemoryJavaFileManager fileManager,
+			final String className,
+			final int size)
+			throws IOException {
+		
+		final JavaFileObject file = fileManager.getJavaFileForOutput(
+				StandardLocation.CLASS_OUTPUT,
+				className,
+				Kind.CLASS,
+				null);
+		
+		try (final OutputStream output = file.openOutputStream()) {
+			output.write(createBytes(size, className));
+		}
+		
+		return file;
+	}
+	
+	private static byte[] read(final FileObject file) throws IOException {
+		try (final InputStream input = file.openInputStream()) {
+			return ByteStreams.toByteArray(input);
+		}
+	}
+	
+	private static byte[] createBytes(final int size, final String seed) {
+		final byte[] bytes = new byte[size];
+		Arrays.fill(bytes, (byte) seed.charAt(0));
+		
+		return bytes;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,298 @@
+package com.matthewtamlin.avatar.compilation.in_memory_java_file_object;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
+import com.matthewtamlin.avatar.compilation.InMemoryJavaFileObject;
+import com.matthewtamlin.avatar.compilation.StorageMode;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_16BE;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestInMemoryJavaFileObject {
+	private InMemoryJavaFileObject file;
+	
+	@Before
+	public void setup() {
+		file = new InMemoryJavaFileObject(URI.create("memory:///SOURCE_OUTPUT/com/example/Test.java"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_nullUri() {
+		new InMemoryJavaFileObject(null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_nullCharset() {
+		new InMemoryJavaFileObject(URI.create("memory:///SOURCE_OUTPUT/Test.java"), null);
+	}
+	
+	@Test(expected = FileNotFoundException.class)
+	public void testGetCharContent_neverWritten() throws IOException {
+		file.getCharContent(true);
+	}
+	
+	@Test(expected = FileNotFoundException.class)
+	public void testOpenInputStream_neverWritten() throws IOException {
+		file.openInputStream();
+	}
+	
+	@Test
+	public void testGetSizeInBytes_neverWritten_returnsZero() {
+		assertThat(file.getSizeInBytes(), is(0L));
+	}
+	
+	@Test
+	public void testOpenInputStream_largeContentsWritten_returnsSameBytes() throws IOException {
+		final byte[] contents = createRandomBytes(1024 * 1024 + 17);
+		
+		try (final OutputStream output = file.openOutputStream()) {
+			output.write(contents, 0, 100);
+			output.write(contents[100]);
+			output.write(contents, 101, contents.length - 101);
+		}
+		
+		try (final InputStream input = file.openInputStream()) {
+			assertThat(ByteStreams.toByteArray(input), is(contents));
+		}
+		
+		assertThat(file.getSizeInBytes(), is((long) contents.length));
+	}
+	
+	@Test
+	public void testOpenInputStream_skipAcrossChunks_readsRemainingBytes() throws IOException {
+		final byte[] contents = createRandomBytes(200_000);
+		
+		try (final OutputStream output = file.openOutputStream()) {
+			output.write(contents);
+		}
+		
+		try (final InputStream input = file.openInputStream()) {
+			assertThat(input.skip(150_000), is(150_000L));
+			assertThat((byte) input.read(), is(contents[150_000]));
+		}
+	}
+	
+	@Test
+	public void testGetCharContent_contentsWrittenWithWriter_returnsSameText() throws IOException {
+		final StringBuilder text = new StringBuilder();
+		
+		for (int i = 0; i < 10_000; i++) {
+			text.append("class Test").append(i).append(" {}\n");
+		}
+		
+		try (final Writer writer = file.openWriter()) {
+			writer.write(text.toString());
+		}
+		
+		assertThat(file.getCharContent(true).toString(), is(text.toString()));
+		
+		try (final Reader reader = file.openReader(true)) {
+			assertThat(CharStreams.toString(reader), is(text.toString()));
+		}
+	}
+	
+	@Test
+	public void testOpenOutputStream_closedTwice_keepsContents() throws IOException {
+		final OutputStream output = file.openOutputStream();
+		
+		output.write(new byte[]{1, 2, 3});
+		output.close();
+		output.close();
+		
+		assertThat(file.getSizeInBytes(), is(3L));
+	}
+	
+	@Test(expected = IOException.class)
+	public void testOpenOutputStream_writeAfterClose() throws IOException {
+		final OutputStream output = file.openOutputStream();
+		
+		output.close();
+		output.write(1);
+	}
+	
+	@Test
+	public void testOpenOutputStream_notClosed_contentsNotReplaced() throws IOException {
+		try (final OutputStream output = file.openOutputStream()) {
+			output.write(new byte[]{1, 2, 3});
+		}
+		
+		file.openOutputStream().write(new byte[]{4, 5, 6, 7});
+		
+		assertThat(file.getSizeInBytes(), is(3L));
+	}
+	
+	@Test
+	public void testDelete_afterWrite_removesContents() throws IOException {
+		try (final OutputStream output = file.openOutputStream()) {
+			output.write(new byte[]{1, 2, 3});
+		}
+		
+		assertThat(file.delete(), is(true));
+		assertThat(file.getSizeInBytes(), is(0L));
+		assertThat(file.getLastModified(), is(0L));
+	}
+	
+	@Test
+	public void testGetCharContent_unchanged_returnsCachedContent() throws IOException {
+		try (final Writer writer = file.openWriter()) {
+			writer.write("class Test {}");
+		}
+		
+		assertThat(file.getCharContent(true), is(sameInstance(file.getCharContent(true))));
+	}
+	
+	@Test
+	public void testGetCharContent_directStorageMode_contentIsNotCached() throws IOException {
+		final InMemoryJavaFileObject directFile = new InMemoryJavaFileObject(
+				URI.create("memory:///SOURCE_OUTPUT/Test.java"),
+				UTF_16BE,
+				StorageMode.DIRECT);
+		
+		try (final Writer writer = directFile.openWriter()) {
+			writer.write("class Test {}");
+		}
+		
+		final CharSequence first = directFile.getCharContent(true);
+		final CharSequence second = directFile.getCharContent(true);
+		
+		assertThat(second, is(not(sameInstance(first))));
+		assertThat(second.toString(), is("class Test {}"));
+	}
+	
+	@Test
+	public void testOpenReader_directStorageMode_returnsSameTextWithoutCaching() throws IOException {
+		final InMemoryJavaFileObject directFile = new InMemoryJavaFileObject(
+				URI.create("memory:///SOURCE_OUTPUT/Test.java"),
+				UTF_16BE,
+				StorageMode.DIRECT);
+		
+		try (final Writer writer = directFile.openWriter()) {
+			writer.write("class Test {}");
+		}
+		
+		try (final Reader reader = directFile.openReader(true)) {
+			assertThat(CharStreams.toString(reader), is("class Test {}"));
+		}
+		
+		assertThat(directFile.getCharContent(true), is(not(sameInstance(directFile.getCharContent(true)))));
+	}
+	
+	@Test
+	public void testOpenReader_rewrittenAfterContentCached_returnsNewText() throws IOException {
+		try (final Writer writer = file.openWriter()) {
+			writer.write("class Test {}");
+		}
+		
+		file.getCharContent(true);
+		
+		try (final Writer writer = file.openWriter()) {
+			writer.write("class Other {}");
+		}
+		
+		try (final Reader reader = file.openReader(true)) {
+			assertThat(CharStreams.toString(reader), is("class Other {}"));
+		}
+	}
+	
+	@Test(expected = FileNotFoundException.class)
+	public void testOpenReader_neverWritten() throws IOException {
+		file.openReader(true);
+	}
+	
+	@Test
+	public void testGetCharContent_rewritten_returnsNewContent() throws IOException {
+		try (final Writer writer = file.openWriter()) {
+			writer.write("class Test {}");
+		}
+		
+		file.getCharContent(true);
+		
+		try (final Writer writer = file.openWriter()) {
+			writer.write("class Other {}");
+		}
+		
+		assertThat(file.getCharContent(true).toString(), is("class Other {}"));
+	}
+	
+	@Test(expected = FileNotFoundException.class)
+	public void testGetCharContent_deletedAfterRead() throws IOException {
+		try (final Writer writer = file.openWriter()) {
+			writer.write("class Test {}");
+		}
+		
+		file.getCharContent(true);
+		file.delete();
+		file.getCharContent(true);
+	}
+	
+	@Test
+	public void testOpenWriter_customCharset_encodesWithCharset() throws IOException {
+		final InMemoryJavaFileObject utf16File = new InMemoryJavaFileObject(
+				URI.create("memory:///SOURCE_OUTPUT/Test.java"),
+				UTF_16BE);
+		
+		try (final Writer writer = utf16File.openWriter()) {
+			writer.write("ab");
+		}
+		
+		try (final InputStream input = utf16File.openInputStream()) {
+			assertThat(ByteStreams.toByteArray(input), is(new byte[]{0, 'a', 0, 'b'}));
+		}
+		
+		assertThat(utf16File.getCharset(), is(UTF_16BE));
+		assertThat(utf16File.getCharContent(true).toString(), is("ab"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_nullStorageMode() {
+		new InMemoryJavaFileObject(URI.create("memory:///SOURCE_OUTPUT/Test.java"), UTF_16BE, null);
+	}
+	
+	@Test
+	public void testOpenInputStream_directStorageMode_returnsSameBytes() throws IOException {
+		final InMemoryJavaFileObject directFile = new InMemoryJavaFileObject(
+				URI.create("memory:///CLASS_OUTPUT/Test.class"),
+				UTF_16BE,
+				StorageMode.DIRECT);
+		
+		final byte[] contents = createRandomBytes(300_000);
+		
+		try (final OutputStream output = directFile.openOutputStream()) {
+			output.write(contents);
+		}
+		
+		try (final InputStream input = directFile.openInputStream()) {
+			assertThat(ByteStreams.toByteArray(input), is(contents));
+		}
+		
+		assertThat(directFile.getSizeInBytes(), is((long) contents.length));
+		
+		directFile.delete();
+		
+		assertThat(directFile.getSizeInBytes(), is(0L));
+	}
+	
+	private static byte[] createRandomBytes(final int length) {
+		final byte[] bytes = new byte[length];
+		new Random(0).nextBytes(bytes);
+		
+		return bytes;
+	}
+}
\ No newline at end of file
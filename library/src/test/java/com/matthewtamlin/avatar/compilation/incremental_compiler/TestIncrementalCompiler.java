@@ -0,0 +1,217 @@
+package com.matthewtamlin.avatar.compilation.incremental_compiler;
+
+import com.google.common.base.Supplier;
+import com.google.testing.compile.JavaFileObjects;
+import com.matthewtamlin.avatar.compilation.CompilationResult;
+import com.matthewtamlin.avatar.compilation.InMemoryClassLoader;
+import com.matthewtamlin.avatar.compilation.IncrementalCompiler;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileObject;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestIncrementalCompiler {
+	private static final JavaFileObject USES_LEAF = JavaFileObjects.forSourceString(
+			"com.example.UsesLeaf",
+			"package com.example; public class UsesLeaf { public Leaf leaf = new Leaf(); }");
+	
+	private static final JavaFileObject LEAF = JavaFileObjects.forSourceString(
+			"com.example.Leaf",
+			"package com.example; public class Leaf { public int value() { return 1; } }");
+	
+	private static final JavaFileObject CHANGED_LEAF = JavaFileObjects.forSourceString(
+			"com.example.Leaf",
+			"package com.example; public class Leaf { public int value() { return 2; } }");
+	
+	private static final JavaFileObject INDEPENDENT = JavaFileObjects.forSourceString(
+			"com.example.Independent",
+			"package com.example; public class Independent {}");
+	
+	private static final JavaFileObject CHANGED_INDEPENDENT = JavaFileObjects.forSourceString(
+			"com.example.Independent",
+			"package com.example; public class Independent { public void method() {} }");
+	
+	private static final JavaFileObject USES_CONSTANT = JavaFileObjects.forSourceString(
+			"com.example.UsesConstant",
+			"package com.example; public class UsesConstant { public int value = Constants.VALUE; }");
+	
+	private static final JavaFileObject CONSTANTS = JavaFileObjects.forSourceString(
+			"com.example.Constants",
+			"package com.example; public class Constants { public static final int VALUE = 1; }");
+	
+	private static final JavaFileObject CHANGED_CONSTANTS = JavaFileObjects.forSourceString(
+			"com.example.Constants",
+			"package com.example; public class Constants { public static final int VALUE = 2; }");
+	
+	private static final JavaFileObject INVALID = JavaFileObjects.forSourceString(
+			"com.example.Invalid",
+			"package com.example; public class Invalid { Missing missing; }");
+	
+	private static final JavaFileObject FIXED_INVALID = JavaFileObjects.forSourceString(
+			"com.example.Invalid",
+			"package com.example; public class Invalid {}");
+	
+	private CountingProcessorSupplier processorSupplier;
+	
+	private IncrementalCompiler compiler;
+	
+	@Before
+	public void setup() {
+		processorSupplier = new CountingProcessorSupplier();
+		compiler = new IncrementalCompiler(processorSupplier);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_nullProcessorSupplier() {
+		new IncrementalCompiler(null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompile_nullSources() {
+		compiler.compile(null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompile_sourcesContainingNull() {
+		compiler.compile(Arrays.asList(LEAF, null));
+	}
+	
+	@Test
+	public void testCompile_firstCompilation_compilesEverySource() {
+		final CompilationResult result = compiler.compile(Arrays.asList(USES_LEAF, LEAF, INDEPENDENT));
+		
+		assertThat(result.success(), is(true));
+		assertThat(compiler.getLastRecompiledSources(), is(setOf(USES_LEAF, LEAF, INDEPENDENT)));
+		assertThat(result.generatedFileIndex().getGeneratedClass("com.example.Leaf"), is(notNullValue()));
+	}
+	
+	@Test
+	public void testCompile_sourcesUnchanged_returnsPreviousResultWithoutCompiling() {
+		final CompilationResult first = compiler.compile(Arrays.asList(USES_LEAF, LEAF, INDEPENDENT));
+		final CompilationResult second = compiler.compile(Arrays.asList(USES_LEAF, LEAF, INDEPENDENT));
+		
+		assertThat(second == first, is(true));
+		assertThat(compiler.getLastRecompiledSources().isEmpty(), is(true));
+		assertThat(processorSupplier.count, is(1));
+	}
+	
+	@Test
+	public void testCompile_independentSourceChanged_recompilesOnlyThatSource() {
+		compiler.compile(Arrays.asList(USES_LEAF, LEAF, INDEPENDENT));
+		
+		final CompilationResult result = compiler.compile(Arrays.asList(USES_LEAF, LEAF, CHANGED_INDEPENDENT));
+		
+		assertThat(result.success(), is(true));
+		assertThat(compiler.getLastRecompiledSources(), is(setOf(CHANGED_INDEPENDENT)));
+		assertThat(result.generatedFileIndex().getGeneratedClass("com.example.UsesLeaf"), is(notNullValue()));
+		assertThat(result.generatedFileIndex().getGeneratedClass("com.example.Leaf"), is(notNullValue()));
+		assertThat(result.generatedFileIndex().getGeneratedClass("com.example.Independent"), is(notNullValue()));
+	}
+	
+	@Test
+	public void testCompile_dependencyChanged_recompilesDependencyAndDependents() {
+		compiler.compile(Arrays.asList(USES_LEAF, LEAF, INDEPENDENT));
+		
+		final CompilationResult result = compiler.compile(Arrays.asList(USES_LEAF, CHANGED_LEAF, INDEPENDENT));
+		
+		assertThat(result.success(), is(true));
+		assertThat(compiler.getLastRecompiledSources(), is(setOf(USES_LEAF, CHANGED_LEAF)));
+	}
+	
+	@Test
+	public void testCompile_inlinedConstantChanged_recompilesDependents() {
+		compiler.compile(Arrays.asList(USES_CONSTANT, CONSTANTS, INDEPENDENT));
+		compiler.compile(Arrays.asList(USES_CONSTANT, CHANGED_CONSTANTS, INDEPENDENT));
+		
+		assertThat(compiler.getLastRecompiledSources(), is(setOf(USES_CONSTANT, CHANGED_CONSTANTS)));
+	}
+	
+	@Test
+	public void testCompile_dependencyRemoved_recompilesDependentsAndFails() {
+		compiler.compile(Arrays.asList(USES_LEAF, LEAF, INDEPENDENT));
+		
+		final CompilationResult result = compiler.compile(Arrays.asList(USES_LEAF, INDEPENDENT));
+		
+		assertThat(result.success(), is(false));
+		assertThat(compiler.getLastRecompiledSources(), is(setOf(USES_LEAF)));
+	}
+	
+	@Test
+	public void testCompile_previousCompilationFailed_compilesEverySource() {
+		compiler.compile(Arrays.asList(INVALID, LEAF));
+		
+		final CompilationResult result = compiler.compile(Arrays.asList(FIXED_INVALID, LEAF));
+		
+		assertThat(result.success(), is(true));
+		assertThat(compiler.getLastRecompiledSources(), is(setOf(FIXED_INVALID, LEAF)));
+	}
+	
+	@Test
+	public void testCompile_afterReset_compilesEverySource() {
+		compiler.compile(Arrays.asList(USES_LEAF, LEAF));
+		compiler.reset();
+		compiler.compile(Arrays.asList(USES_LEAF, LEAF));
+		
+		assertThat(compiler.getLastRecompiledSources(), is(setOf(USES_LEAF, LEAF)));
+	}
+	
+	@Test
+	public void testCompile_partialRecompilation_reusedClassesCanBeLoaded() throws Exception {
+		compiler.compile(Arrays.asList(USES_LEAF, LEAF, INDEPENDENT));
+		
+		final CompilationResult result = compiler.compile(Arrays.asList(USES_LEAF, LEAF, CHANGED_INDEPENDENT));
+		final ClassLoader classLoader = new InMemoryClassLoader(result.generatedFileIndex());
+		
+		final Object usesLeaf = classLoader.loadClass("com.example.UsesLeaf").newInstance();
+		final Object leaf = usesLeaf.getClass().getField("leaf").get(usesLeaf);
+		
+		assertThat(leaf.getClass().getMethod("value").invoke(leaf), is((Object) 1));
+		assertThat(classLoader.loadClass("com.example.Independent").getMethod("method"), is(notNullValue()));
+	}
+	
+	private static Set<JavaFileObject> setOf(final JavaFileObject... sources) {
+		return new HashSet<>(Arrays.asList(sources));
+	}
+	
+	private static class CountingProcessorSupplier implements Supplier<Processor> {
+		private int count;
+		
+		@Override
+		public Processor get() {
+			count++;
+			return new NoOpProcessor();
+		}
+	}
+	
+	private static class NoOpProcessor extends AbstractProcessor {
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return new HashSet<>(Arrays.asList("*"));
+		}
+		
+		@Override
+		public SourceVersion getSupportedSourceVersion() {
+			return SourceVersion.latestSupported();
+		}
+		
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnvironment) {
+			return false;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,142 @@
+package com.matthewtamlin.avatar.compilation.mapped_source_file_object;
+
+import com.google.common.io.Files;
+import com.matthewtamlin.avatar.compilation.MappedSourceFileObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.tools.JavaFileObject.Kind;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestMappedSourceFileObject {
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	private File file;
+	
+	@Before
+	public void setup() throws IOException {
+		file = temporaryFolder.newFile("Test.java");
+		Files.asCharSink(file, UTF_8).write("class Test { String s = \"\u00e9\"; }");
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_nullFile() {
+		new MappedSourceFileObject(null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testForFile_nullFile() {
+		MappedSourceFileObject.forFile(null);
+	}
+	
+	@Test
+	public void testConstructor_validFile_isSourceWithFileUri() {
+		final MappedSourceFileObject fileObject = new MappedSourceFileObject(file);
+		
+		assertThat(fileObject.getKind(), is(Kind.SOURCE));
+		assertThat(fileObject.toUri(), is(file.toURI()));
+		assertThat(fileObject.getFile(), is(file));
+	}
+	
+	@Test
+	public void testForFile_sameFileTwice_returnsSameInstance() {
+		assertThat(
+				MappedSourceFileObject.forFile(file),
+				is(sameInstance(MappedSourceFileObject.forFile(new File(file.getParentFile(), "./Test.java")))));
+	}
+	
+	@Test
+	public void testGetCharContent_returnsDecodedContent() throws IOException {
+		final MappedSourceFileObject fileObject = new MappedSourceFileObject(file);
+		
+		assertThat(fileObject.getCharContent(true).toString(), is("class Test { String s = \"\u00e9\"; }"));
+	}
+	
+	@Test
+	public void testGetCharContent_fileUnchanged_returnsCachedContent() throws IOException {
+		final MappedSourceFileObject fileObject = new MappedSourceFileObject(file);
+		
+		final CharSequence first = fileObject.getCharContent(true);
+		final CharSequence second = fileObject.getCharContent(true);
+		
+		assertThat(second, is(sameInstance(first)));
+	}
+	
+	@Test
+	public void testGetCharContent_fileChanged_returnsNewContent() throws IOException {
+		final MappedSourceFileObject fileObject = new MappedSourceFileObject(file);
+		final CharSequence first = fileObject.getCharContent(true);
+		
+		Files.asCharSink(file, UTF_8).write("class Test {}");
+		file.setLastModified(file.lastModified() + 2000);
+		
+		final CharSequence second = fileObject.getCharContent(true);
+		
+		assertThat(second, is(not(sameInstance(first))));
+		assertThat(second.toString(), is("class Test {}"));
+	}
+	
+	@Test
+	public void testOpenReader_returnsDecodedContent() throws IOException {
+		final MappedSourceFileObject fileObject = new MappedSourceFileObject(file);
+		final char[] buffer = new char[64];
+		final int length;
+		
+		try (final Reader reader = fileObject.openReader(true)) {
+			length = reader.read(buffer);
+		}
+		
+		assertThat(new String(buffer, 0, length), is("class Test { String s = \"\u00e9\"; }"));
+	}
+	
+	@Test(expected = IOException.class)
+	public void testGetCharContent_malformedInputAndEncodingErrorsNotIgnored() throws IOException {
+		Files.write(new byte[]{'a', (byte) 0xC3, '(', 'b'}, file);
+		
+		new MappedSourceFileObject(file).getCharContent(false);
+	}
+	
+	@Test
+	public void testGetCharContent_malformedInputAndEncodingErrorsIgnored_returnsReplacedContent() throws IOException {
+		Files.write(new byte[]{'a', (byte) 0xC3, '(', 'b'}, file);
+		
+		assertThat(new MappedSourceFileObject(file).getCharContent(true).toString(), is("a\ufffd(b"));
+	}
+	
+	@Test(expected = IOException.class)
+	public void testGetCharContent_malformedInputCachedThenEncodingErrorsNotIgnored() throws IOException {
+		Files.write(new byte[]{'a', (byte) 0xC3, '(', 'b'}, file);
+		
+		final MappedSourceFileObject fileObject = new MappedSourceFileObject(file);
+		
+		fileObject.getCharContent(true);
+		fileObject.getCharContent(false);
+	}
+	
+	@Test
+	public void testGetCharContent_largeFile_returnsDecodedContent() throws IOException {
+		final StringBuilder text = new StringBuilder();
+		
+		while (text.length() < 2 * 1024 * 1024) {
+			text.append("class Test {}\n");
+		}
+		
+		Files.asCharSink(file, UTF_8).write(text);
+		
+		assertThat(new MappedSourceFileObject(file).getCharContent(false).toString(), is(text.toString()));
+	}
+}
\ No newline at end of file
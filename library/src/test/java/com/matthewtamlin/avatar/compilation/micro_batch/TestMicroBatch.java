@@ -0,0 +1,336 @@
+package com.matthewtamlin.avatar.compilation.micro_batch;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.testing.compile.JavaFileObjects;
+import com.matthewtamlin.avatar.compilation.CompilationRequest;
+import com.matthewtamlin.avatar.compilation.CompilationResult;
+import com.matthewtamlin.avatar.compilation.CompilePolicy;
+import com.matthewtamlin.avatar.compilation.CompilerUtil;
+import com.matthewtamlin.avatar.compilation.MicroBatch;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestMicroBatch {
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetNamespace_negativeIndex() {
+		MicroBatch.getNamespace(-1);
+	}
+	
+	@Test
+	public void testGetNamespace_validIndex() {
+		assertThat(MicroBatch.getNamespace(3), is("avatar_batch_3"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompileAsMicroBatch_nullRequests() {
+		CompilerUtil.compileAsMicroBatch(null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompileAsMicroBatch_requestsContainingNull() {
+		final List<CompilationRequest> requests = new ArrayList<>();
+		requests.add(null);
+		
+		CompilerUtil.compileAsMicroBatch(requests);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompileAsMicroBatch_requestsWithDifferentPolicies() {
+		CompilerUtil.compileAsMicroBatch(Arrays.asList(
+				CompilationRequest.create(new RecordingProcessor(), sourcesOf(classInDefaultPackage("A"))),
+				CompilationRequest.create(
+						new RecordingProcessor(),
+						sourcesOf(classInDefaultPackage("B")),
+						CompilePolicy.PROCESSING_ONLY)));
+	}
+	
+	@Test
+	public void testCompileAsMicroBatch_noRequests_returnsEmptyList() {
+		assertThat(CompilerUtil.compileAsMicroBatch(new ArrayList<CompilationRequest>()).isEmpty(), is(true));
+	}
+	
+	@Test
+	public void testCompileAsMicroBatch_fixturesDeclareSameClass_eachResultHasItsOwnClass() {
+		final List<CompilationResult> results = CompilerUtil.compileAsMicroBatch(Arrays.asList(
+				CompilationRequest.create(new RecordingProcessor(), sourcesOf(classInDefaultPackage("Test"))),
+				CompilationRequest.create(new RecordingProcessor(), sourcesOf(classInPackage("com.example", "Test")))));
+		
+		assertThat(results.size(), is(2));
+		assertThat(results.get(0).success(), is(true));
+		assertThat(results.get(1).success(), is(true));
+		
+		assertThat(results.get(0).generatedFileIndex().getGeneratedClass("avatar_batch_0.Test"), is(notNullValue()));
+		assertThat(results.get(0).generatedFileIndex().getAllFiles().size(), is(1));
+		
+		assertThat(
+				results.get(1).generatedFileIndex().getGeneratedClass("avatar_batch_1.com.example.Test"),
+				is(notNullValue()));
+		assertThat(results.get(1).generatedFileIndex().getAllFiles().size(), is(1));
+	}
+	
+	@Test
+	public void testCompileAsMicroBatch_eachProcessorOnlySeesItsOwnFixture() {
+		final RecordingProcessor processor1 = new RecordingProcessor();
+		final RecordingProcessor processor2 = new RecordingProcessor();
+		
+		CompilerUtil.compileAsMicroBatch(Arrays.asList(
+				CompilationRequest.create(processor1, sourcesOf(classInDefaultPackage("A"), classInDefaultPackage("B"))),
+				CompilationRequest.create(processor2, sourcesOf(classInPackage("com.example", "C")))));
+		
+		assertThat(processor1.rootElementNames, is((Set<String>) ImmutableSet.of("avatar_batch_0.A", "avatar_batch_0.B")));
+		assertThat(processor2.rootElementNames, is((Set<String>) ImmutableSet.of("avatar_batch_1.com.example.C")));
+	}
+	
+	@Test
+	public void testCompileAsMicroBatch_fixtureImportsItsOwnPackage_importIsRewritten() {
+		final JavaFileObject a = JavaFileObjects.forSourceLines(
+				"com.example.a.A",
+				"package com.example.a;",
+				"import com.example.b.B;",
+				"import java.util.List;",
+				"public class A { B b; List<B> list; }");
+		
+		final List<CompilationResult> results = CompilerUtil.compileAsMicroBatch(Arrays.asList(
+				CompilationRequest.create(new RecordingProcessor(), sourcesOf(a, classInPackage("com.example.b", "B")))));
+		
+		assertThat(results.get(0).success(), is(true));
+	}
+	
+	@Test
+	public void testCompileAsMicroBatch_oneFixtureFails_failureIsOnlyReportedForThatFixture() {
+		final JavaFileObject badSource = JavaFileObjects.forSourceLines("Bad", "public abstract final class Bad {}");
+		
+		final List<CompilationResult> results = CompilerUtil.compileAsMicroBatch(Arrays.asList(
+				CompilationRequest.create(new RecordingProcessor(), sourcesOf(classInDefaultPackage("Good"))),
+				CompilationRequest.create(new RecordingProcessor(), sourcesOf(badSource))));
+		
+		assertThat(results.get(0).success(), is(true));
+		assertThat(results.get(0).diagnostics().isEmpty(), is(true));
+		assertThat(results.get(0).generatedFileIndex().getGeneratedClass("avatar_batch_0.Good"), is(notNullValue()));
+		
+		assertThat(results.get(1).success(), is(false));
+		assertThat(results.get(1).diagnostics().isEmpty(), is(false));
+		
+		for (final Diagnostic<? extends JavaFileObject> diagnostic : results.get(1).diagnostics()) {
+			assertThat(diagnostic.getSource() == badSource, is(true));
+			assertThat(diagnostic.getLineNumber(), is(1L));
+		}
+	}
+	
+	@Test
+	public void testCompileAsMicroBatch_syntaxErrorInOneFixtureAndTypeErrorInAnother_bothFixturesFail() {
+		final JavaFileObject syntaxError = JavaFileObjects.forSourceLines(
+				"a.A",
+				"package a;",
+				"public class A {");
+		final JavaFileObject typeError = JavaFileObjects.forSourceLines(
+				"b.B",
+				"package b;",
+				"public class B { int x = \"s\"; }");
+		
+		final List<CompilationResult> results = CompilerUtil.compileAsMicroBatch(Arrays.asList(
+				CompilationRequest.create(new RecordingProcessor(), sourcesOf(syntaxError)),
+				CompilationRequest.create(new RecordingProcessor(), sourcesOf(typeError)),
+				CompilationRequest.create(new RecordingProcessor(), sourcesOf(classInPackage("c", "C")))));
+		
+		assertThat(results.get(0).success(), is(false));
+		
+		assertThat(results.get(1).success(), is(false));
+		assertThat(results.get(1).diagnostics().isEmpty(), is(false));
+		
+		assertThat(results.get(2).success(), is(true));
+		assertThat(results.get(2).diagnostics().isEmpty(), is(true));
+		assertThat(results.get(2).generatedFileIndex().getGeneratedClass("avatar_batch_2.c.C"), is(notNullValue()));
+	}
+	
+	@Test
+	public void testCompileAsMicroBatch_typeErrorInOneFixtureAndOtherFixtureGeneratesSource_otherFixtureIsComplete() {
+		final JavaFileObject typeError = JavaFileObjects.forSourceLines(
+				"b.B",
+				"package b;",
+				"public class B { int x = \"s\"; }");
+		
+		final List<CompilationResult> results = CompilerUtil.compileAsMicroBatch(Arrays.asList(
+				CompilationRequest.create(new RecordingProcessor(), sourcesOf(typeError)),
+				CompilationRequest.create(new GeneratingProcessor(), sourcesOf(classInPackage("com.example", "C")))));
+		
+		assertThat(results.get(0).success(), is(false));
+		
+		assertThat(results.get(1).success(), is(true));
+		assertThat(
+				results.get(1).generatedFileIndex().getGeneratedSource("avatar_batch_1.com.example.CGenerated"),
+				is(notNullValue()));
+		assertThat(
+				results.get(1).generatedFileIndex().getGeneratedClass("avatar_batch_1.com.example.CGenerated"),
+				is(notNullValue()));
+		assertThat(
+				results.get(1).generatedFileIndex().getGeneratedClass("avatar_batch_1.com.example.C"),
+				is(notNullValue()));
+	}
+	
+	@Test
+	public void testCompileAsMicroBatch_processorSupportsAnnotationDeclaredInFixture_processorIsInvoked() {
+		final AnnotationRecordingProcessor processor1 = new AnnotationRecordingProcessor("com.example.Marker");
+		final AnnotationRecordingProcessor processor2 = new AnnotationRecordingProcessor("com.example.*");
+		
+		CompilerUtil.compileAsMicroBatch(Arrays.asList(
+				CompilationRequest.create(processor1, sourcesOf(markerAnnotation(), markedClass("A"))),
+				CompilationRequest.create(processor2, sourcesOf(markerAnnotation(), markedClass("B")))));
+		
+		assertThat(processor1.annotatedElementNames, is((Set<String>) ImmutableSet.of("avatar_batch_0.com.example.A")));
+		assertThat(processor2.annotatedElementNames, is((Set<String>) ImmutableSet.of("avatar_batch_1.com.example.B")));
+	}
+	
+	@Test
+	public void testCompileAsMicroBatch_processorGeneratesSource_sourceIsOnlyInItsFixtureResult() {
+		final List<CompilationResult> results = CompilerUtil.compileAsMicroBatch(Arrays.asList(
+				CompilationRequest.create(new RecordingProcessor(), sourcesOf(classInDefaultPackage("A"))),
+				CompilationRequest.create(new GeneratingProcessor(), sourcesOf(classInPackage("com.example", "B")))));
+		
+		assertThat(results.get(0).success(), is(true));
+		assertThat(results.get(1).success(), is(true));
+		
+		assertThat(
+				results.get(1).generatedFileIndex().getGeneratedSource("avatar_batch_1.com.example.BGenerated"),
+				is(notNullValue()));
+		assertThat(
+				results.get(1).generatedFileIndex().getGeneratedClass("avatar_batch_1.com.example.BGenerated"),
+				is(notNullValue()));
+		assertThat(
+				results.get(0).generatedFileIndex().getGeneratedSource("avatar_batch_1.com.example.BGenerated"),
+				is(nullValue()));
+	}
+	
+	private static List<JavaFileObject> sourcesOf(final JavaFileObject... sources) {
+		return new ArrayList<>(Arrays.asList(sources));
+	}
+	
+	private static JavaFileObject classInDefaultPackage(final String name) {
+		return JavaFileObjects.forSourceLines(name, "public class " + name + " {}");
+	}
+	
+	private static JavaFileObject classInPackage(final String packageName, final String name) {
+		return JavaFileObjects.forSourceLines(
+				packageName + "." + name,
+				"package " + packageName + ";",
+				"public class " + name + " {}");
+	}
+	
+	private static JavaFileObject markerAnnotation() {
+		return JavaFileObjects.forSourceLines(
+				"com.example.Marker",
+				"package com.example;",
+				"public @interface Marker {}");
+	}
+	
+	private static JavaFileObject markedClass(final String name) {
+		return JavaFileObjects.forSourceLines(
+				"com.example." + name,
+				"package com.example;",
+				"@Marker",
+				"public class " + name + " {}");
+	}
+	
+	private static class RecordingProcessor extends AbstractProcessor {
+		private final Set<String> rootElementNames = new HashSet<>();
+		
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+			for (final Element element : roundEnv.getRootElements()) {
+				rootElementNames.add(((TypeElement) element).getQualifiedName().toString());
+			}
+			
+			return false;
+		}
+		
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return ImmutableSet.of("*");
+		}
+		
+		@Override
+		public SourceVersion getSupportedSourceVersion() {
+			return SourceVersion.latestSupported();
+		}
+	}
+	
+	private static class GeneratingProcessor extends AbstractProcessor {
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+			for (final Element element : roundEnv.getRootElements()) {
+				final String name = ((TypeElement) element).getQualifiedName().toString();
+				
+				if (name.endsWith("Generated")) {
+					continue;
+				}
+				
+				final String packageName = name.substring(0, name.lastIndexOf('.'));
+				final String simpleName = element.getSimpleName() + "Generated";
+				
+				try (final Writer writer = processingEnv.getFiler()
+						.createSourceFile(packageName + "." + simpleName, element)
+						.openWriter()) {
+					
+					writer.write("package " + packageName + "; public class " + simpleName + " {}");
+				} catch (final IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			
+			return false;
+		}
+		
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return ImmutableSet.of("*");
+		}
+	}
+	
+	private static class AnnotationRecordingProcessor extends AbstractProcessor {
+		private final String supportedAnnotationType;
+		
+		private final Set<String> annotatedElementNames = new HashSet<>();
+		
+		private AnnotationRecordingProcessor(final String supportedAnnotationType) {
+			this.supportedAnnotationType = supportedAnnotationType;
+		}
+		
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+			for (final TypeElement annotation : annotations) {
+				for (final Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+					annotatedElementNames.add(((TypeElement) element).getQualifiedName().toString());
+				}
+			}
+			
+			return false;
+		}
+		
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return ImmutableSet.of(supportedAnnotationType);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,234 @@
+package com.matthewtamlin.avatar.compilation.output_index;
+
+import com.matthewtamlin.avatar.compilation.InMemoryJavaFileManager;
+import com.matthewtamlin.avatar.compilation.OutputIndex;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.tools.StandardLocation.CLASS_OUTPUT;
+import static javax.tools.StandardLocation.SOURCE_OUTPUT;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestOutputIndex {
+	private InMemoryJavaFileManager fileManager;
+	
+	private OutputIndex index;
+	
+	@Before
+	public void setup() {
+		fileManager = new InMemoryJavaFileManager(
+				ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, UTF_8));
+		
+		index = fileManager.getOutputIndex();
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testFromFiles_nullFiles() {
+		OutputIndex.fromFiles(null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetJavaFile_nullLocation() {
+		index.getJavaFile(null, "com.example.Test", Kind.CLASS);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetJavaFile_nullBinaryName() {
+		index.getJavaFile(CLASS_OUTPUT, null, Kind.CLASS);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetJavaFile_nullKind() {
+		index.getJavaFile(CLASS_OUTPUT, "com.example.Test", null);
+	}
+	
+	@Test
+	public void testGetJavaFile_fileNotStored_returnsNull() {
+		assertThat(index.getJavaFile(CLASS_OUTPUT, "com.example.Test", Kind.CLASS), is(nullValue()));
+	}
+	
+	@Test
+	public void testGetJavaFile_fileStoredByClassName_returnsStoredFile() throws IOException {
+		final JavaFileObject file = fileManager.getJavaFileForOutput(CLASS_OUTPUT, "com.example.Test", Kind.CLASS, null);
+		
+		assertThat(index.getJavaFile(CLASS_OUTPUT, "com.example.Test", Kind.CLASS) == file, is(true));
+		assertThat(index.getGeneratedClass("com.example.Test") == file, is(true));
+		assertThat(index.getJavaFile(SOURCE_OUTPUT, "com.example.Test", Kind.CLASS), is(nullValue()));
+		assertThat(index.getJavaFile(CLASS_OUTPUT, "com.example.Test", Kind.SOURCE), is(nullValue()));
+	}
+	
+	@Test
+	public void testGetJavaFile_fileStoredByRelativeName_returnsStoredFile() throws IOException {
+		final FileObject file = fileManager.getFileForOutput(SOURCE_OUTPUT, "com.example", "Test.java", null);
+		
+		assertThat(index.getGeneratedSource("com.example.Test") == file, is(true));
+	}
+	
+	@Test
+	public void testGetJavaFile_nestedClass_returnsStoredFile() throws IOException {
+		final JavaFileObject file = fileManager.getJavaFileForOutput(
+				CLASS_OUTPUT,
+				"com.example.Outer$Inner",
+				Kind.CLASS,
+				null);
+		
+		assertThat(index.getGeneratedClass("com.example.Outer$Inner") == file, is(true));
+		assertThat(index.getGeneratedClass("com.example.Outer"), is(nullValue()));
+	}
+	
+	@Test
+	public void testGetFile_fileStoredByClassName_returnsStoredFile() throws IOException {
+		final JavaFileObject file = fileManager.getJavaFileForOutput(CLASS_OUTPUT, "com.example.Test", Kind.CLASS, null);
+		
+		assertThat(index.getFile(CLASS_OUTPUT, "com.example", "Test.class") == file, is(true));
+	}
+	
+	@Test
+	public void testGetFile_unnamedPackage_returnsStoredFile() throws IOException {
+		final FileObject file = fileManager.getFileForOutput(CLASS_OUTPUT, "", "data.txt", null);
+		
+		assertThat(index.getFile(CLASS_OUTPUT, "", "data.txt") == file, is(true));
+	}
+	
+	@Test
+	public void testGetFile_relativeNameInSubdirectory_matchesSubpackage() throws IOException {
+		final FileObject file = fileManager.getFileForOutput(CLASS_OUTPUT, "com.example", "sub/data.txt", null);
+		
+		assertThat(index.getFile(CLASS_OUTPUT, "com.example.sub", "data.txt") == file, is(true));
+		assertThat(index.getFile(CLASS_OUTPUT, "com", "example/sub/data.txt") == file, is(true));
+		assertThat(index.getFile(CLASS_OUTPUT, "com.example", "sub.data.txt"), is(nullValue()));
+	}
+	
+	@Test
+	public void testGetJavaFile_kindWithoutBinaryNameIndex_returnsStoredFile() throws IOException {
+		final FileObject file = fileManager.getFileForOutput(CLASS_OUTPUT, "com.example", "Test", null);
+		
+		assertThat(index.getJavaFile(CLASS_OUTPUT, "com.example.Test", Kind.OTHER) == file, is(true));
+		assertThat(fileManager.getJavaFileForOutput(CLASS_OUTPUT, "com.example.Test", Kind.OTHER, null) == file, is(true));
+	}
+	
+	@Test
+	public void testGetFilesInPackage_filesInSeveralPackages_returnsOnlyDirectMembersOfTheKind() throws IOException {
+		final JavaFileObject a = fileManager.getJavaFileForOutput(CLASS_OUTPUT, "com.example.A", Kind.CLASS, null);
+		final JavaFileObject b = fileManager.getJavaFileForOutput(CLASS_OUTPUT, "com.example.B", Kind.CLASS, null);
+		fileManager.getJavaFileForOutput(CLASS_OUTPUT, "com.example.sub.C", Kind.CLASS, null);
+		fileManager.getJavaFileForOutput(SOURCE_OUTPUT, "com.example.D", Kind.SOURCE, null);
+		fileManager.getFileForOutput(CLASS_OUTPUT, "com.example", "data.txt", null);
+		
+		final Set<JavaFileObject> files = index.getFilesInPackage(CLASS_OUTPUT, "com.example", Kind.CLASS);
+		
+		assertThat(files.size(), is(2));
+		assertThat(files.contains(a), is(true));
+		assertThat(files.contains(b), is(true));
+		assertThat(index.getFilesInPackage(CLASS_OUTPUT, "com.example", Kind.OTHER).size(), is(1));
+		assertThat(index.getFilesInPackage(CLASS_OUTPUT, "com.missing", Kind.CLASS).isEmpty(), is(true));
+	}
+	
+	@Test
+	public void testGetFiles_filesInSeveralLocations_returnsOnlyFilesInLocation() throws IOException {
+		final JavaFileObject a = fileManager.getJavaFileForOutput(CLASS_OUTPUT, "com.example.A", Kind.CLASS, null);
+		fileManager.getJavaFileForOutput(SOURCE_OUTPUT, "com.example.A", Kind.SOURCE, null);
+		
+		assertThat(index.getFiles(CLASS_OUTPUT), is(Collections.<JavaFileObject>singleton(a)));
+	}
+	
+	@Test
+	public void testGetAllFiles_fileAddedAfterCall_viewReflectsAddition() throws IOException {
+		final Set<JavaFileObject> allFiles = index.getAllFiles();
+		
+		assertThat(allFiles.isEmpty(), is(true));
+		
+		fileManager.getJavaFileForOutput(CLASS_OUTPUT, "com.example.A", Kind.CLASS, null);
+		
+		assertThat(allFiles.size(), is(1));
+		assertThat(fileManager.getOutputFiles().size(), is(1));
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void testGetAllFiles_modifyView_throwsException() {
+		index.getAllFiles().clear();
+	}
+	
+	@Test
+	public void testFromFiles_filesFromInMemoryFileManager_indexesFiles() throws IOException {
+		final JavaFileObject a = fileManager.getJavaFileForOutput(CLASS_OUTPUT, "com.example.A", Kind.CLASS, null);
+		final JavaFileObject b = fileManager.getJavaFileForOutput(SOURCE_OUTPUT, "B", Kind.SOURCE, null);
+		
+		final OutputIndex copy = OutputIndex.fromFiles(fileManager.getOutputFiles());
+		
+		assertThat(copy.getGeneratedClass("com.example.A") == a, is(true));
+		assertThat(copy.getGeneratedSource("B") == b, is(true));
+		assertThat(copy.getAllFiles().size(), is(2));
+	}
+	
+	@Test
+	public void testGetJavaFileForOutput_manyThreadsRequestSameFiles_allReceiveSameFileObjects() throws Exception {
+		final int threadCount = 8;
+		final int fileCount = 200;
+		
+		final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		final List<Future<List<JavaFileObject>>> futures = new ArrayList<>();
+		
+		try {
+			for (int i = 0; i < threadCount; i++) {
+				futures.add(executor.submit(new Callable<List<JavaFileObject>>() {
+					@Override
+					public List<JavaFileObject> call() throws Exception {
+						startSignal.await();
+						
+						final List<JavaFileObject> files = new ArrayList<>();
+						
+						for (int j = 0; j < fileCount; j++) {
+							files.add(fileManager.getJavaFileForOutput(
+									CLASS_OUTPUT,
+									"com.example.Class" + j,
+									Kind.CLASS,
+									null));
+						}
+						
+						return files;
+					}
+				}));
+			}
+			
+			startSignal.countDown();
+			
+			final List<JavaFileObject> expectedFiles = futures.get(0).get();
+			
+			for (final Future<List<JavaFileObject>> future : futures) {
+				final List<JavaFileObject> files = future.get();
+				
+				for (int j = 0; j < fileCount; j++) {
+					assertThat(files.get(j) == expectedFiles.get(j), is(true));
+				}
+			}
+			
+			assertThat(index.getAllFiles().size(), is(fileCount));
+			assertThat(index.getFilesInPackage(CLASS_OUTPUT, "com.example", Kind.CLASS).size(), is(fileCount));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,311 @@
+package com.matthewtamlin.avatar.compilation.prefetch_scheduler;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.testing.compile.JavaFileObjects;
+import com.matthewtamlin.avatar.compilation.CompilationRequest;
+import com.matthewtamlin.avatar.compilation.CompilationResult;
+import com.matthewtamlin.avatar.compilation.PrefetchScheduler;
+import com.matthewtamlin.avatar.compilation.PrefetchStatistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestPrefetchScheduler {
+	private static final JavaFileObject SOURCE_A = JavaFileObjects.forSourceLines("A", "public class A {}");
+	
+	private static final JavaFileObject SOURCE_B = JavaFileObjects.forSourceLines("B", "public class B {}");
+	
+	private static final long TIMEOUT_MILLIS = 60_000;
+	
+	
+	private PrefetchScheduler scheduler;
+	
+	@Before
+	public void setup() {
+		scheduler = new PrefetchScheduler(2, Long.MAX_VALUE);
+	}
+	
+	@After
+	public void tearDown() {
+		scheduler.close();
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_zeroParallelism() {
+		new PrefetchScheduler(0, 1);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_negativeMemoryBudget() {
+		new PrefetchScheduler(1, -1);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testPrefetch_nullRequest() {
+		scheduler.prefetch(null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTake_nullRequest() {
+		scheduler.take(null);
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testPrefetch_schedulerClosed() {
+		scheduler.close();
+		
+		scheduler.prefetch(requestFor(SOURCE_A));
+	}
+	
+	@Test
+	public void testTake_notPrefetched_compilesAndCountsMiss() {
+		final CompilationResult result = scheduler.take(requestFor(SOURCE_A));
+		
+		assertThat(result.success(), is(true));
+		assertThat(result.generatedFileIndex().getGeneratedClass("A") != null, is(true));
+		
+		final PrefetchStatistics statistics = scheduler.getStatistics();
+		assertThat(statistics.hitCount(), is(0));
+		assertThat(statistics.missCount(), is(1));
+		assertThat(statistics.savedWaitNanos(), is(0L));
+	}
+	
+	@Test
+	public void testTake_prefetchedAndFinished_returnsPrefetchedResultAndCountsSavedWait() throws Exception {
+		final CompilationRequest request = requestFor(SOURCE_A);
+		
+		assertThat(scheduler.prefetch(request), is(true));
+		awaitRetainedBytes();
+		
+		final CompilationResult result = scheduler.take(request);
+		
+		assertThat(result.success(), is(true));
+		assertThat(result.generatedFileIndex().getGeneratedClass("A") != null, is(true));
+		assertThat(scheduler.getRetainedBytes(), is(0L));
+		
+		final PrefetchStatistics statistics = scheduler.getStatistics();
+		assertThat(statistics.hitCount(), is(1));
+		assertThat(statistics.missCount(), is(0));
+		assertThat(statistics.savedWaitNanos() > 0, is(true));
+	}
+	
+	@Test
+	public void testPrefetch_sameRequestTwice_compiledOnce() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maximumRunning = new AtomicInteger();
+		final AtomicInteger rounds = new AtomicInteger();
+		
+		final CompilationRequest request = CompilationRequest.create(
+				new ConcurrencyTrackingProcessor(running, maximumRunning, rounds),
+				ImmutableList.of(SOURCE_A));
+		
+		assertThat(scheduler.prefetch(request), is(true));
+		assertThat(scheduler.prefetch(request), is(true));
+		
+		scheduler.take(request);
+		
+		assertThat(rounds.get(), is(1));
+	}
+	
+	@Test
+	public void testPrefetch_memoryBudgetUsed_requestIsRejected() {
+		scheduler.close();
+		scheduler = new PrefetchScheduler(1, 0);
+		
+		final CompilationRequest request = requestFor(SOURCE_A);
+		
+		assertThat(scheduler.prefetch(request), is(false));
+		assertThat(scheduler.take(request).success(), is(true));
+		
+		assertThat(scheduler.getStatistics().rejectedCount(), is(1));
+		assertThat(scheduler.getStatistics().missCount(), is(1));
+	}
+	
+	@Test
+	public void testPrefetch_memoryBudgetUsedBeforeStart_requestIsSkipped() throws Exception {
+		scheduler.close();
+		scheduler = new PrefetchScheduler(1, 1);
+		
+		final CompilationRequest first = requestFor(SOURCE_A);
+		final CompilationRequest second = requestFor(SOURCE_B);
+		
+		// Only one compilation runs at once, so the first result is retained before the second is due to start
+		assertThat(scheduler.prefetch(first), is(true));
+		assertThat(scheduler.prefetch(second), is(true));
+		
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		
+		while (scheduler.getStatistics().skippedCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		final CompilationResult secondResult = scheduler.take(second);
+		
+		assertThat(secondResult.success(), is(true));
+		assertThat(secondResult.generatedFileIndex().getGeneratedClass("B") != null, is(true));
+		assertThat(scheduler.take(first).success(), is(true));
+		
+		final PrefetchStatistics statistics = scheduler.getStatistics();
+		assertThat(statistics.skippedCount(), is(1));
+		assertThat(statistics.missCount(), is(1));
+		assertThat(statistics.hitCount(), is(1));
+	}
+	
+	@Test
+	public void testPrefetch_skippedRequestPrefetchedAgainAfterBudgetFrees_requestIsCompiledAhead() throws Exception {
+		scheduler.close();
+		scheduler = new PrefetchScheduler(1, 1);
+		
+		final CompilationRequest first = requestFor(SOURCE_A);
+		final CompilationRequest second = requestFor(SOURCE_B);
+		
+		assertThat(scheduler.prefetch(first), is(true));
+		assertThat(scheduler.prefetch(second), is(true));
+		
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		
+		while (scheduler.getStatistics().skippedCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		// Taking the first result frees the budget, so the skipped request can be scheduled again
+		scheduler.take(first);
+		
+		assertThat(scheduler.prefetch(second), is(true));
+		awaitRetainedBytes();
+		
+		assertThat(scheduler.take(second).success(), is(true));
+		
+		final PrefetchStatistics statistics = scheduler.getStatistics();
+		assertThat(statistics.skippedCount(), is(1));
+		assertThat(statistics.missCount(), is(0));
+		assertThat(statistics.hitCount(), is(2));
+	}
+	
+	@Test
+	public void testPrefetch_manyRequests_parallelismLimitIsRespected() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maximumRunning = new AtomicInteger();
+		final AtomicInteger rounds = new AtomicInteger();
+		final List<CompilationRequest> requests = new ArrayList<>();
+		
+		for (int i = 0; i < 6; i++) {
+			requests.add(CompilationRequest.create(
+					new ConcurrencyTrackingProcessor(running, maximumRunning, rounds),
+					ImmutableList.of(SOURCE_B)));
+		}
+		
+		for (final CompilationRequest request : requests) {
+			scheduler.prefetch(request);
+		}
+		
+		// Taking a request which has not started compiles it on this thread, so wait for all of them to finish first
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		
+		while (rounds.get() < 6 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		for (final CompilationRequest request : requests) {
+			assertThat(scheduler.take(request).success(), is(true));
+		}
+		
+		assertThat(scheduler.getStatistics().hitCount(), is(6));
+		assertThat(maximumRunning.get() <= 2, is(true));
+		assertThat(maximumRunning.get() >= 1, is(true));
+		assertThat(rounds.get(), is(6));
+	}
+	
+	@Test
+	public void testClose_finishedResultsNotTaken_retainedBytesAreReleased() throws Exception {
+		scheduler.prefetch(requestFor(SOURCE_A));
+		awaitRetainedBytes();
+		
+		scheduler.close();
+		
+		assertThat(scheduler.getRetainedBytes(), is(0L));
+	}
+	
+	private void awaitRetainedBytes() throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		
+		while (scheduler.getRetainedBytes() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		assertThat(scheduler.getRetainedBytes() > 0, is(true));
+	}
+	
+	private static CompilationRequest requestFor(final JavaFileObject source) {
+		return CompilationRequest.create(new MockProcessor(), ImmutableList.of(source));
+	}
+	
+	private static class MockProcessor extends AbstractProcessor {
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+			return false;
+		}
+	}
+	
+	private static class ConcurrencyTrackingProcessor extends AbstractProcessor {
+		private final AtomicInteger running;
+		
+		private final AtomicInteger maximumRunning;
+		
+		private final AtomicInteger rounds;
+		
+		private ConcurrencyTrackingProcessor(
+				final AtomicInteger running,
+				final AtomicInteger maximumRunning,
+				final AtomicInteger rounds) {
+			
+			this.running = running;
+			this.maximumRunning = maximumRunning;
+			this.rounds = rounds;
+		}
+		
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+			if (!roundEnv.processingOver()) {
+				rounds.incrementAndGet();
+				
+				final int nowRunning = running.incrementAndGet();
+				
+				synchronized (maximumRunning) {
+					maximumRunning.set(Math.max(maximumRunning.get(), nowRunning));
+				}
+				
+				try {
+					Thread.sleep(50);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					running.decrementAndGet();
+				}
+			}
+			
+			return false;
+		}
+		
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return ImmutableSet.of("*");
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,79 @@
+package com.matthewtamlin.avatar.rules.avatar_rule.with_running;
+
+import com.matthewtamlin.avatar.rules.AvatarRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.Element;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestAvatarRuleAsClassRule {
+	@ClassRule
+	public static final AvatarRule rule = AvatarRule
+			.builder()
+			.withSourcesAt("src/test/java/com/matthewtamlin/avatar/rules/avatar_rule/with_running/Data.java")
+			.build();
+	
+	private static ProcessingEnvironment firstProcessingEnvironment;
+	
+	private static List<RoundEnvironment> firstRoundEnvironments;
+	
+	private static Element firstElement;
+	
+	@Test
+	public void testCompilationIsSharedBetweenMethods_firstMethod() {
+		checkCompilationIsShared();
+	}
+	
+	@Test
+	public void testCompilationIsSharedBetweenMethods_secondMethod() {
+		checkCompilationIsShared();
+	}
+	
+	@Test
+	public void testCompilationIsSharedBetweenMethods_thirdMethod() {
+		checkCompilationIsShared();
+	}
+	
+	@Test
+	public void testGetElementWithUniqueId_idMatchesOneElement() {
+		final Element element = rule.getElementWithUniqueId("ID1");
+		
+		assertThat("Element must not be null.", element, is(notNullValue()));
+		assertThat("Element must be methodB.", element.getSimpleName().toString(), is("methodB"));
+	}
+	
+	@Test
+	public void testUtilities_compilationTreeCanExpand() {
+		assertThat(
+				"Processing environment must remain usable.",
+				rule.getElementUtils().getTypeElement(Integer.class.getCanonicalName()),
+				is(notNullValue()));
+	}
+	
+	private static synchronized void checkCompilationIsShared() {
+		final ProcessingEnvironment processingEnvironment = rule.getProcessingEnvironment();
+		final List<RoundEnvironment> roundEnvironments = rule.getRoundEnvironments();
+		final Element element = rule.getElementWithUniqueId("ID1");
+		
+		if (firstProcessingEnvironment == null) {
+			firstProcessingEnvironment = processingEnvironment;
+			firstRoundEnvironments = roundEnvironments;
+			firstElement = element;
+		} else {
+			assertThat(processingEnvironment, is(sameInstance(firstProcessingEnvironment)));
+			assertThat(roundEnvironments, is(firstRoundEnvironments));
+			assertThat(element, is(sameInstance(firstElement)));
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package com.matthewtamlin.avatar.rules.avatar_rule.with_running;
+
+import com.google.testing.compile.JavaFileObjects;
+import com.matthewtamlin.avatar.rules.AvatarRule;
+import com.matthewtamlin.avatar.rules.FixtureLibraryRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestAvatarRuleWithFixtureLibrary {
+	static {
+		FixtureLibraryRegistry.getShared().register(
+				"avatar-rule-fixture-library",
+				JavaFileObjects.forSourceLines(
+						"fixturelibrary.Base",
+						"package fixturelibrary;",
+						"public abstract class Base {",
+						"  public abstract String name();",
+						"}"));
+	}
+	
+	@Rule
+	public final AvatarRule rule = AvatarRule
+			.builder()
+			.withFixtureLibrary("avatar-rule-fixture-library")
+			.withSourceFileObjects(JavaFileObjects.forSourceLines(
+					"fixture.Fixture",
+					"package fixture;",
+					"import com.matthewtamlin.avatar.rules.ElementId;",
+					"@ElementId(\"fixture\")",
+					"public class Fixture extends fixturelibrary.Base {",
+					"  @Override public String name() { return \"fixture\"; }",
+					"}"))
+			.build();
+	
+	@Test
+	public void testGetElementWithUniqueId_fixtureExtendsLibraryClass_superclassIsResolved() {
+		final TypeElement element = rule.getElementWithUniqueId("fixture");
+		
+		assertThat(element.getSuperclass().toString(), is("fixturelibrary.Base"));
+	}
+	
+	@Test
+	public void testGetElementUtils_libraryClassIsAvailable() {
+		assertThat(rule.getElementUtils().getTypeElement("fixturelibrary.Base"), is(notNullValue()));
+	}
+	
+	@Test
+	public void testGetRootElements_libraryClassIsNotRootElement() {
+		for (final Element element : rule.getRootElements()) {
+			assertThat(element.getSimpleName().toString().equals("Base"), is(false));
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testBuilder_withUnregisteredFixtureLibrary() {
+		AvatarRule.builder().withFixtureLibrary("unregistered-fixture-library");
+	}
+}
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.matthewtamlin.avatar.rules.avatar_rule.with_running;
 
+import com.matthewtamlin.avatar.compilation.CompilationTimings;
+import com.matthewtamlin.avatar.compilation.CompilePhase;
 import com.matthewtamlin.avatar.rules.AvatarRule;
 import com.matthewtamlin.avatar.rules.UniqueElementNotFoundException;
 import org.junit.Rule;
@@ -80,6 +82,15 @@ public class TestAvatarRuleWithGoodCode {
 				is(notNullValue()));
 	}
 	
+	@Test
+	public void testGetCompilationTimings_checkPhasesBeforeTestAreRecorded() {
+		final CompilationTimings timings = rule.getCompilationTimings();
+		
+		assertThat("Timings must not be null.", timings, is(notNullValue()));
+		assertThat("Parsing must be recorded.", timings.phase(CompilePhase.PARSE).eventCount(), is(1));
+		assertThat("Generation must not have started.", timings.phase(CompilePhase.GENERATE).eventCount(), is(0));
+	}
+	
 	@Test(expected = IllegalArgumentException.class)
 	public void testGetElementsWithId_nullId() {
 		rule.getElementsWithId(null);
@@ -1,5 +1,6 @@
 package com.matthewtamlin.avatar.rules.avatar_rule.without_running;
 
+import com.matthewtamlin.avatar.compilation.CompilePolicy;
 import com.matthewtamlin.avatar.rules.AvatarRule;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -52,6 +53,33 @@ public class TestAvatarRule {
 				.build();
 	}
 	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInstantiateViaBuilder_nullCompilePolicy() {
+		AvatarRule
+				.builder()
+				.withSourcesAt(DATA_FILE_PATH)
+				.withCompilePolicy(null)
+				.build();
+	}
+	
+	@Test
+	public void testInstantiateViaBuilder_compilePolicySet() {
+		AvatarRule
+				.builder()
+				.withSourcesAt(DATA_FILE_PATH)
+				.withCompilePolicy(CompilePolicy.PROCESSING_ONLY)
+				.build();
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInstantiateViaBuilder_nullFixtureLibrary() {
+		AvatarRule
+				.builder()
+				.withSourcesAt(DATA_FILE_PATH)
+				.withFixtureLibrary(null)
+				.build();
+	}
+	
 	
 	@Test(expected = IllegalArgumentException.class)
 	public void testInstantiateViaBuilder_sourcesSetUsingWithSourceFileObjects_nullIterable() {
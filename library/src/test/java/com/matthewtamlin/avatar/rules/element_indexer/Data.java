@@ -0,0 +1,19 @@
+package com.matthewtamlin.avatar.rules.element_indexer;
+
+import com.matthewtamlin.avatar.rules.ElementId;
+
+@InheritedAnnotation
+@ElementId("parent")
+public class Data {
+	@ElementId("method")
+	public <T> void method(@ElementId("parameter") final T parameter) {}
+	
+	@ElementId("nested")
+	public static class Nested extends Data {
+		@Deprecated
+		@ElementId("field")
+		Object field;
+	}
+}
+
+class Child extends Data {}
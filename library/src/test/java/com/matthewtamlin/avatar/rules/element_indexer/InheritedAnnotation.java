@@ -0,0 +1,9 @@
+package com.matthewtamlin.avatar.rules.element_indexer;
+
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+public @interface InheritedAnnotation {}
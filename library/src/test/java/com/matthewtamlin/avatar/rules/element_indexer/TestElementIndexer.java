@@ -0,0 +1,128 @@
+package com.matthewtamlin.avatar.rules.element_indexer;
+
+import com.google.testing.compile.JavaFileObjects;
+import com.matthewtamlin.avatar.compilation.CompilationResult;
+import com.matthewtamlin.avatar.compilation.CompilerUtil;
+import com.matthewtamlin.avatar.rules.AvatarRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import java.io.File;
+import java.lang.annotation.Annotation;
+import java.net.MalformedURLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestElementIndexer {
+	private static final String DATA_FILE_PATH =
+			"src/test/java/com/matthewtamlin/avatar/rules/element_indexer/Data.java";
+	
+	@Rule
+	public final AvatarRule rule = AvatarRule
+			.builder()
+			.withSourcesAt(DATA_FILE_PATH)
+			.build();
+	
+	@Test
+	public void testIndex_elementsMatchRoundEnvironment() throws MalformedURLException {
+		final ExpectationProcessor processor = new ExpectationProcessor();
+		
+		final CompilationResult result = CompilerUtil.compileUsingProcessor(
+				processor,
+				JavaFileObjects.forResource(new File(DATA_FILE_PATH).toURI().toURL()));
+		
+		assertThat(result.success(), is(true));
+		
+		for (final String annotationName : processor.expectedElementsByAnnotationName.keySet()) {
+			assertThat(
+					"Elements for " + annotationName,
+					namesOf(rule.getElementsWithAnnotation(loadAnnotation(annotationName))),
+					is(processor.expectedElementsByAnnotationName.get(annotationName)));
+		}
+	}
+	
+	@Test
+	public void testIndex_inheritedAnnotationIsIndexed() {
+		final Set<String> names = namesOf(rule.getElementsWithAnnotation(InheritedAnnotation.class));
+		
+		assertThat(names.contains("Data"), is(true));
+		assertThat(names.contains("Nested"), is(true));
+		assertThat(names.contains("Child"), is(true));
+	}
+	
+	@Test
+	public void testIndex_idsAreReadFromAllElementKinds() {
+		assertThat(rule.getElementWithUniqueId("parent").getSimpleName().toString(), is("Data"));
+		assertThat(rule.getElementWithUniqueId("method").getSimpleName().toString(), is("method"));
+		assertThat(rule.getElementWithUniqueId("parameter").getSimpleName().toString(), is("parameter"));
+		assertThat(rule.getElementWithUniqueId("nested").getSimpleName().toString(), is("Nested"));
+		assertThat(rule.getElementWithUniqueId("field").getSimpleName().toString(), is("field"));
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Class<? extends Annotation> loadAnnotation(final String name) {
+		try {
+			return (Class<? extends Annotation>) Class.forName(name);
+		} catch (final ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static Set<String> namesOf(final Set<? extends Element> elements) {
+		final Set<String> names = new HashSet<>();
+		
+		for (final Element element : elements) {
+			names.add(element.getSimpleName().toString());
+		}
+		
+		return names;
+	}
+	
+	/**
+	 * Records the elements returned by the round environment for each annotation, for comparison with the index.
+	 */
+	private static class ExpectationProcessor extends AbstractProcessor {
+		private final Map<String, Set<String>> expectedElementsByAnnotationName = new HashMap<>();
+		
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			final Set<String> types = new HashSet<>();
+			types.add("*");
+			
+			return types;
+		}
+		
+		@Override
+		public SourceVersion getSupportedSourceVersion() {
+			return SourceVersion.latestSupported();
+		}
+		
+		@Override
+		public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+			for (final TypeElement annotation : annotations) {
+				final String name = annotation.getQualifiedName().toString();
+				
+				if (!expectedElementsByAnnotationName.containsKey(name)) {
+					expectedElementsByAnnotationName.put(name, new HashSet<String>());
+				}
+				
+				expectedElementsByAnnotationName.get(name).addAll(namesOf(roundEnv.getElementsAnnotatedWith(annotation)));
+			}
+			
+			return false;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.matthewtamlin.avatar.rules.fixture_library_registry;
+
+import com.google.testing.compile.JavaFileObjects;
+import com.matthewtamlin.avatar.compilation.CompilationResult;
+import com.matthewtamlin.avatar.rules.FixtureLibraryRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.tools.JavaFileObject;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class TestFixtureLibraryRegistry {
+	private FixtureLibraryRegistry registry;
+	
+	private JavaFileObject baseSource;
+	
+	@Before
+	public void setup() {
+		registry = new FixtureLibraryRegistry();
+		
+		baseSource = JavaFileObjects.forSourceLines(
+				"library.Base",
+				"package library;",
+				"public class Base {}");
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testRegister_nullName() {
+		registry.register(null, baseSource);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testRegister_nullSources() {
+		registry.register("library", (List<JavaFileObject>) null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testRegister_sourcesContainingNull() {
+		registry.register("library", baseSource, null);
+	}
+	
+	@Test
+	public void testRegister_sameSourcesTwice_libraryIsRegistered() {
+		registry.register("library", baseSource);
+		registry.register("library", baseSource);
+		
+		assertThat(registry.isRegistered("library"), is(true));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testRegister_differentSourcesUnderSameName() {
+		registry.register("library", baseSource);
+		registry.register("library", JavaFileObjects.forSourceLines("library.Other", "package library;", "class Other {}"));
+	}
+	
+	@Test
+	public void testIsRegistered_unregisteredName_returnsFalse() {
+		assertThat(registry.isRegistered("library"), is(false));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetCompiledLibrary_unregisteredName() {
+		registry.getCompiledLibrary("library");
+	}
+	
+	@Test
+	public void testGetCompiledLibrary_calledTwice_libraryIsCompiledOnce() {
+		registry.register("library", baseSource);
+		
+		final CompilationResult first = registry.getCompiledLibrary("library");
+		final CompilationResult second = registry.getCompiledLibrary("library");
+		
+		assertThat(first.success(), is(true));
+		assertThat(first.generatedFileIndex().getGeneratedClass("library.Base"), is(notNullValue()));
+		assertThat(second, is(sameInstance(first)));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testGetCompiledLibrary_libraryDoesNotCompile() {
+		registry.register("library", JavaFileObjects.forSourceLines(
+				"library.Broken",
+				"package library;",
+				"public class Broken extends Missing {}"));
+		
+		registry.getCompiledLibrary("library");
+	}
+}
\ No newline at end of file